@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.util.Collection;
+import java.util.Locale;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler and adds a summary per item: for those with a <code>rows</code> or
+ * <code>batchSize</code> parameter, the number of items in one operation, it gives items per second and bytes
+ * allocated per item. Where a benchmark also counts <code>relationships</code>, it gives the bytes allocated per
+ * relationship too. Takes the usual JMH command line arguments, e.g. a regular expression selecting the benchmarks or
+ * <code>-p rows=1000000</code>.
+ * 
+ * @author jejking
+ */
+public final class BenchmarkRunner {
+
+    private static final String[] ITEMS_PER_OPERATION = { "rows", "batchSize" };
+
+    private BenchmarkRunner() {
+        // main only
+    }
+
+    /**
+     * @param args
+     *            JMH command line arguments
+     * @throws RunnerException
+     *             if the benchmarks fail
+     * @throws CommandLineOptionException
+     *             on unknown arguments
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-72s %14s %14s %18s", "Benchmark", "items/s", "bytes/item",
+                "bytes/relationship"));
+        for (RunResult result : results) {
+            String items = itemsPerOperation(result);
+            if (items == null) {
+                continue;
+            }
+            double itemsPerOperation = Double.parseDouble(items);
+            double operationsPerSecond = result.getPrimaryResult().getScore();
+            double bytesPerOperation = score(result, "gc.alloc.rate.norm");
+            double relationshipsPerSecond = score(result, "relationships");
+            System.out.println(String.format(Locale.ROOT, "%-72s %14.0f %14.1f %18.1f", describe(result),
+                    operationsPerSecond * itemsPerOperation, bytesPerOperation / itemsPerOperation,
+                    bytesPerOperation * operationsPerSecond / relationshipsPerSecond));
+        }
+    }
+
+    private static String itemsPerOperation(RunResult result) {
+        for (String key : ITEMS_PER_OPERATION) {
+            String value = result.getParams().getParam(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static double score(RunResult result, String label) {
+        Result<?> secondary = result.getSecondaryResults().get(label);
+        return secondary == null ? Double.NaN : secondary.getScore();
+    }
+
+    private static String describe(RunResult result) {
+        StringBuilder description = new StringBuilder(result.getParams().getBenchmark()
+                .replaceFirst(".*\\.(\\w+\\.\\w+)$", "$1"));
+        for (String key : result.getParams().getParamsKeys()) {
+            description.append(' ').append(key).append('=').append(result.getParams().getParam(key));
+        }
+        return description.toString();
+    }
+
+}
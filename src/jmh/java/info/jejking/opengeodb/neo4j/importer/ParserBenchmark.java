@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import info.jejking.opengeodb.neo4j.importer.PlaceParser.PlaceBean;
+import info.jejking.opengeodb.neo4j.importer.PlzParser.PlzTabBean;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast {@link PlaceParser} and {@link PlzParser} turn in-memory input into beans, with either
+ * {@link TabParserEngine}. One operation parses a whole input of {@link #rows} lines, so the score times the number of
+ * rows gives rows per second, which {@link BenchmarkRunner} reports together with the bytes allocated per row.
+ * 
+ * <p>
+ * The warnings for broken lines are switched off, so that the numbers reflect parsing rather than console output.
+ * </p>
+ * 
+ * @author jejking
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+
+    private static final long SEED = 20131208L;
+
+    @Param({ "10000", "100000" })
+    public int rows;
+
+    @Param({ "0", "0.01" })
+    public double badLineRatio;
+
+    @Param({ "DIRECT", "SUPER_CSV" })
+    public TabParserEngine engine;
+
+    private byte[] placeData;
+    private byte[] plzData;
+    private PlaceParser placeParser;
+    private PlzParser plzParser;
+    private Logger packageLogger;
+
+    @Setup
+    public void setUp() {
+        packageLogger = Logger.getLogger(ParserBenchmark.class.getPackage().getName());
+        packageLogger.setLevel(Level.SEVERE);
+        placeData = SyntheticTabData.places(rows, badLineRatio, SEED);
+        plzData = SyntheticTabData.postalCodes(rows, badLineRatio, SEED);
+        placeParser = new PlaceParser(engine);
+        plzParser = new PlzParser(engine);
+    }
+
+    @Benchmark
+    public List<PlaceBean> placeParser() throws IOException {
+        return placeParser.readDataFromStream(new ByteArrayInputStream(placeData));
+    }
+
+    @Benchmark
+    public List<PlzTabBean> plzParser() throws IOException {
+        return plzParser.readDataFromStream(new ByteArrayInputStream(plzData));
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates tab-separated place and postal code data shaped like the OpenGeoDB exports in
+ * <code>src/test/resources</code>: a header line, a mix of place types and levels with umlauts in the names, mostly
+ * short postal code lists with the occasional city holding dozens, and empty optional columns. A share of the lines can
+ * be broken, alternating between too few columns and a non-numeric id. The output only depends on the arguments.
+ * 
+ * @author jejking
+ */
+final class SyntheticTabData {
+
+    private static final String PLACE_HEADER = "#loc_id\tags\tascii\tname\tlat\tlon\tamt\tplz\tvorwahl\teinwohner"
+            + "\tflaeche\tkz\ttyp\tlevel\tof\tinvalid\n";
+
+    private static final String[] TYPES = { "Stadtteil", "Gemeinde", "Stadt", "Ortsteil", "Bezirk", "Landkreis" };
+    private static final int[] LEVELS = { 8, 6, 6, 8, 7, 5 };
+    private static final String[] NAMES = { "Barmbek-Süd", "Uhlenhorst", "Großröhrsdorf", "Weißenfels", "Hamburg-Nord",
+            "Überlingen", "Köln", "Oberammergau", "Münster", "Dresden" };
+
+    private SyntheticTabData() {
+        // static helpers only
+    }
+
+    /**
+     * @param rows
+     *            number of data lines, not counting the header
+     * @param badLineRatio
+     *            share of the data lines which cannot be parsed, between 0 and 1
+     * @param seed
+     *            seed of the random numbers
+     * @return UTF-8 encoded place data, with a header line
+     */
+    static byte[] places(int rows, double badLineRatio, long seed) {
+        Random random = new Random(seed);
+        StringBuilder data = new StringBuilder(rows * 120).append(PLACE_HEADER);
+        for (int row = 0; row < rows; row++) {
+            int id = 100 + row;
+            if (random.nextDouble() < badLineRatio) {
+                appendBadLine(data, id, row);
+                continue;
+            }
+            int type = random.nextInt(TYPES.length);
+            String name = NAMES[random.nextInt(NAMES.length)] + " " + row;
+            data.append(id).append('\t').append(String.format(Locale.ROOT, "%08d", random.nextInt(17000000)))
+                    .append('\t').append(name.toUpperCase(Locale.ROOT).replace("Ü", "UE").replace("Ö", "OE"))
+                    .append('\t').append(name)
+                    .append('\t').append(String.format(Locale.ROOT, "%.5f", 47.3 + random.nextDouble() * 7.7))
+                    .append('\t').append(String.format(Locale.ROOT, "%.5f", 5.9 + random.nextDouble() * 9.1))
+                    .append("\t\t");
+            appendPostalCodes(data, random);
+            data.append('\t');
+            boolean municipality = LEVELS[type] == 6;
+            if (municipality) {
+                data.append('0').append(30 + random.nextInt(9970)).append('\t')
+                        .append(random.nextInt(500000)).append('\t')
+                        .append(String.format(Locale.ROOT, "%.2f", random.nextDouble() * 300));
+            } else {
+                data.append("\t\t");
+            }
+            data.append("\tHH\t").append(TYPES[type]).append('\t').append(LEVELS[type]).append('\t')
+                    .append(row == 0 ? 105 : 100 + random.nextInt(row)).append("\t\n");
+        }
+        return data.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param rows
+     *            number of data lines
+     * @param badLineRatio
+     *            share of the lines which cannot be parsed, between 0 and 1
+     * @param seed
+     *            seed of the random numbers
+     * @return UTF-8 encoded postal code data, without a header line as in the export
+     */
+    static byte[] postalCodes(int rows, double badLineRatio, long seed) {
+        Random random = new Random(seed);
+        StringBuilder data = new StringBuilder(rows * 60);
+        for (int row = 0; row < rows; row++) {
+            int id = 5000 + row;
+            if (random.nextDouble() < badLineRatio) {
+                appendBadLine(data, id, row);
+                continue;
+            }
+            data.append(id).append('\t').append(String.format(Locale.ROOT, "%05d", 1067 + row % 98000)).append('\t')
+                    .append(5.9 + random.nextDouble() * 9.1).append('\t').append(47.3 + random.nextDouble() * 7.7)
+                    .append('\t').append(NAMES[random.nextInt(NAMES.length)]).append('\n');
+        }
+        return data.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void appendPostalCodes(StringBuilder data, Random random) {
+        int count;
+        int dice = random.nextInt(100);
+        if (dice == 0) {
+            count = 40 + random.nextInt(60);
+        } else if (dice < 20) {
+            count = 0;
+        } else {
+            count = 1 + random.nextInt(4);
+        }
+        int code = 1067 + random.nextInt(98000);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                data.append(',');
+            }
+            data.append(String.format(Locale.ROOT, "%05d", Math.min(99998, code + 2 * i)));
+        }
+    }
+
+    private static void appendBadLine(StringBuilder data, int id, int row) {
+        if (row % 2 == 0) {
+            data.append(id).append("\tthis line is broken\n");
+        } else {
+            data.append('x').append(id).append("\t\t\t\t\t\t\t\t\t\t\t\t\t\t\t\n");
+        }
+    }
+
+}
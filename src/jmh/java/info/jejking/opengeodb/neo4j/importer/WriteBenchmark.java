@@ -0,0 +1,195 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static info.jejking.opengeodb.neo4j.importer.SchemaCreator.createSchema;
+import info.jejking.opengeodb.neo4j.importer.PlaceParser.PlaceBean;
+import info.jejking.opengeodb.neo4j.importer.PlzParser.PlzTabBean;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.kernel.impl.util.FileUtils;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the transactional write paths - {@link PlaceNodeMapper#createPlaceNode(GraphDatabaseService, PlaceBean)},
+ * {@link PlzNodeMapper#createPlzNode(GraphDatabaseService, PlzTabBean)} and
+ * {@link PlaceRelationshipBuilder#buildRelationshipsForPlace(GraphDatabaseService, IntLongHashMap,
+ * PostalCodeNodeIndex, PlaceBean)} - against an impermanent or an on-disk store with the import schema, as set up by
+ * <code>AbstractGraphDbTest</code> and {@link Importer} respectively.
+ * 
+ * <p>
+ * One operation is one committed transaction of {@link #batchSize} nodes or places, so {@link BenchmarkRunner} reports
+ * per node or place. The relationship benchmark also counts the relationships it creates, from which the runner derives
+ * the bytes allocated per relationship. It links the same places over and over, so their nodes gain ever more
+ * relationships during a run.
+ * </p>
+ * 
+ * @author jejking
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WriteBenchmark {
+
+    private static final long SEED = 20131208L;
+    private static final int PLACES = 20000;
+
+    @Param({ "impermanent", "disk" })
+    public String store;
+
+    @Param({ "1", "100", "10000" })
+    public int batchSize;
+
+    private File storeDir;
+    private GraphDatabaseService graphDb;
+    private List<PlaceBean> places;
+    private List<PlzTabBean> postalCodes;
+    private IntLongHashMap placeNodeIds;
+    private PostalCodeNodeIndex plzNodeIds;
+    private int nextPlace;
+    private int nextPostalCode;
+
+    private final PlaceNodeMapper placeNodeMapper = new PlaceNodeMapper();
+    private final PlzNodeMapper plzNodeMapper = new PlzNodeMapper();
+    private final PlaceRelationshipBuilder relationshipBuilder = new PlaceRelationshipBuilder();
+
+    /**
+     * Relationships created, reported by JMH as a rate.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class RelationshipCounter {
+
+        public long relationships;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            relationships = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Logger.getLogger(WriteBenchmark.class.getPackage().getName()).setLevel(java.util.logging.Level.WARNING);
+        if ("disk".equals(store)) {
+            storeDir = Files.createTempDirectory("write-benchmark").toFile();
+            graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(storeDir.getPath());
+        } else {
+            graphDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        }
+        createSchema(graphDb);
+        SchemaCreator.awaitIndexesOnline(graphDb, 1, TimeUnit.MINUTES);
+
+        places = new PlaceParser().readDataFromStream(new ByteArrayInputStream(SyntheticTabData.places(PLACES, 0,
+                SEED)));
+        postalCodes = new PlzParser().readDataFromStream(new ByteArrayInputStream(SyntheticTabData.postalCodes(
+                PLACES, 0, SEED)));
+        givenNodesToLink();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        graphDb.shutdown();
+        if (storeDir != null) {
+            FileUtils.deleteRecursively(storeDir);
+        }
+    }
+
+    @Benchmark
+    public void createPlaceNodes() {
+        try (Transaction tx = graphDb.beginTx()) {
+            for (int i = 0; i < batchSize; i++) {
+                placeNodeMapper.createPlaceNode(graphDb, places.get(nextPlace()));
+            }
+            tx.success();
+        }
+    }
+
+    @Benchmark
+    public void createPlzNodes() {
+        try (Transaction tx = graphDb.beginTx()) {
+            for (int i = 0; i < batchSize; i++) {
+                plzNodeMapper.createPlzNode(graphDb, postalCodes.get(nextPostalCode()));
+            }
+            tx.success();
+        }
+    }
+
+    @Benchmark
+    public void buildRelationships(RelationshipCounter counter) {
+        try (Transaction tx = graphDb.beginTx()) {
+            for (int i = 0; i < batchSize; i++) {
+                counter.relationships += relationshipBuilder.buildRelationshipsForPlace(graphDb, placeNodeIds,
+                        plzNodeIds, places.get(nextPlace()));
+            }
+            tx.success();
+        }
+    }
+
+    private void givenNodesToLink() {
+        placeNodeIds = new IntLongHashMap();
+        plzNodeIds = new PostalCodeNodeIndex();
+        try (BatchCommitter committer = new BatchCommitter(graphDb, Importer.DEFAULT_BATCH_SIZE, "benchmark setup")) {
+            for (PlaceBean place : places) {
+                placeNodeIds.put(place.getId(), placeNodeMapper.createPlaceNode(graphDb, place).getId());
+                committer.add(1);
+            }
+            for (PlzTabBean postalCode : postalCodes) {
+                plzNodeIds.put(postalCode.getPlz(), plzNodeMapper.createPlzNode(graphDb, postalCode).getId());
+                committer.add(1);
+            }
+            committer.success();
+        }
+    }
+
+    private int nextPlace() {
+        nextPlace = nextPlace + 1 == places.size() ? 0 : nextPlace + 1;
+        return nextPlace;
+    }
+
+    private int nextPostalCode() {
+        nextPostalCode = nextPostalCode + 1 == postalCodes.size() ? 0 : nextPostalCode + 1;
+        return nextPostalCode;
+    }
+
+}
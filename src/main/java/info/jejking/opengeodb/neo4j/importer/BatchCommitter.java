@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Keeps a transaction open on behalf of a phase of the import and commits it every time a given number of operations
+ * has been recorded, starting a new one straight away. This keeps the Neo4j transaction state, and so the heap
+ * needed, bounded by the batch size rather than by the size of the input.
+ * 
+ * <p>
+ * The time taken by each commit is recorded. Each commit is logged at {@link Level#FINE} and a summary of the commit
+ * latencies is logged at {@link Level#INFO} on {@link #close()}. If the phase fails, only the operations since the
+ * last commit are rolled back. If a commit itself fails, its exception is passed on and the committer takes no further
+ * operations.
+ * </p>
+ * 
+ * @author jejking
+ */
+class BatchCommitter implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(BatchCommitter.class.getName());
+
+    private final GraphDatabaseService graphDb;
+    private final int batchSize;
+    private final String phase;
+
+    private Transaction tx;
+    private int pendingOperations;
+    private long totalOperations;
+    private long[] commitNanos = new long[16];
+    private int commits;
+    private boolean success;
+
+    /**
+     * Constructor. Begins the first transaction.
+     * 
+     * @param graphDb
+     *            the graph db service
+     * @param batchSize
+     *            number of operations after which to commit
+     * @param phase
+     *            name of the phase, for logging
+     */
+    public BatchCommitter(GraphDatabaseService graphDb, int batchSize, String phase) {
+        super();
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least one, got " + batchSize);
+        }
+        this.graphDb = graphDb;
+        this.batchSize = batchSize;
+        this.phase = phase;
+        this.tx = graphDb.beginTx();
+    }
+
+    /**
+     * Records operations done in the current transaction, committing it if the batch is full.
+     * 
+     * @param operations
+     *            number of operations, such as nodes or relationships created
+     */
+    public void add(int operations) {
+        if (tx == null) {
+            throw new IllegalStateException("A commit of " + phase + " has failed, no further operations allowed");
+        }
+        pendingOperations += operations;
+        totalOperations += operations;
+        if (pendingOperations >= batchSize) {
+            commit();
+            tx = graphDb.beginTx();
+        }
+    }
+
+    /**
+     * Marks the phase as successful, so that {@link #close()} commits the final batch.
+     */
+    public void success() {
+        this.success = true;
+    }
+
+    /**
+     * Commits the final batch if {@link #success()} has been called, rolls it back otherwise, and logs the commit
+     * latencies.
+     */
+    @Override
+    public void close() {
+        try {
+            if (tx == null) {
+                return;
+            }
+            if (success) {
+                commit();
+            } else {
+                try {
+                    tx.close();
+                } finally {
+                    tx = null;
+                }
+            }
+        } finally {
+            logSummary();
+        }
+    }
+
+    /**
+     * @return number of operations recorded so far
+     */
+    public long getTotalOperations() {
+        return totalOperations;
+    }
+
+    /**
+     * @return the time taken by each commit so far, in nanoseconds
+     */
+    public long[] getCommitLatencies() {
+        return Arrays.copyOf(commitNanos, commits);
+    }
+
+    private void commit() {
+        long start = System.nanoTime();
+        // a transaction which failed to commit is finished either way, so it must not be used again
+        try {
+            tx.success();
+            tx.close();
+        } finally {
+            tx = null;
+        }
+        long elapsed = System.nanoTime() - start;
+        if (commits == commitNanos.length) {
+            commitNanos = Arrays.copyOf(commitNanos, commits * 2);
+        }
+        commitNanos[commits++] = elapsed;
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(String.format(Locale.ROOT, "%s: committed batch %d of %d operations in %.1f ms", phase, commits,
+                    pendingOperations, elapsed / 1e6d));
+        }
+        pendingOperations = 0;
+    }
+
+    private void logSummary() {
+        if (commits == 0) {
+            return;
+        }
+        long[] sorted = getCommitLatencies();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long nanos : sorted) {
+            total += nanos;
+        }
+        LOGGER.info(String.format(Locale.ROOT, "%s: %d operations in %d commits, commit latency ms min %.1f / mean "
+                + "%.1f / p50 %.1f / p99 %.1f / max %.1f", phase, totalOperations, commits, toMillis(sorted[0]),
+                toMillis(total / commits), toMillis(percentile(sorted, 50)), toMillis(percentile(sorted, 99)),
+                toMillis(sorted[commits - 1])));
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100d * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+}
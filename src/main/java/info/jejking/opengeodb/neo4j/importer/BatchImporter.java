@@ -0,0 +1,268 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static info.jejking.opengeodb.neo4j.importer.SchemaCreator.createSchema;
+import info.jejking.opengeodb.neo4j.importer.PlzParser.PlzTabBean;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+
+/**
+ * Offline alternative to {@link Importer} which writes the store directly through a Neo4j {@link BatchInserter},
+ * bypassing transactions altogether. Each node is created with its full property map in one call and relationships
+ * are created between node ids. The indexes are declared up front and populated in one go when the inserter shuts
+ * down.
+ * 
+ * <p>
+ * The batch inserter is not thread safe and must have exclusive access to the store directory, which should be empty
+ * or not yet exist.
+ * </p>
+ * 
+ * @author jejking
+ */
+public class BatchImporter {
+
+    private static final Logger LOGGER = Logger.getLogger(BatchImporter.class.getName());
+
+    private int parseThreads = 1;
+    private String snapshotFile;
+    private Set<PlaceColumn> placeColumns = PlaceColumn.ALL;
+    private PlaceFilter placeFilter;
+    private String geocoderFile;
+    private double nearRadiusKm;
+    private double neighbourDistanceKm;
+
+    /**
+     * Sets the number of threads with which to parse the place file, as for {@link Importer#setParseThreads(int)}.
+     * 
+     * @param parseThreads
+     *            number of parser threads, at least one
+     */
+    public void setParseThreads(int parseThreads) {
+        if (parseThreads < 1) {
+            throw new IllegalArgumentException("Need at least one parser thread, got " + parseThreads);
+        }
+        this.parseThreads = parseThreads;
+    }
+
+    /**
+     * Sets a file in which to keep a snapshot of the parsed files, as for {@link Importer#setSnapshotFile(String)}.
+     * 
+     * @param snapshotFile
+     *            path of the snapshot file, or <code>null</code> for none
+     */
+    public void setSnapshotFile(String snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * Restricts the import of places to a projection of the columns, as for {@link Importer#setPlaceColumns(Set)}.
+     * 
+     * @param placeColumns
+     *            the columns to import, the id always being imported
+     */
+    public void setPlaceColumns(Set<PlaceColumn> placeColumns) {
+        this.placeColumns = placeColumns;
+    }
+
+    /**
+     * Restricts the import to the places a filter selects, as for {@link Importer#setPlaceFilter(PlaceFilter)}.
+     * 
+     * @param placeFilter
+     *            the filter, or <code>null</code> to import all places
+     */
+    public void setPlaceFilter(PlaceFilter placeFilter) {
+        this.placeFilter = placeFilter;
+    }
+
+    /**
+     * Sets a file to which to write a reverse geocoder, as for {@link Importer#setGeocoderFile(String)}.
+     * 
+     * @param geocoderFile
+     *            path of the file, or <code>null</code> for none
+     */
+    public void setGeocoderFile(String geocoderFile) {
+        this.geocoderFile = geocoderFile;
+    }
+
+    /**
+     * Sets the distance up to which postal codes are linked, as for {@link Importer#setNearRadiusKm(double)}.
+     * 
+     * @param nearRadiusKm
+     *            distance in kilometres, or zero for none
+     */
+    public void setNearRadiusKm(double nearRadiusKm) {
+        if (!(nearRadiusKm >= 0)) {
+            throw new IllegalArgumentException("Near radius must not be negative, got " + nearRadiusKm);
+        }
+        this.nearRadiusKm = nearRadiusKm;
+    }
+
+    /**
+     * Sets the distance up to which neighbouring places are linked, as for
+     * {@link Importer#setNeighbourDistanceKm(double)}.
+     * 
+     * @param neighbourDistanceKm
+     *            distance in kilometres, or zero for none
+     */
+    public void setNeighbourDistanceKm(double neighbourDistanceKm) {
+        if (!(neighbourDistanceKm >= 0)) {
+            throw new IllegalArgumentException("Neighbour distance must not be negative, got " + neighbourDistanceKm);
+        }
+        this.neighbourDistanceKm = neighbourDistanceKm;
+    }
+
+    /**
+     * Parses the files and writes nodes and relationships for their contents to a new store.
+     * 
+     * @param placeFile
+     *            path to file with tab-delimited place data
+     * @param plzFile
+     *            path to file with tab-delimited postal code data
+     * @param dbDir
+     *            directory in which to create the Neo4J graph database
+     * @throws IOException
+     *             on io problems
+     */
+    public void doImport(String placeFile, String plzFile, String dbDir) throws IOException {
+        LOGGER.info("Starting batch import");
+
+        OpenGeoDbFiles files = new OpenGeoDbFiles(placeFile, plzFile, parseThreads);
+        files.setPlaceColumns(placeColumns);
+        files.setPlaceFilter(placeFilter);
+        if (snapshotFile != null) {
+            files.setSnapshotFile(Paths.get(snapshotFile));
+        }
+        BatchInserter inserter = BatchInserters.inserter(dbDir);
+        try {
+            createSchema(inserter);
+
+            IntLongHashMap placeNodeIds = createPlaceNodes(inserter, files);
+            LOGGER.info("Created place nodes");
+
+            PostalCodeNodeIndex plzNodeIds = createPlzNodes(inserter, files);
+            LOGGER.info("Created plz nodes");
+            if (plzNodeIds.getRejectedCount() > 0) {
+                LOGGER.warning(plzNodeIds.getRejectedCount()
+                        + " postal codes were not five digits, their nodes are not linked");
+            }
+
+            createRelationships(inserter, files, placeNodeIds, plzNodeIds);
+            LOGGER.info("Created relationships");
+
+            if (nearRadiusKm > 0) {
+                createNearRelationships(inserter, files, plzNodeIds);
+                LOGGER.info("Created near relationships");
+            }
+
+            if (neighbourDistanceKm > 0) {
+                createNeighbourRelationships(inserter, files, placeNodeIds);
+                LOGGER.info("Created neighbour relationships");
+            }
+
+            if (geocoderFile != null) {
+                ReverseGeocoder.fromFiles(files).write(Paths.get(geocoderFile));
+            }
+        } catch (DataReadException e) {
+            throw e.getCause();
+        } finally {
+            files.release();
+            inserter.shutdown();
+            LOGGER.info("Shut down batch inserter");
+        }
+
+        LOGGER.info("Done!");
+    }
+
+    private IntLongHashMap createPlaceNodes(BatchInserter inserter, OpenGeoDbFiles files) throws IOException {
+        PlaceNodeMapper placeNodeMapper = new PlaceNodeMapper(files.getPlaceColumns());
+        IntLongHashMap placeNodeIds = new IntLongHashMap();
+        try (CloseableIterator<? extends PlaceRecord> placeBeans = files.iteratePlaces()) {
+            while (placeBeans.hasNext()) {
+                PlaceRecord placeBean = placeBeans.next();
+                placeNodeIds.put(placeBean.getId(), placeNodeMapper.createPlaceNode(inserter, placeBean));
+            }
+        }
+        return placeNodeIds;
+    }
+
+    private PostalCodeNodeIndex createPlzNodes(BatchInserter inserter, OpenGeoDbFiles files) throws IOException {
+        PlzNodeMapper plzNodeMapper = new PlzNodeMapper();
+        PostalCodeNodeIndex plzNodeIds = new PostalCodeNodeIndex();
+        try (CloseableIterator<PlzTabBean> plzBeans = files.iteratePlz()) {
+            while (plzBeans.hasNext()) {
+                PlzTabBean plzBean = plzBeans.next();
+                plzNodeIds.put(plzBean.getPlz(), plzNodeMapper.createPlzNode(inserter, plzBean));
+            }
+        }
+        return plzNodeIds;
+    }
+
+    private void createRelationships(BatchInserter inserter, OpenGeoDbFiles files, IntLongHashMap placeNodeIds,
+            PostalCodeNodeIndex plzNodeIds) throws IOException {
+        PlaceRelationshipBuilder prb = new PlaceRelationshipBuilder();
+        try (CloseableIterator<? extends PlaceRecord> placeBeans = files.iteratePlaces()) {
+            while (placeBeans.hasNext()) {
+                prb.buildRelationshipsForPlace(inserter, placeNodeIds, plzNodeIds, placeBeans.next());
+            }
+        }
+    }
+
+    private void createNearRelationships(BatchInserter inserter, OpenGeoDbFiles files, PostalCodeNodeIndex plzNodeIds)
+            throws IOException {
+        NearRelationshipBuilder builder = new NearRelationshipBuilder(nearRadiusKm, Runtime.getRuntime()
+                .availableProcessors());
+        try (CloseableIterator<PlzTabBean> plzBeans = files.iteratePlz()) {
+            while (plzBeans.hasNext()) {
+                PlzTabBean plzBean = plzBeans.next();
+                String plz = plzBean.getPlz();
+                int postalCode = PostalCodeNodeIndex.parse(plz, 0, plz.length());
+                long nodeId = plzNodeIds.get(postalCode);
+                if (nodeId != PostalCodeNodeIndex.NOT_FOUND) {
+                    builder.add(postalCode, plzBean.getLatMicroDegrees(), plzBean.getLonMicroDegrees(), nodeId);
+                }
+            }
+        }
+        try {
+            builder.build(inserter);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while creating near relationships", e);
+        }
+    }
+
+    private void createNeighbourRelationships(BatchInserter inserter, OpenGeoDbFiles files,
+            IntLongHashMap placeNodeIds) throws IOException {
+        NeighbourRelationshipBuilder builder = new NeighbourRelationshipBuilder(neighbourDistanceKm);
+        try (CloseableIterator<? extends PlaceRecord> placeBeans = files.iteratePlaces()) {
+            while (placeBeans.hasNext()) {
+                PlaceRecord placeBean = placeBeans.next();
+                long nodeId = placeNodeIds.get(placeBean.getId());
+                if (nodeId != IntLongHashMap.NOT_FOUND) {
+                    builder.add(placeBean, nodeId);
+                }
+            }
+        }
+        builder.build(inserter);
+    }
+
+}
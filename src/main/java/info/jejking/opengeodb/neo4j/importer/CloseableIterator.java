@@ -0,0 +1,32 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * An {@link Iterator} over an underlying resource such as a stream. Callers should close the iterator if they stop
+ * consuming before it is exhausted. Implementations close the underlying resource themselves once the last element has
+ * been handed out.
+ *
+ * @author jejking
+ * @param <T>
+ *            the type of element
+ */
+public interface CloseableIterator<T> extends Iterator<T>, Closeable {
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.util.Iterator;
+
+/**
+ * Static helpers for {@link CloseableIterator}.
+ * 
+ * @author jejking
+ */
+final class CloseableIterators {
+
+    private CloseableIterators() {
+        // no instances
+    }
+
+    /**
+     * Adapts a plain iterator, for example over data already held in memory. Closing does nothing.
+     * 
+     * @param iterator
+     *            the iterator to adapt
+     * @return closeable iterator delegating to the given iterator
+     */
+    static <T> CloseableIterator<T> fromIterator(final Iterator<T> iterator) {
+        return new CloseableIterator<T>() {
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+            }
+
+            @Override
+            public void close() {
+                // nothing to release
+            }
+        };
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+/**
+ * Conversion of coordinates between degrees, as doubles, and the fixed-point micro-degrees, as ints, in which the
+ * parsed data holds them. A micro-degree is about 11 cm of latitude, finer than any coordinate in OpenGeoDB needs.
+ * 
+ * <p>
+ * The conversion to degrees divides by 10<sup>6</sup>, which gives the double nearest to the decimal value. A
+ * coordinate written with six decimal places or fewer, as the place file has them, therefore reads back as exactly the
+ * double it would have been parsed to. Coordinates with more places, as in the postal code file, are rounded half away
+ * from zero to the nearest micro-degree.
+ * </p>
+ * 
+ * @author jejking
+ */
+final class Coordinates {
+
+    /**
+     * Micro-degrees per degree.
+     */
+    static final int MICRO_DEGREES_PER_DEGREE = 1000000;
+
+    /**
+     * Number of decimal places of a coordinate in micro-degrees.
+     */
+    static final int DECIMAL_PLACES = 6;
+
+    /**
+     * Mean radius of the earth in kilometres, as used for great-circle distances.
+     */
+    static final double EARTH_RADIUS_KM = 6371.0088d;
+
+    private Coordinates() {
+        // static methods only
+    }
+
+    /**
+     * @param degrees
+     *            coordinate in degrees
+     * @return the coordinate in micro-degrees, rounded half away from zero
+     * @throws IllegalArgumentException
+     *             if the coordinate is out of the range of an int in micro-degrees
+     */
+    static int toMicroDegrees(double degrees) {
+        double microDegrees = degrees * MICRO_DEGREES_PER_DEGREE;
+        long rounded = microDegrees < 0 ? -Math.round(-microDegrees) : Math.round(microDegrees);
+        if (rounded < Integer.MIN_VALUE || rounded > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Coordinate out of range: " + degrees);
+        }
+        return (int) rounded;
+    }
+
+    /**
+     * @param microDegrees
+     *            coordinate in micro-degrees
+     * @return the coordinate in degrees
+     */
+    static double toDegrees(int microDegrees) {
+        return microDegrees / (double) MICRO_DEGREES_PER_DEGREE;
+    }
+
+    /**
+     * Gives the great-circle distance between two points by the haversine formula, which stays accurate for the short
+     * distances of a radius search.
+     * 
+     * @param lat1
+     *            latitude of the first point, in degrees
+     * @param lon1
+     *            longitude of the first point, in degrees
+     * @param lat2
+     *            latitude of the second point, in degrees
+     * @param lon2
+     *            longitude of the second point, in degrees
+     * @return distance in kilometres
+     */
+    static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double sinHalfDLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+        double sinHalfDLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        double a = sinHalfDLat * sinHalfDLat + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * sinHalfDLon * sinHalfDLon;
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * {@link InputStream} which counts the bytes read through it, so that another thread can follow how far a file has
+ * been consumed. Only the reading thread advances the count, which is published with an ordered write.
+ * 
+ * @author jejking
+ */
+class CountingInputStream extends FilterInputStream {
+
+    private static final AtomicLongFieldUpdater<CountingInputStream> COUNT = AtomicLongFieldUpdater.newUpdater(
+            CountingInputStream.class, "count");
+
+    private volatile long count;
+
+    /**
+     * Constructor.
+     * 
+     * @param in
+     *            the stream to count the bytes of
+     */
+    public CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * @return the number of bytes read or skipped so far
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            advance(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        int read = super.read(bytes, offset, length);
+        if (read > 0) {
+            advance(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        advance(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void advance(long bytes) {
+        COUNT.lazySet(this, count + bytes);
+    }
+
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Delaunay triangulation of points with integer coordinates, held in flat arrays: three vertices and three neighbours
+ * per triangle, the neighbour at position <code>i</code> lying across the edge opposite vertex <code>i</code>, and
+ * every triangle wound counter-clockwise.
+ * 
+ * <p>
+ * The points are inserted one by one into a triangle enclosing them all (Bowyer-Watson): the triangles whose
+ * circumcircle contains the new point are removed and the hole is filled with a fan of triangles around the point.
+ * The points are inserted in the order of a Hilbert curve, and the triangle containing each is found by walking from
+ * the triangle last created, so that the walks stay short and the whole triangulation takes time in
+ * <code>O(n log n)</code>, dominated by the sort. Both geometric predicates are evaluated in floating point and, where
+ * the result is too close to call, exactly, so that cocircular and collinear points as found in rounded coordinates do
+ * not corrupt the mesh. Repeated points are triangulated once, see {@link #getDuplicateOf(int)}.
+ * </p>
+ * 
+ * @author jejking
+ */
+final class DelaunayTriangulation {
+
+    // bits per axis of the Hilbert curve, so that the index of a point and its position fit into a positive long
+    private static final int HILBERT_ORDER = 15;
+
+    // relative error bounds of the floating point predicates, generously rounded up from those of Shewchuk
+    private static final double ORIENT_ERROR_BOUND = 1e-15;
+    private static final double IN_CIRCLE_ERROR_BOUND = 1e-14;
+
+    private final int pointCount;
+    // the points, followed by the three vertices of the enclosing triangle
+    private final long[] xs;
+    private final long[] ys;
+    private final int[] duplicateOf;
+
+    private int[] vertices;
+    private int[] neighbours;
+    private int triangleCount;
+    private int[] free = new int[16];
+    private int freeCount;
+    private int lastTriangle;
+
+    // scratch space of an insertion, reset by advancing the stamp
+    private int[] cavityStamps;
+    private int stamp;
+    private int[] stack = new int[16];
+    private int[] cavity = new int[16];
+    private int[] edgeStarts = new int[16];
+    private int[] edgeEnds = new int[16];
+    private int[] edgeOutside = new int[16];
+    private final int[] startingAt;
+    private final int[] endingAt;
+
+    /**
+     * Triangulates the points.
+     * 
+     * @param x
+     *            x coordinates of the points
+     * @param y
+     *            y coordinates of the points, as many as there are x coordinates
+     */
+    DelaunayTriangulation(int[] x, int[] y) {
+        if (x.length != y.length) {
+            throw new IllegalArgumentException("Got " + x.length + " x but " + y.length + " y coordinates");
+        }
+        this.pointCount = x.length;
+        this.xs = new long[pointCount + 3];
+        this.ys = new long[pointCount + 3];
+        this.duplicateOf = new int[pointCount];
+        Arrays.fill(duplicateOf, -1);
+        for (int i = 0; i < pointCount; i++) {
+            xs[i] = x[i];
+            ys[i] = y[i];
+        }
+        int capacity = 2 * pointCount + 8;
+        this.vertices = new int[3 * capacity];
+        this.neighbours = new int[3 * capacity];
+        this.cavityStamps = new int[capacity];
+        this.startingAt = new int[pointCount + 3];
+        this.endingAt = new int[pointCount + 3];
+        if (pointCount > 0) {
+            triangulate();
+        }
+    }
+
+    /**
+     * @return number of points
+     */
+    int size() {
+        return pointCount;
+    }
+
+    /**
+     * @param point
+     *            index of a point
+     * @return whether the point repeats an earlier one and so is not part of the triangulation
+     */
+    boolean isDuplicate(int point) {
+        return duplicateOf[point] >= 0;
+    }
+
+    /**
+     * @param point
+     *            index of a point
+     * @return index of the point in the triangulation which the point repeats, or -1 if it is not a duplicate
+     */
+    int getDuplicateOf(int point) {
+        return duplicateOf[point];
+    }
+
+    /**
+     * @return the edges between points, each packed as the lower index of its two points in the high and the higher in
+     *         the low 32 bits, in ascending order
+     */
+    long[] getEdges() {
+        long[] edges = new long[3 * triangleCount];
+        int count = 0;
+        for (int t = 0; t < triangleCount; t++) {
+            if (vertices[3 * t] < 0) {
+                continue;
+            }
+            for (int i = 0; i < 3; i++) {
+                int a = vertices[3 * t + (i + 1) % 3];
+                int b = vertices[3 * t + (i + 2) % 3];
+                // an edge between two triangles is wound one way in each, so take it from one of them only
+                if (a < b && b < pointCount) {
+                    edges[count++] = (long) a << 32 | b;
+                }
+            }
+        }
+        edges = Arrays.copyOf(edges, count);
+        Arrays.sort(edges);
+        return edges;
+    }
+
+    /**
+     * @return the triangles between points, three indexes of points each, counter-clockwise
+     */
+    int[] getTriangles() {
+        int[] triangles = new int[3 * triangleCount];
+        int count = 0;
+        for (int t = 0; t < triangleCount; t++) {
+            int a = vertices[3 * t];
+            if (a >= 0 && a < pointCount && vertices[3 * t + 1] < pointCount && vertices[3 * t + 2] < pointCount) {
+                System.arraycopy(vertices, 3 * t, triangles, count, 3);
+                count += 3;
+            }
+        }
+        return Arrays.copyOf(triangles, count);
+    }
+
+    private void triangulate() {
+        long minX = Long.MAX_VALUE;
+        long minY = Long.MAX_VALUE;
+        long maxX = Long.MIN_VALUE;
+        long maxY = Long.MIN_VALUE;
+        for (int i = 0; i < pointCount; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        // far out, so that its vertices lie outside the circumcircles of all but the thinnest triangles on the hull
+        long span = Math.max(1, Math.max(maxX - minX, maxY - minY));
+        long margin = 1000 * span;
+        int a = pointCount;
+        xs[a] = minX - margin;
+        ys[a] = minY - margin;
+        xs[a + 1] = maxX + 2 * margin + span;
+        ys[a + 1] = minY - margin;
+        xs[a + 2] = minX - margin;
+        ys[a + 2] = maxY + 2 * margin + span;
+        lastTriangle = newTriangle(a, a + 1, a + 2);
+        neighbours[0] = -1;
+        neighbours[1] = -1;
+        neighbours[2] = -1;
+
+        for (int point : hilbertOrder(minX, minY, span)) {
+            insert(point);
+        }
+    }
+
+    /**
+     * Sorts the points along a Hilbert curve over their bounding square, so that consecutive points lie close together.
+     */
+    private int[] hilbertOrder(long minX, long minY, long span) {
+        int cells = 1 << HILBERT_ORDER;
+        long[] keys = new long[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            int x = (int) ((xs[i] - minX) * (cells - 1) / span);
+            int y = (int) ((ys[i] - minY) * (cells - 1) / span);
+            keys[i] = hilbertIndex(cells, x, y) << 32 | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    private static long hilbertIndex(int cells, int x, int y) {
+        long index = 0;
+        for (int s = cells / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            index += (long) s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return index;
+    }
+
+    private void insert(int point) {
+        int containing = locate(point);
+        for (int i = 0; i < 3; i++) {
+            int vertex = vertices[3 * containing + i];
+            if (xs[vertex] == xs[point] && ys[vertex] == ys[point]) {
+                duplicateOf[point] = vertex;
+                return;
+            }
+        }
+
+        // the triangles whose circumcircle contains the point form a connected cavity around it
+        stamp++;
+        int cavitySize = 0;
+        int edgeCount = 0;
+        int stackSize = 0;
+        cavityStamps[containing] = stamp;
+        stack[stackSize++] = containing;
+        while (stackSize > 0) {
+            int t = stack[--stackSize];
+            cavity = ensureCapacity(cavity, cavitySize + 1);
+            cavity[cavitySize++] = t;
+            for (int i = 0; i < 3; i++) {
+                int neighbour = neighbours[3 * t + i];
+                if (neighbour >= 0 && cavityStamps[neighbour] == stamp) {
+                    continue;
+                }
+                if (neighbour >= 0 && inCircle(neighbour, point)) {
+                    cavityStamps[neighbour] = stamp;
+                    stack = ensureCapacity(stack, stackSize + 1);
+                    stack[stackSize++] = neighbour;
+                } else {
+                    edgeStarts = ensureCapacity(edgeStarts, edgeCount + 1);
+                    edgeEnds = ensureCapacity(edgeEnds, edgeCount + 1);
+                    edgeOutside = ensureCapacity(edgeOutside, edgeCount + 1);
+                    edgeStarts[edgeCount] = vertices[3 * t + (i + 1) % 3];
+                    edgeEnds[edgeCount] = vertices[3 * t + (i + 2) % 3];
+                    edgeOutside[edgeCount] = neighbour;
+                    edgeCount++;
+                }
+            }
+        }
+
+        for (int i = 0; i < cavitySize; i++) {
+            vertices[3 * cavity[i]] = -1;
+            free = ensureCapacity(free, freeCount + 1);
+            free[freeCount++] = cavity[i];
+        }
+
+        // fill the cavity with a fan around the point, one triangle on each edge of its boundary
+        for (int e = 0; e < edgeCount; e++) {
+            int a = edgeStarts[e];
+            int b = edgeEnds[e];
+            int t = newTriangle(a, b, point);
+            int outside = edgeOutside[e];
+            neighbours[3 * t + 2] = outside;
+            if (outside >= 0) {
+                for (int i = 0; i < 3; i++) {
+                    if (vertices[3 * outside + (i + 1) % 3] == b && vertices[3 * outside + (i + 2) % 3] == a) {
+                        neighbours[3 * outside + i] = t;
+                    }
+                }
+            }
+            startingAt[a] = t;
+            endingAt[b] = t;
+        }
+        // the boundary is a single cycle, so each of its vertices starts one edge and ends another
+        for (int e = 0; e < edgeCount; e++) {
+            int t = startingAt[edgeStarts[e]];
+            neighbours[3 * t] = startingAt[edgeEnds[e]];
+            neighbours[3 * t + 1] = endingAt[edgeStarts[e]];
+        }
+        lastTriangle = startingAt[edgeStarts[0]];
+    }
+
+    /**
+     * Walks from the last triangle created towards the point.
+     * 
+     * @return a triangle containing the point, possibly on its boundary
+     */
+    private int locate(int point) {
+        int t = lastTriangle;
+        walk: for (;;) {
+            for (int i = 0; i < 3; i++) {
+                int a = vertices[3 * t + (i + 1) % 3];
+                int b = vertices[3 * t + (i + 2) % 3];
+                if (orientation(a, b, point) < 0) {
+                    t = neighbours[3 * t + i];
+                    continue walk;
+                }
+            }
+            return t;
+        }
+    }
+
+    private int newTriangle(int a, int b, int c) {
+        int t;
+        if (freeCount > 0) {
+            t = free[--freeCount];
+        } else {
+            t = triangleCount++;
+            if (3 * triangleCount > vertices.length) {
+                vertices = Arrays.copyOf(vertices, vertices.length * 2);
+                neighbours = Arrays.copyOf(neighbours, neighbours.length * 2);
+                cavityStamps = Arrays.copyOf(cavityStamps, cavityStamps.length * 2);
+            }
+        }
+        vertices[3 * t] = a;
+        vertices[3 * t + 1] = b;
+        vertices[3 * t + 2] = c;
+        cavityStamps[t] = 0;
+        return t;
+    }
+
+    private static int[] ensureCapacity(int[] array, int capacity) {
+        return capacity <= array.length ? array : Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+    }
+
+    /**
+     * @return positive if the points wind counter-clockwise, negative if clockwise, zero if they are collinear
+     */
+    private int orientation(int a, int b, int c) {
+        long abx = xs[b] - xs[a];
+        long aby = ys[b] - ys[a];
+        long acx = xs[c] - xs[a];
+        long acy = ys[c] - ys[a];
+        double left = (double) abx * acy;
+        double right = (double) aby * acx;
+        double determinant = left - right;
+        if (Math.abs(determinant) > ORIENT_ERROR_BOUND * (Math.abs(left) + Math.abs(right))) {
+            return determinant > 0 ? 1 : -1;
+        }
+        return BigInteger.valueOf(abx).multiply(BigInteger.valueOf(acy))
+                .subtract(BigInteger.valueOf(aby).multiply(BigInteger.valueOf(acx))).signum();
+    }
+
+    /**
+     * @return whether the point lies strictly inside the circumcircle of the triangle
+     */
+    private boolean inCircle(int triangle, int point) {
+        int a = vertices[3 * triangle];
+        int b = vertices[3 * triangle + 1];
+        int c = vertices[3 * triangle + 2];
+        long adx = xs[a] - xs[point];
+        long ady = ys[a] - ys[point];
+        long bdx = xs[b] - xs[point];
+        long bdy = ys[b] - ys[point];
+        long cdx = xs[c] - xs[point];
+        long cdy = ys[c] - ys[point];
+
+        double alift = (double) adx * adx + (double) ady * ady;
+        double blift = (double) bdx * bdx + (double) bdy * bdy;
+        double clift = (double) cdx * cdx + (double) cdy * cdy;
+        double bc = (double) bdx * cdy - (double) cdx * bdy;
+        double ca = (double) cdx * ady - (double) adx * cdy;
+        double ab = (double) adx * bdy - (double) bdx * ady;
+        double determinant = alift * bc + blift * ca + clift * ab;
+        double permanent = alift * (Math.abs((double) bdx * cdy) + Math.abs((double) cdx * bdy)) + blift
+                * (Math.abs((double) cdx * ady) + Math.abs((double) adx * cdy)) + clift
+                * (Math.abs((double) adx * bdy) + Math.abs((double) bdx * ady));
+        if (Math.abs(determinant) > IN_CIRCLE_ERROR_BOUND * permanent) {
+            return determinant > 0;
+        }
+        return exactInCircle(adx, ady, bdx, bdy, cdx, cdy) > 0;
+    }
+
+    private static int exactInCircle(long adx, long ady, long bdx, long bdy, long cdx, long cdy) {
+        BigInteger ax = BigInteger.valueOf(adx);
+        BigInteger ay = BigInteger.valueOf(ady);
+        BigInteger bx = BigInteger.valueOf(bdx);
+        BigInteger by = BigInteger.valueOf(bdy);
+        BigInteger cx = BigInteger.valueOf(cdx);
+        BigInteger cy = BigInteger.valueOf(cdy);
+        BigInteger alift = ax.multiply(ax).add(ay.multiply(ay));
+        BigInteger blift = bx.multiply(bx).add(by.multiply(by));
+        BigInteger clift = cx.multiply(cx).add(cy.multiply(cy));
+        return alift.multiply(bx.multiply(cy).subtract(cx.multiply(by)))
+                .add(blift.multiply(cx.multiply(ay).subtract(ax.multiply(cy))))
+                .add(clift.multiply(ax.multiply(by).subtract(bx.multiply(ay)))).signum();
+    }
+
+}
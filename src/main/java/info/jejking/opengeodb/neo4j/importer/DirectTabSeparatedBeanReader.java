@@ -0,0 +1,158 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Reads beans from tab-separated data using a {@link TabSeparatedLineTokenizer} and a
+ * {@link TabSeparatedRowMapper}, without any reflection or per-cell processor objects. Lines which do not have the
+ * expected number of fields or which do not map are skipped with a warning, just as in
+ * {@link TabSeparatedBeanReader}.
+ * 
+ * @author jejking
+ * @param <T>
+ *            the type of bean
+ */
+class DirectTabSeparatedBeanReader<T> {
+
+    private static final Logger LOGGER = Logger.getLogger(DirectTabSeparatedBeanReader.class.getName());
+
+    private final TabSeparatedRowMapper<T> rowMapper;
+    private AtomicLong skippedLines = new AtomicLong();
+    private boolean quiet;
+
+    /**
+     * Constructor.
+     * 
+     * @param rowMapper
+     *            maps a line to a bean
+     */
+    public DirectTabSeparatedBeanReader(TabSeparatedRowMapper<T> rowMapper) {
+        super();
+        this.rowMapper = rowMapper;
+    }
+
+    /**
+     * @param skippedLines
+     *            counter to add the number of lines skipped because of data errors to
+     */
+    public void setSkippedLineCounter(AtomicLong skippedLines) {
+        this.skippedLines = skippedLines;
+    }
+
+    /**
+     * @param quiet
+     *            whether to skip lines with data errors without logging a warning for each
+     */
+    public void setQuiet(boolean quiet) {
+        this.quiet = quiet;
+    }
+
+    /**
+     * Reads in a list of T from a tab separated stream.
+     * 
+     * @param stream
+     *            the stream, will be closed when finished with
+     * @param skipFirstLine
+     *            whether the first line is a header to be ignored
+     * @return list of T
+     * @throws IOException
+     *             on IO problems
+     */
+    public List<T> readDataFromStream(InputStream stream, boolean skipFirstLine) throws IOException {
+        List<T> typeBeans = new ArrayList<>();
+        try (CloseableIterator<T> iterator = iterateDataFromStream(stream, skipFirstLine)) {
+            while (iterator.hasNext()) {
+                typeBeans.add(iterator.next());
+            }
+        } catch (DataReadException e) {
+            throw e.getCause();
+        }
+        return typeBeans;
+    }
+
+    /**
+     * Reads T from a tab separated stream one line at a time, as the caller pulls them from the returned iterator. IO
+     * problems while iterating are raised as {@link DataReadException}.
+     * 
+     * @param stream
+     *            the stream, will be closed when the iterator is exhausted or closed
+     * @param skipFirstLine
+     *            whether the first line is a header to be ignored
+     * @return iterator over T
+     * @throws IOException
+     *             on IO problems
+     */
+    public CloseableIterator<T> iterateDataFromStream(InputStream stream, boolean skipFirstLine) throws IOException {
+        TabSeparatedLineTokenizer tokenizer = new TabSeparatedLineTokenizer(stream);
+        try {
+            if (skipFirstLine) {
+                tokenizer.nextLine();
+            }
+        } catch (IOException | RuntimeException e) {
+            tokenizer.close();
+            throw e;
+        }
+        return new RowIterator(tokenizer);
+    }
+
+    /**
+     * Iterator which maps each line of the tokenizer, skipping lines with data errors and lines the mapper filters
+     * out.
+     */
+    private final class RowIterator extends ReadAheadIterator<T> {
+
+        private final TabSeparatedLineTokenizer tokenizer;
+
+        RowIterator(TabSeparatedLineTokenizer tokenizer) {
+            this.tokenizer = tokenizer;
+        }
+
+        @Override
+        protected T readNext() throws IOException {
+            while (tokenizer.nextLine()) {
+                if (tokenizer.getFieldCount() == rowMapper.getColumnCount()) {
+                    try {
+                        T bean = rowMapper.mapRow(tokenizer);
+                        if (bean == null) {
+                            continue; // filtered out
+                        }
+                        return bean;
+                    } catch (IllegalArgumentException e) {
+                        // fall through to the warning, the data file MAY contain rubbish
+                    }
+                }
+                skippedLines.incrementAndGet();
+                if (!quiet) {
+                    LOGGER.warning("Ignoring data error in line: " + tokenizer.getLineNumber());
+                }
+            }
+            return null;
+        }
+
+        @Override
+        protected void closeSource() throws IOException {
+            tokenizer.close();
+        }
+    }
+
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes <a href="http://en.wikipedia.org/wiki/Geohash">geohashes</a>, the keys of the grid cells into which the
+ * nodes with coordinates are indexed so that a radius search need only look up a few cells. A geohash of n characters
+ * interleaves 5n bits, starting with a bit of longitude, which halve the ranges of longitude and latitude in turn; the
+ * cell of a point is the one holding its coordinates in micro-degrees, worked out in exact integer arithmetic.
+ * 
+ * <p>
+ * Nodes get a geohash at each of the {@link #INDEXED_PRECISIONS}, from cells of about 156 by 156 km down to cells of
+ * about 4.9 by 4.9 km at the equator, narrower further north, so that a search of a large radius needs no more lookups
+ * than one of a small radius.
+ * </p>
+ * 
+ * @author jejking
+ */
+public final class GeoHash {
+
+    /**
+     * The lengths of geohash for which the nodes have an indexed property, from coarse to fine.
+     */
+    static final int[] INDEXED_PRECISIONS = { 3, 4, 5 };
+
+    /**
+     * Longest geohash supported.
+     */
+    static final int MAX_PRECISION = 12;
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+    private static final long LAT_RANGE = 180L * Coordinates.MICRO_DEGREES_PER_DEGREE;
+    private static final long LON_RANGE = 360L * Coordinates.MICRO_DEGREES_PER_DEGREE;
+
+    private GeoHash() {
+        // static methods only
+    }
+
+    /**
+     * @param precision
+     *            length of geohash
+     * @return name of the node property holding the geohash of that length
+     */
+    public static String propertyName(int precision) {
+        return OpenGeoDbProperties.GEOHASH + precision;
+    }
+
+    /**
+     * @param lat
+     *            latitude in degrees
+     * @param lon
+     *            longitude in degrees
+     * @param precision
+     *            length of geohash, at most {@link #MAX_PRECISION}
+     * @return geohash of the cell holding the point, the point being rounded to the nearest micro-degree
+     */
+    public static String encode(double lat, double lon, int precision) {
+        return encodeMicroDegrees(Coordinates.toMicroDegrees(lat), Coordinates.toMicroDegrees(lon), precision);
+    }
+
+    /**
+     * @param latMicroDegrees
+     *            latitude in micro-degrees
+     * @param lonMicroDegrees
+     *            longitude in micro-degrees
+     * @param precision
+     *            length of geohash, at most {@link #MAX_PRECISION}
+     * @return geohash of the cell holding the point
+     */
+    static String encodeMicroDegrees(int latMicroDegrees, int lonMicroDegrees, int precision) {
+        checkPrecision(precision);
+        long latCells = 1L << latBits(precision);
+        long lonCells = 1L << lonBits(precision);
+        long latIndex = ((latMicroDegrees + LAT_RANGE / 2) << latBits(precision)) / LAT_RANGE;
+        long lonIndex = ((lonMicroDegrees + LON_RANGE / 2) << lonBits(precision)) / LON_RANGE;
+        return encodeCell(clamp(latIndex, 0, latCells - 1), clamp(lonIndex, 0, lonCells - 1), precision);
+    }
+
+    /**
+     * Adds the geohash of a point at each of the {@link #INDEXED_PRECISIONS} to the properties of its node.
+     * 
+     * @param properties
+     *            property map, keyed on property name
+     * @param latMicroDegrees
+     *            latitude in micro-degrees
+     * @param lonMicroDegrees
+     *            longitude in micro-degrees
+     */
+    static void putProperties(Map<String, Object> properties, int latMicroDegrees, int lonMicroDegrees) {
+        for (int precision : INDEXED_PRECISIONS) {
+            properties.put(propertyName(precision), encodeMicroDegrees(latMicroDegrees, lonMicroDegrees, precision));
+        }
+    }
+
+    /**
+     * Gives the cells of a given size which a circle touches. The cells of the bounding box of the circle are
+     * considered, dropping those in its corners which lie wholly outside the circle.
+     * 
+     * @param lat
+     *            latitude of the centre, in degrees
+     * @param lon
+     *            longitude of the centre, in degrees
+     * @param radiusKm
+     *            radius in kilometres
+     * @param precision
+     *            length of geohash, at most {@link #MAX_PRECISION}
+     * @param maxCells
+     *            most cells of the bounding box to consider
+     * @return geohashes of the cells, or <code>null</code> if the bounding box has more than <code>maxCells</code>
+     */
+    static List<String> cover(double lat, double lon, double radiusKm, int precision, int maxCells) {
+        checkPrecision(precision);
+        int latBits = latBits(precision);
+        int lonBits = lonBits(precision);
+        double cellHeight = 180d / (1L << latBits);
+        double cellWidth = 360d / (1L << lonBits);
+        long lonCells = 1L << lonBits;
+
+        double angle = radiusKm / Coordinates.EARTH_RADIUS_KM;
+        double south = Math.max(-90d, lat - Math.toDegrees(angle));
+        double north = Math.min(90d, lat + Math.toDegrees(angle));
+        long firstLon = 0;
+        long lastLon = lonCells - 1;
+        double sinLonSpread = Math.sin(angle) / Math.cos(Math.toRadians(lat));
+        if (south > -90d && north < 90d && angle < Math.PI / 2 && sinLonSpread < 1d) {
+            // beyond a pole or this wide, the circle spans all longitudes
+            double lonSpread = Math.toDegrees(Math.asin(sinLonSpread));
+            long west = (long) Math.floor((lon - lonSpread + 180d) / cellWidth);
+            long east = (long) Math.floor((lon + lonSpread + 180d) / cellWidth);
+            if (east - west + 1 < lonCells) {
+                firstLon = west;
+                lastLon = east;
+            }
+        }
+        long firstLat = clamp((long) Math.floor((south + 90d) / cellHeight), 0, (1L << latBits) - 1);
+        long lastLat = clamp((long) Math.floor((north + 90d) / cellHeight), 0, (1L << latBits) - 1);
+        if ((lastLat - firstLat + 1) * (lastLon - firstLon + 1) > maxCells) {
+            return null;
+        }
+
+        List<String> cells = new ArrayList<>();
+        for (long latIndex = firstLat; latIndex <= lastLat; latIndex++) {
+            double cellSouth = latIndex * cellHeight - 90d;
+            for (long unwrapped = firstLon; unwrapped <= lastLon; unwrapped++) {
+                long lonIndex = ((unwrapped % lonCells) + lonCells) % lonCells;
+                double cellWest = lonIndex * cellWidth - 180d;
+                if (distanceToCellKm(lat, lon, cellSouth, cellSouth + cellHeight, cellWest, cellWest + cellWidth)
+                        <= radiusKm) {
+                    cells.add(encodeCell(latIndex, lonIndex, precision));
+                }
+            }
+        }
+        return cells;
+    }
+
+    private static String encodeCell(long latIndex, long lonIndex, int precision) {
+        int latBit = latBits(precision);
+        int lonBit = lonBits(precision);
+        char[] hash = new char[precision];
+        for (int c = 0; c < precision; c++) {
+            int value = 0;
+            for (int b = 0; b < 5; b++) {
+                // even bits of the hash are longitude, odd ones latitude, each taken from the top
+                boolean longitude = (c * 5 + b) % 2 == 0;
+                long bit = longitude ? (lonIndex >>> --lonBit) & 1 : (latIndex >>> --latBit) & 1;
+                value = value << 1 | (int) bit;
+            }
+            hash[c] = BASE32[value];
+        }
+        return new String(hash);
+    }
+
+    /**
+     * Gives the shortest distance from a point to a cell. The nearest point of a cell to one in the same band of
+     * longitude lies on the same meridian; otherwise it lies on one of the meridians bounding the cell, at the foot of
+     * the great circle through the point perpendicular to it.
+     */
+    private static double distanceToCellKm(double lat, double lon, double south, double north, double west,
+            double east) {
+        if (lon >= west && lon <= east) {
+            return Coordinates.distanceKm(lat, lon, clamp(lat, south, north), lon);
+        }
+        return Math.min(distanceToMeridianKm(lat, lon, west, south, north),
+                distanceToMeridianKm(lat, lon, east, south, north));
+    }
+
+    private static double distanceToMeridianKm(double lat, double lon, double meridian, double south, double north) {
+        double cosLonDifference = Math.cos(Math.toRadians(meridian - lon));
+        if (cosLonDifference <= 0) {
+            // a quarter of the way round the earth or more, not worth pruning
+            return 0;
+        }
+        double foot = Math.toDegrees(Math.atan(Math.tan(Math.toRadians(lat)) / cosLonDifference));
+        return Coordinates.distanceKm(lat, lon, clamp(foot, south, north), meridian);
+    }
+
+    private static int latBits(int precision) {
+        return precision * 5 / 2;
+    }
+
+    private static int lonBits(int precision) {
+        return (precision * 5 + 1) / 2;
+    }
+
+    private static void checkPrecision(int precision) {
+        if (precision < 1 || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Geohash length must be from 1 to " + MAX_PRECISION + ", got "
+                    + precision);
+        }
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Collects {@link PhaseMetrics} for the phases of one import. Each phase is registered as an MBean named
+ * <code>info.jejking.opengeodb.neo4j.importer:type=ImportPhase,name=&lt;phase&gt;</code> with the platform MBean server
+ * when it starts, and all are unregistered again on {@link #close()}. At the end the figures can be written out as a
+ * JSON document, for comparison across runs.
+ * 
+ * @author jejking
+ */
+public class ImportMetrics implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(ImportMetrics.class.getName());
+
+    static final String OBJECT_NAME_PREFIX = "info.jejking.opengeodb.neo4j.importer:type=ImportPhase,name=";
+
+    private final AtomicLong skippedLineCounter = new AtomicLong();
+    private final Map<String, String> settings = new LinkedHashMap<>();
+    private final List<PhaseMetrics> phases = new ArrayList<>();
+    private final List<ObjectName> registeredNames = new ArrayList<>();
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+    /**
+     * @return counter for the parsers to add skipped lines to
+     */
+    public AtomicLong getSkippedLineCounter() {
+        return skippedLineCounter;
+    }
+
+    /**
+     * Records a setting of the import, to be included in the summary.
+     * 
+     * @param key
+     *            name of the setting
+     * @param value
+     *            its value
+     */
+    public void putSetting(String key, Object value) {
+        settings.put(key, String.valueOf(value));
+    }
+
+    /**
+     * Starts a phase and publishes it as an MBean.
+     * 
+     * @param name
+     *            name of the phase, unique within the import
+     * @return the metrics of the phase, to be {@link PhaseMetrics#finish() finished} by the caller
+     */
+    public PhaseMetrics startPhase(String name) {
+        PhaseMetrics phase = new PhaseMetrics(name, skippedLineCounter);
+        phases.add(phase);
+        try {
+            ObjectName objectName = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name));
+            if (mBeanServer.isRegistered(objectName)) {
+                // left over from an earlier import in this JVM which has not been closed
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(phase, objectName);
+            registeredNames.add(objectName);
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Could not publish metrics of phase " + name, e);
+        }
+        return phase;
+    }
+
+    /**
+     * @return the phases started so far, in order
+     */
+    public List<PhaseMetrics> getPhases() {
+        return Collections.unmodifiableList(phases);
+    }
+
+    /**
+     * @return the figures of all phases as a JSON document
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\n  \"settings\": {");
+        String separator = "\n";
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            json.append(separator).append("    ").append(quote(setting.getKey())).append(": ")
+                    .append(quote(setting.getValue()));
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"phases\": [");
+        separator = "\n";
+        for (PhaseMetrics phase : phases) {
+            json.append(separator).append("    {");
+            json.append("\"name\": ").append(quote(phase.getName()));
+            json.append(", \"completed\": ").append(!phase.isRunning());
+            json.append(", \"elapsedMillis\": ").append(phase.getElapsedMillis());
+            json.append(", \"items\": ").append(phase.getItems());
+            json.append(", \"itemsPerSecond\": ")
+                    .append(String.format(Locale.ROOT, "%.1f", phase.getItemsPerSecond()));
+            json.append(", \"skippedLines\": ").append(phase.getSkippedLines());
+            json.append(", \"relationships\": {");
+            String typeSeparator = "";
+            for (Map.Entry<String, Long> count : phase.getRelationships().entrySet()) {
+                json.append(typeSeparator).append(quote(count.getKey())).append(": ").append(count.getValue());
+                typeSeparator = ", ";
+            }
+            json.append('}');
+            json.append(", \"heapUsedBefore\": ").append(phase.getHeapUsedBefore());
+            json.append(", \"heapUsedAfter\": ").append(phase.getHeapUsedAfter());
+            json.append(", \"gcCount\": ").append(phase.getGcCount());
+            json.append(", \"gcTimeMillis\": ").append(phase.getGcTimeMillis());
+            json.append('}');
+            separator = ",\n";
+        }
+        json.append("\n  ]\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * Writes {@link #toJson()} to a file, replacing it if it exists.
+     * 
+     * @param file
+     *            the file to write
+     * @throws IOException
+     *             on IO problems
+     */
+    public void writeJson(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(toJson());
+        }
+    }
+
+    /**
+     * Logs a line per phase.
+     */
+    public void logSummary() {
+        for (PhaseMetrics phase : phases) {
+            StringBuilder relationships = new StringBuilder();
+            for (Map.Entry<String, Long> count : phase.getRelationships().entrySet()) {
+                relationships.append(count.getValue()).append(' ').append(count.getKey()).append(", ");
+            }
+            LOGGER.info(String.format(Locale.ROOT,
+                    "%s: %d items in %d ms (%.0f/s), %d lines skipped, %srelationships, heap %d -> %d MB, "
+                            + "%d GCs taking %d ms",
+                    phase.getName(), phase.getItems(), phase.getElapsedMillis(), phase.getItemsPerSecond(),
+                    phase.getSkippedLines(), relationships, phase.getHeapUsedBefore() >> 20,
+                    phase.getHeapUsedAfter() >> 20, phase.getGcCount(), phase.getGcTimeMillis()));
+        }
+    }
+
+    /**
+     * Unregisters the MBeans of all phases.
+     */
+    @Override
+    public void close() {
+        for (ObjectName objectName : registeredNames) {
+            try {
+                mBeanServer.unregisterMBean(objectName);
+            } catch (JMException e) {
+                LOGGER.log(Level.FINE, "Could not unregister " + objectName, e);
+            }
+        }
+        registeredNames.clear();
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < ' ') {
+                quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+}
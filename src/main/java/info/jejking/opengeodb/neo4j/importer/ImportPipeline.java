@@ -0,0 +1,303 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.GraphDbRelationshipWriter;
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.Relationships;
+import info.jejking.opengeodb.neo4j.importer.PlzParser.PlzTabBean;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+
+/**
+ * Runs the parsing of both files concurrently with the writing of the graph. One parser thread per file streams
+ * beans, in chunks, into a bounded queue; when a queue is full its parser blocks until the writer catches up. The
+ * writer, on the calling thread, drains the postal code queue first and then the place queue, so that every postal
+ * code node exists by the time a place is written. Each place is then linked to its postal codes straight away and to
+ * its parent if that has already been written; links to parents further down the file are collected and created once
+ * all places have been written.
+ *
+ * <p>
+ * The total time is thus roughly that of the slower of parsing and writing, rather than their sum.
+ * </p>
+ *
+ * @author jejking
+ */
+class ImportPipeline {
+
+    private static final Logger LOGGER = Logger.getLogger(ImportPipeline.class.getName());
+
+    /**
+     * Number of beans handed over in one go.
+     */
+    static final int CHUNK_SIZE = 1000;
+
+    /**
+     * Number of chunks a queue holds before its parser has to wait.
+     */
+    static final int QUEUE_CAPACITY = 16;
+
+    private static final List<Object> END_OF_DATA = Collections.emptyList();
+
+    private final GraphDatabaseService graphDb;
+    private final OpenGeoDbFiles files;
+    private final int batchSize;
+    private final PhaseMetrics metrics;
+
+    private final IntLongHashMap placeNodeIds = new IntLongHashMap();
+    private final PostalCodeNodeIndex plzNodeIds = new PostalCodeNodeIndex();
+
+    private long[] pendingChildNodeIds = new long[1024];
+    private int[] pendingParentIds = new int[1024];
+    private int pendingCount;
+
+    /**
+     * Constructor.
+     *
+     * @param graphDb
+     *            the graph db service
+     * @param files
+     *            the files to import, read sequentially
+     * @param batchSize
+     *            number of operations per transaction
+     * @param metrics
+     *            counts the nodes and relationships written
+     */
+    public ImportPipeline(GraphDatabaseService graphDb, OpenGeoDbFiles files, int batchSize, PhaseMetrics metrics) {
+        super();
+        this.graphDb = graphDb;
+        this.files = files;
+        this.batchSize = batchSize;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return ids of the place nodes written, by place id
+     */
+    IntLongHashMap getPlaceNodeIds() {
+        return placeNodeIds;
+    }
+
+    /**
+     * @return ids of the postal code nodes written
+     */
+    PostalCodeNodeIndex getPlzNodeIds() {
+        return plzNodeIds;
+    }
+
+    /**
+     * Runs the pipeline to completion.
+     *
+     * @throws IOException
+     *             on IO problems in one of the parsers
+     */
+    public void run() throws IOException {
+        BlockingQueue<List<PlzTabBean>> plzQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<List<PlaceRecord>> placeQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+        ExecutorService parsers = Executors.newFixedThreadPool(2);
+        try {
+            Future<Void> plzParser = parsers.submit(new ParserStage<PlzTabBean>(plzQueue) {
+                @Override
+                CloseableIterator<? extends PlzTabBean> open() throws IOException {
+                    return files.iteratePlz();
+                }
+            });
+            Future<Void> placeParser = parsers.submit(new ParserStage<PlaceRecord>(placeQueue) {
+                @Override
+                CloseableIterator<? extends PlaceRecord> open() throws IOException {
+                    return files.iteratePlaces();
+                }
+            });
+
+            writePlzNodes(plzQueue, plzParser);
+            LOGGER.info("Created plz nodes");
+            if (plzNodeIds.getRejectedCount() > 0) {
+                LOGGER.warning(plzNodeIds.getRejectedCount()
+                        + " postal codes were not five digits, their nodes are not linked");
+            }
+
+            writePlaces(placeQueue, placeParser);
+            LOGGER.info("Created place nodes with postal code relationships");
+
+            writePendingPartOfRelationships();
+            LOGGER.info("Created remaining relationships");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for parser", e);
+        } finally {
+            parsers.shutdownNow();
+        }
+    }
+
+    private void writePlzNodes(BlockingQueue<List<PlzTabBean>> queue, Future<Void> parser) throws IOException,
+            InterruptedException {
+        PlzNodeMapper plzNodeMapper = new PlzNodeMapper();
+        try (BatchCommitter committer = new BatchCommitter(graphDb, batchSize, "plz nodes")) {
+            for (List<PlzTabBean> chunk = take(queue, parser); !isEndOfData(chunk); chunk = take(queue, parser)) {
+                for (PlzTabBean plzBean : chunk) {
+                    plzNodeIds.put(plzBean.getPlz(), plzNodeMapper.createPlzNode(graphDb, plzBean).getId());
+                }
+                committer.add(chunk.size());
+                metrics.addItems(chunk.size());
+            }
+            committer.success();
+        }
+    }
+
+    private void writePlaces(BlockingQueue<List<PlaceRecord>> queue, Future<Void> parser) throws IOException,
+            InterruptedException {
+        PlaceNodeMapper placeNodeMapper = new PlaceNodeMapper(files.getPlaceColumns());
+        PlaceRelationshipBuilder prb = new PlaceRelationshipBuilder();
+        GraphDbRelationshipWriter writer = new GraphDbRelationshipWriter(graphDb);
+        try (BatchCommitter committer = new BatchCommitter(graphDb, batchSize, "places")) {
+            for (List<PlaceRecord> chunk = take(queue, parser); !isEndOfData(chunk); chunk = take(queue, parser)) {
+                for (PlaceRecord placeBean : chunk) {
+                    long nodeId = placeNodeMapper.createPlaceNode(graphDb, placeBean).getId();
+                    placeNodeIds.put(placeBean.getId(), nodeId);
+                    int postalCodes = prb.buildPostalCodeRelationships(writer, placeNodeIds, plzNodeIds, placeBean);
+                    int partOf = 0;
+                    if (placeBean.getOf() > 0) {
+                        if (placeNodeIds.containsKey(placeBean.getOf())) {
+                            partOf = prb.buildPartOfRelationshipForPlace(writer, placeNodeIds, placeBean);
+                        } else {
+                            defer(nodeId, placeBean.getOf());
+                        }
+                    }
+                    committer.add(1 + postalCodes + partOf);
+                    metrics.addItems(1);
+                    metrics.addRelationships(Relationships.POSTAL_CODE_FOR, postalCodes);
+                    metrics.addRelationships(Relationships.PART_OF, partOf);
+                }
+            }
+            committer.success();
+        }
+    }
+
+    private void writePendingPartOfRelationships() {
+        GraphDbRelationshipWriter writer = new GraphDbRelationshipWriter(graphDb);
+        try (BatchCommitter committer = new BatchCommitter(graphDb, batchSize, "deferred relationships")) {
+            for (int i = 0; i < pendingCount; i++) {
+                long parentNodeId = placeNodeIds.get(pendingParentIds[i]);
+                if (parentNodeId != IntLongHashMap.NOT_FOUND) {
+                    writer.createRelationship(pendingChildNodeIds[i], parentNodeId, Relationships.PART_OF);
+                    committer.add(1);
+                    metrics.addRelationships(Relationships.PART_OF, 1);
+                }
+            }
+            committer.success();
+        }
+        LOGGER.info("Resolved " + pendingCount + " forward references to parent places");
+        pendingCount = 0;
+    }
+
+    private void defer(long childNodeId, int parentId) {
+        if (pendingCount == pendingParentIds.length) {
+            pendingChildNodeIds = Arrays.copyOf(pendingChildNodeIds, pendingCount * 2);
+            pendingParentIds = Arrays.copyOf(pendingParentIds, pendingCount * 2);
+        }
+        pendingChildNodeIds[pendingCount] = childNodeId;
+        pendingParentIds[pendingCount] = parentId;
+        pendingCount++;
+    }
+
+    private static boolean isEndOfData(List<?> chunk) {
+        return chunk == END_OF_DATA;
+    }
+
+    /**
+     * Takes the next chunk from the queue. If the parser fails, its exception is raised here rather than leaving the
+     * writer waiting for ever.
+     */
+    private static <T> List<T> take(BlockingQueue<List<T>> queue, Future<Void> parser) throws IOException,
+            InterruptedException {
+        List<T> chunk = queue.take();
+        if (isEndOfData(chunk)) {
+            try {
+                parser.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Streams beans from a parser into a queue in chunks, always finishing with {@link #END_OF_DATA}, even if parsing
+     * fails.
+     */
+    private abstract static class ParserStage<T> implements Callable<Void> {
+
+        private final BlockingQueue<List<T>> queue;
+
+        ParserStage(BlockingQueue<List<T>> queue) {
+            this.queue = queue;
+        }
+
+        abstract CloseableIterator<? extends T> open() throws IOException;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Void call() throws IOException, InterruptedException {
+            boolean interrupted = false;
+            try (CloseableIterator<? extends T> beans = open()) {
+                List<T> chunk = new ArrayList<>(CHUNK_SIZE);
+                while (beans.hasNext()) {
+                    chunk.add(beans.next());
+                    if (chunk.size() == CHUNK_SIZE) {
+                        queue.put(chunk);
+                        chunk = new ArrayList<>(CHUNK_SIZE);
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    queue.put(chunk);
+                }
+            } catch (DataReadException e) {
+                throw e.getCause();
+            } catch (InterruptedException e) {
+                // the writer has given up, nobody is waiting for the end of the data
+                interrupted = true;
+                throw e;
+            } finally {
+                if (!interrupted) {
+                    queue.put((List<T>) END_OF_DATA);
+                }
+            }
+            return null;
+        }
+    }
+
+}
@@ -16,23 +16,21 @@
 package info.jejking.opengeodb.neo4j.importer;
 
 import static info.jejking.opengeodb.neo4j.importer.SchemaCreator.createSchema;
-import info.jejking.opengeodb.neo4j.importer.PlaceParser.PlaceBean;
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.GraphDbRelationshipWriter;
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.Relationships;
 import info.jejking.opengeodb.neo4j.importer.PlzParser.PlzTabBean;
+import info.jejking.opengeodb.neo4j.importer.ProgressReporter.Progress;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.file.Paths;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
-import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
-import org.neo4j.graphdb.schema.Schema;
 
 /**
  * Class which integrates the parsers together with the node and relationship builders to turn the TAB-separated exports
@@ -45,15 +43,255 @@ public class Importer {
 
     private static final Logger LOGGER = Logger.getLogger(Importer.class.getName());
 
-    private List<PlaceBean> placeBeans;
-    private List<PlzTabBean> plzBeans;
+    /**
+     * Default number of operations per transaction.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+
+    /**
+     * Default number of seconds to wait for the indexes to come online.
+     */
+    public static final long DEFAULT_INDEX_TIMEOUT_SECONDS = 10;
+
+    /**
+     * Default number of seconds between two progress reports.
+     */
+    public static final long DEFAULT_PROGRESS_INTERVAL_SECONDS = 30;
+
+    private OpenGeoDbFiles files;
     private GraphDatabaseService graphDb;
-    private Map<Integer, Node> placeNodeMap;
-    private Map<String, Node> plzNodeMap;
+    private IntLongHashMap placeNodeIds;
+    private PostalCodeNodeIndex plzNodeIds;
+    private int parseThreads = 1;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private boolean pipelined;
+    private int relationshipThreads = 1;
+    private boolean deferIndexes;
+    private long indexTimeoutSeconds = DEFAULT_INDEX_TIMEOUT_SECONDS;
+    private String metricsFile;
+    private String snapshotFile;
+    private Set<PlaceColumn> placeColumns = PlaceColumn.ALL;
+    private PlaceFilter placeFilter;
+    private String geocoderFile;
+    private double nearRadiusKm;
+    private double neighbourDistanceKm;
+    private long progressIntervalSeconds = DEFAULT_PROGRESS_INTERVAL_SECONDS;
+    private ImportMetrics metrics;
+    private ProgressReporter progress;
+    private long placeCount;
+
+    /**
+     * Sets the number of threads with which to parse the place file. With more than one thread the file is
+     * memory-mapped and parsed in parallel chunks once, and the resulting beans are kept in memory for both the node
+     * and the relationship phase. With a single thread, the default, the file is streamed in each phase instead.
+     * 
+     * @param parseThreads
+     *            number of parser threads, at least one
+     */
+    public void setParseThreads(int parseThreads) {
+        if (parseThreads < 1) {
+            throw new IllegalArgumentException("Need at least one parser thread, got " + parseThreads);
+        }
+        this.parseThreads = parseThreads;
+    }
+
+    /**
+     * Sets the number of operations - nodes or relationships created - after which the transaction of an import phase
+     * is committed and a new one begun. Smaller batches need less heap for the transaction state, larger ones commit
+     * less often.
+     * 
+     * @param batchSize
+     *            operations per transaction, at least one
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least one, got " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets whether to parse and write concurrently, see {@link ImportPipeline}. In this mode the files are always
+     * streamed, and each is read only once by the pipeline; the {@link Relationships#NEAR} and
+     * {@link Relationships#NEIGHBOUR_OF} relationships are created after it, reading the files again.
+     * 
+     * @param pipelined
+     *            whether to run the import as a pipeline
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Sets the number of threads with which to create the relationships, see {@link ParallelRelationshipBuilder}. With
+     * a single thread, the default, the relationships are created in one sequence of transactions. Not used by the
+     * {@link #setPipelined(boolean) pipeline}.
+     * 
+     * @param relationshipThreads
+     *            number of relationship writer threads, at least one
+     */
+    public void setRelationshipThreads(int relationshipThreads) {
+        if (relationshipThreads < 1) {
+            throw new IllegalArgumentException("Need at least one relationship thread, got " + relationshipThreads);
+        }
+        this.relationshipThreads = relationshipThreads;
+    }
+
+    /**
+     * Sets whether to create the indexes only once all data has been loaded. The nodes are then written without any
+     * index maintenance, and each index is populated in a single pass at the end. The import itself never reads the
+     * indexes, so they are only needed by later users of the database.
+     * 
+     * @param deferIndexes
+     *            whether to create the indexes after the data
+     */
+    public void setDeferIndexes(boolean deferIndexes) {
+        this.deferIndexes = deferIndexes;
+    }
+
+    /**
+     * Sets how long to wait for the indexes to come online, before the import when they are created up front, or
+     * after it when they are {@link #setDeferIndexes(boolean) deferred}. Up front the import fails if they are not
+     * online in time; when deferred, all data has already been committed, so only a warning is logged.
+     * 
+     * @param indexTimeoutSeconds
+     *            seconds to wait, at least one
+     */
+    public void setIndexTimeoutSeconds(long indexTimeoutSeconds) {
+        if (indexTimeoutSeconds < 1) {
+            throw new IllegalArgumentException("Index timeout must be at least one second, got "
+                    + indexTimeoutSeconds);
+        }
+        this.indexTimeoutSeconds = indexTimeoutSeconds;
+    }
+
+    /**
+     * Sets a file to which to write the {@link ImportMetrics metrics} of each phase as JSON once the import has
+     * finished. The metrics are always logged, and published through JMX while the import runs.
+     * 
+     * @param metricsFile
+     *            path of the file to write, or <code>null</code> for none
+     */
+    public void setMetricsFile(String metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    /**
+     * Sets a file in which to keep a {@link ParsedDataSnapshot snapshot} of the parsed files. If the snapshot was
+     * taken from the same files it is loaded in place of parsing them, otherwise the files are parsed and the
+     * snapshot is written afresh. Either way both files are then held in memory for the import. Not used by the
+     * {@link #setPipelined(boolean) pipeline}.
+     * 
+     * @param snapshotFile
+     *            path of the snapshot file, or <code>null</code> for none
+     */
+    public void setSnapshotFile(String snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * Restricts the import of places to a projection of the columns of the place file. The other columns are skipped
+     * by the parser without being decoded and are not written as properties. Relationships need the columns "of" and
+     * "plzs"; without them, no relationships of that type are created.
+     * 
+     * @param placeColumns
+     *            the columns to import, the id always being imported
+     */
+    public void setPlaceColumns(Set<PlaceColumn> placeColumns) {
+        this.placeColumns = placeColumns;
+    }
+
+    /**
+     * Restricts the import to the places a filter selects, such as one Bundesland or the levels down to the
+     * Landkreise. Their ancestors are imported as well, so that the PART_OF chains stay intact, and only the postal
+     * codes of the imported places.
+     * 
+     * @param placeFilter
+     *            the filter, or <code>null</code> to import all places
+     */
+    public void setPlaceFilter(PlaceFilter placeFilter) {
+        this.placeFilter = placeFilter;
+    }
+
+    /**
+     * Sets a file to which to write a {@link ReverseGeocoder} over the postal codes and places imported, so that
+     * services can find the nearest of them without querying the database or parsing the files.
+     * 
+     * @param geocoderFile
+     *            path of the file, or <code>null</code> for none
+     */
+    public void setGeocoderFile(String geocoderFile) {
+        this.geocoderFile = geocoderFile;
+    }
+
+    /**
+     * Sets the distance up to which postal codes are linked with {@link Relationships#NEAR} relationships, see
+     * {@link NearRelationshipBuilder}. By default no such relationships are created.
+     * 
+     * @param nearRadiusKm
+     *            distance in kilometres, or zero for none
+     */
+    public void setNearRadiusKm(double nearRadiusKm) {
+        if (!(nearRadiusKm >= 0)) {
+            throw new IllegalArgumentException("Near radius must not be negative, got " + nearRadiusKm);
+        }
+        this.nearRadiusKm = nearRadiusKm;
+    }
+
+    /**
+     * Sets the distance up to which places of the same level which are next to each other are linked with
+     * {@link Relationships#NEIGHBOUR_OF} relationships, see {@link NeighbourRelationshipBuilder}. By default no such
+     * relationships are created.
+     * 
+     * @param neighbourDistanceKm
+     *            distance in kilometres, or zero for none
+     */
+    public void setNeighbourDistanceKm(double neighbourDistanceKm) {
+        if (!(neighbourDistanceKm >= 0)) {
+            throw new IllegalArgumentException("Neighbour distance must not be negative, got " + neighbourDistanceKm);
+        }
+        this.neighbourDistanceKm = neighbourDistanceKm;
+    }
+
+    /**
+     * Sets how often to log the progress of the running phase, with its throughput and estimated time to completion,
+     * see {@link ProgressReporter}. Progress through the node phases is measured in bytes of the file being streamed,
+     * or in places if the place file has been parsed up front, and through the relationship phase in places, or in
+     * relationships if they are created in parallel.
+     * 
+     * @param progressIntervalSeconds
+     *            seconds between two reports, zero for none
+     */
+    public void setProgressIntervalSeconds(long progressIntervalSeconds) {
+        if (progressIntervalSeconds < 0) {
+            throw new IllegalArgumentException("Progress interval must not be negative, got "
+                    + progressIntervalSeconds);
+        }
+        this.progressIntervalSeconds = progressIntervalSeconds;
+    }
+
+    /**
+     * @return the metrics of the last import, or <code>null</code> if there has been none
+     */
+    public ImportMetrics getMetrics() {
+        return metrics;
+    }
 
     /**
-     * Parses the files, assembles in memory bean representations, converts these beans to Neo4j {@link Node} instances
-     * and links them together appropriately with Neo4j {@link Relationship} instances.
+     * Parses the files, streaming bean representations of each line, converts these beans to Neo4j {@link Node}
+     * instances and links them together appropriately with Neo4j {@link Relationship} instances. Each phase commits
+     * every {@link #setBatchSize(int) batch size} operations.
+     * 
+     * <p>
+     * Unless the files are {@link #setParseThreads(int) parsed in parallel} or {@link #setSnapshotFile(String) loaded
+     * from a snapshot}, they are streamed again by every phase which needs them, so that the full set of beans never
+     * needs to be held in memory. The place file is read to create the nodes and to link them, which the
+     * {@link #setPipelined(boolean) pipeline} does in one pass, and once more each for the
+     * {@link #setNeighbourDistanceKm(double) neighbour relationships} and the {@link #setGeocoderFile(String)
+     * geocoder}, so up to four times. The postal code file is read up to three times, the extra reads being for the
+     * {@link #setNearRadiusKm(double) near relationships} and the geocoder. Lines with data errors are counted and
+     * warned about on the first read of each file only.
+     * </p>
      * 
      * @param placeFile
      *            path to file with tab-delimited place data
@@ -67,118 +305,406 @@ public class Importer {
     public void doImport(String placeFile, String plzFile, String dbDir) throws IOException {
         LOGGER.info("Starting import");
 
-        setUpDatabase(dbDir);
-        
-        loadOpenGeoDbDataFromFiles(placeFile, plzFile);
-        
-        // currently runs in separate transactions in order to keep memory overhead
-        // for the Neo4j tx processing under control
-        // TODO consider using bulk importer
-        doInTransaction(new Runnable() {
+        try (ImportMetrics importMetrics = new ImportMetrics();
+                ProgressReporter progressReporter = new ProgressReporter(progressIntervalSeconds, TimeUnit.SECONDS)) {
+            this.metrics = importMetrics;
+            this.progress = progressReporter;
+            recordSettings(placeFile, plzFile, dbDir);
+            PhaseMetrics total = metrics.startPhase("import");
+            this.graphDb = null;
+            this.files = null;
 
-            @Override
-            public void run() {
-                createPlaceNodes();
-                LOGGER.info("Created place nodes");
-            }
-        });
+            try {
+                setUpDatabase(dbDir);
 
-        doInTransaction(new Runnable() {
+                this.files = new OpenGeoDbFiles(placeFile, plzFile, pipelined ? 1 : parseThreads);
+                files.setSkippedLineCounter(metrics.getSkippedLineCounter());
+                files.setPlaceColumns(placeColumns);
+                files.setPlaceFilter(placeFilter);
+                if (snapshotFile != null && !pipelined) {
+                    files.setSnapshotFile(Paths.get(snapshotFile));
+                }
 
-            @Override
-            public void run() {
-                createPlzNodes();
-                LOGGER.info("Created plz nodes");
-            }
-        });
+                if (pipelined) {
+                    PhaseMetrics phase = metrics.startPhase("pipeline");
+                    progress.track(phase.getName(), ProgressReporter.BYTES, new Progress() {
+                        @Override
+                        public long getDone() {
+                            return files.getPlzBytesRead() + files.getPlaceBytesRead();
+                        }
 
-        doInTransaction(new Runnable() {
+                        @Override
+                        public long getTotal() {
+                            return files.getPlzFileSize() + files.getPlaceFileSize();
+                        }
+                    });
+                    ImportPipeline pipeline = new ImportPipeline(graphDb, files, batchSize, phase);
+                    pipeline.run();
+                    phase.finish();
+                    progress.untrack();
+                    placeNodeIds = pipeline.getPlaceNodeIds();
+                    plzNodeIds = pipeline.getPlzNodeIds();
+                } else {
+                    if (files.isHeldInMemory()) {
+                        parsePlaces();
+                    }
 
-            @Override
-            public void run() {
-                createRelationships();
-                LOGGER.info("Created relationships");
+                    createPlaceNodes();
+                    LOGGER.info("Created place nodes");
+
+                    createPlzNodes();
+                    LOGGER.info("Created plz nodes");
+
+                    createRelationships();
+                    LOGGER.info("Created relationships");
+                }
+                if (nearRadiusKm > 0) {
+                    createNearRelationships();
+                    LOGGER.info("Created near relationships");
+                }
+                if (neighbourDistanceKm > 0) {
+                    createNeighbourRelationships();
+                    LOGGER.info("Created neighbour relationships");
+                }
+                if (deferIndexes) {
+                    createIndexes();
+                }
+                if (geocoderFile != null) {
+                    writeGeocoder();
+                }
+            } catch (DataReadException e) {
+                throw e.getCause();
+            } finally {
+                progress.untrack();
+                placeNodeIds = null;
+                plzNodeIds = null;
+                if (files != null) {
+                    files.release();
+                }
+                if (graphDb != null) {
+                    graphDb.shutdown();
+                    LOGGER.info("Shut down graph db");
+                }
             }
-        });
 
-        graphDb.shutdown();
-        LOGGER.info("Shut down graph db");
-        
+            for (PhaseMetrics phase : metrics.getPhases()) {
+                for (Relationships type : Relationships.values()) {
+                    total.addRelationships(type, phase.getRelationships(type));
+                }
+            }
+            total.finish();
+            metrics.logSummary();
+            if (metricsFile != null) {
+                metrics.writeJson(Paths.get(metricsFile));
+                LOGGER.info("Wrote metrics to " + metricsFile);
+            }
+        }
+
         LOGGER.info("Done!");
     }
 
-    private void loadOpenGeoDbDataFromFiles(String placeFile, String plzFile) throws IOException {
-        parsePlaces(placeFile);
-        parsePlz(plzFile);
+    private void recordSettings(String placeFile, String plzFile, String dbDir) {
+        metrics.putSetting("engine", "transactional");
+        metrics.putSetting("placeFile", placeFile);
+        metrics.putSetting("plzFile", plzFile);
+        metrics.putSetting("dbDir", dbDir);
+        metrics.putSetting("parseThreads", parseThreads);
+        metrics.putSetting("batchSize", batchSize);
+        metrics.putSetting("pipelined", pipelined);
+        metrics.putSetting("relationshipThreads", relationshipThreads);
+        metrics.putSetting("deferIndexes", deferIndexes);
+        if (snapshotFile != null) {
+            metrics.putSetting("snapshotFile", snapshotFile);
+        }
+        if (geocoderFile != null) {
+            metrics.putSetting("geocoderFile", geocoderFile);
+        }
+        if (nearRadiusKm > 0) {
+            metrics.putSetting("nearRadiusKm", nearRadiusKm);
+        }
+        if (neighbourDistanceKm > 0) {
+            metrics.putSetting("neighbourDistanceKm", neighbourDistanceKm);
+        }
+        metrics.putSetting("progressIntervalSeconds", progressIntervalSeconds);
+        if (!placeColumns.equals(PlaceColumn.ALL)) {
+            metrics.putSetting("placeColumns", placeColumns.toString());
+        }
+        if (placeFilter != null) {
+            metrics.putSetting("placeFilter", placeFilter.toString());
+        }
     }
 
     private void setUpDatabase(String dbDir) {
         createDatabase(dbDir);
+        if (!deferIndexes) {
+            createIndexes();
+        }
+    }
+
+    private void writeGeocoder() throws IOException {
+        PhaseMetrics phase = metrics.startPhase("geocoder");
+        ReverseGeocoder geocoder = ReverseGeocoder.fromFiles(files);
+        geocoder.write(Paths.get(geocoderFile));
+        phase.addItems(geocoder.size());
+        phase.finish();
+    }
+
+    private void createIndexes() {
+        PhaseMetrics phase = metrics.startPhase("indexes");
+        createSchema(graphDb);
         waitForIndexesToComeOnline();
+        phase.finish();
     }
 
-    private void waitForIndexesToComeOnline() {
-        
-        try (Transaction tx = graphDb.beginTx()) {
-            Schema schema = graphDb.schema();
-            schema.awaitIndexesOnline(10, TimeUnit.SECONDS);
-            LOGGER.info("Indexes now online");
+    /**
+     * Parses the place file in parallel, or loads the snapshot, ahead of the node phase, so that the time taken shows
+     * on its own.
+     */
+    private void parsePlaces() throws IOException {
+        PhaseMetrics phase = metrics.startPhase("parse");
+        progress.track(phase, "places", 0);
+        try (CloseableIterator<? extends PlaceRecord> placeBeans = files.iteratePlaces()) {
+            while (placeBeans.hasNext()) {
+                placeBeans.next();
+                phase.addItems(1);
+            }
         }
-        
+        phase.finish();
+        progress.untrack();
+        placeCount = phase.getItems();
     }
 
-    private void doInTransaction(Runnable runnable) {
-        try (Transaction tx = graphDb.beginTx()) {
-            runnable.run();
-            tx.success();
+    private void waitForIndexesToComeOnline() {
+        if (!deferIndexes) {
+            SchemaCreator.awaitIndexesOnline(graphDb, indexTimeoutSeconds, TimeUnit.SECONDS);
+        } else if (!SchemaCreator.tryAwaitIndexesOnline(graphDb, indexTimeoutSeconds, TimeUnit.SECONDS)) {
+            // all data has been committed, so the import has succeeded even if the indexes are not yet populated
+            LOGGER.warning("Indexes not online after " + indexTimeoutSeconds + " seconds; Neo4j populates them again "
+                    + "when the database is next started, until then lookups by index may be slow or incomplete");
+            return;
         }
+        LOGGER.info("Indexes now online");
     }
 
-    private void createPlaceNodes() {
-        PlaceNodeMapper placeNodeMapper = new PlaceNodeMapper();
-        this.placeNodeMap = new HashMap<>();
-        for (PlaceBean placeBean : this.placeBeans) {
-            Node placeNode = placeNodeMapper.createPlaceNode(graphDb, placeBean);
-            this.placeNodeMap.put(placeBean.getId(), placeNode);
+    private void createPlaceNodes() throws IOException {
+        PhaseMetrics phase = metrics.startPhase("placeNodes");
+        if (files.isHeldInMemory()) {
+            progress.track(phase, "places", placeCount);
+        } else {
+            trackPlaceFile(phase);
         }
+        PlaceNodeMapper placeNodeMapper = new PlaceNodeMapper(files.getPlaceColumns());
+        this.placeNodeIds = new IntLongHashMap();
+        try (CloseableIterator<? extends PlaceRecord> placeBeans = files.iteratePlaces();
+                BatchCommitter committer = new BatchCommitter(graphDb, batchSize, "place nodes")) {
+            while (placeBeans.hasNext()) {
+                PlaceRecord placeBean = placeBeans.next();
+                Node placeNode = placeNodeMapper.createPlaceNode(graphDb, placeBean);
+                this.placeNodeIds.put(placeBean.getId(), placeNode.getId());
+                committer.add(1);
+                phase.addItems(1);
+            }
+            committer.success();
+        }
+        phase.finish();
+        progress.untrack();
+        placeCount = phase.getItems();
+        LOGGER.info("read in places from: " + files.getPlaceFile());
     }
 
-    private void createPlzNodes() {
+    private void createPlzNodes() throws IOException {
+        PhaseMetrics phase = metrics.startPhase("plzNodes");
+        progress.track(phase.getName(), ProgressReporter.BYTES, new Progress() {
+            @Override
+            public long getDone() {
+                return files.getPlzBytesRead();
+            }
+
+            @Override
+            public long getTotal() {
+                return files.getPlzFileSize();
+            }
+        });
         PlzNodeMapper plzNodeMapper = new PlzNodeMapper();
-        this.plzNodeMap = new HashMap<>();
-        for (PlzTabBean plzBean : this.plzBeans) {
-            Node plzNode = plzNodeMapper.createPlzNode(graphDb, plzBean);
-            this.plzNodeMap.put(plzBean.getPlz(), plzNode);
+        this.plzNodeIds = new PostalCodeNodeIndex();
+        try (CloseableIterator<PlzTabBean> plzBeans = files.iteratePlz();
+                BatchCommitter committer = new BatchCommitter(graphDb, batchSize, "plz nodes")) {
+            while (plzBeans.hasNext()) {
+                PlzTabBean plzBean = plzBeans.next();
+                Node plzNode = plzNodeMapper.createPlzNode(graphDb, plzBean);
+                this.plzNodeIds.put(plzBean.getPlz(), plzNode.getId());
+                committer.add(1);
+                phase.addItems(1);
+            }
+            committer.success();
+        }
+        phase.finish();
+        progress.untrack();
+        LOGGER.info("read in plz from: " + files.getPlzFile());
+        if (plzNodeIds.getRejectedCount() > 0) {
+            LOGGER.warning(plzNodeIds.getRejectedCount()
+                    + " postal codes were not five digits, their nodes are not linked");
         }
     }
 
-    private void createRelationships() {
+    private void createRelationships() throws IOException {
+        PhaseMetrics phase = metrics.startPhase("relationships");
+        if (relationshipThreads > 1) {
+            createRelationshipsInParallel(phase);
+        } else {
+            createRelationships(phase);
+        }
+        phase.finish();
+        progress.untrack();
+    }
+
+    private void createRelationships(PhaseMetrics phase) throws IOException {
         PlaceRelationshipBuilder prb = new PlaceRelationshipBuilder();
-        for (PlaceBean placeBean : this.placeBeans) {
-            prb.buildRelationshipsForPlace(graphDb, placeNodeMap, plzNodeMap, placeBean);
+        GraphDbRelationshipWriter writer = new GraphDbRelationshipWriter(graphDb);
+        progress.track(phase, "places", placeCount);
+        try (CloseableIterator<? extends PlaceRecord> placeBeans = files.iteratePlaces();
+                BatchCommitter committer = new BatchCommitter(graphDb, batchSize, "relationships")) {
+            while (placeBeans.hasNext()) {
+                PlaceRecord placeBean = placeBeans.next();
+                int partOf = prb.buildPartOfRelationshipForPlace(writer, placeNodeIds, placeBean);
+                int postalCodes = prb.buildPostalCodeRelationships(writer, placeNodeIds, plzNodeIds, placeBean);
+                committer.add(partOf + postalCodes);
+                phase.addItems(1);
+                phase.addRelationships(Relationships.PART_OF, partOf);
+                phase.addRelationships(Relationships.POSTAL_CODE_FOR, postalCodes);
+            }
+            committer.success();
         }
     }
 
-    private void createDatabase(String dbDir) {
-        this.graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(dbDir);
-        
-        createSchema(this.graphDb);
+    private void createRelationshipsInParallel(PhaseMetrics phase) throws IOException {
+        final PlaceLinks links = new PlaceLinks();
+        if (!files.isHeldInMemory()) {
+            trackPlaceFile(phase);
+        }
+        try (CloseableIterator<? extends PlaceRecord> placeBeans = files.iteratePlaces()) {
+            while (placeBeans.hasNext()) {
+                links.add(placeBeans.next());
+            }
+        }
+        final ParallelRelationshipBuilder builder = new ParallelRelationshipBuilder(graphDb, relationshipThreads,
+                batchSize);
+        // an upper bound, as some postal codes or parents may not exist
+        progress.track(phase.getName(), "relationships", new Progress() {
+            @Override
+            public long getDone() {
+                return builder.getPartOfRelationships() + builder.getPostalCodeRelationships();
+            }
 
-        LOGGER.info("Created graph db in directory " + dbDir);
+            @Override
+            public long getTotal() {
+                return (long) links.getParentCount() + links.getPostalCodeCount();
+            }
+        });
+        try {
+            builder.build(links, placeNodeIds, plzNodeIds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while creating relationships", e);
+        }
+        phase.addItems(links.size());
+        phase.addRelationships(Relationships.PART_OF, builder.getPartOfRelationships());
+        phase.addRelationships(Relationships.POSTAL_CODE_FOR, builder.getPostalCodeRelationships());
     }
 
-    
+    /**
+     * Links the postal codes near each other. Their centroids are read again from the postal code file, which is small,
+     * rather than held on to since the node phase.
+     */
+    private void createNearRelationships() throws IOException {
+        PhaseMetrics phase = metrics.startPhase("nearRelationships");
+        final NearRelationshipBuilder builder = new NearRelationshipBuilder(nearRadiusKm, Runtime.getRuntime()
+                .availableProcessors());
+        try (CloseableIterator<PlzTabBean> plzBeans = files.iteratePlz()) {
+            while (plzBeans.hasNext()) {
+                PlzTabBean plzBean = plzBeans.next();
+                String plz = plzBean.getPlz();
+                int postalCode = PostalCodeNodeIndex.parse(plz, 0, plz.length());
+                long nodeId = plzNodeIds.get(postalCode);
+                if (nodeId != PostalCodeNodeIndex.NOT_FOUND) {
+                    builder.add(postalCode, plzBean.getLatMicroDegrees(), plzBean.getLonMicroDegrees(), nodeId);
+                }
+            }
+        }
+        progress.track(phase.getName(), "relationships", new Progress() {
+            @Override
+            public long getDone() {
+                return builder.getRelationshipsCreated();
+            }
 
-    private void parsePlz(String plzFile) throws IOException {
-        PlzParser plzParser = new PlzParser();
-        this.plzBeans = plzParser.readDataFromStream(new FileInputStream(plzFile));
-        LOGGER.info("read in plz from: " + plzFile);
+            @Override
+            public long getTotal() {
+                return 0;
+            }
+        });
+        try {
+            builder.build(graphDb, batchSize);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while creating near relationships", e);
+        }
+        phase.addItems(builder.size());
+        phase.addRelationships(Relationships.NEAR, builder.getRelationshipsCreated());
+        phase.finish();
+        progress.untrack();
     }
 
-    private void parsePlaces(String placeFile) throws IOException {
-        PlaceParser placeParser = new PlaceParser();
-        this.placeBeans = placeParser.readDataFromStream(new FileInputStream(placeFile));
-        LOGGER.info("read in places from: " + placeFile);
+    private void createNeighbourRelationships() throws IOException {
+        PhaseMetrics phase = metrics.startPhase("neighbourRelationships");
+        final NeighbourRelationshipBuilder builder = new NeighbourRelationshipBuilder(neighbourDistanceKm);
+        if (!files.isHeldInMemory()) {
+            trackPlaceFile(phase);
+        }
+        try (CloseableIterator<? extends PlaceRecord> placeBeans = files.iteratePlaces()) {
+            while (placeBeans.hasNext()) {
+                PlaceRecord placeBean = placeBeans.next();
+                long nodeId = placeNodeIds.get(placeBean.getId());
+                if (nodeId != IntLongHashMap.NOT_FOUND) {
+                    builder.add(placeBean, nodeId);
+                }
+            }
+        }
+        progress.track(phase.getName(), "relationships", new Progress() {
+            @Override
+            public long getDone() {
+                return builder.getRelationshipsCreated();
+            }
+
+            @Override
+            public long getTotal() {
+                return 0;
+            }
+        });
+        builder.build(graphDb, batchSize);
+        phase.addItems(builder.size());
+        phase.addRelationships(Relationships.NEIGHBOUR_OF, builder.getRelationshipsCreated());
+        phase.finish();
+        progress.untrack();
+    }
+
+    private void trackPlaceFile(PhaseMetrics phase) {
+        progress.track(phase.getName(), ProgressReporter.BYTES, new Progress() {
+            @Override
+            public long getDone() {
+                return files.getPlaceBytesRead();
+            }
+
+            @Override
+            public long getTotal() {
+                return files.getPlaceFileSize();
+            }
+        });
+    }
+
+    private void createDatabase(String dbDir) {
+        this.graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(dbDir);
+
+        LOGGER.info("Created graph db in directory " + dbDir);
     }
 
 }
@@ -16,6 +16,7 @@
 package info.jejking.opengeodb.neo4j.importer;
 
 import java.io.IOException;
+import java.util.Set;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -66,12 +67,85 @@ public class ImporterRunner {
         	String placeFilePath = commandLine.getOptionValue("p");
         	String zipFilePath = commandLine.getOptionValue("z");
         	String neo4jDirPath = commandLine.getOptionValue("n");
-        	Importer importer = new Importer();
-        	importer.doImport(placeFilePath, zipFilePath, neo4jDirPath);
+        	int parseThreads = Integer.parseInt(commandLine.getOptionValue("t", "1"));
+        	String engine = commandLine.getOptionValue("e", "transactional");
+        	Set<PlaceColumn> placeColumns = PlaceColumn.ALL;
+        	if (commandLine.hasOption("c")) {
+        		try {
+        			placeColumns = PlaceColumn.parse(commandLine.getOptionValue("c"));
+        		} catch (IllegalArgumentException e) {
+        			throw new ParseException(e.getMessage());
+        		}
+        	}
+        	PlaceFilter placeFilter = null;
+        	if (commandLine.hasOption("f")) {
+        		try {
+        			placeFilter = PlaceFilter.parse(commandLine.getOptionValue("f"));
+        		} catch (IllegalArgumentException e) {
+        			throw new ParseException(e.getMessage());
+        		}
+        	}
+        	if ("transactional".equals(engine)) {
+        		if (commandLine.hasOption("l")) {
+        			rejectOptions(commandLine, "is not used by the pipelined import", "s", "r");
+        		}
+        		Importer importer = new Importer();
+        		importer.setParseThreads(parseThreads);
+        		importer.setPipelined(commandLine.hasOption("l"));
+        		importer.setRelationshipThreads(Integer.parseInt(commandLine.getOptionValue("r", "1")));
+        		importer.setDeferIndexes(commandLine.hasOption("d"));
+        		importer.setMetricsFile(commandLine.getOptionValue("m"));
+        		importer.setSnapshotFile(commandLine.getOptionValue("s"));
+        		importer.setPlaceColumns(placeColumns);
+        		importer.setPlaceFilter(placeFilter);
+        		importer.setGeocoderFile(commandLine.getOptionValue("g"));
+        		if (commandLine.hasOption("k")) {
+        			importer.setNearRadiusKm(Double.parseDouble(commandLine.getOptionValue("k")));
+        		}
+        		if (commandLine.hasOption("a")) {
+        			importer.setNeighbourDistanceKm(Double.parseDouble(commandLine.getOptionValue("a")));
+        		}
+        		if (commandLine.hasOption("w")) {
+        			importer.setIndexTimeoutSeconds(Long.parseLong(commandLine.getOptionValue("w")));
+        		}
+        		if (commandLine.hasOption("i")) {
+        			importer.setProgressIntervalSeconds(Long.parseLong(commandLine.getOptionValue("i")));
+        		}
+        		if (commandLine.hasOption("b")) {
+        			importer.setBatchSize(Integer.parseInt(commandLine.getOptionValue("b")));
+        		}
+        		importer.doImport(placeFilePath, zipFilePath, neo4jDirPath);
+        	} else if ("batch".equals(engine)) {
+        		rejectOptions(commandLine, "is only used by the transactional engine", "b", "r", "l", "d", "w",
+        				"m", "i");
+        		BatchImporter importer = new BatchImporter();
+        		importer.setParseThreads(parseThreads);
+        		importer.setSnapshotFile(commandLine.getOptionValue("s"));
+        		importer.setPlaceColumns(placeColumns);
+        		importer.setPlaceFilter(placeFilter);
+        		importer.setGeocoderFile(commandLine.getOptionValue("g"));
+        		if (commandLine.hasOption("k")) {
+        			importer.setNearRadiusKm(Double.parseDouble(commandLine.getOptionValue("k")));
+        		}
+        		if (commandLine.hasOption("a")) {
+        			importer.setNeighbourDistanceKm(Double.parseDouble(commandLine.getOptionValue("a")));
+        		}
+        		importer.doImport(placeFilePath, zipFilePath, neo4jDirPath);
+        	} else {
+        		throw new ParseException("Unknown import engine: " + engine);
+        	}
         }
 		
 	}
 
+	private static void rejectOptions(CommandLine commandLine, String reason, String... names) throws ParseException {
+		for (String name : names) {
+			if (commandLine.hasOption(name)) {
+				throw new ParseException("Option -" + name + " " + reason);
+			}
+		}
+	}
+
 	@SuppressWarnings("static-access")
 	private static void initOptions() {
 		options.addOption(OptionBuilder
@@ -95,6 +169,119 @@ public class ImporterRunner {
 							.withDescription("path to directory in which to create neo4j database")
 							.create("n"));
 
+		options.addOption(OptionBuilder
+							.withLongOpt("parseThreads")
+							.withArgName("threads")
+							.hasArg()
+							.withDescription("number of threads with which to parse the place file in parallel, default 1")
+							.create("t"));
+
+		options.addOption(OptionBuilder
+							.withLongOpt("engine")
+							.withArgName("transactional|batch")
+							.hasArg()
+							.withDescription("how to write the database: through transactions (default) or "
+									+ "offline with the batch inserter into an empty directory")
+							.create("e"));
+
+		options.addOption(OptionBuilder
+							.withLongOpt("batchSize")
+							.withArgName("operations")
+							.hasArg()
+							.withDescription("number of nodes or relationships to create per transaction, "
+									+ "transactional engine only, default " + Importer.DEFAULT_BATCH_SIZE)
+							.create("b"));
+
+		options.addOption(OptionBuilder
+							.withLongOpt("relationshipThreads")
+							.withArgName("threads")
+							.hasArg()
+							.withDescription("number of threads with which to create relationships, "
+									+ "transactional engine only, not with -l, default 1")
+							.create("r"));
+
+		options.addOption("l", "pipelined", false,
+				"parse and write concurrently, transactional engine only");
+
+		options.addOption("d", "deferIndexes", false,
+				"create and populate the indexes after loading the data, transactional engine only");
+
+		options.addOption(OptionBuilder
+							.withLongOpt("indexTimeout")
+							.withArgName("seconds")
+							.hasArg()
+							.withDescription("how long to wait for the indexes to come online, default "
+									+ Importer.DEFAULT_INDEX_TIMEOUT_SECONDS
+									+ "; with deferred indexes only a warning is logged if they are not; "
+									+ "transactional engine only")
+							.create("w"));
+
+		options.addOption(OptionBuilder
+							.withLongOpt("metricsFile")
+							.withArgName("metricsFilePath")
+							.hasArg()
+							.withDescription("path of a file to which to write the metrics of each import phase "
+									+ "as JSON, transactional engine only")
+							.create("m"));
+
+		options.addOption(OptionBuilder
+							.withLongOpt("progressInterval")
+							.withArgName("seconds")
+							.hasArg()
+							.withDescription("seconds between progress reports, 0 for none, default "
+									+ Importer.DEFAULT_PROGRESS_INTERVAL_SECONDS + ", transactional engine only")
+							.create("i"));
+
+		options.addOption(OptionBuilder
+							.withLongOpt("snapshotFile")
+							.withArgName("snapshotFilePath")
+							.hasArg()
+							.withDescription("path of a binary snapshot of the parsed files, loaded in place of "
+									+ "parsing them if it is up to date and written otherwise; not with -l")
+							.create("s"));
+
+		options.addOption(OptionBuilder
+							.withLongOpt("placeColumns")
+							.withArgName("columns")
+							.hasArg()
+							.withDescription("comma-separated columns of the place file to import, for example "
+									+ "name,lat,lon,plzs,typ,level,of; the id is always imported, default all")
+							.create("c"));
+
+		options.addOption(OptionBuilder
+							.withLongOpt("filter")
+							.withArgName("expression")
+							.hasArg()
+							.withDescription("imports only the places matching all criteria, with their ancestors, "
+									+ "and their postal codes; criteria separated by ';' out of ags=prefixes, "
+									+ "level=levels or from..to ranges, typ=types and subtree=ids, for example "
+									+ "\"ags=01,02;level=3,5..6\"")
+							.create("f"));
+
+		options.addOption(OptionBuilder
+							.withLongOpt("geocoderFile")
+							.withArgName("geocoderFilePath")
+							.hasArg()
+							.withDescription("path of a file to write a reverse geocoder over the postal codes and "
+									+ "places to, for finding the nearest of them without the database")
+							.create("g"));
+
+		options.addOption(OptionBuilder
+							.withLongOpt("nearRadius")
+							.withArgName("km")
+							.hasArg()
+							.withDescription("links postal codes within this many kilometres of each other with NEAR "
+									+ "relationships, by default none")
+							.create("k"));
+
+		options.addOption(OptionBuilder
+							.withLongOpt("neighbourDistance")
+							.withArgName("km")
+							.hasArg()
+							.withDescription("links places of the same level which are next to each other and at most "
+									+ "this many kilometres apart with NEIGHBOUR_OF relationships, by default none")
+							.create("a"));
+
 		options.addOption("h", "help", false, "prints this message");
 	}
 
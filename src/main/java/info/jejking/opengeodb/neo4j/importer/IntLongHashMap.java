@@ -0,0 +1,147 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from int keys to non-negative long values, such as OpenGeoDB ids to Neo4j node ids. Keys
+ * and values are held in two primitive arrays, so there is no boxing and no per-entry object. Not thread safe.
+ * 
+ * @author jejking
+ */
+class IntLongHashMap {
+
+    /**
+     * Returned by {@link #get(int)} for keys which are not in the map.
+     */
+    static final long NOT_FOUND = -1L;
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private int[] keys;
+    private long[] values;
+    private int size;
+    private int resizeThreshold;
+
+    /**
+     * Constructs a map with a small default capacity.
+     */
+    public IntLongHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a map which can take the given number of entries without resizing.
+     * 
+     * @param expectedSize
+     *            expected number of entries
+     */
+    public IntLongHashMap(int expectedSize) {
+        super();
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Associates value with key, replacing any previous value.
+     * 
+     * @param key
+     *            the key
+     * @param value
+     *            the value, must not be negative
+     */
+    public void put(int key, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Values must not be negative: " + value);
+        }
+        int slot = findSlot(keys, values, key);
+        if (values[slot] == NOT_FOUND) {
+            if (size >= resizeThreshold) {
+                resize();
+                slot = findSlot(keys, values, key);
+            }
+            size++;
+            keys[slot] = key;
+        }
+        values[slot] = value;
+    }
+
+    /**
+     * @param key
+     *            the key
+     * @return the value for the key, or {@link #NOT_FOUND}
+     */
+    public long get(int key) {
+        return values[findSlot(keys, values, key)];
+    }
+
+    /**
+     * @param key
+     *            the key
+     * @return whether the map holds a value for the key
+     */
+    public boolean containsKey(int key) {
+        return get(key) != NOT_FOUND;
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new long[capacity];
+        Arrays.fill(values, NOT_FOUND);
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(keys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != NOT_FOUND) {
+                int slot = findSlot(keys, values, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Linear probing from the hashed position to the slot holding the key or to the first empty slot.
+     */
+    private static int findSlot(int[] keys, long[] values, int key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (values[slot] != NOT_FOUND && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int mix(int key) {
+        // spread sequential ids across the table
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.BatchInserterRelationshipWriter;
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.GraphDbRelationshipWriter;
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.RelationshipWriter;
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.Relationships;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+
+/**
+ * Links every two postal codes whose centroids lie within a given radius of each other with a
+ * {@link Relationships#NEAR} relationship, carrying the distance between them in kilometres as the property
+ * {@link OpenGeoDbProperties#DISTANCE_KM}, so that proximity traversals become single hops. Each pair is linked once,
+ * from the lower postal code to the higher.
+ * 
+ * <p>
+ * Rather than comparing all pairs, the centroids are bucketed into a grid of cells at least as high and as wide as the
+ * radius, so that a pair within the radius always lies in the same or in adjacent cells. The cells are held as a
+ * sorted array of cell keys with the postal codes of each cell stored contiguously, and each cell is compared with
+ * itself and with the four adjacent cells following it, so that each pair of cells is visited once. The comparisons
+ * are split across worker threads by ranges of cells. The pairs found are then written in order by a single thread,
+ * in batches of their own transactions: the relationships between postal codes in the same area share their nodes,
+ * so parallel writers would mostly wait on each other's locks.
+ * </p>
+ * 
+ * <p>
+ * The grid does not wrap around the antimeridian, which the OpenGeoDB data, covering central Europe, never crosses.
+ * </p>
+ * 
+ * @author jejking
+ */
+class NearRelationshipBuilder {
+
+    private static final Logger LOGGER = Logger.getLogger(NearRelationshipBuilder.class.getName());
+
+    private static final double KM_PER_DEGREE = Coordinates.EARTH_RADIUS_KM * Math.PI / 180;
+
+    // ranges of cells per worker thread, so that a dense range does not hold up the end
+    private static final int TASKS_PER_THREAD = 8;
+
+    private final double radiusKm;
+    private final int threads;
+
+    private int[] postalCodes = new int[256];
+    private int[] lats = new int[256];
+    private int[] lons = new int[256];
+    private long[] nodeIds = new long[256];
+    private int size;
+
+    private final AtomicLong relationshipsCreated = new AtomicLong();
+    private final AtomicLong comparisons = new AtomicLong();
+
+    /**
+     * Constructor.
+     * 
+     * @param radiusKm
+     *            distance in kilometres up to which two postal codes are linked
+     * @param threads
+     *            number of threads with which to search for the pairs
+     */
+    public NearRelationshipBuilder(double radiusKm, int threads) {
+        super();
+        if (!(radiusKm > 0)) {
+            throw new IllegalArgumentException("Radius must be positive, got " + radiusKm);
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread, got " + threads);
+        }
+        this.radiusKm = radiusKm;
+        this.threads = threads;
+    }
+
+    /**
+     * Adds the centroid of a postal code.
+     * 
+     * @param postalCode
+     *            the postal code
+     * @param latMicroDegrees
+     *            latitude of its centroid, in micro-degrees
+     * @param lonMicroDegrees
+     *            longitude of its centroid, in micro-degrees
+     * @param nodeId
+     *            id of the node of the postal code
+     */
+    public void add(int postalCode, int latMicroDegrees, int lonMicroDegrees, long nodeId) {
+        if (size == postalCodes.length) {
+            int capacity = size * 2;
+            postalCodes = Arrays.copyOf(postalCodes, capacity);
+            lats = Arrays.copyOf(lats, capacity);
+            lons = Arrays.copyOf(lons, capacity);
+            nodeIds = Arrays.copyOf(nodeIds, capacity);
+        }
+        postalCodes[size] = postalCode;
+        lats[size] = latMicroDegrees;
+        lons[size] = lonMicroDegrees;
+        nodeIds[size] = nodeId;
+        size++;
+    }
+
+    /**
+     * @return number of postal codes added
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Creates the relationships in transactions of the given batch size.
+     * 
+     * @param graphDb
+     *            the graph db service
+     * @param batchSize
+     *            number of relationships after which to commit
+     * @return the number of relationships created
+     * @throws InterruptedException
+     *             if interrupted while waiting for the workers
+     */
+    public long build(GraphDatabaseService graphDb, int batchSize) throws InterruptedException {
+        Pairs pairs = findPairs();
+        try (BatchCommitter committer = new BatchCommitter(graphDb, batchSize, "near relationships")) {
+            write(pairs, new GraphDbRelationshipWriter(graphDb), committer);
+            committer.success();
+        }
+        return relationshipsCreated.get();
+    }
+
+    /**
+     * Creates the relationships with a batch inserter.
+     * 
+     * @param inserter
+     *            the batch inserter
+     * @return the number of relationships created
+     * @throws InterruptedException
+     *             if interrupted while waiting for the workers
+     */
+    public long build(BatchInserter inserter) throws InterruptedException {
+        write(findPairs(), new BatchInserterRelationshipWriter(inserter), null);
+        return relationshipsCreated.get();
+    }
+
+    /**
+     * @return the number of relationships created so far by the running or last build
+     */
+    long getRelationshipsCreated() {
+        return relationshipsCreated.get();
+    }
+
+    /**
+     * @return the number of distances computed by the last build
+     */
+    long getComparisons() {
+        return comparisons.get();
+    }
+
+    private void write(Pairs pairs, RelationshipWriter writer, BatchCommitter committer) {
+        for (int i = 0; i < pairs.size; i++) {
+            int a = pairs.from[i];
+            int b = pairs.to[i];
+            Map<String, Object> properties = Collections.<String, Object> singletonMap(
+                    OpenGeoDbProperties.DISTANCE_KM, pairs.distances[i]);
+            if (postalCodes[a] <= postalCodes[b]) {
+                writer.createRelationship(nodeIds[a], nodeIds[b], Relationships.NEAR, properties);
+            } else {
+                writer.createRelationship(nodeIds[b], nodeIds[a], Relationships.NEAR, properties);
+            }
+            if (committer != null) {
+                committer.add(1);
+            }
+            relationshipsCreated.incrementAndGet();
+        }
+    }
+
+    /**
+     * Buckets the postal codes into the grid and compares the cells in parallel.
+     */
+    Pairs findPairs() throws InterruptedException {
+        relationshipsCreated.set(0);
+        comparisons.set(0);
+        if (size == 0) {
+            return new Pairs();
+        }
+        Grid grid = new Grid();
+
+        int tasks = Math.min(grid.cellCount, threads * TASKS_PER_THREAD);
+        List<Future<Pairs>> results = new ArrayList<>(tasks);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            for (int task = 0; task < tasks; task++) {
+                int fromCell = (int) ((long) grid.cellCount * task / tasks);
+                int toCell = (int) ((long) grid.cellCount * (task + 1) / tasks);
+                results.add(workers.submit(new Worker(grid, fromCell, toCell)));
+            }
+            Pairs pairs = new Pairs();
+            for (Future<Pairs> result : results) {
+                pairs.addAll(awaitWorker(result));
+            }
+            LOGGER.info("Found " + pairs.size + " pairs of postal codes within " + radiusKm + " km among " + size
+                    + " in " + grid.cellCount + " cells of " + grid.cellLat + " x " + grid.cellLon
+                    + " micro-degrees, computing " + comparisons.get() + " distances on " + threads + " threads");
+            return pairs;
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static Pairs awaitWorker(Future<Pairs> result) throws InterruptedException {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * The postal codes sorted by cell, rows of cells running south to north and the cells of a row west to east.
+     */
+    private final class Grid {
+
+        private final int minLat;
+        private final int minLon;
+        private final int cellLat;
+        private final int cellLon;
+        private final int width;
+
+        /** the key of each non-empty cell, ascending */
+        private final int[] cellKeys;
+        /** the start of the postal codes of each cell in {@link #members}, with the end as the last entry */
+        private final int[] cellStarts;
+        /** indexes of the postal codes, by cell */
+        private final int[] members;
+        private final int cellCount;
+
+        Grid() {
+            int minLat = Integer.MAX_VALUE;
+            int maxLat = Integer.MIN_VALUE;
+            int minLon = Integer.MAX_VALUE;
+            int maxLon = Integer.MIN_VALUE;
+            for (int i = 0; i < size; i++) {
+                minLat = Math.min(minLat, lats[i]);
+                maxLat = Math.max(maxLat, lats[i]);
+                minLon = Math.min(minLon, lons[i]);
+                maxLon = Math.max(maxLon, lons[i]);
+            }
+            this.minLat = minLat;
+            this.minLon = minLon;
+
+            // a pair within the radius is at most the radius apart in latitude, and at most as far apart in longitude
+            // as two points at the latitude furthest from the equator which are the radius apart
+            double cellLatDegrees = radiusKm / KM_PER_DEGREE;
+            double maxAbsLat = Coordinates.toDegrees(Math.max(Math.abs(minLat), Math.abs(maxLat)));
+            double sinLon = Math.sin(radiusKm / (2 * Coordinates.EARTH_RADIUS_KM))
+                    / Math.cos(Math.toRadians(maxAbsLat));
+            double cellLonDegrees = sinLon < 1 ? Math.toDegrees(2 * Math.asin(sinLon)) : 360;
+            long latSpan = (long) maxLat - minLat + 1;
+            long lonSpan = (long) maxLon - minLon + 1;
+            long cellLat = Math.min(latSpan, (long) Math.ceil(cellLatDegrees * Coordinates.MICRO_DEGREES_PER_DEGREE));
+            long cellLon = Math.min(lonSpan, (long) Math.ceil(cellLonDegrees * Coordinates.MICRO_DEGREES_PER_DEGREE));
+            // larger cells stay correct, so coarsen the grid until its keys fit into an int
+            while ((latSpan / cellLat + 1) * (lonSpan / cellLon + 1) > Integer.MAX_VALUE) {
+                cellLat *= 2;
+                cellLon *= 2;
+            }
+            this.cellLat = (int) cellLat;
+            this.cellLon = (int) cellLon;
+            this.width = (int) (lonSpan / cellLon + 1);
+
+            long[] entries = new long[size];
+            for (int i = 0; i < size; i++) {
+                entries[i] = (long) key(row(lats[i]), column(lons[i])) << 32 | i;
+            }
+            Arrays.sort(entries);
+
+            int[] keys = new int[size];
+            int[] starts = new int[size + 1];
+            members = new int[size];
+            int cells = 0;
+            for (int i = 0; i < size; i++) {
+                int key = (int) (entries[i] >>> 32);
+                if (cells == 0 || keys[cells - 1] != key) {
+                    keys[cells] = key;
+                    starts[cells] = i;
+                    cells++;
+                }
+                members[i] = (int) entries[i];
+            }
+            starts[cells] = size;
+            this.cellKeys = Arrays.copyOf(keys, cells);
+            this.cellStarts = Arrays.copyOf(starts, cells + 1);
+            this.cellCount = cells;
+        }
+
+        int row(int lat) {
+            return (int) (((long) lat - minLat) / cellLat);
+        }
+
+        int column(int lon) {
+            return (int) (((long) lon - minLon) / cellLon);
+        }
+
+        int key(int row, int column) {
+            return row * width + column;
+        }
+
+        /**
+         * @return index of the cell at the given position, or -1 if it is empty or outside the grid
+         */
+        int find(int row, int column) {
+            if (column < 0 || column >= width) {
+                return -1;
+            }
+            int cell = Arrays.binarySearch(cellKeys, key(row, column));
+            return cell < 0 ? -1 : cell;
+        }
+    }
+
+    /**
+     * Compares the postal codes in a range of cells with those of the same and the following adjacent cells.
+     */
+    private final class Worker implements Callable<Pairs> {
+
+        private final Grid grid;
+        private final int fromCell;
+        private final int toCell;
+        private final Pairs pairs = new Pairs();
+        private long distances;
+
+        Worker(Grid grid, int fromCell, int toCell) {
+            this.grid = grid;
+            this.fromCell = fromCell;
+            this.toCell = toCell;
+        }
+
+        @Override
+        public Pairs call() {
+            for (int cell = fromCell; cell < toCell; cell++) {
+                int row = grid.cellKeys[cell] / grid.width;
+                int column = grid.cellKeys[cell] % grid.width;
+                compareWithin(cell);
+                compareBetween(cell, grid.find(row, column + 1));
+                compareBetween(cell, grid.find(row + 1, column - 1));
+                compareBetween(cell, grid.find(row + 1, column));
+                compareBetween(cell, grid.find(row + 1, column + 1));
+            }
+            comparisons.addAndGet(distances);
+            return pairs;
+        }
+
+        private void compareWithin(int cell) {
+            int end = grid.cellStarts[cell + 1];
+            for (int i = grid.cellStarts[cell]; i < end; i++) {
+                for (int j = i + 1; j < end; j++) {
+                    compare(grid.members[i], grid.members[j]);
+                }
+            }
+        }
+
+        private void compareBetween(int cell, int other) {
+            if (other < 0) {
+                return;
+            }
+            int end = grid.cellStarts[cell + 1];
+            int otherEnd = grid.cellStarts[other + 1];
+            for (int i = grid.cellStarts[cell]; i < end; i++) {
+                for (int j = grid.cellStarts[other]; j < otherEnd; j++) {
+                    compare(grid.members[i], grid.members[j]);
+                }
+            }
+        }
+
+        private void compare(int a, int b) {
+            distances++;
+            double distance = Coordinates.distanceKm(Coordinates.toDegrees(lats[a]), Coordinates.toDegrees(lons[a]),
+                    Coordinates.toDegrees(lats[b]), Coordinates.toDegrees(lons[b]));
+            if (distance <= radiusKm) {
+                pairs.add(a, b, distance);
+            }
+        }
+    }
+
+    /**
+     * Pairs of postal codes, by index, with the distance between them.
+     */
+    static final class Pairs {
+
+        private int[] from = new int[64];
+        private int[] to = new int[64];
+        private double[] distances = new double[64];
+        private int size;
+
+        void add(int a, int b, double distance) {
+            ensureCapacity(size + 1);
+            from[size] = a;
+            to[size] = b;
+            distances[size] = distance;
+            size++;
+        }
+
+        void addAll(Pairs other) {
+            ensureCapacity(size + other.size);
+            System.arraycopy(other.from, 0, from, size, other.size);
+            System.arraycopy(other.to, 0, to, size, other.size);
+            System.arraycopy(other.distances, 0, distances, size, other.size);
+            size += other.size;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int getFrom(int pair) {
+            return from[pair];
+        }
+
+        int getTo(int pair) {
+            return to[pair];
+        }
+
+        double getDistanceKm(int pair) {
+            return distances[pair];
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > from.length) {
+                int newCapacity = Math.max(capacity, from.length * 2);
+                from = Arrays.copyOf(from, newCapacity);
+                to = Arrays.copyOf(to, newCapacity);
+                distances = Arrays.copyOf(distances, newCapacity);
+            }
+        }
+    }
+
+}
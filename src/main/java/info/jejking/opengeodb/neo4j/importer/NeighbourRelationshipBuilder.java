@@ -0,0 +1,316 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.BatchInserterRelationshipWriter;
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.GraphDbRelationshipWriter;
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.RelationshipWriter;
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.Relationships;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+
+/**
+ * Links neighbouring places of the same level, such as the Gemeinden bordering each other, with
+ * {@link Relationships#NEIGHBOUR_OF} relationships carrying the distance between them in kilometres as the property
+ * {@link OpenGeoDbProperties#DISTANCE_KM}. Each pair is linked once, from the place with the lower id to the higher.
+ * 
+ * <p>
+ * The OpenGeoDB holds no borders, so neighbours are approximated from the coordinates of the places: the places of
+ * each level are triangulated with a {@link DelaunayTriangulation}, whose edges join each place to those around it
+ * without crossing, and the edges up to a maximum distance are kept, which drops the long edges spanning gaps along
+ * the coast and the borders. The coordinates are projected onto a plane, the longitudes scaled by the cosine of the
+ * mean latitude of the level, which distorts the small distances between neighbours very little. A place whose
+ * projected coordinates repeat those of another place of its level is not part of the triangulation; it is linked to
+ * that place and to all of its neighbours instead.
+ * </p>
+ * 
+ * @author jejking
+ */
+class NeighbourRelationshipBuilder {
+
+    private static final Logger LOGGER = Logger.getLogger(NeighbourRelationshipBuilder.class.getName());
+
+    private final double maxDistanceKm;
+
+    private int[] placeIds = new int[256];
+    private int[] levels = new int[256];
+    private int[] lats = new int[256];
+    private int[] lons = new int[256];
+    private long[] nodeIds = new long[256];
+    private int size;
+
+    private final AtomicLong relationshipsCreated = new AtomicLong();
+
+    /**
+     * Constructor.
+     * 
+     * @param maxDistanceKm
+     *            distance in kilometres up to which two places joined by the triangulation are linked
+     */
+    public NeighbourRelationshipBuilder(double maxDistanceKm) {
+        super();
+        if (!(maxDistanceKm > 0)) {
+            throw new IllegalArgumentException("Maximum distance must be positive, got " + maxDistanceKm);
+        }
+        this.maxDistanceKm = maxDistanceKm;
+    }
+
+    /**
+     * Adds a place, if it has a level and coordinates.
+     * 
+     * @param place
+     *            the place
+     * @param nodeId
+     *            id of its node
+     */
+    public void add(PlaceRecord place, long nodeId) {
+        if (place.getLevel() > 0 && place.getLatMicroDegrees() > 0 && place.getLonMicroDegrees() > 0) {
+            add(place.getId(), place.getLevel(), place.getLatMicroDegrees(), place.getLonMicroDegrees(), nodeId);
+        }
+    }
+
+    /**
+     * Adds a place.
+     * 
+     * @param placeId
+     *            the id of the place
+     * @param level
+     *            its level
+     * @param latMicroDegrees
+     *            its latitude, in micro-degrees
+     * @param lonMicroDegrees
+     *            its longitude, in micro-degrees
+     * @param nodeId
+     *            id of its node
+     */
+    void add(int placeId, int level, int latMicroDegrees, int lonMicroDegrees, long nodeId) {
+        if (size == placeIds.length) {
+            int capacity = size * 2;
+            placeIds = Arrays.copyOf(placeIds, capacity);
+            levels = Arrays.copyOf(levels, capacity);
+            lats = Arrays.copyOf(lats, capacity);
+            lons = Arrays.copyOf(lons, capacity);
+            nodeIds = Arrays.copyOf(nodeIds, capacity);
+        }
+        placeIds[size] = placeId;
+        levels[size] = level;
+        lats[size] = latMicroDegrees;
+        lons[size] = lonMicroDegrees;
+        nodeIds[size] = nodeId;
+        size++;
+    }
+
+    /**
+     * @return number of places added
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Creates the relationships in transactions of the given batch size.
+     * 
+     * @param graphDb
+     *            the graph db service
+     * @param batchSize
+     *            number of relationships after which to commit
+     * @return the number of relationships created
+     */
+    public long build(GraphDatabaseService graphDb, int batchSize) {
+        long[] neighbours = findNeighbours();
+        try (BatchCommitter committer = new BatchCommitter(graphDb, batchSize, "neighbour relationships")) {
+            write(neighbours, new GraphDbRelationshipWriter(graphDb), committer);
+            committer.success();
+        }
+        return relationshipsCreated.get();
+    }
+
+    /**
+     * Creates the relationships with a batch inserter.
+     * 
+     * @param inserter
+     *            the batch inserter
+     * @return the number of relationships created
+     */
+    public long build(BatchInserter inserter) {
+        write(findNeighbours(), new BatchInserterRelationshipWriter(inserter), null);
+        return relationshipsCreated.get();
+    }
+
+    /**
+     * @return the number of relationships created so far by the running or last build
+     */
+    long getRelationshipsCreated() {
+        return relationshipsCreated.get();
+    }
+
+    private void write(long[] neighbours, RelationshipWriter writer, BatchCommitter committer) {
+        for (long pair : neighbours) {
+            int a = (int) (pair >>> 32);
+            int b = (int) pair;
+            Map<String, Object> properties = Collections.<String, Object> singletonMap(
+                    OpenGeoDbProperties.DISTANCE_KM, distanceKm(a, b));
+            if (placeIds[a] <= placeIds[b]) {
+                writer.createRelationship(nodeIds[a], nodeIds[b], Relationships.NEIGHBOUR_OF, properties);
+            } else {
+                writer.createRelationship(nodeIds[b], nodeIds[a], Relationships.NEIGHBOUR_OF, properties);
+            }
+            if (committer != null) {
+                committer.add(1);
+            }
+            relationshipsCreated.incrementAndGet();
+        }
+    }
+
+    /**
+     * Triangulates the places of each level.
+     * 
+     * @return the neighbouring places, each pair packed as the index of one in the high and of the other in the low 32
+     *         bits
+     */
+    long[] findNeighbours() {
+        relationshipsCreated.set(0);
+        long start = System.nanoTime();
+
+        long[] byLevel = new long[size];
+        for (int i = 0; i < size; i++) {
+            byLevel[i] = (long) levels[i] << 32 | i;
+        }
+        Arrays.sort(byLevel);
+
+        Pairs neighbours = new Pairs();
+        int edges = 0;
+        int keptEdges = 0;
+        int duplicates = 0;
+        int levelCount = 0;
+        for (int from = 0; from < size;) {
+            int level = (int) (byLevel[from] >>> 32);
+            int to = from;
+            while (to < size && (int) (byLevel[to] >>> 32) == level) {
+                to++;
+            }
+            int[] members = new int[to - from];
+            for (int i = from; i < to; i++) {
+                members[i - from] = (int) byLevel[i];
+            }
+            DelaunayTriangulation triangulation = triangulate(members);
+            long[] levelEdges = triangulation.getEdges();
+            edges += levelEdges.length;
+            levelCount++;
+
+            // the places repeating a triangulated one are chained behind it and share its edges
+            int[] next = new int[members.length];
+            Arrays.fill(next, -1);
+            for (int i = 0; i < members.length; i++) {
+                int original = triangulation.getDuplicateOf(i);
+                if (original >= 0) {
+                    next[i] = next[original];
+                    next[original] = i;
+                    duplicates++;
+                }
+            }
+            for (long edge : levelEdges) {
+                int first = (int) (edge >>> 32);
+                int second = (int) edge;
+                if (addIfNear(members[first], members[second], neighbours)) {
+                    keptEdges++;
+                }
+                for (int a = first; a >= 0; a = next[a]) {
+                    for (int b = second; b >= 0; b = next[b]) {
+                        if (a != first || b != second) {
+                            addIfNear(members[a], members[b], neighbours);
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < members.length; i++) {
+                if (!triangulation.isDuplicate(i)) {
+                    for (int a = i; a >= 0; a = next[a]) {
+                        for (int b = next[a]; b >= 0; b = next[b]) {
+                            addIfNear(members[a], members[b], neighbours);
+                        }
+                    }
+                }
+            }
+            from = to;
+        }
+
+        LOGGER.info("Triangulated " + plural(size, "place") + " on " + plural(levelCount, "level") + " in "
+                + (System.nanoTime() - start) / 1000000 + " ms, keeping " + keptEdges + " of " + plural(edges, "edge")
+                + " up to " + maxDistanceKm + " km");
+        if (duplicates > 0) {
+            LOGGER.info("Gave " + plural(duplicates, "place") + " at the coordinates of another place of their level "
+                    + "its neighbours, adding " + plural(neighbours.size - keptEdges, "link"));
+        }
+        return Arrays.copyOf(neighbours.pairs, neighbours.size);
+    }
+
+    private boolean addIfNear(int a, int b, Pairs neighbours) {
+        if (distanceKm(a, b) <= maxDistanceKm) {
+            neighbours.add((long) a << 32 | b);
+            return true;
+        }
+        return false;
+    }
+
+    private static String plural(int count, String noun) {
+        return count + " " + noun + (count == 1 ? "" : "s");
+    }
+
+    private DelaunayTriangulation triangulate(int[] members) {
+        long latSum = 0;
+        for (int member : members) {
+            latSum += lats[member];
+        }
+        double scale = Math.cos(Math.toRadians(Coordinates.toDegrees((int) (latSum / members.length))));
+        int[] x = new int[members.length];
+        int[] y = new int[members.length];
+        for (int i = 0; i < members.length; i++) {
+            x[i] = (int) Math.round(lons[members[i]] * scale);
+            y[i] = lats[members[i]];
+        }
+        return new DelaunayTriangulation(x, y);
+    }
+
+    private double distanceKm(int a, int b) {
+        return Coordinates.distanceKm(Coordinates.toDegrees(lats[a]), Coordinates.toDegrees(lons[a]),
+                Coordinates.toDegrees(lats[b]), Coordinates.toDegrees(lons[b]));
+    }
+
+    /**
+     * A growing array of packed pairs of places.
+     */
+    private static final class Pairs {
+
+        private long[] pairs = new long[256];
+        private int size;
+
+        void add(long pair) {
+            if (size == pairs.length) {
+                pairs = Arrays.copyOf(pairs, size * 2);
+            }
+            pairs[size++] = pair;
+        }
+    }
+
+}
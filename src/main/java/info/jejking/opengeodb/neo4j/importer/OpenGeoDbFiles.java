@@ -0,0 +1,319 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import info.jejking.opengeodb.neo4j.importer.PlaceParser.PlaceBean;
+import info.jejking.opengeodb.neo4j.importer.PlzParser.PlzTabBean;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * The pair of OpenGeoDB tab-delimited files to import, together with the policy for reading them. Each call to one of
+ * the iterate methods reads the data afresh, unless the place file is parsed in parallel, in which case it is parsed
+ * once and held in a {@link PlaceStore} until {@link #release()}. With a {@link #setSnapshotFile(Path) snapshot
+ * file}, both files are held in memory, loaded from the snapshot if it is up to date and otherwise parsed and then
+ * saved to it. A {@link #setPlaceFilter(PlaceFilter) filter} narrows both files down to part of the places.
+ * 
+ * @author jejking
+ */
+class OpenGeoDbFiles {
+
+    private static final Logger LOGGER = Logger.getLogger(OpenGeoDbFiles.class.getName());
+
+    private final String placeFile;
+    private final String plzFile;
+    private final int parseThreads;
+    private AtomicLong skippedLines = new AtomicLong();
+    private Path snapshotFile;
+    private Set<PlaceColumn> placeColumns = PlaceColumn.ALL;
+    private PlaceFilter placeFilter;
+    private PlaceSelection selection;
+    private PlaceStore parsedPlaces;
+    private ParsedDataSnapshot snapshot;
+    private volatile CountingInputStream placeStream;
+    private volatile CountingInputStream plzStream;
+    private boolean placeFileRead;
+    private boolean plzFileRead;
+
+    /**
+     * Constructor.
+     * 
+     * @param placeFile
+     *            path to file with tab-delimited place data
+     * @param plzFile
+     *            path to file with tab-delimited postal code data
+     * @param parseThreads
+     *            number of threads with which to parse the place file, streaming it if one
+     */
+    public OpenGeoDbFiles(String placeFile, String plzFile, int parseThreads) {
+        super();
+        this.placeFile = placeFile;
+        this.plzFile = plzFile;
+        this.parseThreads = parseThreads;
+    }
+
+    /**
+     * @param skippedLines
+     *            counter to add the number of lines skipped because of data errors to; only the first read of each
+     *            file counts and logs them, as later reads find the same lines again
+     */
+    public void setSkippedLineCounter(AtomicLong skippedLines) {
+        this.skippedLines = skippedLines;
+    }
+
+    /**
+     * Sets a file in which to keep a {@link ParsedDataSnapshot snapshot} of the parsed files, so that later imports
+     * of the same files need not parse them again.
+     * 
+     * @param snapshotFile
+     *            path of the snapshot file, or <code>null</code> for none
+     */
+    public void setSnapshotFile(Path snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * Restricts the parsing of the place file to a projection of its columns, see
+     * {@link PlaceParser#setColumns(Set)}.
+     * 
+     * @param placeColumns
+     *            the columns to decode
+     */
+    public void setPlaceColumns(Set<PlaceColumn> placeColumns) {
+        this.placeColumns = placeColumns;
+    }
+
+    /**
+     * @return the columns of the place file which are decoded
+     */
+    public Set<PlaceColumn> getPlaceColumns() {
+        return placeColumns;
+    }
+
+    /**
+     * Restricts the import to the places a filter selects, with their ancestors, and to their postal codes. The
+     * selection is worked out by a quick pass over the place file before it is first parsed.
+     * 
+     * @param placeFilter
+     *            the filter, or <code>null</code> for all places
+     */
+    public void setPlaceFilter(PlaceFilter placeFilter) {
+        this.placeFilter = placeFilter;
+        this.selection = null;
+    }
+
+    /**
+     * @return whether the parsed data is held in memory, rather than the files being streamed on each iteration
+     */
+    public boolean isHeldInMemory() {
+        return parseThreads > 1 || snapshotFile != null;
+    }
+
+    /**
+     * @return path to the place file
+     */
+    public String getPlaceFile() {
+        return placeFile;
+    }
+
+    /**
+     * @return path to the postal code file
+     */
+    public String getPlzFile() {
+        return plzFile;
+    }
+
+    /**
+     * @return size of the place file in bytes
+     */
+    public long getPlaceFileSize() {
+        return new File(placeFile).length();
+    }
+
+    /**
+     * @return size of the postal code file in bytes
+     */
+    public long getPlzFileSize() {
+        return new File(plzFile).length();
+    }
+
+    /**
+     * May be called from any thread while the place file is being streamed.
+     * 
+     * @return number of bytes of the place file consumed by the latest iterator, zero if it has not been streamed
+     */
+    public long getPlaceBytesRead() {
+        CountingInputStream stream = placeStream;
+        return stream == null ? 0 : stream.getCount();
+    }
+
+    /**
+     * May be called from any thread while the postal code file is being streamed.
+     * 
+     * @return number of bytes of the postal code file consumed by the latest iterator, zero if it has not been read
+     */
+    public long getPlzBytesRead() {
+        CountingInputStream stream = plzStream;
+        return stream == null ? 0 : stream.getCount();
+    }
+
+    /**
+     * @return iterator over the postal codes, to be closed by the caller
+     * @throws IOException
+     *             on IO problems
+     */
+    public CloseableIterator<PlzTabBean> iteratePlz() throws IOException {
+        if (snapshotFile != null) {
+            return CloseableIterators.fromIterator(snapshot().getPostalCodes().iterator());
+        }
+        PlzParser parser = plzParser();
+        plzStream = new CountingInputStream(new FileInputStream(plzFile));
+        return parser.iterateDataFromStream(plzStream);
+    }
+
+    /**
+     * Iterates over the places. If they are {@link #isHeldInMemory() held in memory}, the iterator hands out the same
+     * {@link PlaceStore.Cursor} each time, moved on to the next row, so callers must not keep hold of the places.
+     * 
+     * @return iterator over the places, to be closed by the caller
+     * @throws IOException
+     *             on IO problems
+     */
+    public CloseableIterator<? extends PlaceRecord> iteratePlaces() throws IOException {
+        if (snapshotFile != null) {
+            return snapshot().getPlaces().iterateRows();
+        }
+        if (parseThreads == 1) {
+            PlaceParser parser = placeParser();
+            placeStream = new CountingInputStream(new FileInputStream(placeFile));
+            return parser.iterateDataFromStream(placeStream);
+        }
+        if (parsedPlaces == null) {
+            parsedPlaces = parsePlacesInParallel();
+        }
+        return parsedPlaces.iterateRows();
+    }
+
+    /**
+     * Drops any data held in memory.
+     */
+    public void release() {
+        parsedPlaces = null;
+        snapshot = null;
+    }
+
+    private PlaceStore parsePlacesInParallel() throws IOException {
+        PlaceParser parser = placeParser();
+        ForkJoinPool pool = new ForkJoinPool(parseThreads);
+        List<PlaceBean> places;
+        try {
+            places = parser.readDataFromFile(Paths.get(placeFile), pool);
+        } finally {
+            pool.shutdown();
+        }
+        PlaceStore store = new PlaceStore();
+        for (PlaceBean place : places) {
+            store.add(place);
+        }
+        store.compact();
+        LOGGER.info("parsed " + store.size() + " places with " + parseThreads + " threads, holding them in "
+                + store.estimateBytes() / 1024 + " KB");
+        return store;
+    }
+
+    private PlaceStore parsePlaces() throws IOException {
+        PlaceParser parser = placeParser();
+        PlaceStore store = new PlaceStore();
+        try (CloseableIterator<PlaceBean> places = parser.iterateDataFromStream(new FileInputStream(placeFile))) {
+            while (places.hasNext()) {
+                store.add(places.next());
+            }
+        }
+        store.compact();
+        return store;
+    }
+
+    private PlaceParser placeParser() throws IOException {
+        PlaceParser parser = new PlaceParser();
+        if (placeFileRead) {
+            parser.setQuiet(true);
+        } else {
+            parser.setSkippedLineCounter(skippedLines);
+            placeFileRead = true;
+        }
+        parser.setColumns(placeColumns);
+        parser.setSelection(selection());
+        return parser;
+    }
+
+    private PlzParser plzParser() throws IOException {
+        PlzParser parser = new PlzParser();
+        if (plzFileRead) {
+            parser.setQuiet(true);
+        } else {
+            parser.setSkippedLineCounter(skippedLines);
+            plzFileRead = true;
+        }
+        parser.setSelection(selection());
+        return parser;
+    }
+
+    private PlaceSelection selection() throws IOException {
+        if (placeFilter == null || selection != null) {
+            return selection;
+        }
+        selection = placeFilter.select(new FileInputStream(placeFile));
+        LOGGER.info("filter " + placeFilter + " selects " + selection.getPlaceCount() + " places and "
+                + selection.getPostalCodeCount() + " postal codes");
+        return selection;
+    }
+
+    private ParsedDataSnapshot snapshot() throws IOException {
+        if (snapshot != null) {
+            return snapshot;
+        }
+        // a snapshot of another projection or filter does not hold the data wanted
+        long sourceChecksum = (ParsedDataSnapshot.checksum(Paths.get(placeFile), Paths.get(plzFile)) * 31
+                + PlaceColumn.toMask(placeColumns)) * 31
+                + (placeFilter == null ? 0 : placeFilter.toString().hashCode());
+        snapshot = ParsedDataSnapshot.read(snapshotFile, sourceChecksum);
+        if (snapshot != null) {
+            skippedLines.addAndGet(snapshot.getSkippedLines());
+            LOGGER.info("loaded " + snapshot.getPlaces().size() + " places and " + snapshot.getPostalCodes().size()
+                    + " postal codes from snapshot " + snapshotFile);
+            return snapshot;
+        }
+
+        long skippedBefore = skippedLines.get();
+        PlaceStore places = parseThreads == 1 ? parsePlaces() : parsePlacesInParallel();
+        PlzParser plzParser = plzParser();
+        List<PlzTabBean> postalCodes = plzParser.readDataFromStream(new FileInputStream(plzFile));
+
+        snapshot = new ParsedDataSnapshot(places, postalCodes, skippedLines.get() - skippedBefore);
+        snapshot.write(snapshotFile, sourceChecksum);
+        return snapshot;
+    }
+
+}
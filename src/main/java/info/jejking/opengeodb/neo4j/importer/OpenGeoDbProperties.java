@@ -27,6 +27,18 @@ public final class OpenGeoDbProperties {
     public static final String POSTAL_CODE_LABEL = "PostalCode";
 
     public static final String LOC_ID = "LOC_ID";
+
+    /**
+     * Prefix of the indexed properties holding the {@link GeoHash} of a location at each of the indexed lengths,
+     * followed by the length.
+     */
+    public static final String GEOHASH = "GEOHASH_";
+
+    /**
+     * Property of a NEAR relationship between two postal codes, or a NEIGHBOUR_OF relationship between two places,
+     * holding the distance between them in kilometres, as double.
+     */
+    public static final String DISTANCE_KM = "DISTANCE_KM";
     
     /**
      * Property names corresponding for a given subset of the properties in a line of the tab-delimited file. Postal codes
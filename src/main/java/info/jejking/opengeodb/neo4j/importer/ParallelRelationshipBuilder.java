@@ -0,0 +1,481 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.GraphDbRelationshipWriter;
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.Relationships;
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.RelationshipWriter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionFailureException;
+import org.neo4j.kernel.DeadlockDetectedException;
+
+/**
+ * Creates the relationships between places and to postal codes with several worker threads, each committing its own
+ * batches.
+ * 
+ * <p>
+ * Creating a relationship locks both of its nodes, so the places are partitioned such that two workers rarely touch the
+ * same node. Each place belongs to the subtree of its ancestor at the {@link #setPartitionLevel(int) partition level},
+ * by default that of the districts, and each subtree is handled by a single worker, largest first. Links which would
+ * cross partitions - to places above the partition level and the <code>PART_OF</code> links of the roots of the
+ * subtrees - are left to a serial pass once the workers have finished, as are the postal codes of dense places such as
+ * the big cities, which share many postal code nodes with their districts. So are the links to postal codes which
+ * places of more than one partition refer to, so that no two workers ever lock the same postal code node.
+ * </p>
+ * 
+ * <p>
+ * The workers should thus not deadlock. Should one all the same, its batch is rolled back and retried from its start
+ * after a short, randomised back-off, up to {@link #setMaxRetries(int)} times.
+ * </p>
+ * 
+ * @author jejking
+ */
+class ParallelRelationshipBuilder {
+
+    private static final Logger LOGGER = Logger.getLogger(ParallelRelationshipBuilder.class.getName());
+
+    /**
+     * Default level at whose places the hierarchy is partitioned, that of the districts.
+     */
+    static final int DEFAULT_PARTITION_LEVEL = 5;
+
+    /**
+     * Default number of postal codes above which a place counts as dense.
+     */
+    static final int DEFAULT_DENSE_THRESHOLD = 50;
+
+    /**
+     * Default number of times a deadlocked batch is retried.
+     */
+    static final int DEFAULT_MAX_RETRIES = 10;
+
+    private static final long BASE_BACK_OFF_MILLIS = 5;
+
+    // bit flags stored in the low bits of a task entry, the row is in the high bits
+    private static final int PART_OF = 1;
+    private static final int UNSHARED_POSTAL_CODES = 2;
+    private static final int SHARED_POSTAL_CODES = 4;
+    private static final int POSTAL_CODES = UNSHARED_POSTAL_CODES | SHARED_POSTAL_CODES;
+    private static final int FLAG_BITS = 3;
+
+    private final GraphDatabaseService graphDb;
+    private final int threads;
+    private final int batchSize;
+
+    private int partitionLevel = DEFAULT_PARTITION_LEVEL;
+    private int denseThreshold = DEFAULT_DENSE_THRESHOLD;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+
+    private final AtomicLong relationshipsCreated = new AtomicLong();
+    private final AtomicLong partOfRelationships = new AtomicLong();
+    private final AtomicInteger deadlockRetries = new AtomicInteger();
+
+    /**
+     * Constructor.
+     * 
+     * @param graphDb
+     *            the graph db service
+     * @param threads
+     *            number of worker threads
+     * @param batchSize
+     *            number of relationships after which a worker commits
+     */
+    public ParallelRelationshipBuilder(GraphDatabaseService graphDb, int threads, int batchSize) {
+        super();
+        this.graphDb = graphDb;
+        this.threads = threads;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param partitionLevel
+     *            level of the places at which the hierarchy is split into partitions
+     */
+    public void setPartitionLevel(int partitionLevel) {
+        this.partitionLevel = partitionLevel;
+    }
+
+    /**
+     * @param denseThreshold
+     *            number of postal codes above which the postal codes of a place are linked in the serial pass
+     */
+    public void setDenseThreshold(int denseThreshold) {
+        this.denseThreshold = denseThreshold;
+    }
+
+    /**
+     * @param maxRetries
+     *            number of times a batch which failed with a deadlock is retried before giving up
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Creates all relationships for the places.
+     * 
+     * @param links
+     *            the places to link
+     * @param placeNodeIds
+     *            node ids of the places, by place id
+     * @param plzNodeIds
+     *            node ids of the postal codes
+     * @return the number of relationships created
+     * @throws InterruptedException
+     *             if interrupted while waiting for the workers
+     */
+    public long build(PlaceLinks links, IntLongHashMap placeNodeIds, PostalCodeNodeIndex plzNodeIds)
+            throws InterruptedException {
+        relationshipsCreated.set(0);
+        partOfRelationships.set(0);
+        deadlockRetries.set(0);
+
+        IntLongHashMap rowsById = new IntLongHashMap();
+        for (int row = 0; row < links.size(); row++) {
+            rowsById.put(links.getId(row), row);
+        }
+        int[] rootRows = findRootRows(links, rowsById);
+        BitSet sharedPostalCodes = findSharedPostalCodes(links, rootRows);
+        List<TaskList> partitions = new ArrayList<>();
+        TaskList serial = new TaskList();
+        partition(links, rowsById, rootRows, sharedPostalCodes, partitions, serial);
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> results = new ArrayList<>(partitions.size());
+            for (TaskList partition : partitions) {
+                results.add(workers.submit(new Worker(partition, links, placeNodeIds, plzNodeIds,
+                        sharedPostalCodes)));
+            }
+            for (Future<Void> result : results) {
+                awaitWorker(result);
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        long parallel = relationshipsCreated.get();
+
+        new Worker(serial, links, placeNodeIds, plzNodeIds, sharedPostalCodes).call();
+
+        LOGGER.info("Created " + relationshipsCreated.get() + " relationships, " + parallel + " of them in "
+                + partitions.size() + " partitions on " + threads + " threads, with " + deadlockRetries.get()
+                + " retries after deadlocks; " + sharedPostalCodes.cardinality()
+                + " postal codes shared between partitions were linked serially");
+        return relationshipsCreated.get();
+    }
+
+    /**
+     * @return the number of {@link Relationships#PART_OF} relationships created by the last build
+     */
+    long getPartOfRelationships() {
+        return partOfRelationships.get();
+    }
+
+    /**
+     * @return the number of {@link Relationships#POSTAL_CODE_FOR} relationships created by the last build
+     */
+    long getPostalCodeRelationships() {
+        return relationshipsCreated.get() - partOfRelationships.get();
+    }
+
+    /**
+     * @return the number of batches retried after a deadlock during the last build
+     */
+    int getDeadlockRetries() {
+        return deadlockRetries.get();
+    }
+
+    /**
+     * Finds for each row the row of the place heading its partition, following the parent links upwards until a place
+     * at or above the partition level, or one whose parent is unknown, is reached.
+     */
+    private int[] findRootRows(PlaceLinks links, IntLongHashMap rowsById) {
+        int[] rootRows = new int[links.size()];
+        Arrays.fill(rootRows, -1);
+        int[] path = new int[16];
+        for (int row = 0; row < links.size(); row++) {
+            int depth = 0;
+            int current = row;
+            while (rootRows[current] < 0) {
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                }
+                path[depth++] = current;
+                int parentRow = parentRow(links, rowsById, current);
+                if (links.getLevel(current) <= partitionLevel || parentRow < 0 || depth > links.size()) {
+                    rootRows[current] = current;
+                    break;
+                }
+                current = parentRow;
+            }
+            int root = rootRows[current];
+            for (int i = 0; i < depth; i++) {
+                rootRows[path[i]] = root;
+            }
+        }
+        return rootRows;
+    }
+
+    /**
+     * Finds the postal codes which places of more than one partition link to in parallel.
+     */
+    private BitSet findSharedPostalCodes(PlaceLinks links, int[] rootRows) {
+        int[] ownerRows = new int[PostalCodeNodeIndex.CAPACITY];
+        Arrays.fill(ownerRows, -1);
+        BitSet shared = new BitSet(PostalCodeNodeIndex.CAPACITY);
+        for (int row = 0; row < links.size(); row++) {
+            if (!hasParallelPostalCodes(links, rootRows, row)) {
+                continue;
+            }
+            for (int i = links.getPostalCodeStart(row); i < links.getPostalCodeEnd(row); i++) {
+                int postalCode = links.getPostalCode(i);
+                if (postalCode < 0 || postalCode >= PostalCodeNodeIndex.CAPACITY) {
+                    continue;
+                }
+                if (ownerRows[postalCode] < 0) {
+                    ownerRows[postalCode] = rootRows[row];
+                } else if (ownerRows[postalCode] != rootRows[row]) {
+                    shared.set(postalCode);
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * @return whether the postal codes of the row are linked by the worker of its partition, rather than serially
+     */
+    private boolean hasParallelPostalCodes(PlaceLinks links, int[] rootRows, int row) {
+        int postalCodes = links.getPostalCodeEnd(row) - links.getPostalCodeStart(row);
+        return rootRows[row] != row && postalCodes > 0 && postalCodes <= denseThreshold;
+    }
+
+    private static boolean isShared(int postalCode, BitSet sharedPostalCodes) {
+        return postalCode >= 0 && sharedPostalCodes.get(postalCode);
+    }
+
+    private static int parentRow(PlaceLinks links, IntLongHashMap rowsById, int row) {
+        int of = links.getOf(row);
+        return of > 0 ? (int) rowsById.get(of) : -1;
+    }
+
+    /**
+     * Sorts the work for each row into the task list of its partition or the serial one.
+     */
+    private void partition(PlaceLinks links, IntLongHashMap rowsById, int[] rootRows, BitSet sharedPostalCodes,
+            List<TaskList> partitions, TaskList serial) {
+        TaskList[] byRoot = new TaskList[links.size()];
+        for (int row = 0; row < links.size(); row++) {
+            int root = rootRows[row];
+            boolean belowPartitionLevel = root != row;
+            int parallelFlags = 0;
+            int serialFlags = 0;
+
+            int parentRow = parentRow(links, rowsById, row);
+            if (parentRow >= 0) {
+                if (belowPartitionLevel && rootRows[parentRow] == root) {
+                    parallelFlags |= PART_OF;
+                } else {
+                    serialFlags |= PART_OF;
+                }
+            }
+
+            if (hasParallelPostalCodes(links, rootRows, row)) {
+                for (int i = links.getPostalCodeStart(row); i < links.getPostalCodeEnd(row); i++) {
+                    if (isShared(links.getPostalCode(i), sharedPostalCodes)) {
+                        serialFlags |= SHARED_POSTAL_CODES;
+                    } else {
+                        parallelFlags |= UNSHARED_POSTAL_CODES;
+                    }
+                }
+            } else if (links.getPostalCodeEnd(row) > links.getPostalCodeStart(row)) {
+                serialFlags |= POSTAL_CODES;
+            }
+
+            if (parallelFlags != 0) {
+                if (byRoot[root] == null) {
+                    byRoot[root] = new TaskList();
+                    partitions.add(byRoot[root]);
+                }
+                byRoot[root].add(row, parallelFlags);
+            }
+            if (serialFlags != 0) {
+                serial.add(row, serialFlags);
+            }
+        }
+        // largest first, so that a big partition does not start last and hold up the end
+        Collections.sort(partitions, new Comparator<TaskList>() {
+            @Override
+            public int compare(TaskList a, TaskList b) {
+                return Integer.compare(b.size, a.size);
+            }
+        });
+    }
+
+    private static void awaitWorker(Future<Void> result) throws InterruptedException {
+        try {
+            result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    static boolean isDeadlock(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof DeadlockDetectedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rows with flags saying which of their relationships to create.
+     */
+    private static final class TaskList {
+
+        private int[] entries = new int[64];
+        private int size;
+
+        void add(int row, int flags) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size++] = row << FLAG_BITS | flags;
+        }
+    }
+
+    /**
+     * Works through a task list in batches of its own transactions.
+     */
+    private final class Worker implements Callable<Void> {
+
+        private final TaskList tasks;
+        private final PlaceLinks links;
+        private final IntLongHashMap placeNodeIds;
+        private final PostalCodeNodeIndex plzNodeIds;
+        private final BitSet sharedPostalCodes;
+        private final RelationshipWriter writer = new GraphDbRelationshipWriter(graphDb);
+        private final Random random = new Random();
+        private int partOfInBatch;
+
+        Worker(TaskList tasks, PlaceLinks links, IntLongHashMap placeNodeIds, PostalCodeNodeIndex plzNodeIds,
+                BitSet sharedPostalCodes) {
+            this.tasks = tasks;
+            this.links = links;
+            this.placeNodeIds = placeNodeIds;
+            this.plzNodeIds = plzNodeIds;
+            this.sharedPostalCodes = sharedPostalCodes;
+        }
+
+        @Override
+        public Void call() throws InterruptedException {
+            int next = 0;
+            while (next < tasks.size) {
+                next = commitBatch(next);
+            }
+            return null;
+        }
+
+        /**
+         * Writes one batch starting at the given task, retrying it after deadlocks.
+         * 
+         * @return index of the first task of the next batch
+         */
+        private int commitBatch(int from) throws InterruptedException {
+            for (int attempt = 0;; attempt++) {
+                int operations = 0;
+                int next = from;
+                partOfInBatch = 0;
+                try (Transaction tx = graphDb.beginTx()) {
+                    while (next < tasks.size && operations < batchSize) {
+                        operations += write(tasks.entries[next++]);
+                    }
+                    tx.success();
+                } catch (DeadlockDetectedException | TransactionFailureException e) {
+                    if (!isDeadlock(e) || attempt >= maxRetries) {
+                        throw e;
+                    }
+                    deadlockRetries.incrementAndGet();
+                    Thread.sleep(BASE_BACK_OFF_MILLIS * (1 << Math.min(attempt, 6))
+                            + random.nextInt((int) BASE_BACK_OFF_MILLIS));
+                    continue;
+                }
+                relationshipsCreated.addAndGet(operations);
+                partOfRelationships.addAndGet(partOfInBatch);
+                return next;
+            }
+        }
+
+        private int write(int entry) {
+            int row = entry >>> FLAG_BITS;
+            long placeNodeId = placeNodeIds.get(links.getId(row));
+            if (placeNodeId == IntLongHashMap.NOT_FOUND) {
+                return 0;
+            }
+            int operations = 0;
+            if ((entry & PART_OF) != 0) {
+                long parentNodeId = placeNodeIds.get(links.getOf(row));
+                if (parentNodeId != IntLongHashMap.NOT_FOUND) {
+                    writer.createRelationship(placeNodeId, parentNodeId, Relationships.PART_OF);
+                    partOfInBatch++;
+                    operations++;
+                }
+            }
+            if ((entry & POSTAL_CODES) != 0) {
+                for (int i = links.getPostalCodeStart(row); i < links.getPostalCodeEnd(row); i++) {
+                    int flag = isShared(links.getPostalCode(i), sharedPostalCodes) ? SHARED_POSTAL_CODES
+                            : UNSHARED_POSTAL_CODES;
+                    if ((entry & flag) == 0) {
+                        continue;
+                    }
+                    long plzNodeId = plzNodeIds.get(links.getPostalCode(i));
+                    if (plzNodeId != PostalCodeNodeIndex.NOT_FOUND) {
+                        writer.createRelationship(plzNodeId, placeNodeId, Relationships.POSTAL_CODE_FOR);
+                        operations++;
+                    }
+                }
+            }
+            return operations;
+        }
+    }
+
+}
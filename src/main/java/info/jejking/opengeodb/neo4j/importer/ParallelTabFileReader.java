@@ -0,0 +1,283 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Reads beans from a tab-separated file by memory-mapping it, splitting it into chunks which end on a line boundary
+ * and parsing the chunks in parallel on a {@link ForkJoinPool}. The beans of all chunks are merged in file order.
+ * Lines with data errors are skipped just as in {@link DirectTabSeparatedBeanReader}, and the warnings are logged
+ * after the merge so that they carry the line number in the whole file.
+ * 
+ * @author jejking
+ * @param <T>
+ *            the type of bean
+ */
+class ParallelTabFileReader<T> {
+
+    private static final Logger LOGGER = Logger.getLogger(ParallelTabFileReader.class.getName());
+
+    /**
+     * Default target size of a chunk in bytes.
+     */
+    static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private static final int BOUNDARY_SCAN_SIZE = 8 * 1024;
+
+    private final TabSeparatedRowMapper<T> rowMapper;
+    private final int chunkSize;
+    private AtomicLong skippedLines = new AtomicLong();
+    private boolean quiet;
+
+    /**
+     * Constructs reader with {@link #DEFAULT_CHUNK_SIZE}.
+     * 
+     * @param rowMapper
+     *            maps a line to a bean. Must be safe to use from several threads at once.
+     */
+    public ParallelTabFileReader(TabSeparatedRowMapper<T> rowMapper) {
+        this(rowMapper, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param rowMapper
+     *            maps a line to a bean. Must be safe to use from several threads at once.
+     * @param chunkSize
+     *            target size of a chunk in bytes. Chunks are extended to the end of the line they would otherwise
+     *            split.
+     */
+    public ParallelTabFileReader(TabSeparatedRowMapper<T> rowMapper, int chunkSize) {
+        super();
+        this.rowMapper = rowMapper;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param skippedLines
+     *            counter to add the number of lines skipped because of data errors to
+     */
+    public void setSkippedLineCounter(AtomicLong skippedLines) {
+        this.skippedLines = skippedLines;
+    }
+
+    /**
+     * @param quiet
+     *            whether to skip lines with data errors without logging a warning for each
+     */
+    public void setQuiet(boolean quiet) {
+        this.quiet = quiet;
+    }
+
+    /**
+     * Reads in a list of T from a tab separated file.
+     * 
+     * @param file
+     *            the file to read
+     * @param skipFirstLine
+     *            whether the first line is a header to be ignored
+     * @param pool
+     *            the pool in which to parse the chunks
+     * @return list of T in the order of the lines in the file
+     * @throws IOException
+     *             on IO problems
+     */
+    public List<T> readDataFromFile(Path file, boolean skipFirstLine, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] boundaries = findChunkBoundaries(channel);
+            int chunkCount = boundaries.length - 1;
+            @SuppressWarnings({ "unchecked", "rawtypes" })
+            ChunkResult<T>[] results = new ChunkResult[chunkCount];
+            try {
+                pool.invoke(new ChunkRangeAction(channel, boundaries, skipFirstLine, results, 0, chunkCount));
+            } catch (DataReadException e) {
+                throw e.getCause();
+            }
+            return merge(results);
+        }
+    }
+
+    private List<T> merge(ChunkResult<T>[] results) {
+        int size = 0;
+        for (ChunkResult<T> result : results) {
+            size += result.beans.size();
+        }
+        List<T> beans = new ArrayList<>(size);
+        int lineBase = 0;
+        for (ChunkResult<T> result : results) {
+            beans.addAll(result.beans);
+            skippedLines.addAndGet(result.errorLineCount);
+            if (!quiet) {
+                for (int i = 0; i < result.errorLineCount; i++) {
+                    LOGGER.warning("Ignoring data error in line: " + (lineBase + result.errorLines[i]));
+                }
+            }
+            lineBase += result.lineCount;
+        }
+        return beans;
+    }
+
+    /**
+     * Computes chunk boundaries such that every chunk apart from the last one ends directly after a newline.
+     * 
+     * @return ascending offsets, starting with 0 and ending with the file size
+     */
+    private long[] findChunkBoundaries(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        long position = 0;
+        ByteBuffer scanBuffer = ByteBuffer.allocate(BOUNDARY_SCAN_SIZE);
+        while (size - position > chunkSize) {
+            position = findLineStart(channel, position + chunkSize, size, scanBuffer);
+            if (position >= size) {
+                break;
+            }
+            boundaries.add(position);
+        }
+        boundaries.add(size);
+        long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
+        }
+        return result;
+    }
+
+    private static long findLineStart(FileChannel channel, long from, long size, ByteBuffer scanBuffer)
+            throws IOException {
+        long position = from;
+        while (position < size) {
+            scanBuffer.clear();
+            int read = channel.read(scanBuffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (scanBuffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * The outcome of parsing a single chunk. Line numbers are relative to the start of the chunk.
+     */
+    private static final class ChunkResult<T> {
+        private final List<T> beans = new ArrayList<>();
+        private int[] errorLines = new int[4];
+        private int errorLineCount;
+        private int lineCount;
+
+        void addErrorLine(int line) {
+            if (errorLineCount == errorLines.length) {
+                int[] larger = new int[errorLineCount * 2];
+                System.arraycopy(errorLines, 0, larger, 0, errorLineCount);
+                errorLines = larger;
+            }
+            errorLines[errorLineCount++] = line;
+        }
+    }
+
+    /**
+     * Parses a contiguous range of chunks, splitting the range until each task has a single chunk.
+     */
+    private final class ChunkRangeAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long[] boundaries;
+        private final boolean skipFirstLine;
+        private final ChunkResult<T>[] results;
+        private final int from;
+        private final int to;
+
+        ChunkRangeAction(FileChannel channel, long[] boundaries, boolean skipFirstLine, ChunkResult<T>[] results,
+                int from, int to) {
+            this.channel = channel;
+            this.boundaries = boundaries;
+            this.skipFirstLine = skipFirstLine;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkRangeAction(channel, boundaries, skipFirstLine, results, from, middle),
+                        new ChunkRangeAction(channel, boundaries, skipFirstLine, results, middle, to));
+            } else if (to > from) {
+                try {
+                    results[from] = parseChunk(from);
+                } catch (IOException e) {
+                    throw new DataReadException(e);
+                }
+            }
+        }
+
+        private ChunkResult<T> parseChunk(int chunk) throws IOException {
+            long start = boundaries[chunk];
+            ByteBuffer region = channel.map(MapMode.READ_ONLY, start, boundaries[chunk + 1] - start);
+            ChunkResult<T> result = new ChunkResult<>();
+            try (TabSeparatedLineTokenizer tokenizer = new TabSeparatedLineTokenizer(new ByteBufferInputStream(
+                    region))) {
+                boolean skip = skipFirstLine && chunk == 0;
+                while (tokenizer.nextLine()) {
+                    if (skip) {
+                        skip = false;
+                        continue;
+                    }
+                    boolean mapped = false;
+                    if (tokenizer.getFieldCount() == rowMapper.getColumnCount()) {
+                        try {
+                            T bean = rowMapper.mapRow(tokenizer);
+                            if (bean != null) {
+                                result.beans.add(bean);
+                            }
+                            mapped = true;
+                        } catch (IllegalArgumentException e) {
+                            // reported once the chunks are merged
+                        }
+                    }
+                    if (!mapped) {
+                        result.addErrorLine(tokenizer.getLineNumber());
+                    }
+                }
+                result.lineCount = tokenizer.getLineNumber();
+            }
+            return result;
+        }
+    }
+
+}
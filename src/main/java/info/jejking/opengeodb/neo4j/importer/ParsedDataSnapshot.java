@@ -0,0 +1,529 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import info.jejking.opengeodb.neo4j.importer.PlaceParser.PlaceBean;
+import info.jejking.opengeodb.neo4j.importer.PlzParser.PlzTabBean;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The parsed contents of a place file and a postal code file, stored in a compact binary form from which they can be
+ * loaded far faster than they can be parsed.
+ * 
+ * <p>
+ * The snapshot is columnar: after a header comes a dictionary holding each distinct string once, as UTF-8, and then
+ * one primitive array per field, places first and postal codes second. String fields are stored as indexes into the
+ * dictionary, -1 standing for <code>null</code>. The postal codes of the places are stored as numbers, as a count per
+ * place followed by the codes of all places in one column. The coordinates of places are stored in micro-degrees, and
+ * those of postal codes, which have more decimal places, as doubles. Each int column is stored in one, two or four
+ * bytes per value, whichever is the narrowest to hold all of its values, and doubles in eight. All numbers are
+ * big-endian. The header records the format version, a checksum of the source files and the number of
+ * lines skipped when parsing them, and a trailing CRC32 covers everything before it. A snapshot is only loaded if all
+ * of these match.
+ * </p>
+ * 
+ * <pre>
+ * long magic, int version, long sourceChecksum, long skippedLines
+ * int strings, int[strings + 1] offsets, byte[offsets[strings]] utf8
+ * int places, ints id, ags, ascii, name, lat, lon, amt, postal code count, vorwahl, einwohner,
+ *     double[] flaeche, ints kz, typ, level, of, invalid, int placePostalCodes, ints postal code
+ * int postalCodes, ints id, plz, double[] lon, double[] lat, ints placeName
+ *     where ints is byte width followed by the values in that width
+ * long crc32
+ * </pre>
+ * 
+ * @author jejking
+ */
+class ParsedDataSnapshot {
+
+    private static final Logger LOGGER = Logger.getLogger(ParsedDataSnapshot.class.getName());
+
+    /**
+     * "OGDBSNAP" in ASCII.
+     */
+    static final long MAGIC = 0x4f474442534e4150L;
+
+    /**
+     * Version of the format, to be increased with every incompatible change.
+     */
+    static final int FORMAT_VERSION = 4;
+
+    private static final int NULL_STRING = -1;
+    private static final int CHECKSUM_BLOCK_SIZE = 64 * 1024;
+
+    private final PlaceStore places;
+    private final List<PlzTabBean> postalCodes;
+    private final long skippedLines;
+
+    /**
+     * Constructor.
+     * 
+     * @param places
+     *            the parsed places
+     * @param postalCodes
+     *            the parsed postal codes
+     * @param skippedLines
+     *            number of lines skipped when parsing the files
+     */
+    public ParsedDataSnapshot(PlaceStore places, List<PlzTabBean> postalCodes, long skippedLines) {
+        super();
+        this.places = places;
+        this.postalCodes = postalCodes;
+        this.skippedLines = skippedLines;
+    }
+
+    /**
+     * @return the places, in file order
+     */
+    public PlaceStore getPlaces() {
+        return places;
+    }
+
+    /**
+     * @return the postal codes, in file order
+     */
+    public List<PlzTabBean> getPostalCodes() {
+        return postalCodes;
+    }
+
+    /**
+     * @return number of lines skipped when parsing the source files
+     */
+    public long getSkippedLines() {
+        return skippedLines;
+    }
+
+    /**
+     * Works out the checksum of the source files, which a snapshot must match to be loaded. The files are
+     * memory-mapped, which makes this very much cheaper than parsing them.
+     * 
+     * @param files
+     *            the source files, in a fixed order
+     * @return CRC32 over the lengths and contents of the files
+     * @throws IOException
+     *             on IO problems
+     */
+    public static long checksum(Path... files) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] block = new byte[CHECKSUM_BLOCK_SIZE];
+        for (Path file : files) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                ByteBuffer length = ByteBuffer.allocate(8).putLong(0, size);
+                crc.update(length.array(), 0, 8);
+                update(crc, channel.map(FileChannel.MapMode.READ_ONLY, 0, size), block);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Writes the snapshot. The file is first written next to the target and then moved into place, so that an
+     * interrupted write never leaves a truncated snapshot behind.
+     * 
+     * @param file
+     *            the snapshot file, replaced if it exists
+     * @param sourceChecksum
+     *            checksum of the source files, see {@link #checksum(Path...)}
+     * @throws IOException
+     *             on IO problems
+     */
+    public void write(Path file, long sourceChecksum) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                CRC32 crc = new CRC32();
+                DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(out,
+                        crc), 64 * 1024));
+                writeContents(data, sourceChecksum);
+                data.flush();
+                new DataOutputStream(out).writeLong(crc.getValue());
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        LOGGER.info("Wrote snapshot of " + places.size() + " places and " + postalCodes.size()
+                + " postal codes to " + file);
+    }
+
+    /**
+     * Loads a snapshot by memory-mapping it.
+     * 
+     * @param file
+     *            the snapshot file
+     * @param sourceChecksum
+     *            checksum of the current source files, see {@link #checksum(Path...)}
+     * @return the snapshot, or <code>null</code> if there is none or it is of another version, was taken from other
+     *         source files or is damaged
+     * @throws IOException
+     *             on IO problems
+     */
+    public static ParsedDataSnapshot read(Path file, long sourceChecksum) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 28 + 8 || size > Integer.MAX_VALUE) {
+                LOGGER.info("Ignoring snapshot " + file + " of unexpected size " + size);
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getLong() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                LOGGER.info("Ignoring snapshot " + file + " which is not of version " + FORMAT_VERSION);
+                return null;
+            }
+            if (buffer.getLong() != sourceChecksum) {
+                LOGGER.info("Ignoring snapshot " + file + " of other source files");
+                return null;
+            }
+            ByteBuffer contents = buffer.duplicate();
+            contents.position(0).limit((int) size - 8);
+            CRC32 crc = new CRC32();
+            update(crc, contents, new byte[CHECKSUM_BLOCK_SIZE]);
+            if (crc.getValue() != buffer.getLong((int) size - 8)) {
+                LOGGER.info("Ignoring damaged snapshot " + file);
+                return null;
+            }
+            return readContents(buffer);
+        }
+    }
+
+    private void writeContents(DataOutputStream data, long sourceChecksum) throws IOException {
+        data.writeLong(MAGIC);
+        data.writeInt(FORMAT_VERSION);
+        data.writeLong(sourceChecksum);
+        data.writeLong(skippedLines);
+
+        Dictionary dictionary = new Dictionary();
+        PlaceStore.Cursor cursor = places.cursor();
+        while (cursor.next()) {
+            PlaceRecord place = cursor;
+            dictionary.add(place.getAgs());
+            dictionary.add(place.getAscii());
+            dictionary.add(place.getName());
+            dictionary.add(place.getAmt());
+            dictionary.add(place.getVorwahl());
+            dictionary.add(place.getKz());
+            dictionary.add(place.getTyp());
+            dictionary.add(place.getInvalid());
+        }
+        for (PlzTabBean postalCode : postalCodes) {
+            dictionary.add(postalCode.getPlz());
+            dictionary.add(postalCode.getPlaceName());
+        }
+        dictionary.write(data);
+
+        int placeCount = places.size();
+        int[] ids = new int[placeCount];
+        int[] ags = new int[placeCount];
+        int[] ascii = new int[placeCount];
+        int[] names = new int[placeCount];
+        int[] lats = new int[placeCount];
+        int[] lons = new int[placeCount];
+        int[] amts = new int[placeCount];
+        int[] postalCodeCounts = new int[placeCount];
+        int[] placePostalCodes = new int[256];
+        int placePostalCodeCount = 0;
+        int[] vorwahls = new int[placeCount];
+        int[] einwohner = new int[placeCount];
+        double[] flaechen = new double[placeCount];
+        int[] kzs = new int[placeCount];
+        int[] typs = new int[placeCount];
+        int[] levels = new int[placeCount];
+        int[] ofs = new int[placeCount];
+        int[] invalids = new int[placeCount];
+        for (int i = 0; i < placeCount; i++) {
+            PlaceRecord place = cursor.moveTo(i);
+            ids[i] = place.getId();
+            ags[i] = dictionary.indexOf(place.getAgs());
+            ascii[i] = dictionary.indexOf(place.getAscii());
+            names[i] = dictionary.indexOf(place.getName());
+            lats[i] = place.getLatMicroDegrees();
+            lons[i] = place.getLonMicroDegrees();
+            amts[i] = dictionary.indexOf(place.getAmt());
+            postalCodeCounts[i] = place.getPostalCodeCount();
+            for (int code = 0; code < postalCodeCounts[i]; code++) {
+                if (placePostalCodeCount == placePostalCodes.length) {
+                    placePostalCodes = Arrays.copyOf(placePostalCodes, placePostalCodeCount * 2);
+                }
+                placePostalCodes[placePostalCodeCount++] = place.getPostalCode(code);
+            }
+            vorwahls[i] = dictionary.indexOf(place.getVorwahl());
+            einwohner[i] = place.getEinwohner();
+            flaechen[i] = place.getFlaeche();
+            kzs[i] = dictionary.indexOf(place.getKz());
+            typs[i] = dictionary.indexOf(place.getTyp());
+            levels[i] = place.getLevel();
+            ofs[i] = place.getOf();
+            invalids[i] = dictionary.indexOf(place.getInvalid());
+        }
+        data.writeInt(placeCount);
+        writeInts(data, ids);
+        writeInts(data, ags);
+        writeInts(data, ascii);
+        writeInts(data, names);
+        writeInts(data, lats);
+        writeInts(data, lons);
+        writeInts(data, amts);
+        writeInts(data, postalCodeCounts);
+        writeInts(data, vorwahls);
+        writeInts(data, einwohner);
+        writeDoubles(data, flaechen);
+        writeInts(data, kzs);
+        writeInts(data, typs);
+        writeInts(data, levels);
+        writeInts(data, ofs);
+        writeInts(data, invalids);
+        data.writeInt(placePostalCodeCount);
+        writeInts(data, Arrays.copyOf(placePostalCodes, placePostalCodeCount));
+
+        int postalCodeCount = postalCodes.size();
+        int[] plzIds = new int[postalCodeCount];
+        int[] codes = new int[postalCodeCount];
+        double[] plzLons = new double[postalCodeCount];
+        double[] plzLats = new double[postalCodeCount];
+        int[] placeNames = new int[postalCodeCount];
+        for (int i = 0; i < postalCodeCount; i++) {
+            PlzTabBean postalCode = postalCodes.get(i);
+            plzIds[i] = postalCode.getId();
+            codes[i] = dictionary.indexOf(postalCode.getPlz());
+            plzLons[i] = postalCode.getLon();
+            plzLats[i] = postalCode.getLat();
+            placeNames[i] = dictionary.indexOf(postalCode.getPlaceName());
+        }
+        data.writeInt(postalCodeCount);
+        writeInts(data, plzIds);
+        writeInts(data, codes);
+        writeDoubles(data, plzLons);
+        writeDoubles(data, plzLats);
+        writeInts(data, placeNames);
+    }
+
+    /**
+     * Writes an int column in the narrowest of one, two or four bytes per value which holds all of its values. The
+     * narrow widths store each value plus one, so that they can hold -1.
+     */
+    private static void writeInts(DataOutputStream data, int[] values) throws IOException {
+        int min = 0;
+        int max = 0;
+        for (int value : values) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        if (min >= -1 && max < 0xff) {
+            data.writeByte(1);
+            for (int value : values) {
+                data.writeByte(value + 1);
+            }
+        } else if (min >= -1 && max < 0xffff) {
+            data.writeByte(2);
+            for (int value : values) {
+                data.writeShort(value + 1);
+            }
+        } else {
+            data.writeByte(4);
+            for (int value : values) {
+                data.writeInt(value);
+            }
+        }
+    }
+
+    private static void writeDoubles(DataOutputStream data, double[] values) throws IOException {
+        for (double value : values) {
+            data.writeDouble(value);
+        }
+    }
+
+    private static ParsedDataSnapshot readContents(ByteBuffer buffer) {
+        long skippedLines = buffer.getLong();
+        String[] strings = readDictionary(buffer);
+
+        int placeCount = buffer.getInt();
+        int[] ids = ints(buffer, placeCount);
+        int[] ags = ints(buffer, placeCount);
+        int[] ascii = ints(buffer, placeCount);
+        int[] names = ints(buffer, placeCount);
+        int[] lats = ints(buffer, placeCount);
+        int[] lons = ints(buffer, placeCount);
+        int[] amts = ints(buffer, placeCount);
+        int[] postalCodeCounts = ints(buffer, placeCount);
+        int[] vorwahls = ints(buffer, placeCount);
+        int[] einwohner = ints(buffer, placeCount);
+        double[] flaechen = doubles(buffer, placeCount);
+        int[] kzs = ints(buffer, placeCount);
+        int[] typs = ints(buffer, placeCount);
+        int[] levels = ints(buffer, placeCount);
+        int[] ofs = ints(buffer, placeCount);
+        int[] invalids = ints(buffer, placeCount);
+        int placePostalCodeCount = buffer.getInt();
+        int[] placePostalCodes = ints(buffer, placePostalCodeCount);
+        int postalCodeStart = 0;
+        PlaceStore places = new PlaceStore();
+        PlaceBean place = new PlaceBean();
+        for (int i = 0; i < placeCount; i++) {
+            place.setId(ids[i]);
+            place.setAgs(string(strings, ags[i]));
+            place.setAscii(string(strings, ascii[i]));
+            place.setName(string(strings, names[i]));
+            place.setLatMicroDegrees(lats[i]);
+            place.setLonMicroDegrees(lons[i]);
+            place.setAmt(string(strings, amts[i]));
+            place.setPostalCodes(Arrays.copyOfRange(placePostalCodes, postalCodeStart, postalCodeStart
+                    + postalCodeCounts[i]));
+            postalCodeStart += postalCodeCounts[i];
+            place.setVorwahl(string(strings, vorwahls[i]));
+            place.setEinwohner(einwohner[i]);
+            place.setFlaeche(flaechen[i]);
+            place.setKz(string(strings, kzs[i]));
+            place.setTyp(string(strings, typs[i]));
+            place.setLevel(levels[i]);
+            place.setOf(ofs[i]);
+            place.setInvalid(string(strings, invalids[i]));
+            places.add(place);
+        }
+        places.compact();
+
+        int postalCodeCount = buffer.getInt();
+        int[] plzIds = ints(buffer, postalCodeCount);
+        int[] codes = ints(buffer, postalCodeCount);
+        double[] plzLons = doubles(buffer, postalCodeCount);
+        double[] plzLats = doubles(buffer, postalCodeCount);
+        int[] placeNames = ints(buffer, postalCodeCount);
+        List<PlzTabBean> postalCodes = new ArrayList<>(postalCodeCount);
+        for (int i = 0; i < postalCodeCount; i++) {
+            PlzTabBean postalCode = new PlzTabBean();
+            postalCode.setId(plzIds[i]);
+            postalCode.setPlz(string(strings, codes[i]));
+            postalCode.setLon(plzLons[i]);
+            postalCode.setLat(plzLats[i]);
+            postalCode.setPlaceName(string(strings, placeNames[i]));
+            postalCodes.add(postalCode);
+        }
+        return new ParsedDataSnapshot(places, postalCodes, skippedLines);
+    }
+
+    private static String[] readDictionary(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        int[] offsets = new int[count + 1];
+        buffer.asIntBuffer().get(offsets);
+        buffer.position(buffer.position() + offsets.length * 4);
+        byte[] utf8 = new byte[offsets[count]];
+        buffer.get(utf8);
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            strings[i] = new String(utf8, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    private static int[] ints(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        int width = buffer.get();
+        if (width == 1) {
+            for (int i = 0; i < count; i++) {
+                values[i] = (buffer.get() & 0xff) - 1;
+            }
+        } else if (width == 2) {
+            for (int i = 0; i < count; i++) {
+                values[i] = (buffer.getShort() & 0xffff) - 1;
+            }
+        } else {
+            buffer.asIntBuffer().get(values);
+            buffer.position(buffer.position() + count * 4);
+        }
+        return values;
+    }
+
+    private static double[] doubles(ByteBuffer buffer, int count) {
+        double[] values = new double[count];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + count * 8);
+        return values;
+    }
+
+    private static String string(String[] strings, int index) {
+        return index == NULL_STRING ? null : strings[index];
+    }
+
+    private static void update(CRC32 crc, ByteBuffer buffer, byte[] block) {
+        while (buffer.hasRemaining()) {
+            int length = Math.min(block.length, buffer.remaining());
+            buffer.get(block, 0, length);
+            crc.update(block, 0, length);
+        }
+    }
+
+    /**
+     * Assigns each distinct string an index, in order of first appearance.
+     */
+    private static final class Dictionary {
+
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        void add(String string) {
+            if (string != null && !indexes.containsKey(string)) {
+                indexes.put(string, strings.size());
+                strings.add(string);
+            }
+        }
+
+        int indexOf(String string) {
+            return string == null ? NULL_STRING : indexes.get(string);
+        }
+
+        void write(DataOutputStream data) throws IOException {
+            List<byte[]> encoded = new ArrayList<>(strings.size());
+            for (String string : strings) {
+                encoded.add(string.getBytes(StandardCharsets.UTF_8));
+            }
+            data.writeInt(strings.size());
+            int offset = 0;
+            data.writeInt(offset);
+            for (byte[] bytes : encoded) {
+                offset += bytes.length;
+                data.writeInt(offset);
+            }
+            for (byte[] bytes : encoded) {
+                data.write(bytes);
+            }
+        }
+    }
+
+}
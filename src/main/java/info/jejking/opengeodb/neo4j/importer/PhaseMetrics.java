@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.Relationships;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Figures for one phase of an import, see {@link ImportMetrics}. The counters are only ever advanced by the thread
+ * running the phase, and may be read from any other, such as a JMX client or the {@link ProgressReporter}. As there
+ * is a single writer, the counters are published with ordered writes rather than full volatile ones, which keeps
+ * counting in the hot loops of the import as cheap as a plain store.
+ * 
+ * @author jejking
+ */
+public class PhaseMetrics implements PhaseMetricsMBean {
+
+    private static final AtomicLongFieldUpdater<PhaseMetrics> ITEMS = AtomicLongFieldUpdater.newUpdater(
+            PhaseMetrics.class, "items");
+
+    private final String name;
+    private final AtomicLong skippedLineCounter;
+
+    private final long startNanos;
+    private final long skippedLinesBefore;
+    private final long heapUsedBefore;
+    private final long gcCountBefore;
+    private final long gcTimeBefore;
+
+    private volatile long items;
+    private final AtomicLongArray relationships = new AtomicLongArray(Relationships.values().length);
+
+    private volatile boolean running = true;
+    private long endNanos;
+    private long skippedLines;
+    private long heapUsedAfter;
+    private long gcCount;
+    private long gcTime;
+
+    /**
+     * Starts a phase.
+     * 
+     * @param name
+     *            name of the phase
+     * @param skippedLineCounter
+     *            counter of the lines skipped by the parsers, of which the phase reports the increase
+     */
+    PhaseMetrics(String name, AtomicLong skippedLineCounter) {
+        this.name = name;
+        this.skippedLineCounter = skippedLineCounter;
+        this.skippedLinesBefore = skippedLineCounter.get();
+        this.heapUsedBefore = heapUsed();
+        this.gcCountBefore = totalGcCount();
+        this.gcTimeBefore = totalGcTime();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Counts processed items.
+     * 
+     * @param count
+     *            number of items processed
+     */
+    public void addItems(long count) {
+        ITEMS.lazySet(this, items + count);
+    }
+
+    /**
+     * Counts created relationships.
+     * 
+     * @param type
+     *            type of relationship
+     * @param count
+     *            number created
+     */
+    public void addRelationships(Relationships type, long count) {
+        if (count == 0) {
+            return;
+        }
+        relationships.lazySet(type.ordinal(), relationships.get(type.ordinal()) + count);
+    }
+
+    /**
+     * Ends the phase, fixing its figures.
+     */
+    public void finish() {
+        if (!running) {
+            return;
+        }
+        endNanos = System.nanoTime();
+        skippedLines = skippedLineCounter.get() - skippedLinesBefore;
+        heapUsedAfter = heapUsed();
+        gcCount = totalGcCount() - gcCountBefore;
+        gcTime = totalGcTime() - gcTimeBefore;
+        running = false;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis((running ? System.nanoTime() : endNanos) - startNanos);
+    }
+
+    @Override
+    public long getItems() {
+        return items;
+    }
+
+    @Override
+    public double getItemsPerSecond() {
+        long nanos = (running ? System.nanoTime() : endNanos) - startNanos;
+        return nanos == 0 ? 0 : items * 1e9 / nanos;
+    }
+
+    @Override
+    public long getSkippedLines() {
+        return running ? skippedLineCounter.get() - skippedLinesBefore : skippedLines;
+    }
+
+    /**
+     * @param type
+     *            type of relationship
+     * @return number of relationships of the type created so far
+     */
+    public long getRelationships(Relationships type) {
+        return relationships.get(type.ordinal());
+    }
+
+    @Override
+    public Map<String, Long> getRelationships() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Relationships type : Relationships.values()) {
+            counts.put(type.name(), getRelationships(type));
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+
+    @Override
+    public long getHeapUsedBefore() {
+        return heapUsedBefore;
+    }
+
+    @Override
+    public long getHeapUsedAfter() {
+        return running ? heapUsed() : heapUsedAfter;
+    }
+
+    @Override
+    public long getGcCount() {
+        return running ? totalGcCount() - gcCountBefore : gcCount;
+    }
+
+    @Override
+    public long getGcTimeMillis() {
+        return running ? totalGcTime() - gcTimeBefore : gcTime;
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long totalGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long totalGcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, collector.getCollectionTime());
+        }
+        return time;
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link PhaseMetrics}, through which the figures of each import phase can be watched in a JMX
+ * console while the import runs.
+ * 
+ * @author jejking
+ */
+public interface PhaseMetricsMBean {
+
+    /**
+     * @return name of the phase
+     */
+    String getName();
+
+    /**
+     * @return whether the phase has started but not yet finished
+     */
+    boolean isRunning();
+
+    /**
+     * @return time since the start of the phase, or its duration once finished, in milliseconds
+     */
+    long getElapsedMillis();
+
+    /**
+     * @return number of items - rows parsed, nodes created or places linked - processed so far
+     */
+    long getItems();
+
+    /**
+     * @return items processed per second
+     */
+    double getItemsPerSecond();
+
+    /**
+     * @return number of lines skipped because of data errors
+     */
+    long getSkippedLines();
+
+    /**
+     * @return number of relationships created so far by the name of their
+     *         {@link PlaceRelationshipBuilder.Relationships type}, in the order the types are declared
+     */
+    Map<String, Long> getRelationships();
+
+    /**
+     * @return heap in use at the start of the phase, in bytes
+     */
+    long getHeapUsedBefore();
+
+    /**
+     * @return heap in use at the end of the phase, or now while it runs, in bytes
+     */
+    long getHeapUsedAfter();
+
+    /**
+     * @return number of garbage collections during the phase
+     */
+    long getGcCount();
+
+    /**
+     * @return time spent in garbage collection during the phase, in milliseconds
+     */
+    long getGcTimeMillis();
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The columns of the tab-delimited place file, in file order. A set of them is a projection: the columns a
+ * {@link PlaceParser} decodes and a {@link PlaceNodeMapper} writes. The id is part of every projection, as nodes and
+ * relationships are keyed on it.
+ * 
+ * @author jejking
+ */
+public enum PlaceColumn {
+
+    ID("id"), AGS("ags"), ASCII("ascii"), NAME("name"), LAT("lat"), LON("lon"), AMT("amt"), PLZS("plzs"),
+    VORWAHL("vorwahl"), EINWOHNER("einwohner"), FLAECHE("flaeche"), KZ("kz"), TYP("typ"), LEVEL("level"), OF("of"),
+    INVALID("invalid");
+
+    /**
+     * All columns.
+     */
+    public static final Set<PlaceColumn> ALL = Collections.unmodifiableSet(EnumSet.allOf(PlaceColumn.class));
+
+    private final String columnName;
+
+    private PlaceColumn(String columnName) {
+        this.columnName = columnName;
+    }
+
+    /**
+     * @return name of the column, as in the header of the file
+     */
+    public String getColumnName() {
+        return columnName;
+    }
+
+    /**
+     * @return zero-based index of the column in a line of the file
+     */
+    public int getIndex() {
+        return ordinal();
+    }
+
+    /**
+     * Parses a projection from a comma-separated list of column names, such as "name,lat,lon,typ,level,of,plzs".
+     * Names are not case sensitive and the id is added if it is not listed.
+     * 
+     * @param columnNames
+     *            comma-separated column names
+     * @return the columns
+     * @throws IllegalArgumentException
+     *             if a name is not one of a column
+     */
+    public static Set<PlaceColumn> parse(String columnNames) {
+        Set<PlaceColumn> columns = EnumSet.of(ID);
+        for (String columnName : columnNames.split(",")) {
+            String trimmed = columnName.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            columns.add(forColumnName(trimmed));
+        }
+        return columns;
+    }
+
+    /**
+     * @param columnName
+     *            name of a column, not case sensitive
+     * @return the column
+     * @throws IllegalArgumentException
+     *             if there is no column of that name
+     */
+    public static PlaceColumn forColumnName(String columnName) {
+        String lowerCase = columnName.toLowerCase(Locale.ROOT);
+        for (PlaceColumn column : values()) {
+            if (column.columnName.equals(lowerCase)) {
+                return column;
+            }
+        }
+        throw new IllegalArgumentException("Unknown place column: " + columnName);
+    }
+
+    /**
+     * @param columns
+     *            a projection
+     * @return bit mask with the bit of each column's index set
+     */
+    static int toMask(Set<PlaceColumn> columns) {
+        int mask = 0;
+        for (PlaceColumn column : columns) {
+            mask |= 1 << column.ordinal();
+        }
+        return mask;
+    }
+
+}
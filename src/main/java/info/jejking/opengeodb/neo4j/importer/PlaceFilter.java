@@ -0,0 +1,310 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Selects part of the place file for a partial import, such as one Bundesland or only the levels down to the
+ * Landkreise. A filter is written as criteria separated by semicolons, each a column name, an equals sign and a
+ * comma-separated list of values, for example <code>ags=01,02;level=..5</code>:
+ * <ul>
+ * <li><code>ags=</code> prefixes of the official municipality key</li>
+ * <li><code>level=</code> levels and ranges of levels such as <code>3..6</code>, <code>..5</code> or <code>4..</code>,
+ * for example <code>level=3,6..7</code>; places without a level never match</li>
+ * <li><code>typ=</code> types of place, compared exactly</li>
+ * <li><code>subtree=</code> ids of places whose descendants, and themselves, are wanted</li>
+ * </ul>
+ * A place matches if it meets every criterion given. Applying the filter to the place file {@link #select(InputStream)
+ * selects} the matching places together with all their ancestors, so that the chains of PART_OF relationships stay
+ * intact up to the top, and the postal codes of the selected places.
+ * 
+ * @author jejking
+ */
+public final class PlaceFilter {
+
+    private static final int COLUMN_COUNT = 16;
+
+    /**
+     * Level of places whose level column is empty.
+     */
+    private static final int NO_LEVEL = Integer.MIN_VALUE;
+
+    private final String expression;
+    private final Set<String> agsPrefixes = new HashSet<>();
+    private int[] minLevels = new int[0];
+    private int[] maxLevels = new int[0];
+    private final Set<String> types = new HashSet<>();
+    private final IntLongHashMap subtreeRoots = new IntLongHashMap(16);
+
+    private PlaceFilter(String expression) {
+        this.expression = expression;
+    }
+
+    /**
+     * Parses a filter expression, see the {@link PlaceFilter class description}. Column names are not case sensitive.
+     * 
+     * @param expression
+     *            the filter expression
+     * @return the filter
+     * @throws IllegalArgumentException
+     *             if the expression is malformed
+     */
+    public static PlaceFilter parse(String expression) {
+        PlaceFilter filter = new PlaceFilter(expression.trim());
+        boolean hasCriterion = false;
+        for (String criterion : expression.split(";")) {
+            if (criterion.trim().isEmpty()) {
+                continue;
+            }
+            int equals = criterion.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Filter criterion without '=': " + criterion);
+            }
+            String name = criterion.substring(0, equals).trim();
+            String values = criterion.substring(equals + 1).trim();
+            if ("subtree".equalsIgnoreCase(name)) {
+                for (String id : splitValues(values)) {
+                    filter.subtreeRoots.put(parseInt(id), 1);
+                }
+                hasCriterion = true;
+                continue;
+            }
+            PlaceColumn column = PlaceColumn.forColumnName(name);
+            if (column == PlaceColumn.AGS) {
+                filter.agsPrefixes.addAll(splitValues(values));
+            } else if (column == PlaceColumn.LEVEL) {
+                filter.parseLevels(values);
+            } else if (column == PlaceColumn.TYP) {
+                filter.types.addAll(splitValues(values));
+            } else {
+                throw new IllegalArgumentException("Cannot filter on column: " + column.getColumnName());
+            }
+            hasCriterion = true;
+        }
+        if (!hasCriterion) {
+            throw new IllegalArgumentException("Empty filter: " + expression);
+        }
+        return filter;
+    }
+
+    /**
+     * Reads the place file, without materializing the places, to work out which of them and which postal codes the
+     * filter selects. Only the id, parent id, postal codes and the columns filtered on are decoded. Lines with data
+     * errors are left out, as the parsers skip them.
+     * 
+     * @param placeStream
+     *            the place file, with its header line; will be closed
+     * @return the selection
+     * @throws IOException
+     *             on IO problems
+     */
+    PlaceSelection select(InputStream placeStream) throws IOException {
+        IntLongHashMap parents = new IntLongHashMap(64 * 1024);
+        Rows rows = new Rows();
+        StringInterner ags = new StringInterner();
+        StringInterner typ = new StringInterner();
+        PostalCodeDecoder decoder = new PostalCodeDecoder();
+        try (TabSeparatedLineTokenizer line = new TabSeparatedLineTokenizer(placeStream)) {
+            line.nextLine();
+            while (line.nextLine()) {
+                if (line.getFieldCount() != COLUMN_COUNT) {
+                    continue;
+                }
+                try {
+                    int id = line.getInt(PlaceColumn.ID.getIndex());
+                    int of = getInt(line, PlaceColumn.OF);
+                    int level = line.isEmpty(PlaceColumn.LEVEL.getIndex()) ? NO_LEVEL : line.getInt(PlaceColumn.LEVEL
+                            .getIndex());
+                    boolean matches = matches(line.getString(PlaceColumn.AGS.getIndex(), ags), level,
+                            line.getString(PlaceColumn.TYP.getIndex(), typ));
+                    int[] postalCodes = line.getPostalCodes(PlaceColumn.PLZS.getIndex(), decoder);
+                    parents.put(id, Math.max(of, 0));
+                    rows.add(id, matches, postalCodes);
+                } catch (IllegalArgumentException e) {
+                    // skipped by the parsers as well
+                }
+            }
+        }
+
+        PlaceSelection selection = new PlaceSelection();
+        for (int row = 0; row < rows.size; row++) {
+            if (rows.matches.get(row) && isInSubtree(rows.ids[row], parents)) {
+                selectWithAncestors(rows.ids[row], parents, selection);
+            }
+        }
+        for (int row = 0; row < rows.size; row++) {
+            if (selection.containsPlace(rows.ids[row])) {
+                for (int i = rows.postalCodeStarts[row]; i < rows.postalCodeStarts[row + 1]; i++) {
+                    selection.addPostalCode(rows.postalCodes[i]);
+                }
+            }
+        }
+        return selection;
+    }
+
+    /**
+     * @return the expression, as parsed
+     */
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    private boolean matches(String placeAgs, int level, String placeTyp) {
+        if (minLevels.length > 0 && !matchesLevel(level)) {
+            return false;
+        }
+        if (!types.isEmpty() && !types.contains(placeTyp)) {
+            return false;
+        }
+        if (agsPrefixes.isEmpty()) {
+            return true;
+        }
+        if (placeAgs != null) {
+            for (String prefix : agsPrefixes) {
+                if (placeAgs.startsWith(prefix)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesLevel(int level) {
+        if (level == NO_LEVEL) {
+            return false;
+        }
+        for (int i = 0; i < minLevels.length; i++) {
+            if (level >= minLevels[i] && level <= maxLevels[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isInSubtree(int id, IntLongHashMap parents) {
+        if (subtreeRoots.size() == 0) {
+            return true;
+        }
+        // bounded, in case the parent ids run in a circle
+        for (int steps = 0; steps <= parents.size(); steps++) {
+            if (subtreeRoots.containsKey(id)) {
+                return true;
+            }
+            long parent = parents.get(id);
+            if (parent == IntLongHashMap.NOT_FOUND) {
+                return false;
+            }
+            id = (int) parent;
+        }
+        return false;
+    }
+
+    private static void selectWithAncestors(int id, IntLongHashMap parents, PlaceSelection selection) {
+        // stops at the top, whose parent is not in the file
+        long parent = parents.get(id);
+        while (parent != IntLongHashMap.NOT_FOUND && !selection.containsPlace(id)) {
+            selection.addPlace(id);
+            id = (int) parent;
+            parent = parents.get(id);
+        }
+    }
+
+    private void parseLevels(String values) {
+        for (String value : splitValues(values)) {
+            int range = value.indexOf("..");
+            int min;
+            int max;
+            if (range < 0) {
+                min = parseInt(value);
+                max = min;
+            } else {
+                String from = value.substring(0, range).trim();
+                String to = value.substring(range + 2).trim();
+                if (from.isEmpty() && to.isEmpty()) {
+                    throw new IllegalArgumentException("Empty level range");
+                }
+                min = from.isEmpty() ? Integer.MIN_VALUE : parseInt(from);
+                max = to.isEmpty() ? Integer.MAX_VALUE : parseInt(to);
+            }
+            minLevels = Arrays.copyOf(minLevels, minLevels.length + 1);
+            maxLevels = Arrays.copyOf(maxLevels, maxLevels.length + 1);
+            minLevels[minLevels.length - 1] = min;
+            maxLevels[maxLevels.length - 1] = max;
+        }
+    }
+
+    private static Set<String> splitValues(String values) {
+        Set<String> split = new HashSet<>();
+        for (String value : values.split(",")) {
+            String trimmed = value.trim();
+            if (!trimmed.isEmpty()) {
+                split.add(trimmed);
+            }
+        }
+        if (split.isEmpty()) {
+            throw new IllegalArgumentException("Filter criterion without values");
+        }
+        return split;
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number in filter: " + value, e);
+        }
+    }
+
+    private static int getInt(TabSeparatedLineTokenizer line, PlaceColumn column) {
+        return line.isEmpty(column.getIndex()) ? 0 : line.getInt(column.getIndex());
+    }
+
+    /**
+     * The ids, match results and postal codes of the lines read, the postal codes packed with an offset per line.
+     */
+    private static final class Rows {
+
+        private int size;
+        private int[] ids = new int[1024];
+        private final BitSet matches = new BitSet();
+        private int[] postalCodeStarts = new int[1025];
+        private int[] postalCodes = new int[4096];
+
+        void add(int id, boolean match, int[] codes) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                postalCodeStarts = Arrays.copyOf(postalCodeStarts, size * 2 + 1);
+            }
+            int start = postalCodeStarts[size];
+            if (start + codes.length > postalCodes.length) {
+                postalCodes = Arrays.copyOf(postalCodes, Math.max(postalCodes.length * 2, start + codes.length));
+            }
+            System.arraycopy(codes, 0, postalCodes, start, codes.length);
+            ids[size] = id;
+            matches.set(size, match);
+            size++;
+            postalCodeStarts[size] = start + codes.length;
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.util.Arrays;
+
+/**
+ * Compact, column-wise record of just the parts of the places needed to link them: id, parent id, level and postal
+ * codes. The postal codes of all places are packed into a single int array, with an offset per place.
+ * 
+ * @author jejking
+ */
+final class PlaceLinks {
+
+    private int size;
+    private int[] ids = new int[1024];
+    private int[] ofs = new int[1024];
+    private int[] levels = new int[1024];
+    private int[] postalCodeStarts = new int[1025];
+    private int[] postalCodes = new int[4096];
+    private int postalCodeCount;
+    private int parentCount;
+
+    /**
+     * Appends the link data of a place.
+     * 
+     * @param placeBean
+     *            the place
+     */
+    void add(PlaceRecord placeBean) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            ofs = Arrays.copyOf(ofs, capacity);
+            levels = Arrays.copyOf(levels, capacity);
+            postalCodeStarts = Arrays.copyOf(postalCodeStarts, capacity + 1);
+        }
+        ids[size] = placeBean.getId();
+        ofs[size] = placeBean.getOf();
+        levels[size] = placeBean.getLevel();
+        if (placeBean.getOf() > 0) {
+            parentCount++;
+        }
+        int postalCodes = placeBean.getPostalCodeCount();
+        for (int i = 0; i < postalCodes; i++) {
+            addPostalCode(placeBean.getPostalCode(i));
+        }
+        size++;
+        postalCodeStarts[size] = postalCodeCount;
+    }
+
+    /**
+     * @return number of places
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return number of places which name a parent, whether or not it exists
+     */
+    int getParentCount() {
+        return parentCount;
+    }
+
+    /**
+     * @return number of well-formed postal codes over all places
+     */
+    int getPostalCodeCount() {
+        return postalCodeCount;
+    }
+
+    int getId(int row) {
+        return ids[row];
+    }
+
+    int getOf(int row) {
+        return ofs[row];
+    }
+
+    int getLevel(int row) {
+        return levels[row];
+    }
+
+    /**
+     * @return index into {@link #getPostalCode(int)} of the first postal code of the row
+     */
+    int getPostalCodeStart(int row) {
+        return postalCodeStarts[row];
+    }
+
+    /**
+     * @return index into {@link #getPostalCode(int)} after the last postal code of the row
+     */
+    int getPostalCodeEnd(int row) {
+        return postalCodeStarts[row + 1];
+    }
+
+    int getPostalCode(int index) {
+        return postalCodes[index];
+    }
+
+    private void addPostalCode(int code) {
+        if (postalCodeCount == postalCodes.length) {
+            postalCodes = Arrays.copyOf(postalCodes, postalCodeCount * 2);
+        }
+        postalCodes[postalCodeCount++] = code;
+    }
+
+}
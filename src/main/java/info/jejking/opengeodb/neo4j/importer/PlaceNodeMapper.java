@@ -18,20 +18,57 @@ package info.jejking.opengeodb.neo4j.importer;
 import info.jejking.opengeodb.neo4j.importer.OpenGeoDbProperties.PlaceNodeProperties;
 import info.jejking.opengeodb.neo4j.importer.PlaceParser.PlaceBean;
 
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
 import org.neo4j.graphdb.DynamicLabel;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
 
 /**
- * Class with functionality to create a {@link Node} corresponding to a {@link PlaceBean}.
+ * Class with functionality to create a {@link Node} corresponding to a {@link PlaceRecord}, such as a {@link PlaceBean}
+ * or a row of a {@link PlaceStore}. Instances cache the labels of each type of place and are not thread safe.
  * 
  * @author jejking
  * 
  */
 public class PlaceNodeMapper {
-    
+
+    private static final Label PLACE = DynamicLabel.label(OpenGeoDbProperties.PLACE_LABEL);
+    private static final Label LOCATION = DynamicLabel.label(OpenGeoDbProperties.OPENGEO_DB_LOCATION);
+    private static final Label[] UNTYPED_LABELS = { PLACE, LOCATION };
+
+    // labels by type of place; the parsers intern the types, so each lookup hashes a string whose hash is cached and
+    // compares it by identity
+    private final Map<String, Label[]> labelsByType = new HashMap<>();
+    private final Set<PlaceColumn> columns;
+
+    /**
+     * Constructs mapper writing all columns.
+     */
+    public PlaceNodeMapper() {
+        this(PlaceColumn.ALL);
+    }
+
     /**
-     * Creates the node for a place. Properties are mapped across. The OpenGeoDb ID and the name are indexed.
+     * Constructs mapper writing a projection of the columns. The id is always written, and the type of place is only
+     * added as a label if it is in the projection.
+     * 
+     * @param columns
+     *            the columns to write as properties
+     */
+    public PlaceNodeMapper(Set<PlaceColumn> columns) {
+        super();
+        this.columns = EnumSet.copyOf(columns);
+    }
+
+    /**
+     * Creates the node for a place. Properties are mapped across. The OpenGeoDb ID, the name and, for places with
+     * coordinates, their {@link GeoHash geohashes} are indexed.
      * 
      * @param graphDb
      *            the graph db service
@@ -39,54 +76,103 @@ public class PlaceNodeMapper {
      *            the place for which to create a node
      * @return node with properties set
      */
-    public Node createPlaceNode(GraphDatabaseService graphDb, PlaceBean placeBean) {
-        Node node = graphDb.createNode(
-                            DynamicLabel.label(OpenGeoDbProperties.PLACE_LABEL),
-                            DynamicLabel.label(OpenGeoDbProperties.OPENGEO_DB_LOCATION));
-        
-        
-        node.setProperty(OpenGeoDbProperties.LOC_ID, placeBean.getId());
-        if (placeBean.getAgs() != null) {
-            node.setProperty(PlaceNodeProperties.AGS.name(), placeBean.getAgs());
+    public Node createPlaceNode(GraphDatabaseService graphDb, PlaceRecord placeBean) {
+        Node node = graphDb.createNode(getLabels(placeBean));
+        for (Map.Entry<String, Object> property : getProperties(placeBean).entrySet()) {
+            node.setProperty(property.getKey(), property.getValue());
+        }
+        return node;
+    }
+
+    /**
+     * Creates the node for a place with a {@link BatchInserter}, setting labels and all properties in a single call.
+     * 
+     * @param inserter
+     *            the batch inserter
+     * @param placeBean
+     *            the place for which to create a node
+     * @return id of the new node
+     */
+    public long createPlaceNode(BatchInserter inserter, PlaceRecord placeBean) {
+        return inserter.createNode(getProperties(placeBean), getLabels(placeBean));
+    }
+
+    /**
+     * Gives the labels for the node of a place: {@link OpenGeoDbProperties#PLACE_LABEL},
+     * {@link OpenGeoDbProperties#OPENGEO_DB_LOCATION} and, if set, the type of place. The labels are created once per
+     * type and shared by all nodes of that type, so the array returned must not be modified.
+     * 
+     * @param placeBean
+     *            the place
+     * @return labels for its node
+     */
+    Label[] getLabels(PlaceRecord placeBean) {
+        String typ = columns.contains(PlaceColumn.TYP) ? placeBean.getTyp() : null;
+        if (typ == null) {
+            return UNTYPED_LABELS;
         }
-        if (placeBean.getAscii() != null) {
-            node.setProperty(PlaceNodeProperties.ASCII.name(), placeBean.getAscii());
+        Label[] labels = labelsByType.get(typ);
+        if (labels == null) {
+            labels = new Label[] { PLACE, LOCATION, DynamicLabel.label(typ) };
+            labelsByType.put(typ, labels);
         }
-        if (placeBean.getName() != null) {
-            node.setProperty(PlaceNodeProperties.NAME.name(), placeBean.getName());
+        return labels;
+    }
+
+    /**
+     * Gives the properties for the node of a place. Fields which are not set or not in the projection are left out.
+     * 
+     * @param placeBean
+     *            the place
+     * @return property map, keyed on property name
+     */
+    Map<String, Object> getProperties(PlaceRecord placeBean) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(OpenGeoDbProperties.LOC_ID, placeBean.getId());
+        if (columns.contains(PlaceColumn.AGS) && placeBean.getAgs() != null) {
+            properties.put(PlaceNodeProperties.AGS.name(), placeBean.getAgs());
         }
-        if (placeBean.getLat() > 0) {
-            node.setProperty(PlaceNodeProperties.LATITUDE.name(), placeBean.getLat());
+        if (columns.contains(PlaceColumn.ASCII) && placeBean.getAscii() != null) {
+            properties.put(PlaceNodeProperties.ASCII.name(), placeBean.getAscii());
         }
-        if (placeBean.getLon() > 0) {
-            node.setProperty(PlaceNodeProperties.LONGITUDE.name(), placeBean.getLon());
+        if (columns.contains(PlaceColumn.NAME) && placeBean.getName() != null) {
+            properties.put(PlaceNodeProperties.NAME.name(), placeBean.getName());
         }
-        if (placeBean.getAmt() != null) {
-            node.setProperty(PlaceNodeProperties.AMT.name(), placeBean.getAmt());
+        if (columns.contains(PlaceColumn.LAT) && placeBean.getLatMicroDegrees() > 0) {
+            properties.put(PlaceNodeProperties.LATITUDE.name(), placeBean.getLat());
         }
-        if (placeBean.getVorwahl() != null) {
-            node.setProperty(PlaceNodeProperties.DIALING_CODE.name(), placeBean.getVorwahl());
+        if (columns.contains(PlaceColumn.LON) && placeBean.getLonMicroDegrees() > 0) {
+            properties.put(PlaceNodeProperties.LONGITUDE.name(), placeBean.getLon());
         }
-        if (placeBean.getEinwohner() > 0) {
-            node.setProperty(PlaceNodeProperties.POPULATION.name(), placeBean.getEinwohner());
+        if (columns.contains(PlaceColumn.LAT) && columns.contains(PlaceColumn.LON) && placeBean.getLatMicroDegrees() > 0
+                && placeBean.getLonMicroDegrees() > 0) {
+            GeoHash.putProperties(properties, placeBean.getLatMicroDegrees(), placeBean.getLonMicroDegrees());
         }
-        if (placeBean.getFlaeche() > 0) {
-            node.setProperty(PlaceNodeProperties.AREA.name(), placeBean.getFlaeche());
+        if (columns.contains(PlaceColumn.AMT) && placeBean.getAmt() != null) {
+            properties.put(PlaceNodeProperties.AMT.name(), placeBean.getAmt());
         }
-        if (placeBean.getKz() != null) {
-            node.setProperty(PlaceNodeProperties.NUMBER_PLATE_CODE.name(), placeBean.getKz());
+        if (columns.contains(PlaceColumn.VORWAHL) && placeBean.getVorwahl() != null) {
+            properties.put(PlaceNodeProperties.DIALING_CODE.name(), placeBean.getVorwahl());
         }
-        if (placeBean.getTyp() != null) {
-            node.setProperty(PlaceNodeProperties.TYPE.name(), placeBean.getTyp());
-            node.addLabel(DynamicLabel.label(placeBean.getTyp()));
+        if (columns.contains(PlaceColumn.EINWOHNER) && placeBean.getEinwohner() > 0) {
+            properties.put(PlaceNodeProperties.POPULATION.name(), placeBean.getEinwohner());
         }
-        if (placeBean.getLevel() > 0) {
-            node.setProperty(PlaceNodeProperties.LEVEL.name(), placeBean.getLevel());
+        if (columns.contains(PlaceColumn.FLAECHE) && placeBean.getFlaeche() > 0) {
+            properties.put(PlaceNodeProperties.AREA.name(), placeBean.getFlaeche());
         }
-        if (placeBean.getInvalid() != null) {
-            node.setProperty(PlaceNodeProperties.INVALID.name(), placeBean.getInvalid());
+        if (columns.contains(PlaceColumn.KZ) && placeBean.getKz() != null) {
+            properties.put(PlaceNodeProperties.NUMBER_PLATE_CODE.name(), placeBean.getKz());
         }
-        return node;
+        if (columns.contains(PlaceColumn.TYP) && placeBean.getTyp() != null) {
+            properties.put(PlaceNodeProperties.TYPE.name(), placeBean.getTyp());
+        }
+        if (columns.contains(PlaceColumn.LEVEL) && placeBean.getLevel() > 0) {
+            properties.put(PlaceNodeProperties.LEVEL.name(), placeBean.getLevel());
+        }
+        if (columns.contains(PlaceColumn.INVALID) && placeBean.getInvalid() != null) {
+            properties.put(PlaceNodeProperties.INVALID.name(), placeBean.getInvalid());
+        }
+        return properties;
     }
 
 }
@@ -15,9 +15,19 @@
  */
 package info.jejking.opengeodb.neo4j.importer;
 
+import info.jejking.opengeodb.neo4j.importer.PostalCodeDecoder.PostalCodeProcessor;
+import info.jejking.opengeodb.neo4j.importer.StringInterner.InternProcessor;
+import info.jejking.opengeodb.neo4j.importer.TabSeparatedBeanReader.BeanFilter;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.supercsv.cellprocessor.Optional;
 import org.supercsv.cellprocessor.ParseDouble;
@@ -38,16 +48,23 @@ public class PlaceParser {
     /**
      * Dumb POJO to represent the contents of a line of data in the file.
      */
-    public static class PlaceBean {
+    public static class PlaceBean implements PlaceRecord {
+
+        private static final ThreadLocal<PostalCodeDecoder> POSTAL_CODE_DECODER = new ThreadLocal<PostalCodeDecoder>() {
+            @Override
+            protected PostalCodeDecoder initialValue() {
+                return new PostalCodeDecoder();
+            }
+        };
 
         private int id;
         private String ags;
         private String ascii;
         private String name;
-        private double lat;
-        private double lon;
+        private int latMicroDegrees;
+        private int lonMicroDegrees;
         private String amt;
-        private String plzs;
+        private int[] postalCodes = PostalCodeDecoder.NONE;
         private String vorwahl;
         private int einwohner;
         private double flaeche;
@@ -69,10 +86,10 @@ public class PlaceParser {
             this.ags = ags;
             this.ascii = ascii;
             this.name = name;
-            this.lat = lat;
-            this.lon = lon;
+            setLat(lat);
+            setLon(lon);
             this.amt = amt;
-            this.plzs = plzs;
+            setPlzs(plzs);
             this.vorwahl = vorwahl;
             this.einwohner = einwohner;
             this.flaeche = flaeche;
@@ -147,30 +164,56 @@ public class PlaceParser {
          * @return the lat
          */
         public double getLat() {
-            return lat;
+            return Coordinates.toDegrees(latMicroDegrees);
         }
 
         /**
          * @param lat
-         *            the lat to set
+         *            the lat to set, rounded to the nearest micro-degree
          */
         public void setLat(double lat) {
-            this.lat = lat;
+            this.latMicroDegrees = Coordinates.toMicroDegrees(lat);
         }
 
         /**
          * @return the lon
          */
         public double getLon() {
-            return lon;
+            return Coordinates.toDegrees(lonMicroDegrees);
         }
 
         /**
          * @param lon
-         *            the lon to set
+         *            the lon to set, rounded to the nearest micro-degree
          */
         public void setLon(double lon) {
-            this.lon = lon;
+            this.lonMicroDegrees = Coordinates.toMicroDegrees(lon);
+        }
+
+        @Override
+        public int getLatMicroDegrees() {
+            return latMicroDegrees;
+        }
+
+        /**
+         * @param latMicroDegrees
+         *            the lat to set, in micro-degrees
+         */
+        public void setLatMicroDegrees(int latMicroDegrees) {
+            this.latMicroDegrees = latMicroDegrees;
+        }
+
+        @Override
+        public int getLonMicroDegrees() {
+            return lonMicroDegrees;
+        }
+
+        /**
+         * @param lonMicroDegrees
+         *            the lon to set, in micro-degrees
+         */
+        public void setLonMicroDegrees(int lonMicroDegrees) {
+            this.lonMicroDegrees = lonMicroDegrees;
         }
 
         /**
@@ -189,18 +232,50 @@ public class PlaceParser {
         }
 
         /**
-         * @return the plzs
+         * @return the postal codes formatted as in the file, <code>null</code> if there are none
          */
         public String getPlzs() {
-            return plzs;
+            return PostalCodeDecoder.format(postalCodes);
         }
 
         /**
+         * Sets the postal codes from their comma-separated list, as in the file. The parsers decode the column straight
+         * into {@link #setPostalCodes(int[])} instead.
+         * 
          * @param plzs
          *            the plzs to set
          */
         public void setPlzs(String plzs) {
-            this.plzs = plzs;
+            if (plzs == null || plzs.isEmpty()) {
+                this.postalCodes = PostalCodeDecoder.NONE;
+            } else {
+                this.postalCodes = POSTAL_CODE_DECODER.get().decode(plzs);
+            }
+        }
+
+        /**
+         * @return the postal codes as numbers, each once, in the order of the file; not to be modified
+         */
+        public int[] getPostalCodes() {
+            return postalCodes;
+        }
+
+        /**
+         * @param postalCodes
+         *            the postal codes as numbers, without repeats, or <code>null</code> for none
+         */
+        public void setPostalCodes(int[] postalCodes) {
+            this.postalCodes = postalCodes == null ? PostalCodeDecoder.NONE : postalCodes;
+        }
+
+        @Override
+        public int getPostalCodeCount() {
+            return postalCodes.length;
+        }
+
+        @Override
+        public int getPostalCode(int index) {
+            return postalCodes[index];
         }
 
         /**
@@ -342,14 +417,12 @@ public class PlaceParser {
             result = prime * result + id;
             result = prime * result + ((invalid == null) ? 0 : invalid.hashCode());
             result = prime * result + ((kz == null) ? 0 : kz.hashCode());
-            temp = Double.doubleToLongBits(lat);
-            result = prime * result + (int) (temp ^ (temp >>> 32));
+            result = prime * result + latMicroDegrees;
             result = prime * result + level;
-            temp = Double.doubleToLongBits(lon);
-            result = prime * result + (int) (temp ^ (temp >>> 32));
+            result = prime * result + lonMicroDegrees;
             result = prime * result + ((name == null) ? 0 : name.hashCode());
             result = prime * result + of;
-            result = prime * result + ((plzs == null) ? 0 : plzs.hashCode());
+            result = prime * result + Arrays.hashCode(postalCodes);
             result = prime * result + ((typ == null) ? 0 : typ.hashCode());
             result = prime * result + ((vorwahl == null) ? 0 : vorwahl.hashCode());
             return result;
@@ -416,13 +489,13 @@ public class PlaceParser {
             } else if (!kz.equals(other.kz)) {
                 return false;
             }
-            if (Double.doubleToLongBits(lat) != Double.doubleToLongBits(other.lat)) {
+            if (latMicroDegrees != other.latMicroDegrees) {
                 return false;
             }
             if (level != other.level) {
                 return false;
             }
-            if (Double.doubleToLongBits(lon) != Double.doubleToLongBits(other.lon)) {
+            if (lonMicroDegrees != other.lonMicroDegrees) {
                 return false;
             }
             if (name == null) {
@@ -435,11 +508,7 @@ public class PlaceParser {
             if (of != other.of) {
                 return false;
             }
-            if (plzs == null) {
-                if (other.plzs != null) {
-                    return false;
-                }
-            } else if (!plzs.equals(other.plzs)) {
+            if (!Arrays.equals(postalCodes, other.postalCodes)) {
                 return false;
             }
             if (typ == null) {
@@ -466,42 +535,269 @@ public class PlaceParser {
          */
         @Override
         public String toString() {
-            return "PlaceBean [id=" + id + ", ags=" + ags + ", ascii=" + ascii + ", name=" + name + ", lat=" + lat
-                    + ", lon=" + lon + ", amt=" + amt + ", plzs=" + plzs + ", vorwahl=" + vorwahl + ", einwohner="
-                    + einwohner + ", flaeche=" + flaeche + ", kz=" + kz + ", typ=" + typ + ", level=" + level + ", of="
-                    + of + ", invalid=" + invalid + "]";
+            return "PlaceBean [id=" + id + ", ags=" + ags + ", ascii=" + ascii + ", name=" + name + ", lat=" + getLat()
+                    + ", lon=" + getLon() + ", amt=" + amt + ", plzs=" + getPlzs() + ", vorwahl=" + vorwahl
+                    + ", einwohner=" + einwohner + ", flaeche=" + flaeche + ", kz=" + kz + ", typ=" + typ + ", level="
+                    + level + ", of=" + of + ", invalid=" + invalid + "]";
         }
 
     }
 
     // maps the columns in the file to fields on the bean
-    private final String[] headers = { "id", "ags", "ascii", "name", "lat", "lon", "amt", "plzs", "vorwahl",
+    private final String[] headers = { "id", "ags", "ascii", "name", "lat", "lon", "amt", "postalCodes", "vorwahl",
             "einwohner", "flaeche", "kz", "typ", "level", "of", "invalid" };
 
+    private final TabParserEngine engine;
+    private AtomicLong skippedLines = new AtomicLong();
+    private boolean quiet;
+    private Set<PlaceColumn> columns = PlaceColumn.ALL;
+    private PlaceSelection selection;
+
+    /**
+     * Constructs parser using {@link TabParserEngine#DIRECT}.
+     */
+    public PlaceParser() {
+        this(TabParserEngine.DIRECT);
+    }
+
+    /**
+     * Constructs parser using the given engine.
+     * 
+     * @param engine
+     *            how to turn lines into beans
+     */
+    public PlaceParser(TabParserEngine engine) {
+        super();
+        this.engine = engine;
+    }
+
+    /**
+     * @param skippedLines
+     *            counter to add the number of lines skipped because of data errors to
+     */
+    public void setSkippedLineCounter(AtomicLong skippedLines) {
+        this.skippedLines = skippedLines;
+    }
+
+    /**
+     * @param quiet
+     *            whether to skip lines with data errors without logging a warning for each
+     */
+    public void setQuiet(boolean quiet) {
+        this.quiet = quiet;
+    }
+
+    /**
+     * Restricts parsing to a projection of the columns. The fields of the other columns are left unset in the beans,
+     * and their contents are not checked, so a line with rubbish in a column outside the projection is no longer
+     * skipped.
+     * 
+     * @param columns
+     *            the columns to decode, the id always being decoded
+     */
+    public void setColumns(Set<PlaceColumn> columns) {
+        EnumSet<PlaceColumn> projection = EnumSet.of(PlaceColumn.ID);
+        projection.addAll(columns);
+        this.columns = projection;
+    }
+
+    /**
+     * Restricts parsing to the places a {@link PlaceFilter} has selected. The other lines are dropped as soon as their
+     * id is decoded, without being counted as skipped.
+     * 
+     * @param selection
+     *            the places to parse, or <code>null</code> for all
+     */
+    void setSelection(PlaceSelection selection) {
+        this.selection = selection;
+    }
+
+    /**
+     * Maps the columns of a line directly onto a {@link PlaceBean}, following the same rules as the cell processors.
+     * The columns with few distinct values are {@link StringInterner interned}, and the postal codes decoded into an
+     * int array by a {@link PostalCodeDecoder} of the parsing thread. Columns outside the projection are neither
+     * decoded nor checked: the tokenizer only records where they start and end. Nor are the lines of places outside
+     * the selection, if there is one.
+     */
+    static final class PlaceRowMapper implements TabSeparatedRowMapper<PlaceBean> {
+
+        private static final int ID = 0;
+        private static final int AGS = 1;
+        private static final int ASCII = 2;
+        private static final int NAME = 3;
+        private static final int LAT = 4;
+        private static final int LON = 5;
+        private static final int AMT = 6;
+        private static final int PLZS = 7;
+        private static final int VORWAHL = 8;
+        private static final int EINWOHNER = 9;
+        private static final int FLAECHE = 10;
+        private static final int KZ = 11;
+        private static final int TYP = 12;
+        private static final int LEVEL = 13;
+        private static final int OF = 14;
+        private static final int INVALID = 15;
+
+        private final boolean[] selected = new boolean[PlaceColumn.values().length];
+        private final PlaceSelection selection;
+        private final InternedColumns interned = new InternedColumns();
+        private final ThreadLocal<PostalCodeDecoder> postalCodeDecoder = new ThreadLocal<PostalCodeDecoder>() {
+            @Override
+            protected PostalCodeDecoder initialValue() {
+                return new PostalCodeDecoder();
+            }
+        };
+
+        /**
+         * Constructs mapper for all columns.
+         */
+        PlaceRowMapper() {
+            this(PlaceColumn.ALL);
+        }
+
+        /**
+         * Constructs mapper for a projection.
+         * 
+         * @param columns
+         *            the columns to decode, the id always being decoded
+         */
+        PlaceRowMapper(Set<PlaceColumn> columns) {
+            this(columns, null);
+        }
+
+        /**
+         * Constructs mapper for a projection of the selected places.
+         * 
+         * @param columns
+         *            the columns to decode, the id always being decoded
+         * @param selection
+         *            the places to map, or <code>null</code> for all
+         */
+        PlaceRowMapper(Set<PlaceColumn> columns, PlaceSelection selection) {
+            this.selection = selection;
+            for (PlaceColumn column : columns) {
+                selected[column.getIndex()] = true;
+            }
+        }
+
+        @Override
+        public int getColumnCount() {
+            return 16;
+        }
+
+        @Override
+        public PlaceBean mapRow(TabSeparatedLineTokenizer line) {
+            int id = line.getInt(ID);
+            if (selection != null && !selection.containsPlace(id)) {
+                return null;
+            }
+            PlaceBean bean = new PlaceBean();
+            bean.setId(id);
+            if (selected[AGS]) {
+                bean.setAgs(line.getString(AGS, interned.ags));
+            }
+            if (selected[ASCII]) {
+                bean.setAscii(line.getString(ASCII));
+            }
+            if (selected[NAME]) {
+                bean.setName(line.getString(NAME));
+            }
+            if (selected[LAT] && !line.isEmpty(LAT)) {
+                bean.setLatMicroDegrees(line.getMicroDegrees(LAT));
+            }
+            if (selected[LON] && !line.isEmpty(LON)) {
+                bean.setLonMicroDegrees(line.getMicroDegrees(LON));
+            }
+            if (selected[AMT]) {
+                bean.setAmt(line.getString(AMT, interned.amt));
+            }
+            if (selected[PLZS]) {
+                bean.setPostalCodes(line.getPostalCodes(PLZS, postalCodeDecoder.get()));
+            }
+            if (selected[VORWAHL]) {
+                bean.setVorwahl(line.getString(VORWAHL, interned.vorwahl));
+            }
+            if (selected[EINWOHNER] && !line.isEmpty(EINWOHNER)) {
+                bean.setEinwohner(line.getInt(EINWOHNER));
+            }
+            if (selected[FLAECHE] && !line.isEmpty(FLAECHE)) {
+                bean.setFlaeche(line.getDouble(FLAECHE));
+            }
+            if (selected[KZ]) {
+                bean.setKz(line.getString(KZ, interned.kz));
+            }
+            if (selected[TYP]) {
+                bean.setTyp(line.getString(TYP, interned.typ));
+            }
+            if (selected[LEVEL] && !line.isEmpty(LEVEL)) {
+                bean.setLevel(line.getInt(LEVEL));
+            }
+            if (selected[OF] && !line.isEmpty(OF)) {
+                bean.setOf(line.getInt(OF));
+            }
+            if (selected[INVALID]) {
+                bean.setInvalid(line.getString(INVALID, interned.invalid));
+            }
+            return bean;
+        }
+    }
+
+    /**
+     * One {@link StringInterner} for each of the columns which repeat the same few values across the file: the
+     * official municipality key, the administrative office, the dialling code, the number plate code, the type of
+     * place and the invalid flag.
+     */
+    static final class InternedColumns {
+
+        final StringInterner ags = new StringInterner();
+        final StringInterner amt = new StringInterner();
+        final StringInterner vorwahl = new StringInterner();
+        final StringInterner kz = new StringInterner();
+        final StringInterner typ = new StringInterner();
+        final StringInterner invalid = new StringInterner();
+    }
+
     private CellProcessor[] getCellProcessors() {
+        InternedColumns interned = new InternedColumns();
 
         /*
          * Note that due to the way in which the data is contructed we can only assume that the ID field will be there.
          * This means that all other columns are marked Optional. In some cases we need to trim the string as some data
          * has white space lurking around.
          */
-        return new CellProcessor[] { new NotNull(new Trim(new ParseInt())), // id
-                new Optional(), // ags, not all lines have one
+        CellProcessor[] processors = new CellProcessor[] { new NotNull(new Trim(new ParseInt())), // id
+                new Optional(new InternProcessor(interned.ags)), // ags, not all lines have one
                 new Optional(), // ascii
                 new Optional(), // name
                 new Optional(new Trim(new ParseDouble())), // lat
                 new Optional(new Trim(new ParseDouble())), // lon,
-                new Optional(), // amt
-                new Optional(), // plzs
-                new Optional(), // vorwahl
+                new Optional(new InternProcessor(interned.amt)), // amt
+                new Optional(new PostalCodeProcessor(new PostalCodeDecoder())), // plzs
+                new Optional(new InternProcessor(interned.vorwahl)), // vorwahl
                 new Optional(new Trim(new ParseInt())), // einwohner
                 new Optional(new Trim(new ParseDouble())), // fläche
-                new Optional(), // kz
-                new Optional(), // typ
+                new Optional(new InternProcessor(interned.kz)), // kz
+                new Optional(new InternProcessor(interned.typ)), // typ
                 new Optional(new Trim(new ParseInt())), // level
                 new Optional(new Trim(new ParseInt())), // of
-                new Optional() // invalid
+                new Optional(new InternProcessor(interned.invalid)) // invalid
         };
+        for (PlaceColumn column : PlaceColumn.values()) {
+            if (!columns.contains(column)) {
+                processors[column.getIndex()] = null;
+            }
+        }
+        return processors;
+    }
+
+    private String[] getHeaders() {
+        String[] projected = headers.clone();
+        for (PlaceColumn column : PlaceColumn.values()) {
+            if (!columns.contains(column)) {
+                projected[column.getIndex()] = null;
+            }
+        }
+        return projected;
     }
 
     /**
@@ -514,7 +810,74 @@ public class PlaceParser {
      *             on IO issues
      */
     public List<PlaceBean> readDataFromStream(InputStream stream) throws IOException {
-        return new TabSeparatedBeanReader<>(PlaceBean.class, getCellProcessors(), headers).readDataFromStream(stream,
-                true);
+        if (engine == TabParserEngine.DIRECT) {
+            return directReader().readDataFromStream(stream, true);
+        }
+        return superCsvReader().readDataFromStream(stream, true);
+    }
+
+    /**
+     * Reads the data in from the given stream lazily, handing out {@link PlaceBean} objects as they are consumed.
+     * 
+     * @param stream
+     *            a stream to read in from. Will be closed when the iterator is exhausted or closed.
+     * @return iterator over {@link PlaceBean} objects.
+     * @throws IOException
+     *             on IO issues
+     */
+    public CloseableIterator<PlaceBean> iterateDataFromStream(InputStream stream) throws IOException {
+        if (engine == TabParserEngine.DIRECT) {
+            return directReader().iterateDataFromStream(stream, true);
+        }
+        return superCsvReader().iterateDataFromStream(stream, true);
+    }
+
+    /**
+     * Reads the data in from the given file by memory-mapping it and parsing newline-aligned chunks of it in
+     * parallel, constructing a list of {@link PlaceBean} objects in file order. Always uses
+     * {@link TabParserEngine#DIRECT}.
+     * 
+     * @param file
+     *            the file to read
+     * @param pool
+     *            the pool in which to parse the chunks
+     * @return list of {@link PlaceBean} objects.
+     * @throws IOException
+     *             on IO issues
+     */
+    public List<PlaceBean> readDataFromFile(Path file, ForkJoinPool pool) throws IOException {
+        return parallelReader().readDataFromFile(file, true, pool);
+    }
+
+    private DirectTabSeparatedBeanReader<PlaceBean> directReader() {
+        DirectTabSeparatedBeanReader<PlaceBean> reader = new DirectTabSeparatedBeanReader<>(new PlaceRowMapper(columns,
+                selection));
+        reader.setSkippedLineCounter(skippedLines);
+        reader.setQuiet(quiet);
+        return reader;
+    }
+
+    private TabSeparatedBeanReader<PlaceBean> superCsvReader() {
+        TabSeparatedBeanReader<PlaceBean> reader = new TabSeparatedBeanReader<>(PlaceBean.class, getCellProcessors(),
+                getHeaders());
+        reader.setSkippedLineCounter(skippedLines);
+        reader.setQuiet(quiet);
+        if (selection != null) {
+            reader.setFilter(new BeanFilter<PlaceBean>() {
+
+                @Override
+                public boolean accept(PlaceBean bean) {
+                    return selection.containsPlace(bean.getId());
+                }
+            });
+        }
+        return reader;
+    }
+
+    private ParallelTabFileReader<PlaceBean> parallelReader() {
+        ParallelTabFileReader<PlaceBean> reader = new ParallelTabFileReader<>(new PlaceRowMapper(columns, selection));
+        reader.setSkippedLineCounter(skippedLines);
+        reader.setQuiet(quiet);
+        return reader;
     }
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import info.jejking.opengeodb.neo4j.importer.PlaceParser.PlaceBean;
+
+/**
+ * Read access to the fields of one line of the place file, implemented by the {@link PlaceBean} of a parser and by the
+ * {@link PlaceStore.Cursor} over a row of a {@link PlaceStore}. Fields which are not set read as <code>null</code>
+ * or zero.
+ * 
+ * @author jejking
+ */
+public interface PlaceRecord {
+
+    int getId();
+
+    String getAgs();
+
+    String getAscii();
+
+    String getName();
+
+    /**
+     * @return the latitude in degrees
+     */
+    double getLat();
+
+    /**
+     * @return the longitude in degrees
+     */
+    double getLon();
+
+    /**
+     * @return the latitude in micro-degrees, millionths of a degree, as held in memory
+     */
+    int getLatMicroDegrees();
+
+    /**
+     * @return the longitude in micro-degrees, millionths of a degree, as held in memory
+     */
+    int getLonMicroDegrees();
+
+    String getAmt();
+
+    /**
+     * @return number of postal codes of the place, not counting repeats or malformed codes
+     */
+    int getPostalCodeCount();
+
+    /**
+     * @param index
+     *            index of the postal code, from zero to {@link #getPostalCodeCount()} exclusive
+     * @return the postal code as a number, e.g. 1067 for "01067"
+     */
+    int getPostalCode(int index);
+
+    String getVorwahl();
+
+    int getEinwohner();
+
+    double getFlaeche();
+
+    String getKz();
+
+    String getTyp();
+
+    int getLevel();
+
+    /**
+     * @return the id of the parent place
+     */
+    int getOf();
+
+    String getInvalid();
+
+}
@@ -15,24 +15,84 @@
  */
 package info.jejking.opengeodb.neo4j.importer;
 
-import info.jejking.opengeodb.neo4j.importer.PlaceParser.PlaceBean;
-
 import java.util.Map;
 
 import org.neo4j.graphdb.GraphDatabaseService;
-import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
 
 /**
  * Class to build relationships between nodes representing places and postal codes given the data extracted from the
- * tab-delimited place file.
+ * tab-delimited place file. Nodes are looked up by id in primitive maps filled while the nodes were created, and
+ * relationships are created between node ids, either through a {@link GraphDatabaseService} or a
+ * {@link BatchInserter}.
  * 
  * @author jejking
  */
 public class PlaceRelationshipBuilder {
 
     enum Relationships implements RelationshipType {
-        PART_OF, POSTAL_CODE_FOR;
+        PART_OF, POSTAL_CODE_FOR, NEAR, NEIGHBOUR_OF;
+    }
+
+    /**
+     * Creates a relationship between two nodes given by id, optionally with properties.
+     */
+    interface RelationshipWriter {
+        void createRelationship(long fromNodeId, long toNodeId, RelationshipType type);
+
+        void createRelationship(long fromNodeId, long toNodeId, RelationshipType type, Map<String, Object> properties);
+    }
+
+    /**
+     * Writes relationships in the current transaction of a graph database.
+     */
+    static final class GraphDbRelationshipWriter implements RelationshipWriter {
+
+        private final GraphDatabaseService graphDb;
+
+        GraphDbRelationshipWriter(GraphDatabaseService graphDb) {
+            this.graphDb = graphDb;
+        }
+
+        @Override
+        public void createRelationship(long fromNodeId, long toNodeId, RelationshipType type) {
+            graphDb.getNodeById(fromNodeId).createRelationshipTo(graphDb.getNodeById(toNodeId), type);
+        }
+
+        @Override
+        public void createRelationship(long fromNodeId, long toNodeId, RelationshipType type,
+                Map<String, Object> properties) {
+            Relationship relationship = graphDb.getNodeById(fromNodeId).createRelationshipTo(
+                    graphDb.getNodeById(toNodeId), type);
+            for (Map.Entry<String, Object> property : properties.entrySet()) {
+                relationship.setProperty(property.getKey(), property.getValue());
+            }
+        }
+    }
+
+    /**
+     * Writes relationships with a batch inserter.
+     */
+    static final class BatchInserterRelationshipWriter implements RelationshipWriter {
+
+        private final BatchInserter inserter;
+
+        BatchInserterRelationshipWriter(BatchInserter inserter) {
+            this.inserter = inserter;
+        }
+
+        @Override
+        public void createRelationship(long fromNodeId, long toNodeId, RelationshipType type) {
+            inserter.createRelationship(fromNodeId, toNodeId, type, null);
+        }
+
+        @Override
+        public void createRelationship(long fromNodeId, long toNodeId, RelationshipType type,
+                Map<String, Object> properties) {
+            inserter.createRelationship(fromNodeId, toNodeId, type, properties);
+        }
     }
 
     /**
@@ -40,52 +100,85 @@ public class PlaceRelationshipBuilder {
      * 
      * @param graphDb
      *            the graph db service
-     * @param placeNodeMap
-     *            a local, complete cache of nodes representing places, keyed on integer ID
-     * @param plzNodeMap
-     *            a local, complete cache of nodes representing postal codes, keyed on the postal code
+     * @param placeNodeIds
+     *            a local, complete map of ids of nodes representing places, keyed on integer ID
+     * @param plzNodeIds
+     *            a local, complete index of ids of nodes representing postal codes
      * @param placeBean
      *            the place for which relationships are to be built
+     * @return number of relationships created
      */
-    public void buildRelationshipsForPlace(GraphDatabaseService graphDb, Map<Integer, Node> placeNodeMap,
-            Map<String, Node> plzNodeMap, PlaceBean placeBean) {
+    public int buildRelationshipsForPlace(GraphDatabaseService graphDb, IntLongHashMap placeNodeIds,
+            PostalCodeNodeIndex plzNodeIds, PlaceRecord placeBean) {
 
-        buildPartOfRelationshipForPlace(graphDb, placeNodeMap, placeBean);
-        buildPostalCodeRelationships(graphDb, placeNodeMap, plzNodeMap, placeBean);
+        return buildRelationshipsForPlace(new GraphDbRelationshipWriter(graphDb), placeNodeIds, plzNodeIds,
+                placeBean);
 
     }
 
     /**
-     * Builds postal code relationships. The "plzs" field of the place bean parameter is split on the comma to give an
-     * array of the postal codes for the area. The node for each postal code node is looked up and a
-     * {@link Relationships#POSTAL_CODE_FOR} relationship from this node to the node corresponding to the place bean is
-     * added.
+     * Constructs relationships between nodes with a {@link BatchInserter}.
      * 
-     * @param graphDb
-     *            the graph db service
-     * @param placeNodeMap
-     *            a local, complete cache of nodes representing places, keyed on integer ID
-     * @param plzNodeMap
-     *            a local, complete cache of nodes representing postal codes, keyed on the postal code
+     * @param inserter
+     *            the batch inserter
+     * @param placeNodeIds
+     *            a local, complete map of ids of nodes representing places, keyed on integer ID
+     * @param plzNodeIds
+     *            a local, complete index of ids of nodes representing postal codes
      * @param placeBean
      *            the place for which relationships are to be built
+     * @return number of relationships created
      */
-    void buildPostalCodeRelationships(GraphDatabaseService graphDb, Map<Integer, Node> placeNodeMap,
-            Map<String, Node> plzNodeMap, PlaceBean placeBean) {
-
-        if (placeBean.getPlzs() != null) {
-            Node placeNode = placeNodeMap.get(placeBean.getId());
-            if (placeNode != null) {
-                String[] postalCodes = placeBean.getPlzs().split(",");
-                for (String postalCode : postalCodes) {
-                    Node postalCodeNode = plzNodeMap.get(postalCode.trim());
-                    if (postalCodeNode != null) {
-                        postalCodeNode.createRelationshipTo(placeNode, Relationships.POSTAL_CODE_FOR);
+    public int buildRelationshipsForPlace(BatchInserter inserter, IntLongHashMap placeNodeIds,
+            PostalCodeNodeIndex plzNodeIds, PlaceRecord placeBean) {
+
+        return buildRelationshipsForPlace(new BatchInserterRelationshipWriter(inserter), placeNodeIds, plzNodeIds,
+                placeBean);
+
+    }
+
+    int buildRelationshipsForPlace(RelationshipWriter writer, IntLongHashMap placeNodeIds,
+            PostalCodeNodeIndex plzNodeIds, PlaceRecord placeBean) {
+
+        return buildPartOfRelationshipForPlace(writer, placeNodeIds, placeBean)
+                + buildPostalCodeRelationships(writer, placeNodeIds, plzNodeIds, placeBean);
+
+    }
+
+    /**
+     * Builds postal code relationships. The node for each of the postal codes of the place, as decoded by the parser,
+     * is looked up and a {@link Relationships#POSTAL_CODE_FOR} relationship from this node to the node corresponding
+     * to the place bean is added.
+     * 
+     * @param writer
+     *            creates the relationships
+     * @param placeNodeIds
+     *            a local, complete map of ids of nodes representing places, keyed on integer ID
+     * @param plzNodeIds
+     *            a local, complete index of ids of nodes representing postal codes
+     * @param placeBean
+     *            the place for which relationships are to be built
+     * @return number of relationships created
+     */
+    int buildPostalCodeRelationships(RelationshipWriter writer, IntLongHashMap placeNodeIds,
+            PostalCodeNodeIndex plzNodeIds, PlaceRecord placeBean) {
+
+        int created = 0;
+        int postalCodes = placeBean.getPostalCodeCount();
+        if (postalCodes > 0) {
+            long placeNodeId = placeNodeIds.get(placeBean.getId());
+            if (placeNodeId != IntLongHashMap.NOT_FOUND) {
+                for (int i = 0; i < postalCodes; i++) {
+                    long postalCodeNodeId = plzNodeIds.get(placeBean.getPostalCode(i));
+                    if (postalCodeNodeId != PostalCodeNodeIndex.NOT_FOUND) {
+                        writer.createRelationship(postalCodeNodeId, placeNodeId, Relationships.POSTAL_CODE_FOR);
+                        created++;
                     }
                 }
             }
 
         }
+        return created;
 
     }
 
@@ -94,24 +187,26 @@ public class PlaceRelationshipBuilder {
      * representing that place is looked up and (if found), a {@link Relationships#PART_OF} relationship is created from
      * the node representing the place to the place further up the nocde hierarchy.
      * 
-     * @param graphDb
-     *            the graph db service
-     * @param placeNodeMap
-     *            a local, complete cache of nodes representing places, keyed on integer ID
+     * @param writer
+     *            creates the relationships
+     * @param placeNodeIds
+     *            a local, complete map of ids of nodes representing places, keyed on integer ID
      * @param placeBean
      *            the place for which relationships are to be built
+     * @return number of relationships created
      */
-    void buildPartOfRelationshipForPlace(GraphDatabaseService graphDb, Map<Integer, Node> placeNodeMap,
-            PlaceBean placeBean) {
+    int buildPartOfRelationshipForPlace(RelationshipWriter writer, IntLongHashMap placeNodeIds, PlaceRecord placeBean) {
 
         if (placeBean.getOf() > 0) {
-            Node placeNode = placeNodeMap.get(placeBean.getId());
-            Node ofNode = placeNodeMap.get(placeBean.getOf());
+            long placeNodeId = placeNodeIds.get(placeBean.getId());
+            long ofNodeId = placeNodeIds.get(placeBean.getOf());
 
-            if (placeNode != null && ofNode != null) {
-                placeNode.createRelationshipTo(ofNode, Relationships.PART_OF);
+            if (placeNodeId != IntLongHashMap.NOT_FOUND && ofNodeId != IntLongHashMap.NOT_FOUND) {
+                writer.createRelationship(placeNodeId, ofNodeId, Relationships.PART_OF);
+                return 1;
             }
         }
+        return 0;
 
     }
 
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.util.BitSet;
+
+/**
+ * The places and postal codes which a {@link PlaceFilter} selects from the files. The parsers consult it as soon as
+ * they have decoded the id of a place or the code of a postal code, and skip the rest of the line if it is not
+ * selected.
+ * 
+ * @author jejking
+ */
+final class PlaceSelection {
+
+    private final IntLongHashMap places = new IntLongHashMap();
+    private final BitSet postalCodes = new BitSet(PostalCodeNodeIndex.CAPACITY);
+
+    /**
+     * @param id
+     *            id of a place
+     */
+    void addPlace(int id) {
+        places.put(id, 1);
+    }
+
+    /**
+     * @param code
+     *            a postal code as a number
+     */
+    void addPostalCode(int code) {
+        postalCodes.set(code);
+    }
+
+    /**
+     * @param id
+     *            id of a place
+     * @return whether the place is selected
+     */
+    boolean containsPlace(int id) {
+        return places.containsKey(id);
+    }
+
+    /**
+     * @param code
+     *            a postal code as a number, or {@link PostalCodeNodeIndex#NOT_A_POSTAL_CODE}
+     * @return whether the postal code is selected
+     */
+    boolean containsPostalCode(int code) {
+        return code >= 0 && postalCodes.get(code);
+    }
+
+    /**
+     * @return number of places selected
+     */
+    int getPlaceCount() {
+        return places.size();
+    }
+
+    /**
+     * @return number of postal codes selected
+     */
+    int getPostalCodeCount() {
+        return postalCodes.cardinality();
+    }
+
+}
@@ -0,0 +1,459 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import info.jejking.opengeodb.neo4j.importer.PlaceParser.PlaceBean;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Columnar store of parsed places, holding each field in a primitive array indexed by row, rows being in file order.
+ * String fields are kept as codes into a {@link StringDictionary} per column, so that each distinct value is held
+ * once, as UTF-8 bytes. Compared to a list of {@link PlaceBean} objects, with their dozen or so objects per place,
+ * this takes a fraction of the heap and leaves the garbage collector next to nothing to trace. The postal codes of all
+ * rows are packed into a single int array, with the index of the first code of each row in another.
+ * 
+ * <p>
+ * Rows are read either through the getters taking a row index, or through a {@link Cursor}, a single
+ * {@link PlaceRecord} which is moved from row to row. Neither allocates, except to decode strings from columns with
+ * many distinct values. The store is filled by a single thread and may then be read by any number of threads.
+ * </p>
+ * 
+ * @author jejking
+ */
+public final class PlaceStore {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int size;
+
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private int[] ofs = new int[INITIAL_CAPACITY];
+    private int[] levels = new int[INITIAL_CAPACITY];
+    private int[] einwohner = new int[INITIAL_CAPACITY];
+    private int[] lats = new int[INITIAL_CAPACITY];
+    private int[] lons = new int[INITIAL_CAPACITY];
+    private double[] flaechen = new double[INITIAL_CAPACITY];
+    private int[] postalCodeStarts = new int[INITIAL_CAPACITY + 1];
+    private int[] postalCodes = new int[INITIAL_CAPACITY];
+    private int postalCodeCount;
+
+    private final StringColumn ags = new StringColumn();
+    private final StringColumn ascii = new StringColumn();
+    private final StringColumn names = new StringColumn();
+    private final StringColumn amts = new StringColumn();
+    private final StringColumn vorwahls = new StringColumn();
+    private final StringColumn kzs = new StringColumn();
+    private final StringColumn typs = new StringColumn();
+    private final StringColumn invalids = new StringColumn();
+
+    /**
+     * Appends a place as the next row.
+     * 
+     * @param place
+     *            the place, which is copied
+     */
+    public void add(PlaceRecord place) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            ofs = Arrays.copyOf(ofs, capacity);
+            levels = Arrays.copyOf(levels, capacity);
+            einwohner = Arrays.copyOf(einwohner, capacity);
+            lats = Arrays.copyOf(lats, capacity);
+            lons = Arrays.copyOf(lons, capacity);
+            flaechen = Arrays.copyOf(flaechen, capacity);
+            postalCodeStarts = Arrays.copyOf(postalCodeStarts, capacity + 1);
+        }
+        ids[size] = place.getId();
+        ofs[size] = place.getOf();
+        levels[size] = place.getLevel();
+        einwohner[size] = place.getEinwohner();
+        lats[size] = place.getLatMicroDegrees();
+        lons[size] = place.getLonMicroDegrees();
+        flaechen[size] = place.getFlaeche();
+        ags.add(size, place.getAgs());
+        ascii.add(size, place.getAscii());
+        names.add(size, place.getName());
+        amts.add(size, place.getAmt());
+        vorwahls.add(size, place.getVorwahl());
+        kzs.add(size, place.getKz());
+        typs.add(size, place.getTyp());
+        invalids.add(size, place.getInvalid());
+        int codes = place.getPostalCodeCount();
+        if (postalCodeCount + codes > postalCodes.length) {
+            postalCodes = Arrays.copyOf(postalCodes, Math.max(postalCodes.length * 2, postalCodeCount + codes));
+        }
+        for (int i = 0; i < codes; i++) {
+            postalCodes[postalCodeCount++] = place.getPostalCode(i);
+        }
+        size++;
+        postalCodeStarts[size] = postalCodeCount;
+    }
+
+    /**
+     * Trims all columns to the number of rows and drops the lookup tables of the dictionaries. No more places can be
+     * added afterwards.
+     */
+    public void compact() {
+        ids = Arrays.copyOf(ids, size);
+        ofs = Arrays.copyOf(ofs, size);
+        levels = Arrays.copyOf(levels, size);
+        einwohner = Arrays.copyOf(einwohner, size);
+        lats = Arrays.copyOf(lats, size);
+        lons = Arrays.copyOf(lons, size);
+        flaechen = Arrays.copyOf(flaechen, size);
+        postalCodeStarts = Arrays.copyOf(postalCodeStarts, size + 1);
+        postalCodes = Arrays.copyOf(postalCodes, postalCodeCount);
+        for (StringColumn column : stringColumns()) {
+            column.compact(size);
+        }
+    }
+
+    /**
+     * @return number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return estimate of the heap taken by the columns and dictionaries, in bytes
+     */
+    public long estimateBytes() {
+        long bytes = 4L * (ids.length + ofs.length + levels.length + einwohner.length + lats.length + lons.length);
+        bytes += 8L * flaechen.length;
+        bytes += 4L * (postalCodeStarts.length + postalCodes.length);
+        for (StringColumn column : stringColumns()) {
+            bytes += column.estimateBytes();
+        }
+        return bytes;
+    }
+
+    public int getId(int row) {
+        return ids[row];
+    }
+
+    public String getAgs(int row) {
+        return ags.get(row);
+    }
+
+    public String getAscii(int row) {
+        return ascii.get(row);
+    }
+
+    public String getName(int row) {
+        return names.get(row);
+    }
+
+    public double getLat(int row) {
+        return Coordinates.toDegrees(lats[row]);
+    }
+
+    public double getLon(int row) {
+        return Coordinates.toDegrees(lons[row]);
+    }
+
+    public int getLatMicroDegrees(int row) {
+        return lats[row];
+    }
+
+    public int getLonMicroDegrees(int row) {
+        return lons[row];
+    }
+
+    public String getAmt(int row) {
+        return amts.get(row);
+    }
+
+    public int getPostalCodeCount(int row) {
+        return postalCodeStarts[row + 1] - postalCodeStarts[row];
+    }
+
+    public int getPostalCode(int row, int index) {
+        return postalCodes[postalCodeStarts[row] + index];
+    }
+
+    public String getVorwahl(int row) {
+        return vorwahls.get(row);
+    }
+
+    public int getEinwohner(int row) {
+        return einwohner[row];
+    }
+
+    public double getFlaeche(int row) {
+        return flaechen[row];
+    }
+
+    public String getKz(int row) {
+        return kzs.get(row);
+    }
+
+    public String getTyp(int row) {
+        return typs.get(row);
+    }
+
+    public int getLevel(int row) {
+        return levels[row];
+    }
+
+    public int getOf(int row) {
+        return ofs[row];
+    }
+
+    public String getInvalid(int row) {
+        return invalids.get(row);
+    }
+
+    /**
+     * @return a bean with a copy of the fields of the row
+     */
+    public PlaceBean toBean(int row) {
+        PlaceBean bean = new PlaceBean(getId(row), getAgs(row), getAscii(row), getName(row), 0, 0, getAmt(row),
+                null, getVorwahl(row), getEinwohner(row), getFlaeche(row), getKz(row), getTyp(row), getLevel(row),
+                getOf(row), getInvalid(row));
+        bean.setLatMicroDegrees(lats[row]);
+        bean.setLonMicroDegrees(lons[row]);
+        bean.setPostalCodes(Arrays.copyOfRange(postalCodes, postalCodeStarts[row], postalCodeStarts[row + 1]));
+        return bean;
+    }
+
+    /**
+     * @return a new cursor, placed before the first row
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Iterates over the rows with a single cursor, which is handed out by every call to <code>next()</code>. Callers
+     * must therefore copy whatever they need from a row before moving on to the next.
+     * 
+     * @return iterator over the rows, closing which does nothing
+     */
+    CloseableIterator<PlaceRecord> iterateRows() {
+        final Cursor cursor = cursor();
+        return new CloseableIterator<PlaceRecord>() {
+
+            @Override
+            public boolean hasNext() {
+                return cursor.getRow() + 1 < size;
+            }
+
+            @Override
+            public PlaceRecord next() {
+                if (!cursor.next()) {
+                    throw new NoSuchElementException();
+                }
+                return cursor;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+                // nothing to release
+            }
+        };
+    }
+
+    private StringColumn[] stringColumns() {
+        return new StringColumn[] { ags, ascii, names, amts, vorwahls, kzs, typs, invalids };
+    }
+
+    /**
+     * A {@link PlaceRecord} which reads the fields of the row it is on. Each thread needs a cursor of its own.
+     */
+    public final class Cursor implements PlaceRecord {
+
+        private int row = -1;
+
+        private Cursor() {
+            super();
+        }
+
+        /**
+         * Moves to the next row.
+         * 
+         * @return <code>false</code> if there is none
+         */
+        public boolean next() {
+            if (row + 1 >= size) {
+                row = size;
+                return false;
+            }
+            row++;
+            return true;
+        }
+
+        /**
+         * Moves to the given row.
+         * 
+         * @param row
+         *            the row
+         * @return this cursor
+         */
+        public Cursor moveTo(int row) {
+            if (row < 0 || row >= size) {
+                throw new NoSuchElementException("No row " + row + " in store of " + size);
+            }
+            this.row = row;
+            return this;
+        }
+
+        /**
+         * @return the row the cursor is on
+         */
+        public int getRow() {
+            return row;
+        }
+
+        @Override
+        public int getId() {
+            return ids[row];
+        }
+
+        @Override
+        public String getAgs() {
+            return ags.get(row);
+        }
+
+        @Override
+        public String getAscii() {
+            return ascii.get(row);
+        }
+
+        @Override
+        public String getName() {
+            return names.get(row);
+        }
+
+        @Override
+        public double getLat() {
+            return Coordinates.toDegrees(lats[row]);
+        }
+
+        @Override
+        public double getLon() {
+            return Coordinates.toDegrees(lons[row]);
+        }
+
+        @Override
+        public int getLatMicroDegrees() {
+            return lats[row];
+        }
+
+        @Override
+        public int getLonMicroDegrees() {
+            return lons[row];
+        }
+
+        @Override
+        public String getAmt() {
+            return amts.get(row);
+        }
+
+        @Override
+        public int getPostalCodeCount() {
+            return postalCodeStarts[row + 1] - postalCodeStarts[row];
+        }
+
+        @Override
+        public int getPostalCode(int index) {
+            return postalCodes[postalCodeStarts[row] + index];
+        }
+
+        @Override
+        public String getVorwahl() {
+            return vorwahls.get(row);
+        }
+
+        @Override
+        public int getEinwohner() {
+            return einwohner[row];
+        }
+
+        @Override
+        public double getFlaeche() {
+            return flaechen[row];
+        }
+
+        @Override
+        public String getKz() {
+            return kzs.get(row);
+        }
+
+        @Override
+        public String getTyp() {
+            return typs.get(row);
+        }
+
+        @Override
+        public int getLevel() {
+            return levels[row];
+        }
+
+        @Override
+        public int getOf() {
+            return ofs[row];
+        }
+
+        @Override
+        public String getInvalid() {
+            return invalids.get(row);
+        }
+
+        @Override
+        public String toString() {
+            return "PlaceStore.Cursor [row=" + row + "]";
+        }
+    }
+
+    /**
+     * A string column: one code per row and the dictionary of its values.
+     */
+    private static final class StringColumn {
+
+        private final StringDictionary dictionary = new StringDictionary();
+        private int[] codes = new int[INITIAL_CAPACITY];
+
+        void add(int row, String value) {
+            if (row == codes.length) {
+                codes = Arrays.copyOf(codes, row * 2);
+            }
+            codes[row] = dictionary.encode(value);
+        }
+
+        String get(int row) {
+            return dictionary.decode(codes[row]);
+        }
+
+        void compact(int size) {
+            codes = Arrays.copyOf(codes, size);
+            dictionary.compact();
+        }
+
+        long estimateBytes() {
+            return 4L * codes.length + dictionary.getByteCount() + 4L * (dictionary.size() + 1);
+        }
+    }
+
+}
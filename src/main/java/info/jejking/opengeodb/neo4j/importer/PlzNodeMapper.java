@@ -18,9 +18,14 @@ package info.jejking.opengeodb.neo4j.importer;
 import info.jejking.opengeodb.neo4j.importer.OpenGeoDbProperties.PlzProperties;
 import info.jejking.opengeodb.neo4j.importer.PlzParser.PlzTabBean;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.neo4j.graphdb.DynamicLabel;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
 
 /**
  * Class with functionality to create a {@link Node} corresponding to a {@link PlzTabBean}.
@@ -29,9 +34,12 @@ import org.neo4j.graphdb.Node;
  */
 public class PlzNodeMapper {
 
+    private static final Label[] LABELS = { DynamicLabel.label(OpenGeoDbProperties.POSTAL_CODE_LABEL),
+            DynamicLabel.label(OpenGeoDbProperties.OPENGEO_DB_LOCATION) };
+
     /**
-     * Creates the node for a postal code. Properties are mapped across. The OpenGeoDb ID and the postal code are
-     * indexed.
+     * Creates the node for a postal code. Properties are mapped across. The OpenGeoDb ID, the postal code and its
+     * {@link GeoHash geohashes} are indexed.
      * 
      * @param graphDb
      *            the graph db service
@@ -40,19 +48,43 @@ public class PlzNodeMapper {
      * @return node with properties set
      */
     public Node createPlzNode(GraphDatabaseService graphDb, PlzTabBean plzBean) {
-        Node node = graphDb.createNode(
-                                DynamicLabel.label(OpenGeoDbProperties.POSTAL_CODE_LABEL),
-                                DynamicLabel.label(OpenGeoDbProperties.OPENGEO_DB_LOCATION));
-
-        node.setProperty(OpenGeoDbProperties.LOC_ID, plzBean.getId());
-
-        node.setProperty(PlzProperties.POSTAL_CODE.name(), plzBean.getPlz());
+        Node node = graphDb.createNode(LABELS);
+        for (Map.Entry<String, Object> property : getProperties(plzBean).entrySet()) {
+            node.setProperty(property.getKey(), property.getValue());
+        }
+        return node;
+    }
 
-        node.setProperty(PlzProperties.LATITUDE.name(), plzBean.getLat());
-        node.setProperty(PlzProperties.LONGITUDE.name(), plzBean.getLon());
-        node.setProperty(PlzProperties.PLACE_NAME.name(), plzBean.getPlaceName());
+    /**
+     * Creates the node for a postal code with a {@link BatchInserter}, setting labels and all properties in a single
+     * call.
+     * 
+     * @param inserter
+     *            the batch inserter
+     * @param plzBean
+     *            the postal code for which to create a node
+     * @return id of the new node
+     */
+    public long createPlzNode(BatchInserter inserter, PlzTabBean plzBean) {
+        return inserter.createNode(getProperties(plzBean), LABELS);
+    }
 
-        return node;
+    /**
+     * Gives the properties for the node of a postal code.
+     * 
+     * @param plzBean
+     *            the postal code
+     * @return property map, keyed on property name
+     */
+    Map<String, Object> getProperties(PlzTabBean plzBean) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(OpenGeoDbProperties.LOC_ID, plzBean.getId());
+        properties.put(PlzProperties.POSTAL_CODE.name(), plzBean.getPlz());
+        properties.put(PlzProperties.LATITUDE.name(), plzBean.getLat());
+        properties.put(PlzProperties.LONGITUDE.name(), plzBean.getLon());
+        GeoHash.putProperties(properties, plzBean.getLatMicroDegrees(), plzBean.getLonMicroDegrees());
+        properties.put(PlzProperties.PLACE_NAME.name(), plzBean.getPlaceName());
+        return properties;
     }
 
 }
@@ -15,9 +15,15 @@
  */
 package info.jejking.opengeodb.neo4j.importer;
 
+import info.jejking.opengeodb.neo4j.importer.StringInterner.InternProcessor;
+import info.jejking.opengeodb.neo4j.importer.TabSeparatedBeanReader.BeanFilter;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.supercsv.cellprocessor.ParseDouble;
 import org.supercsv.cellprocessor.ParseInt;
@@ -33,7 +39,9 @@ import org.supercsv.cellprocessor.ift.CellProcessor;
 public class PlzParser {
 
     /**
-     * Dumb POJO representing a line of data from the tab-delimited file.
+     * Dumb POJO representing a line of data from the tab-delimited file. The coordinates are kept as given in the
+     * file, which is what is written to the graph, and also rounded to {@link Coordinates micro-degrees}, which is what
+     * geohashes and nearness are computed from.
      */
     public static class PlzTabBean {
 
@@ -41,6 +49,8 @@ public class PlzParser {
         private String plz;
         private double lon;
         private double lat;
+        private int lonMicroDegrees;
+        private int latMicroDegrees;
         private String placeName;
 
         public PlzTabBean() {
@@ -51,8 +61,8 @@ public class PlzParser {
             super();
             this.id = id;
             this.plz = plz;
-            this.lon = lon;
-            this.lat = lat;
+            setLon(lon);
+            setLat(lat);
             this.placeName = placeName;
         }
 
@@ -78,6 +88,7 @@ public class PlzParser {
 
         public void setLon(double lon) {
             this.lon = lon;
+            this.lonMicroDegrees = Coordinates.toMicroDegrees(lon);
         }
 
         public double getLat() {
@@ -86,6 +97,15 @@ public class PlzParser {
 
         public void setLat(double lat) {
             this.lat = lat;
+            this.latMicroDegrees = Coordinates.toMicroDegrees(lat);
+        }
+
+        public int getLonMicroDegrees() {
+            return lonMicroDegrees;
+        }
+
+        public int getLatMicroDegrees() {
+            return latMicroDegrees;
         }
 
         public String getPlaceName() {
@@ -176,12 +196,118 @@ public class PlzParser {
     // way round in the PLZ.tab file.
     private final String[] headers = { "id", "plz", "lon", "lat", "placeName" };
 
+    private final TabParserEngine engine;
+    private AtomicLong skippedLines = new AtomicLong();
+    private boolean quiet;
+    private PlaceSelection selection;
+
+    /**
+     * Constructs parser using {@link TabParserEngine#DIRECT}.
+     */
+    public PlzParser() {
+        this(TabParserEngine.DIRECT);
+    }
+
+    /**
+     * Constructs parser using the given engine.
+     * 
+     * @param engine
+     *            how to turn lines into beans
+     */
+    public PlzParser(TabParserEngine engine) {
+        super();
+        this.engine = engine;
+    }
+
+    /**
+     * @param skippedLines
+     *            counter to add the number of lines skipped because of data errors to
+     */
+    public void setSkippedLineCounter(AtomicLong skippedLines) {
+        this.skippedLines = skippedLines;
+    }
+
+    /**
+     * @param quiet
+     *            whether to skip lines with data errors without logging a warning for each
+     */
+    public void setQuiet(boolean quiet) {
+        this.quiet = quiet;
+    }
+
+    /**
+     * Restricts parsing to the postal codes of the places a {@link PlaceFilter} has selected. The other lines are
+     * dropped as soon as their postal code is decoded, without being counted as skipped.
+     * 
+     * @param selection
+     *            the postal codes to parse, or <code>null</code> for all
+     */
+    void setSelection(PlaceSelection selection) {
+        this.selection = selection;
+    }
+
+    /**
+     * Maps the columns of a line directly onto a {@link PlzTabBean}. All columns are mandatory. The place names, which
+     * repeat for each postal code of a town, are {@link StringInterner interned}. Lines of postal codes outside the
+     * selection, if there is one, are not decoded further.
+     */
+    static final class PlzRowMapper implements TabSeparatedRowMapper<PlzTabBean> {
+
+        private static final int ID = 0;
+        private static final int PLZ = 1;
+        private static final int LON = 2;
+        private static final int LAT = 3;
+        private static final int PLACE_NAME = 4;
+
+        private final StringInterner placeNames = new StringInterner();
+        private final PlaceSelection selection;
+
+        /**
+         * Constructs mapper for all postal codes.
+         */
+        PlzRowMapper() {
+            this(null);
+        }
+
+        /**
+         * Constructs mapper for the selected postal codes.
+         * 
+         * @param selection
+         *            the postal codes to map, or <code>null</code> for all
+         */
+        PlzRowMapper(PlaceSelection selection) {
+            this.selection = selection;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return 5;
+        }
+
+        @Override
+        public PlzTabBean mapRow(TabSeparatedLineTokenizer line) {
+            if (line.isEmpty(PLZ) || line.isEmpty(PLACE_NAME)) {
+                throw new IllegalArgumentException("Missing postal code or place name");
+            }
+            if (selection != null && !selection.containsPostalCode(line.getPostalCode(PLZ))) {
+                return null;
+            }
+            PlzTabBean bean = new PlzTabBean();
+            bean.setId(line.getInt(ID));
+            bean.setPlz(line.getString(PLZ));
+            bean.setLon(line.getDouble(LON));
+            bean.setLat(line.getDouble(LAT));
+            bean.setPlaceName(line.getString(PLACE_NAME, placeNames));
+            return bean;
+        }
+    }
+
     private CellProcessor[] getProcessors() {
         CellProcessor[] processors = new CellProcessor[] { new NotNull(new ParseInt()), // id
                 new NotNull(), // plz
                 new NotNull(new ParseDouble()), // longitude
                 new NotNull(new ParseDouble()), // latitude
-                new NotNull() // name
+                new NotNull(new InternProcessor(new StringInterner())) // name
         };
         return processors;
     }
@@ -196,7 +322,75 @@ public class PlzParser {
      *             on IO issues
      */
     public List<PlzTabBean> readDataFromStream(InputStream stream) throws IOException {
-        return new TabSeparatedBeanReader<>(PlzTabBean.class, getProcessors(), headers).readDataFromStream(stream,
-                false);
+        if (engine == TabParserEngine.DIRECT) {
+            return directReader().readDataFromStream(stream, false);
+        }
+        return superCsvReader().readDataFromStream(stream, false);
+    }
+
+    /**
+     * Reads the data in from the given stream lazily, handing out {@link PlzTabBean} objects as they are consumed.
+     * 
+     * @param stream
+     *            a stream to read in from. Will be closed when the iterator is exhausted or closed.
+     * @return iterator over {@link PlzTabBean} objects.
+     * @throws IOException
+     *             on IO issues
+     */
+    public CloseableIterator<PlzTabBean> iterateDataFromStream(InputStream stream) throws IOException {
+        if (engine == TabParserEngine.DIRECT) {
+            return directReader().iterateDataFromStream(stream, false);
+        }
+        return superCsvReader().iterateDataFromStream(stream, false);
+    }
+
+    /**
+     * Reads the data in from the given file by memory-mapping it and parsing newline-aligned chunks of it in
+     * parallel, constructing a list of {@link PlzTabBean} objects in file order. Always uses
+     * {@link TabParserEngine#DIRECT}.
+     * 
+     * @param file
+     *            the file to read
+     * @param pool
+     *            the pool in which to parse the chunks
+     * @return list of {@link PlzTabBean} objects.
+     * @throws IOException
+     *             on IO issues
+     */
+    public List<PlzTabBean> readDataFromFile(Path file, ForkJoinPool pool) throws IOException {
+        return parallelReader().readDataFromFile(file, false, pool);
+    }
+
+    private DirectTabSeparatedBeanReader<PlzTabBean> directReader() {
+        DirectTabSeparatedBeanReader<PlzTabBean> reader = new DirectTabSeparatedBeanReader<>(new PlzRowMapper(
+                selection));
+        reader.setSkippedLineCounter(skippedLines);
+        reader.setQuiet(quiet);
+        return reader;
+    }
+
+    private TabSeparatedBeanReader<PlzTabBean> superCsvReader() {
+        TabSeparatedBeanReader<PlzTabBean> reader = new TabSeparatedBeanReader<>(PlzTabBean.class, getProcessors(),
+                headers);
+        reader.setSkippedLineCounter(skippedLines);
+        reader.setQuiet(quiet);
+        if (selection != null) {
+            reader.setFilter(new BeanFilter<PlzTabBean>() {
+
+                @Override
+                public boolean accept(PlzTabBean bean) {
+                    String plz = bean.getPlz();
+                    return selection.containsPostalCode(PostalCodeNodeIndex.parse(plz, 0, plz.length()));
+                }
+            });
+        }
+        return reader;
+    }
+
+    private ParallelTabFileReader<PlzTabBean> parallelReader() {
+        ParallelTabFileReader<PlzTabBean> reader = new ParallelTabFileReader<>(new PlzRowMapper(selection));
+        reader.setSkippedLineCounter(skippedLines);
+        reader.setQuiet(quiet);
+        return reader;
     }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.util.Arrays;
+
+import org.supercsv.cellprocessor.CellProcessorAdaptor;
+import org.supercsv.cellprocessor.ift.StringCellProcessor;
+import org.supercsv.util.CsvContext;
+
+/**
+ * Decodes the comma-separated postal codes of a place, as held in the "plzs" column of the place file, into a packed
+ * int array with one number per code, in the order given. Anything which is not a five digit code is dropped, as is
+ * every repeat of a code. Repeats are found with a bit set of one bit per possible code, of which only the bits set for
+ * the current list are cleared again afterwards, so that a list costs no more than the array handed out for it.
+ * 
+ * <p>
+ * A decoder keeps that bit set between calls and must be confined to one thread.
+ * </p>
+ * 
+ * @author jejking
+ */
+final class PostalCodeDecoder {
+
+    /**
+     * The list of a place without postal codes, shared.
+     */
+    static final int[] NONE = new int[0];
+
+    private static final int POSTAL_CODE_DIGITS = 5;
+
+    private final long[] seen = new long[(PostalCodeNodeIndex.CAPACITY + 63) >>> 6];
+    private int[] codes = new int[16];
+    private int count;
+
+    /**
+     * Decodes part of a byte array holding ASCII or UTF-8 text, such as the read buffer of a parser.
+     * 
+     * @param bytes
+     *            the text
+     * @param start
+     *            start index, inclusive
+     * @param end
+     *            end index, exclusive
+     * @return the codes, {@link #NONE} if there are none
+     */
+    int[] decode(byte[] bytes, int start, int end) {
+        int codeStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || bytes[i] == ',') {
+                add(PostalCodeNodeIndex.parse(bytes, codeStart, i));
+                codeStart = i + 1;
+            }
+        }
+        return finish();
+    }
+
+    /**
+     * @param text
+     *            the text, may be <code>null</code>
+     * @return the codes, {@link #NONE} if there are none
+     */
+    int[] decode(CharSequence text) {
+        if (text == null) {
+            return NONE;
+        }
+        int codeStart = 0;
+        int end = text.length();
+        for (int i = 0; i <= end; i++) {
+            if (i == end || text.charAt(i) == ',') {
+                add(PostalCodeNodeIndex.parse(text, codeStart, i));
+                codeStart = i + 1;
+            }
+        }
+        return finish();
+    }
+
+    /**
+     * Formats codes the way the place file lists them, each with five digits and separated by commas.
+     * 
+     * @param codes
+     *            the codes
+     * @return the list, or <code>null</code> if there are no codes
+     */
+    static String format(int[] codes) {
+        if (codes.length == 0) {
+            return null;
+        }
+        StringBuilder text = new StringBuilder(codes.length * (POSTAL_CODE_DIGITS + 1));
+        for (int code : codes) {
+            if (text.length() > 0) {
+                text.append(',');
+            }
+            String digits = Integer.toString(code);
+            for (int i = digits.length(); i < POSTAL_CODE_DIGITS; i++) {
+                text.append('0');
+            }
+            text.append(digits);
+        }
+        return text.toString();
+    }
+
+    private void add(int code) {
+        if (code == PostalCodeNodeIndex.NOT_A_POSTAL_CODE) {
+            return;
+        }
+        long bit = 1L << code;
+        int word = code >>> 6;
+        if ((seen[word] & bit) != 0) {
+            return;
+        }
+        seen[word] |= bit;
+        if (count == codes.length) {
+            codes = Arrays.copyOf(codes, count * 2);
+        }
+        codes[count++] = code;
+    }
+
+    private int[] finish() {
+        if (count == 0) {
+            return NONE;
+        }
+        for (int i = 0; i < count; i++) {
+            seen[codes[i] >>> 6] = 0;
+        }
+        int[] result = Arrays.copyOf(codes, count);
+        count = 0;
+        return result;
+    }
+
+    /**
+     * Cell processor decoding a list of postal codes into an int array, for the SuperCSV parser engine.
+     */
+    static final class PostalCodeProcessor extends CellProcessorAdaptor implements StringCellProcessor {
+
+        private final PostalCodeDecoder decoder;
+
+        /**
+         * Constructor.
+         * 
+         * @param decoder
+         *            the decoder to use
+         */
+        PostalCodeProcessor(PostalCodeDecoder decoder) {
+            super();
+            this.decoder = decoder;
+        }
+
+        @Override
+        public Object execute(Object value, CsvContext context) {
+            validateInputNotNull(value, context);
+            return next.execute(decoder.decode((String) value), context);
+        }
+    }
+
+}
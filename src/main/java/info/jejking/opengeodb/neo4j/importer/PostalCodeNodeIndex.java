@@ -0,0 +1,202 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Dense lookup from five digit German postal codes to Neo4j node ids, backed by a single array with one slot per
+ * possible code. Codes which are not five digits cannot be indexed; each is logged, and they are counted, see
+ * {@link #getRejectedCount()}.
+ * 
+ * @author jejking
+ */
+class PostalCodeNodeIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(PostalCodeNodeIndex.class.getName());
+
+    /**
+     * Returned by lookups for codes which have no node.
+     */
+    static final long NOT_FOUND = -1L;
+
+    /**
+     * Returned by {@link #parse(CharSequence, int, int)} for text which is not a five digit code.
+     */
+    static final int NOT_A_POSTAL_CODE = -1;
+
+    /**
+     * Number of possible codes, from 00000 to 99999.
+     */
+    static final int CAPACITY = 100000;
+
+    private static final int POSTAL_CODE_DIGITS = 5;
+
+    private final long[] nodeIds = new long[CAPACITY];
+    private int size;
+    private int rejected;
+
+    /**
+     * Constructor.
+     */
+    public PostalCodeNodeIndex() {
+        super();
+        Arrays.fill(nodeIds, NOT_FOUND);
+    }
+
+    /**
+     * Records the node for a postal code, replacing any previous one. Codes which are not five digits are ignored.
+     * 
+     * @param postalCode
+     *            the code as text, e.g. "01067"
+     * @param nodeId
+     *            id of its node
+     * @return whether the code was recorded
+     */
+    public boolean put(String postalCode, long nodeId) {
+        int code = parse(postalCode, 0, postalCode.length());
+        if (code == NOT_A_POSTAL_CODE) {
+            rejected++;
+            LOGGER.warning("Not indexing postal code which is not five digits: '" + postalCode + "'");
+            return false;
+        }
+        return put(code, nodeId);
+    }
+
+    /**
+     * Records the node for a postal code, replacing any previous one.
+     * 
+     * @param postalCode
+     *            the code as a number, e.g. 1067
+     * @param nodeId
+     *            id of its node
+     * @return whether the code was recorded, i.e. was in range
+     */
+    public boolean put(int postalCode, long nodeId) {
+        if (postalCode < 0 || postalCode >= CAPACITY) {
+            rejected++;
+            LOGGER.warning("Not indexing postal code out of range: " + postalCode);
+            return false;
+        }
+        if (nodeIds[postalCode] == NOT_FOUND) {
+            size++;
+        }
+        nodeIds[postalCode] = nodeId;
+        return true;
+    }
+
+    /**
+     * @param postalCode
+     *            the code as a number
+     * @return id of its node, or {@link #NOT_FOUND}
+     */
+    public long get(int postalCode) {
+        if (postalCode < 0 || postalCode >= CAPACITY) {
+            return NOT_FOUND;
+        }
+        return nodeIds[postalCode];
+    }
+
+    /**
+     * @param postalCode
+     *            the code as text, surrounding white space is ignored
+     * @return id of its node, or {@link #NOT_FOUND}
+     */
+    public long get(String postalCode) {
+        return get(parse(postalCode, 0, postalCode.length()));
+    }
+
+    /**
+     * @return number of codes with a node
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of codes which could not be indexed as they are not five digits
+     */
+    public int getRejectedCount() {
+        return rejected;
+    }
+
+    /**
+     * Parses a five digit postal code from part of a character sequence, ignoring surrounding white space.
+     * 
+     * @param text
+     *            the text
+     * @param start
+     *            start index, inclusive
+     * @param end
+     *            end index, exclusive
+     * @return the code as a number, or {@link #NOT_A_POSTAL_CODE}
+     */
+    static int parse(CharSequence text, int start, int end) {
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (end - start != POSTAL_CODE_DIGITS) {
+            return NOT_A_POSTAL_CODE;
+        }
+        int code = 0;
+        for (int i = start; i < end; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return NOT_A_POSTAL_CODE;
+            }
+            code = code * 10 + digit;
+        }
+        return code;
+    }
+
+    /**
+     * Parses a five digit postal code from part of a byte array holding ASCII or UTF-8 text, ignoring surrounding white
+     * space.
+     * 
+     * @param bytes
+     *            the text
+     * @param start
+     *            start index, inclusive
+     * @param end
+     *            end index, exclusive
+     * @return the code as a number, or {@link #NOT_A_POSTAL_CODE}
+     */
+    static int parse(byte[] bytes, int start, int end) {
+        while (start < end && bytes[start] <= ' ' && bytes[start] >= 0) {
+            start++;
+        }
+        while (end > start && bytes[end - 1] <= ' ' && bytes[end - 1] >= 0) {
+            end--;
+        }
+        if (end - start != POSTAL_CODE_DIGITS) {
+            return NOT_A_POSTAL_CODE;
+        }
+        int code = 0;
+        for (int i = start; i < end; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return NOT_A_POSTAL_CODE;
+            }
+            code = code * 10 + digit;
+        }
+        return code;
+    }
+
+}
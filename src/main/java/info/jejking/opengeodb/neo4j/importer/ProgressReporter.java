@@ -0,0 +1,242 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Logs the progress of the running import phase at a fixed interval: how much of the input has been done, the current
+ * throughput, the percentage done and the estimated time to completion. The reporter runs on a daemon thread of its
+ * own and only samples counters which the phase maintains anyway, such as {@link PhaseMetrics#getItems()} or the
+ * bytes read from a file, so it adds nothing to the loops doing the work.
+ * 
+ * <p>
+ * The throughput, and hence the estimate, is taken over the last interval, so that it follows a phase which slows
+ * down as the graph grows.
+ * </p>
+ * 
+ * @author jejking
+ */
+class ProgressReporter implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(ProgressReporter.class.getName());
+
+    /**
+     * Unit for progress measured in bytes of input, which is reported in megabytes.
+     */
+    static final String BYTES = "bytes";
+
+    /**
+     * Source of the amount of work done, and to be done, in a phase.
+     */
+    interface Progress {
+
+        /**
+         * May be called from any thread.
+         * 
+         * @return amount done so far
+         */
+        long getDone();
+
+        /**
+         * @return total amount of work, or zero or less if it is not known
+         */
+        long getTotal();
+    }
+
+    private final ScheduledExecutorService scheduler;
+
+    private volatile Tracked tracked;
+
+    /**
+     * Constructor, starting the reporter thread.
+     * 
+     * @param interval
+     *            interval between two reports, zero for no reports at all
+     * @param unit
+     *            unit of the interval
+     */
+    public ProgressReporter(long interval, TimeUnit unit) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("Progress interval must not be negative, got " + interval);
+        }
+        if (interval == 0) {
+            this.scheduler = null;
+            return;
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "import-progress");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                String report = report();
+                if (report != null) {
+                    LOGGER.info(report);
+                }
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Starts following a phase, in place of the one followed so far.
+     * 
+     * @param phase
+     *            name of the phase
+     * @param unit
+     *            what the amounts count, such as "places" or {@link #BYTES}
+     * @param progress
+     *            source of the amounts
+     */
+    public void track(String phase, String unit, Progress progress) {
+        this.tracked = new Tracked(phase, unit, progress, System.nanoTime());
+    }
+
+    /**
+     * Follows a phase by the items it has counted.
+     * 
+     * @param metrics
+     *            the phase
+     * @param unit
+     *            what the items are
+     * @param total
+     *            number of items expected, or zero if not known
+     */
+    public void track(final PhaseMetrics metrics, String unit, final long total) {
+        track(metrics.getName(), unit, new Progress() {
+            @Override
+            public long getDone() {
+                return metrics.getItems();
+            }
+
+            @Override
+            public long getTotal() {
+                return total;
+            }
+        });
+    }
+
+    /**
+     * Stops following the current phase.
+     */
+    public void untrack() {
+        this.tracked = null;
+    }
+
+    /**
+     * Samples the progress of the current phase. Called by the reporter thread.
+     * 
+     * @return the report, or <code>null</code> if no phase is being followed
+     */
+    String report() {
+        Tracked current = tracked;
+        if (current == null) {
+            return null;
+        }
+        return current.sample(System.nanoTime());
+    }
+
+    /**
+     * Stops the reporter thread.
+     */
+    @Override
+    public void close() {
+        tracked = null;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Formats a duration as hours, minutes and seconds.
+     * 
+     * @param seconds
+     *            the duration
+     * @return the duration as <code>h:mm:ss</code>
+     */
+    static String formatDuration(long seconds) {
+        return String.format(Locale.ROOT, "%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    private static String formatAmount(long amount, String unit) {
+        if (BYTES.equals(unit)) {
+            return String.format(Locale.ROOT, "%.1f", amount / 1e6);
+        }
+        return String.format(Locale.ROOT, "%,d", amount);
+    }
+
+    private static String unitName(String unit) {
+        return BYTES.equals(unit) ? "MB" : unit;
+    }
+
+    /**
+     * A phase being followed, with the previous sample from which the current rate is worked out. Only the reporter
+     * thread samples.
+     */
+    private static final class Tracked {
+
+        private final String phase;
+        private final String unit;
+        private final Progress progress;
+        private long lastNanos;
+        private long lastDone;
+
+        Tracked(String phase, String unit, Progress progress, long startNanos) {
+            this.phase = phase;
+            this.unit = unit;
+            this.progress = progress;
+            this.lastNanos = startNanos;
+        }
+
+        String sample(long nanos) {
+            long done = progress.getDone();
+            long total = progress.getTotal();
+            double rate = nanos == lastNanos ? 0 : (done - lastDone) * 1e9 / (nanos - lastNanos);
+            lastNanos = nanos;
+            lastDone = done;
+
+            StringBuilder report = new StringBuilder(phase).append(": ").append(formatAmount(done, unit));
+            if (total > 0) {
+                report.append(" of ").append(formatAmount(total, unit)).append(' ').append(unitName(unit));
+                report.append(String.format(Locale.ROOT, " (%.1f%%)", Math.min(100.0, done * 100.0 / total)));
+            } else {
+                report.append(' ').append(unitName(unit));
+            }
+            if (BYTES.equals(unit)) {
+                report.append(String.format(Locale.ROOT, ", %.1f MB/s", rate / 1e6));
+            } else {
+                report.append(String.format(Locale.ROOT, ", %,.0f %s/s", rate, unit));
+            }
+            if (total > 0) {
+                long remaining = Math.max(0, total - done);
+                report.append(", ETA ");
+                report.append(rate > 0 ? formatDuration((long) Math.ceil(remaining / rate)) : "unknown");
+            }
+            return report.toString();
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import info.jejking.opengeodb.neo4j.importer.OpenGeoDbProperties.PlzProperties;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+
+/**
+ * Finds the places or postal codes within a radius of a point - the <i>Umkreissuche</i> - in a database created by the
+ * importer. The circle is covered by the few {@link GeoHash} cells it touches, at the finest indexed size which keeps
+ * their number down to {@link #MAX_CELLS}; the nodes of these cells are looked up in the index and filtered on their
+ * exact great-circle distance from the centre.
+ * 
+ * <p>
+ * Searches must run inside a transaction.
+ * </p>
+ * 
+ * @author jejking
+ */
+public class RadiusSearch {
+
+    /**
+     * Most index lookups a search will make, unless even the largest cells need more.
+     */
+    static final int MAX_CELLS = 16;
+
+    private static final Label LOCATION = DynamicLabel.label(OpenGeoDbProperties.OPENGEO_DB_LOCATION);
+    private static final String LATITUDE = PlzProperties.LATITUDE.name();
+    private static final String LONGITUDE = PlzProperties.LONGITUDE.name();
+
+    private final GraphDatabaseService graphDb;
+
+    /**
+     * Constructor.
+     * 
+     * @param graphDb
+     *            the graph db service
+     */
+    public RadiusSearch(GraphDatabaseService graphDb) {
+        super();
+        this.graphDb = graphDb;
+    }
+
+    /**
+     * A node found within the radius, with its distance from the centre.
+     */
+    public static final class Hit {
+
+        private final Node node;
+        private final double distanceKm;
+
+        Hit(Node node, double distanceKm) {
+            this.node = node;
+            this.distanceKm = distanceKm;
+        }
+
+        /**
+         * @return the node found
+         */
+        public Node getNode() {
+            return node;
+        }
+
+        /**
+         * @return its distance from the centre, in kilometres
+         */
+        public double getDistanceKm() {
+            return distanceKm;
+        }
+    }
+
+    /**
+     * Finds the nodes with a label within a radius of a point.
+     * 
+     * @param label
+     *            label the nodes must have, such as {@link OpenGeoDbProperties#PLACE_LABEL}
+     * @param lat
+     *            latitude of the centre, in degrees
+     * @param lon
+     *            longitude of the centre, in degrees
+     * @param radiusKm
+     *            radius in kilometres
+     * @return the nodes found, nearest first
+     */
+    public List<Hit> findWithin(Label label, double lat, double lon, double radiusKm) {
+        if (radiusKm < 0) {
+            throw new IllegalArgumentException("Negative radius: " + radiusKm);
+        }
+        List<Hit> hits = new ArrayList<>();
+        int precision = 0;
+        List<String> cells = null;
+        for (int i = GeoHash.INDEXED_PRECISIONS.length - 1; i >= 0 && cells == null; i--) {
+            precision = GeoHash.INDEXED_PRECISIONS[i];
+            cells = GeoHash.cover(lat, lon, radiusKm, precision, i == 0 ? Integer.MAX_VALUE : MAX_CELLS);
+        }
+        String property = GeoHash.propertyName(precision);
+        for (String cell : cells) {
+            try (ResourceIterator<Node> nodes = graphDb.findNodesByLabelAndProperty(LOCATION, property, cell)
+                    .iterator()) {
+                while (nodes.hasNext()) {
+                    Node node = nodes.next();
+                    if (!node.hasLabel(label)) {
+                        continue;
+                    }
+                    double distanceKm = Coordinates.distanceKm(lat, lon, (Double) node.getProperty(LATITUDE),
+                            (Double) node.getProperty(LONGITUDE));
+                    if (distanceKm <= radiusKm) {
+                        hits.add(new Hit(node, distanceKm));
+                    }
+                }
+            }
+        }
+        Collections.sort(hits, new Comparator<Hit>() {
+
+            @Override
+            public int compare(Hit first, Hit second) {
+                return Double.compare(first.distanceKm, second.distanceKm);
+            }
+        });
+        return hits;
+    }
+
+    /**
+     * Finds the nodes with a label within a radius of a node with coordinates, such as a postal code.
+     * 
+     * @param label
+     *            label the nodes must have
+     * @param centre
+     *            node at the centre, with latitude and longitude
+     * @param radiusKm
+     *            radius in kilometres
+     * @return the nodes found, nearest first, including the centre if it has the label
+     */
+    public List<Hit> findWithin(Label label, Node centre, double radiusKm) {
+        return findWithin(label, (Double) centre.getProperty(LATITUDE), (Double) centre.getProperty(LONGITUDE),
+                radiusKm);
+    }
+
+}
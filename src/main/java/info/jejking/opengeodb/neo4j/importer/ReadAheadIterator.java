@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * Base for {@link CloseableIterator} implementations which read ahead by one element so that {@link #hasNext()} can
+ * be answered. Subclasses supply the next element, or <code>null</code> when the source is exhausted, at which point
+ * the iterator closes itself.
+ * 
+ * @author jejking
+ * @param <T>
+ *            the type of element
+ */
+abstract class ReadAheadIterator<T> implements CloseableIterator<T> {
+
+    private T nextElement;
+    private boolean closed;
+
+    @Override
+    public boolean hasNext() {
+        if (nextElement == null && !closed) {
+            try {
+                nextElement = readNext();
+                if (nextElement == null) {
+                    close();
+                }
+            } catch (IOException e) {
+                throw new DataReadException(e);
+            }
+        }
+        return nextElement != null;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T element = nextElement;
+        nextElement = null;
+        return element;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            closeSource();
+        }
+    }
+
+    /**
+     * @return the next element, or <code>null</code> if there are no more
+     * @throws IOException
+     *             on IO problems
+     */
+    protected abstract T readNext() throws IOException;
+
+    /**
+     * Releases the underlying source. Called at most once.
+     * 
+     * @throws IOException
+     *             on IO problems
+     */
+    protected abstract void closeSource() throws IOException;
+
+}
@@ -0,0 +1,673 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import info.jejking.opengeodb.neo4j.importer.PlzParser.PlzTabBean;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Answers "which postal code or place is nearest to this point" without a database. The postal codes and places with
+ * coordinates are held in a k-d tree packed into arrays: the entries are ordered so that the middle entry of each
+ * range splits the rest of the range on one axis, the halves before and after it forming its subtrees, and the split
+ * axis of each entry is kept in a byte array. The tree is built over the points as unit vectors in three dimensions,
+ * whose straight-line distance orders points exactly as their great-circle distance does, with no special cases at the
+ * poles or the date line.
+ * 
+ * <p>
+ * An entry is identified by its position in the tree, which the queries return and the getters take. Instances are
+ * immutable, so any number of threads may query one without locking. They are {@link #write(Path) written} to a file
+ * by the importer and {@link #read(Path) read} back by services, sparing them the parsing of the source files.
+ * </p>
+ * 
+ * <pre>
+ * long magic, int version, int entries
+ * int[entries] id, postal code, lat, lon, name; byte[entries] axis
+ * int strings, int[strings + 1] offsets, byte[offsets[strings]] utf8
+ * long crc32
+ * </pre>
+ * 
+ * @author jejking
+ */
+public final class ReverseGeocoder {
+
+    /**
+     * What an entry stands for.
+     */
+    public enum Kind {
+        PLACE, POSTAL_CODE
+    }
+
+    /**
+     * "OGDBGEOC" in ASCII.
+     */
+    static final long MAGIC = 0x4f47444247454f43L;
+
+    /**
+     * Version of the format, to be increased with every incompatible change.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    private static final Logger LOGGER = Logger.getLogger(ReverseGeocoder.class.getName());
+
+    private static final int NO_POSTAL_CODE = -1;
+    private static final int NULL_STRING = -1;
+
+    private final int[] ids;
+    private final int[] postalCodes;
+    private final String[] names;
+    private final int[] lats;
+    private final int[] lons;
+    private final byte[] axes;
+    private final double[] points;
+
+    private ReverseGeocoder(int[] ids, int[] postalCodes, String[] names, int[] lats, int[] lons, byte[] axes) {
+        this.ids = ids;
+        this.postalCodes = postalCodes;
+        this.names = names;
+        this.lats = lats;
+        this.lons = lons;
+        this.axes = axes;
+        this.points = toPoints(lats, lons);
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @param lat
+     *            latitude in degrees
+     * @param lon
+     *            longitude in degrees
+     * @param kind
+     *            kind of entry wanted, or <code>null</code> for either
+     * @return the nearest entry, or -1 if there is none
+     */
+    public int nearest(double lat, double lon, Kind kind) {
+        int[] nearest = nearest(lat, lon, 1, kind);
+        return nearest.length == 0 ? -1 : nearest[0];
+    }
+
+    /**
+     * @param lat
+     *            latitude in degrees
+     * @param lon
+     *            longitude in degrees
+     * @param k
+     *            number of entries wanted
+     * @param kind
+     *            kind of entry wanted, or <code>null</code> for either
+     * @return the k nearest entries, or all if there are fewer, nearest first
+     */
+    public int[] nearest(double lat, double lon, int k, Kind kind) {
+        if (k < 0) {
+            throw new IllegalArgumentException("Cannot find " + k + " entries");
+        }
+        Neighbours neighbours = new Neighbours(k, Double.POSITIVE_INFINITY);
+        search(0, ids.length, toPoint(lat, lon), kind, neighbours);
+        return neighbours.drain();
+    }
+
+    /**
+     * @param lat
+     *            latitude in degrees
+     * @param lon
+     *            longitude in degrees
+     * @param radiusKm
+     *            radius in kilometres
+     * @param kind
+     *            kind of entry wanted, or <code>null</code> for either
+     * @return the entries within the radius, nearest first
+     */
+    public int[] within(double lat, double lon, double radiusKm, Kind kind) {
+        if (radiusKm < 0) {
+            throw new IllegalArgumentException("Negative radius: " + radiusKm);
+        }
+        // the chord subtending the radius on the unit sphere
+        double chord = 2 * Math.sin(Math.min(Math.PI, radiusKm / Coordinates.EARTH_RADIUS_KM) / 2);
+        Neighbours neighbours = new Neighbours(Integer.MAX_VALUE, chord * chord);
+        search(0, ids.length, toPoint(lat, lon), kind, neighbours);
+        return neighbours.drain();
+    }
+
+    /**
+     * @param entry
+     *            an entry
+     * @return what it stands for
+     */
+    public Kind getKind(int entry) {
+        return postalCodes[entry] == NO_POSTAL_CODE ? Kind.PLACE : Kind.POSTAL_CODE;
+    }
+
+    /**
+     * @param entry
+     *            an entry
+     * @return OpenGeoDB id of the place or postal code
+     */
+    public int getLocId(int entry) {
+        return ids[entry];
+    }
+
+    /**
+     * @param entry
+     *            an entry
+     * @return the postal code, five digits, or <code>null</code> for a place
+     */
+    public String getPostalCode(int entry) {
+        return postalCodes[entry] == NO_POSTAL_CODE ? null : String.format(Locale.ROOT, "%05d", postalCodes[entry]);
+    }
+
+    /**
+     * @param entry
+     *            an entry
+     * @return name of the place, or of the place representing the postal code
+     */
+    public String getName(int entry) {
+        return names[entry];
+    }
+
+    /**
+     * @param entry
+     *            an entry
+     * @return latitude in degrees
+     */
+    public double getLat(int entry) {
+        return Coordinates.toDegrees(lats[entry]);
+    }
+
+    /**
+     * @param entry
+     *            an entry
+     * @return longitude in degrees
+     */
+    public double getLon(int entry) {
+        return Coordinates.toDegrees(lons[entry]);
+    }
+
+    /**
+     * @param entry
+     *            an entry
+     * @param lat
+     *            latitude of a point, in degrees
+     * @param lon
+     *            longitude of a point, in degrees
+     * @return great-circle distance of the entry from the point, in kilometres
+     */
+    public double getDistanceKm(int entry, double lat, double lon) {
+        return Coordinates.distanceKm(lat, lon, getLat(entry), getLon(entry));
+    }
+
+    /**
+     * Builds a reverse geocoder over the postal codes and places of the files, reading them once more.
+     * 
+     * @param files
+     *            the files
+     * @return the reverse geocoder
+     * @throws IOException
+     *             on IO problems
+     */
+    static ReverseGeocoder fromFiles(OpenGeoDbFiles files) throws IOException {
+        Builder builder = new Builder();
+        try (CloseableIterator<PlzTabBean> postalCodes = files.iteratePlz()) {
+            while (postalCodes.hasNext()) {
+                builder.addPostalCode(postalCodes.next());
+            }
+        }
+        try (CloseableIterator<? extends PlaceRecord> places = files.iteratePlaces()) {
+            while (places.hasNext()) {
+                builder.addPlace(places.next());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Writes the reverse geocoder to a file.
+     * 
+     * @param file
+     *            the file, replaced if it exists
+     * @throws IOException
+     *             on IO problems
+     */
+    public void write(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                CRC32 crc = new CRC32();
+                DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(out,
+                        crc), 64 * 1024));
+                writeContents(data);
+                data.flush();
+                new DataOutputStream(out).writeLong(crc.getValue());
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        LOGGER.info("Wrote reverse geocoder of " + ids.length + " entries to " + file);
+    }
+
+    /**
+     * Reads a reverse geocoder written by {@link #write(Path)}.
+     * 
+     * @param file
+     *            the file
+     * @return the reverse geocoder
+     * @throws IOException
+     *             on IO problems, or if the file is not a reverse geocoder of this version or is damaged
+     */
+    public static ReverseGeocoder read(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < 24 || buffer.getLong() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+            throw new IOException(file + " is not a reverse geocoder of version " + FORMAT_VERSION);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        if (crc.getValue() != buffer.getLong(bytes.length - 8)) {
+            throw new IOException("Damaged reverse geocoder " + file);
+        }
+        int count = buffer.getInt();
+        int[] ids = ints(buffer, count);
+        int[] postalCodes = ints(buffer, count);
+        int[] lats = ints(buffer, count);
+        int[] lons = ints(buffer, count);
+        int[] nameIndexes = ints(buffer, count);
+        byte[] axes = new byte[count];
+        buffer.get(axes);
+        String[] strings = readStrings(buffer);
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = nameIndexes[i] == NULL_STRING ? null : strings[nameIndexes[i]];
+        }
+        return new ReverseGeocoder(ids, postalCodes, names, lats, lons, axes);
+    }
+
+    private void search(int from, int to, double[] query, Kind kind, Neighbours neighbours) {
+        if (from >= to) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        if (kind == null || getKind(middle) == kind) {
+            neighbours.offer(squaredDistance(middle, query), middle);
+        }
+        int axis = axes[middle];
+        double difference = query[axis] - points[middle * 3 + axis];
+        if (difference < 0) {
+            search(from, middle, query, kind, neighbours);
+            if (difference * difference <= neighbours.bound()) {
+                search(middle + 1, to, query, kind, neighbours);
+            }
+        } else {
+            search(middle + 1, to, query, kind, neighbours);
+            if (difference * difference <= neighbours.bound()) {
+                search(from, middle, query, kind, neighbours);
+            }
+        }
+    }
+
+    private double squaredDistance(int entry, double[] query) {
+        double dx = points[entry * 3] - query[0];
+        double dy = points[entry * 3 + 1] - query[1];
+        double dz = points[entry * 3 + 2] - query[2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private void writeContents(DataOutputStream data) throws IOException {
+        data.writeLong(MAGIC);
+        data.writeInt(FORMAT_VERSION);
+        data.writeInt(ids.length);
+        writeInts(data, ids);
+        writeInts(data, postalCodes);
+        writeInts(data, lats);
+        writeInts(data, lons);
+        Map<String, Integer> indexes = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        for (String name : names) {
+            if (name == null) {
+                data.writeInt(NULL_STRING);
+                continue;
+            }
+            Integer index = indexes.get(name);
+            if (index == null) {
+                index = strings.size();
+                indexes.put(name, index);
+                strings.add(name);
+            }
+            data.writeInt(index);
+        }
+        data.write(axes);
+        writeStrings(data, strings);
+    }
+
+    private static void writeInts(DataOutputStream data, int[] values) throws IOException {
+        for (int value : values) {
+            data.writeInt(value);
+        }
+    }
+
+    private static void writeStrings(DataOutputStream data, List<String> strings) throws IOException {
+        List<byte[]> encoded = new ArrayList<>(strings.size());
+        for (String string : strings) {
+            encoded.add(string.getBytes(StandardCharsets.UTF_8));
+        }
+        data.writeInt(strings.size());
+        int offset = 0;
+        data.writeInt(offset);
+        for (byte[] bytes : encoded) {
+            offset += bytes.length;
+            data.writeInt(offset);
+        }
+        for (byte[] bytes : encoded) {
+            data.write(bytes);
+        }
+    }
+
+    private static int[] ints(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+
+    private static String[] readStrings(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        int[] offsets = ints(buffer, count + 1);
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            strings[i] = new String(buffer.array(), buffer.position() + offsets[i], offsets[i + 1] - offsets[i],
+                    StandardCharsets.UTF_8);
+        }
+        buffer.position(buffer.position() + offsets[count]);
+        return strings;
+    }
+
+    private static double[] toPoint(double lat, double lon) {
+        double phi = Math.toRadians(lat);
+        double lambda = Math.toRadians(lon);
+        return new double[] { Math.cos(phi) * Math.cos(lambda), Math.cos(phi) * Math.sin(lambda), Math.sin(phi) };
+    }
+
+    private static double[] toPoints(int[] lats, int[] lons) {
+        double[] points = new double[lats.length * 3];
+        for (int i = 0; i < lats.length; i++) {
+            double[] point = toPoint(Coordinates.toDegrees(lats[i]), Coordinates.toDegrees(lons[i]));
+            System.arraycopy(point, 0, points, i * 3, 3);
+        }
+        return points;
+    }
+
+    /**
+     * Collects the postal codes and places of the files and sorts them into a tree. Postal codes whose code is not of
+     * five digits, and places without coordinates, are left out.
+     */
+    static final class Builder {
+
+        private int size;
+        private int[] ids = new int[1024];
+        private int[] postalCodes = new int[1024];
+        private String[] names = new String[1024];
+        private int[] lats = new int[1024];
+        private int[] lons = new int[1024];
+        // the same place name stands for many postal codes
+        private final Map<String, String> sharedNames = new HashMap<>();
+
+        /**
+         * @param postalCode
+         *            a postal code
+         */
+        void addPostalCode(PlzTabBean postalCode) {
+            String plz = postalCode.getPlz();
+            int code = PostalCodeNodeIndex.parse(plz, 0, plz.length());
+            if (code != PostalCodeNodeIndex.NOT_A_POSTAL_CODE) {
+                add(postalCode.getId(), code, postalCode.getPlaceName(), postalCode.getLatMicroDegrees(),
+                        postalCode.getLonMicroDegrees());
+            }
+        }
+
+        /**
+         * @param place
+         *            a place; it may be a cursor which moves on, as its fields are copied
+         */
+        void addPlace(PlaceRecord place) {
+            if (place.getLatMicroDegrees() != 0 || place.getLonMicroDegrees() != 0) {
+                add(place.getId(), NO_POSTAL_CODE, place.getName(), place.getLatMicroDegrees(),
+                        place.getLonMicroDegrees());
+            }
+        }
+
+        /**
+         * @return reverse geocoder over the entries added
+         */
+        ReverseGeocoder build() {
+            double[] points = toPoints(Arrays.copyOf(lats, size), Arrays.copyOf(lons, size));
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            byte[] axes = new byte[size];
+            partition(order, points, axes, 0, size);
+            int[] treeIds = new int[size];
+            int[] treePostalCodes = new int[size];
+            String[] treeNames = new String[size];
+            int[] treeLats = new int[size];
+            int[] treeLons = new int[size];
+            for (int i = 0; i < size; i++) {
+                treeIds[i] = ids[order[i]];
+                treePostalCodes[i] = postalCodes[order[i]];
+                treeNames[i] = names[order[i]];
+                treeLats[i] = lats[order[i]];
+                treeLons[i] = lons[order[i]];
+            }
+            return new ReverseGeocoder(treeIds, treePostalCodes, treeNames, treeLats, treeLons, axes);
+        }
+
+        private void add(int id, int postalCode, String name, int lat, int lon) {
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                postalCodes = Arrays.copyOf(postalCodes, capacity);
+                names = Arrays.copyOf(names, capacity);
+                lats = Arrays.copyOf(lats, capacity);
+                lons = Arrays.copyOf(lons, capacity);
+            }
+            String sharedName = name == null ? null : sharedNames.get(name);
+            if (name != null && sharedName == null) {
+                sharedNames.put(name, name);
+                sharedName = name;
+            }
+            ids[size] = id;
+            postalCodes[size] = postalCode;
+            names[size] = sharedName;
+            lats[size] = lat;
+            lons[size] = lon;
+            size++;
+        }
+
+        /**
+         * Splits a range of the order on the axis along which its points spread furthest, moving the median to the
+         * middle, the points before it to its left and those after it to its right, and goes on with both halves.
+         */
+        private static void partition(int[] order, double[] points, byte[] axes, int from, int to) {
+            if (to - from < 2) {
+                return;
+            }
+            int axis = widestAxis(order, points, from, to);
+            int middle = (from + to) >>> 1;
+            select(order, points, axis, from, to - 1, middle);
+            axes[middle] = (byte) axis;
+            partition(order, points, axes, from, middle);
+            partition(order, points, axes, middle + 1, to);
+        }
+
+        private static int widestAxis(int[] order, double[] points, int from, int to) {
+            int widest = 0;
+            double widestSpread = -1;
+            for (int axis = 0; axis < 3; axis++) {
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (int i = from; i < to; i++) {
+                    double value = points[order[i] * 3 + axis];
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+                if (max - min > widestSpread) {
+                    widestSpread = max - min;
+                    widest = axis;
+                }
+            }
+            return widest;
+        }
+
+        /**
+         * Quickselect: puts the entry of rank k along the axis at position k of the range, lesser ones before it and
+         * greater ones after it.
+         */
+        private static void select(int[] order, double[] points, int axis, int left, int right, int k) {
+            while (right > left) {
+                double pivot = points[order[(left + right) >>> 1] * 3 + axis];
+                int i = left;
+                int j = right;
+                while (i <= j) {
+                    while (points[order[i] * 3 + axis] < pivot) {
+                        i++;
+                    }
+                    while (points[order[j] * 3 + axis] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        int swap = order[i];
+                        order[i] = order[j];
+                        order[j] = swap;
+                        i++;
+                        j--;
+                    }
+                }
+                if (k <= j) {
+                    right = j;
+                } else if (k >= i) {
+                    left = i;
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * The nearest entries found so far, as a max-heap on their squared distance, keeping at most a given number of
+     * entries within a given squared distance.
+     */
+    private static final class Neighbours {
+
+        private final int capacity;
+        private final double limit;
+        private double[] distances = new double[16];
+        private int[] entries = new int[16];
+        private int size;
+
+        Neighbours(int capacity, double limit) {
+            this.capacity = capacity;
+            this.limit = limit;
+        }
+
+        /**
+         * @return squared distance beyond which no entry is wanted
+         */
+        double bound() {
+            return size < capacity ? limit : distances[0];
+        }
+
+        void offer(double distance, int entry) {
+            if (capacity == 0 || distance > limit) {
+                return;
+            }
+            if (size < capacity) {
+                if (size == entries.length) {
+                    distances = Arrays.copyOf(distances, size * 2);
+                    entries = Arrays.copyOf(entries, size * 2);
+                }
+                int i = size++;
+                while (i > 0 && distances[(i - 1) / 2] < distance) {
+                    distances[i] = distances[(i - 1) / 2];
+                    entries[i] = entries[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                distances[i] = distance;
+                entries[i] = entry;
+            } else if (distance < distances[0]) {
+                siftDown(distance, entry, size);
+            }
+        }
+
+        /**
+         * @return the entries, nearest first; empties the heap
+         */
+        int[] drain() {
+            int[] nearestFirst = new int[size];
+            while (size > 0) {
+                nearestFirst[size - 1] = entries[0];
+                size--;
+                siftDown(distances[size], entries[size], size);
+            }
+            return nearestFirst;
+        }
+
+        private void siftDown(double distance, int entry, int heapSize) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && distances[child + 1] > distances[child]) {
+                    child++;
+                }
+                if (distances[child] <= distance) {
+                    break;
+                }
+                distances[i] = distances[child];
+                entries[i] = entries[child];
+                i = child;
+            }
+            distances[i] = distance;
+            entries[i] = entry;
+        }
+    }
+
+}
@@ -15,12 +15,16 @@
  */
 package info.jejking.opengeodb.neo4j.importer;
 
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import org.neo4j.graphdb.DynamicLabel;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.schema.IndexDefinition;
 import org.neo4j.graphdb.schema.Schema;
+import org.neo4j.graphdb.schema.Schema.IndexState;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
 
 /**
  * Utility to set up schema, particularly auto-indexing.
@@ -31,6 +35,9 @@ class SchemaCreator {
 
     private static final Logger LOGGER = Logger.getLogger(SchemaCreator.class.getName());
 
+    private static final long POLL_INTERVAL_MILLIS = 100;
+    private static final long REPORT_INTERVAL_MILLIS = 5000;
+
     /**
      * @param args
      */
@@ -56,6 +63,14 @@ class SchemaCreator {
                              .create();
             
             LOGGER.info("Created index for postal code");
+
+            for (int precision : GeoHash.INDEXED_PRECISIONS) {
+                schema.indexFor(DynamicLabel.label(OpenGeoDbProperties.OPENGEO_DB_LOCATION))
+                                 .on(GeoHash.propertyName(precision))
+                                 .create();
+            }
+
+            LOGGER.info("Created indexes for geohashes");
             
             tx.success();
         }
@@ -65,4 +80,111 @@ class SchemaCreator {
   
     }
 
+    /**
+     * Declares the same indexes as {@link #createSchema(GraphDatabaseService)} on a {@link BatchInserter}. The indexes
+     * are populated when the inserter is shut down.
+     * 
+     * @param inserter
+     *            the batch inserter
+     */
+    public static void createSchema(BatchInserter inserter) {
+
+        LOGGER.info("Creating deferred schema");
+        inserter.createDeferredSchemaIndex(DynamicLabel.label(OpenGeoDbProperties.OPENGEO_DB_LOCATION))
+                .on(OpenGeoDbProperties.LOC_ID)
+                .create();
+        inserter.createDeferredSchemaIndex(DynamicLabel.label(OpenGeoDbProperties.PLACE_LABEL))
+                .on(OpenGeoDbProperties.PlaceNodeProperties.NAME.name())
+                .create();
+        inserter.createDeferredSchemaIndex(DynamicLabel.label(OpenGeoDbProperties.POSTAL_CODE_LABEL))
+                .on(OpenGeoDbProperties.PlzProperties.POSTAL_CODE.name())
+                .create();
+        for (int precision : GeoHash.INDEXED_PRECISIONS) {
+            inserter.createDeferredSchemaIndex(DynamicLabel.label(OpenGeoDbProperties.OPENGEO_DB_LOCATION))
+                    .on(GeoHash.propertyName(precision))
+                    .create();
+        }
+        LOGGER.info("Created deferred schema with indexes");
+    }
+
+    /**
+     * Waits for all indexes to come online, reporting progress as they do. Neo4j does not expose how far the
+     * population of a single index has got, so the number of indexes online so far is logged whenever it changes and
+     * at least every few seconds, together with the time taken.
+     * 
+     * @param graphDb
+     *            the graph db service
+     * @param timeout
+     *            maximum time to wait
+     * @param unit
+     *            unit of the timeout
+     * @throws IllegalStateException
+     *             if an index fails to populate or the timeout expires first, as does
+     *             {@link Schema#awaitIndexesOnline(long, TimeUnit)}
+     */
+    public static void awaitIndexesOnline(GraphDatabaseService graphDb, long timeout, TimeUnit unit) {
+        if (!tryAwaitIndexesOnline(graphDb, timeout, unit)) {
+            throw new IllegalStateException("Expected all indexes to come online within " + timeout + " " + unit);
+        }
+    }
+
+    /**
+     * Waits for all indexes to come online as {@link #awaitIndexesOnline(GraphDatabaseService, long, TimeUnit)} does,
+     * but gives up quietly once the timeout expires.
+     * 
+     * @param graphDb
+     *            the graph db service
+     * @param timeout
+     *            maximum time to wait
+     * @param unit
+     *            unit of the timeout
+     * @return whether all indexes came online within the timeout
+     * @throws IllegalStateException
+     *             if an index fails to populate
+     */
+    public static boolean tryAwaitIndexesOnline(GraphDatabaseService graphDb, long timeout, TimeUnit unit) {
+        long start = System.currentTimeMillis();
+        long deadline = start + unit.toMillis(timeout);
+        long lastReport = start;
+        int lastOnline = -1;
+        while (true) {
+            int online = 0;
+            int total = 0;
+            try (Transaction tx = graphDb.beginTx()) {
+                Schema schema = graphDb.schema();
+                for (IndexDefinition index : schema.getIndexes()) {
+                    total++;
+                    IndexState state = schema.getIndexState(index);
+                    if (state == IndexState.FAILED) {
+                        throw new IllegalStateException("Index on " + index.getLabel() + " "
+                                + index.getPropertyKeys() + " failed: " + schema.getIndexFailure(index));
+                    }
+                    if (state == IndexState.ONLINE) {
+                        online++;
+                    }
+                }
+                tx.success();
+            }
+            long now = System.currentTimeMillis();
+            if (online != lastOnline || now - lastReport >= REPORT_INTERVAL_MILLIS) {
+                LOGGER.info(online + " of " + total + " indexes online after " + (now - start) + " ms");
+                lastOnline = online;
+                lastReport = now;
+            }
+            if (online == total) {
+                return true;
+            }
+            if (now >= deadline) {
+                LOGGER.info("Only " + online + " of " + total + " indexes online after " + timeout + " " + unit);
+                return false;
+            }
+            try {
+                Thread.sleep(Math.min(POLL_INTERVAL_MILLIS, deadline - now));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for indexes", e);
+            }
+        }
+    }
+
 }
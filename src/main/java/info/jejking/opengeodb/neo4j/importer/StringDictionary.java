@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns each distinct string a code, in order of first appearance, and holds the strings UTF-8 encoded in a single
+ * byte array. A string column can thus be kept as an int array of codes, holding each distinct value once and without
+ * the overhead of a {@link String} object per value. The first {@value #DECODED_ENTRIES} strings are also kept
+ * decoded, so that reading a column with few distinct values, such as the type of place, never allocates.
+ * 
+ * <p>
+ * Once all strings have been added, {@link #compact()} drops the lookup table needed for adding. The dictionary is
+ * not thread safe while strings are being added, but may be read from any number of threads once it has been safely
+ * published.
+ * </p>
+ * 
+ * @author jejking
+ */
+final class StringDictionary {
+
+    /**
+     * Code of <code>null</code>.
+     */
+    static final int NULL = -1;
+
+    /**
+     * Number of strings kept decoded.
+     */
+    static final int DECODED_ENTRIES = 256;
+
+    private Map<String, Integer> codes = new HashMap<>();
+    private byte[] bytes = new byte[1024];
+    private int byteCount;
+    private int[] offsets = new int[65];
+    private int size;
+    private final String[] decoded = new String[DECODED_ENTRIES];
+
+    /**
+     * Gives the code of a string, adding it if it is new.
+     * 
+     * @param string
+     *            the string, may be <code>null</code>
+     * @return its code, or {@link #NULL}
+     * @throws IllegalStateException
+     *             if the dictionary has been compacted
+     */
+    int encode(String string) {
+        if (string == null) {
+            return NULL;
+        }
+        if (codes == null) {
+            throw new IllegalStateException("Dictionary has been compacted");
+        }
+        Integer code = codes.get(string);
+        if (code != null) {
+            return code;
+        }
+        byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+        if (byteCount + utf8.length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, byteCount + utf8.length));
+        }
+        System.arraycopy(utf8, 0, bytes, byteCount, utf8.length);
+        byteCount += utf8.length;
+        if (size + 1 == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        if (size < DECODED_ENTRIES) {
+            decoded[size] = string;
+        }
+        offsets[++size] = byteCount;
+        codes.put(string, size - 1);
+        return size - 1;
+    }
+
+    /**
+     * @param code
+     *            a code given by {@link #encode(String)}
+     * @return the string with the code, or <code>null</code> for {@link #NULL}
+     */
+    String decode(int code) {
+        if (code == NULL) {
+            return null;
+        }
+        if (code < DECODED_ENTRIES) {
+            return decoded[code];
+        }
+        return new String(bytes, offsets[code], offsets[code + 1] - offsets[code], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return number of distinct strings
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return number of bytes taken by the encoded strings
+     */
+    int getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Drops the lookup table and trims the arrays. No strings can be added afterwards.
+     */
+    void compact() {
+        codes = null;
+        bytes = Arrays.copyOf(bytes, byteCount);
+        offsets = Arrays.copyOf(offsets, size + 1);
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.supercsv.cellprocessor.CellProcessorAdaptor;
+import org.supercsv.cellprocessor.ift.StringCellProcessor;
+import org.supercsv.util.CsvContext;
+
+/**
+ * Hands out one shared {@link String} instance per distinct value of a column, so that columns which repeat a few
+ * values over and over, such as the type of place or the number plate code, hold each of them once rather than once
+ * per line. Values are looked up by their UTF-8 bytes straight from a read buffer, so a value which has been seen
+ * before is returned without being decoded again.
+ * 
+ * <p>
+ * The interner is safe for use by several parser threads at once. Its table is fixed in size and never locked:
+ * entries are only ever added, with a compare-and-set. Once it holds {@link #getMaxEntries()} values, further new
+ * values are decoded as usual but not added, which bounds the memory taken by a column with more distinct values than
+ * expected.
+ * </p>
+ * 
+ * @author jejking
+ */
+final class StringInterner {
+
+    /**
+     * Default maximum number of values, enough for the distinct official municipality keys (AGS) of Germany.
+     */
+    static final int DEFAULT_MAX_ENTRIES = 16384;
+
+    private final AtomicReferenceArray<Entry> table;
+    private final int mask;
+    private final int maxEntries;
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Constructs an interner for up to {@link #DEFAULT_MAX_ENTRIES} values.
+     */
+    StringInterner() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param maxEntries
+     *            maximum number of values to hold, at least one
+     */
+    StringInterner(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Need room for at least one entry, got " + maxEntries);
+        }
+        // at most half full, so that probing always finds a free slot
+        int capacity = Integer.highestOneBit(maxEntries * 2 - 1) * 2;
+        this.table = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @return maximum number of values held
+     */
+    int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return number of values held
+     */
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Gives the shared instance of the string encoded in a range of bytes.
+     * 
+     * @param bytes
+     *            buffer holding UTF-8 encoded text
+     * @param start
+     *            start of the string, inclusive
+     * @param end
+     *            end of the string, exclusive
+     * @return the string
+     */
+    String intern(byte[] bytes, int start, int end) {
+        int hash = hash(bytes, start, end);
+        Entry entry = find(hash, bytes, start, end);
+        if (entry != null) {
+            return entry.value;
+        }
+        String value = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        return add(hash, Arrays.copyOfRange(bytes, start, end), value);
+    }
+
+    /**
+     * Gives the shared instance of a string.
+     * 
+     * @param string
+     *            the string, may be <code>null</code>
+     * @return the shared instance equal to the string, or <code>null</code>
+     */
+    String intern(String string) {
+        if (string == null) {
+            return null;
+        }
+        byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(utf8, 0, utf8.length);
+        Entry entry = find(hash, utf8, 0, utf8.length);
+        if (entry != null) {
+            return entry.value;
+        }
+        return add(hash, utf8, string);
+    }
+
+    private Entry find(int hash, byte[] bytes, int start, int end) {
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            Entry entry = table.get(i);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.hash == hash && entry.matches(bytes, start, end)) {
+                return entry;
+            }
+        }
+    }
+
+    private String add(int hash, byte[] utf8, String value) {
+        if (size.get() >= maxEntries) {
+            return value;
+        }
+        Entry added = new Entry(hash, utf8, value);
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            if (table.compareAndSet(i, null, added)) {
+                size.incrementAndGet();
+                return value;
+            }
+            // another thread may just have added the same value
+            Entry entry = table.get(i);
+            if (entry.hash == hash && entry.matches(utf8, 0, utf8.length)) {
+                return entry.value;
+            }
+        }
+    }
+
+    private static int hash(byte[] bytes, int start, int end) {
+        int hash = 1;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        // spread the higher bits, as only the lower ones select the slot
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Entry {
+
+        private final int hash;
+        private final byte[] utf8;
+        private final String value;
+
+        Entry(int hash, byte[] utf8, String value) {
+            this.hash = hash;
+            this.utf8 = utf8;
+            this.value = value;
+        }
+
+        boolean matches(byte[] bytes, int start, int end) {
+            if (end - start != utf8.length) {
+                return false;
+            }
+            for (int i = 0; i < utf8.length; i++) {
+                if (utf8[i] != bytes[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * SuperCSV cell processor which interns the string value of a cell before handing it on.
+     */
+    static final class InternProcessor extends CellProcessorAdaptor implements StringCellProcessor {
+
+        private final StringInterner interner;
+
+        /**
+         * Constructor.
+         * 
+         * @param interner
+         *            the interner to use
+         */
+        InternProcessor(StringInterner interner) {
+            super();
+            this.interner = interner;
+        }
+
+        @Override
+        public Object execute(Object value, CsvContext context) {
+            validateInputNotNull(value, context);
+            return next.execute(interner.intern((String) value), context);
+        }
+    }
+
+}
@@ -0,0 +1,599 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Writes synthetic place and postal code files in the format of the OpenGeoDB exports, for testing the import at
+ * sizes well beyond the real data. Each country is shaped like Germany:
+ * <ul>
+ * <li>16 states (level 3), about half of them divided into administrative regions (level 4);</li>
+ * <li>10 to 40 districts per state (level 5) of 10 to 45 municipalities each (level 6), most with one postal code,
+ * some with several, and up to four village parts (level 8) sharing their postal codes;</li>
+ * <li>one or two big cities per state (level 6) with 30 to 100 postal codes, 5 to 7 boroughs (level 7) and 5 to 15
+ * quarters (level 8) per borough.</li>
+ * </ul>
+ * Coordinates cluster around those of the parent, ever more tightly further down the hierarchy, and each country has
+ * its own area, the first one that of Germany. About a third of the municipalities are written after their parts, so
+ * that the file contains forward references to parents as well. As in the real export the countries point to a parent
+ * which is not in the file.
+ * 
+ * <p>
+ * Postal codes are handed out in ascending order and wrap around after 99999, so beyond about five countries they
+ * repeat, and the importer, which keeps one node per code, then links several places to the same postal code node.
+ * The number of codes handed out again is logged and available from {@link #getDuplicatedPostalCodes()}. Malformed
+ * lines - too few columns, a non-numeric id and the like - can be mixed in at a configurable share; they are
+ * additional to the valid lines, so the hierarchy stays intact. The output depends only on the settings.
+ * </p>
+ * 
+ * @author jejking
+ */
+public class SyntheticDataGenerator {
+
+    private static final Logger LOGGER = Logger.getLogger(SyntheticDataGenerator.class.getName());
+
+    /**
+     * Default random seed.
+     */
+    public static final long DEFAULT_SEED = 20131208L;
+
+    private static final String PLACE_HEADER = "#loc_id\tags\tascii\tname\tlat\tlon\tamt\tplz\tvorwahl\teinwohner"
+            + "\tflaeche\tkz\ttyp\tlevel\tof\tinvalid";
+
+    private static final int CONTINENT_ID = 104;
+    private static final int FIRST_ID = 105;
+    private static final int FIRST_POSTAL_CODE = 1067;
+    private static final int STATES = 16;
+
+    private static final String[] PREFIXES = { "Ober", "Unter", "Groß", "Klein", "Neu", "Alt", "Bad ", "Sankt ",
+            "Hohen", "Nieder" };
+    private static final String[] STEMS = { "mühl", "bach", "wald", "berg", "brück", "lind", "roth", "kirch", "schön",
+            "weiß", "stein", "au", "eich", "ross", "wolf", "erl" };
+    private static final String[] SUFFIXES = { "en", "ingen", "heim", "hausen", "dorf", "feld", "stedt", "rode",
+            "büttel", "burg", "" };
+    private static final String[] QUARTER_SUFFIXES = { "-Nord", "-Süd", "-Ost", "-West", "-Mitte" };
+
+    private long seed = DEFAULT_SEED;
+    private int countries = 1;
+    private double malformedShare;
+
+    private Random random;
+    private Writer places;
+    private Writer postalCodes;
+    private int nextId;
+    private int nextPostalCode;
+    private BitSet usedPostalCodes;
+    private long placeLines;
+    private long postalCodeLines;
+    private long malformedLines;
+    private long duplicatedPostalCodes;
+
+    /**
+     * @param seed
+     *            seed of the random numbers, the same seed giving the same files
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param countries
+     *            number of Germany-sized countries to generate, at least one
+     */
+    public void setCountries(int countries) {
+        if (countries < 1) {
+            throw new IllegalArgumentException("Need at least one country, got " + countries);
+        }
+        this.countries = countries;
+    }
+
+    /**
+     * @param malformedShare
+     *            share of all lines in each file which are malformed, at least 0 and less than 1
+     */
+    public void setMalformedShare(double malformedShare) {
+        if (malformedShare < 0 || malformedShare >= 1) {
+            throw new IllegalArgumentException("Share of malformed lines must be in [0, 1), got " + malformedShare);
+        }
+        this.malformedShare = malformedShare;
+    }
+
+    /**
+     * Writes both files, replacing any existing ones.
+     * 
+     * @param placeFile
+     *            path of the place file to write
+     * @param plzFile
+     *            path of the postal code file to write
+     * @throws IOException
+     *             on IO problems
+     */
+    public void generate(Path placeFile, Path plzFile) throws IOException {
+        random = new Random(seed);
+        nextId = FIRST_ID;
+        nextPostalCode = FIRST_POSTAL_CODE;
+        usedPostalCodes = new BitSet(PostalCodeNodeIndex.CAPACITY);
+        placeLines = 0;
+        postalCodeLines = 0;
+        malformedLines = 0;
+        duplicatedPostalCodes = 0;
+        try (BufferedWriter placeWriter = Files.newBufferedWriter(placeFile, StandardCharsets.UTF_8);
+                BufferedWriter plzWriter = Files.newBufferedWriter(plzFile, StandardCharsets.UTF_8)) {
+            places = placeWriter;
+            postalCodes = plzWriter;
+            places.write(PLACE_HEADER);
+            places.write('\n');
+            for (int country = 0; country < countries; country++) {
+                generateCountry(country);
+            }
+        } finally {
+            places = null;
+            postalCodes = null;
+            usedPostalCodes = null;
+        }
+        LOGGER.info("Wrote " + placeLines + " places to " + placeFile + " and " + postalCodeLines
+                + " postal codes to " + plzFile + ", with " + malformedLines + " malformed lines in between");
+        if (duplicatedPostalCodes > 0) {
+            LOGGER.warning(duplicatedPostalCodes + " postal codes were handed out more than once, they share a node"
+                    + " when imported");
+        }
+    }
+
+    /**
+     * @return number of valid place lines written by the last run
+     */
+    public long getPlaceLines() {
+        return placeLines;
+    }
+
+    /**
+     * @return number of valid postal code lines written by the last run
+     */
+    public long getPostalCodeLines() {
+        return postalCodeLines;
+    }
+
+    /**
+     * @return number of malformed lines written to both files by the last run
+     */
+    public long getMalformedLines() {
+        return malformedLines;
+    }
+
+    /**
+     * @return number of postal codes written by the last run which had already been written for another place, after
+     *         the codes wrapped around
+     */
+    public long getDuplicatedPostalCodes() {
+        return duplicatedPostalCodes;
+    }
+
+    private void generateCountry(int country) throws IOException {
+        double south = Math.max(-85, 47.3 - 9 * (country / 30));
+        double west = 5.9 + 12 * (country % 30);
+        Area area = new Area(south, west, 7.7, 9.1);
+        Place root = new Place(nextId++, country == 0 ? "Deutschland" : "Land " + (country + 1), area.centreLat(),
+                area.centreLon(), CONTINENT_ID, 2);
+        root.ags = "D";
+        root.einwohner = 60000000 + random.nextInt(30000000);
+        root.flaeche = 357104;
+        root.kz = "D";
+        writePlace(root);
+
+        for (int state = 1; state <= STATES; state++) {
+            generateState(root, area, state);
+        }
+    }
+
+    private void generateState(Place country, Area area, int state) throws IOException {
+        Place place = new Place(nextId++, name(), area.randomLat(random), area.randomLon(random), country.id, 3);
+        place.ags = String.format(Locale.ROOT, "%02d000000", state);
+        place.typ = "Bundesland";
+        writePlace(place);
+
+        List<Place> parents = new ArrayList<>();
+        if (random.nextBoolean()) {
+            int regions = 2 + random.nextInt(4);
+            for (int region = 1; region <= regions; region++) {
+                Place regionPlace = near(place, 0.8, area, 4);
+                regionPlace.ags = String.format(Locale.ROOT, "%02d%d00000", state, region);
+                regionPlace.typ = "Regierungsbezirk";
+                writePlace(regionPlace);
+                parents.add(regionPlace);
+            }
+        } else {
+            parents.add(place);
+        }
+
+        int districts = 10 + random.nextInt(31);
+        for (int district = 1; district <= districts; district++) {
+            Place parent = parents.get(random.nextInt(parents.size()));
+            generateDistrict(parent, area, place.ags.substring(0, 3) + String.format(Locale.ROOT, "%02d", district));
+        }
+        int cities = 1 + random.nextInt(2);
+        for (int city = 0; city < cities; city++) {
+            generateCity(place, area, place.ags.substring(0, 2) + String.format(Locale.ROOT, "0%d000", 60 + city));
+        }
+    }
+
+    private void generateDistrict(Place parent, Area area, String agsPrefix) throws IOException {
+        Place district = near(parent, 0.6, area, 5);
+        district.ags = agsPrefix + "000";
+        district.kz = licencePlate();
+        district.typ = "Landkreis";
+        writePlace(district);
+
+        int municipalities = 10 + random.nextInt(36);
+        for (int municipality = 1; municipality <= municipalities; municipality++) {
+            Place place = near(district, 0.15, area, 6);
+            place.ags = agsPrefix + String.format(Locale.ROOT, "%03d", municipality);
+            place.kz = district.kz;
+            place.typ = random.nextInt(5) == 0 ? "Stadt" : "Gemeinde";
+            place.vorwahl = "0" + (30 + random.nextInt(9970));
+            place.einwohner = 200 + random.nextInt(random.nextInt(10) == 0 ? 80000 : 8000);
+            place.flaeche = 2 + random.nextDouble() * 80;
+            int codes = random.nextInt(8) == 0 ? 2 + random.nextInt(3) : 1;
+            place.postalCodes = newPostalCodes(place, codes);
+
+            List<Place> parts = new ArrayList<>();
+            int partCount = random.nextInt(5);
+            for (int part = 0; part < partCount; part++) {
+                Place partPlace = near(place, 0.02, area, 8);
+                partPlace.ags = place.ags;
+                partPlace.name = place.name + "-" + name();
+                partPlace.kz = place.kz;
+                partPlace.typ = "Ortsteil";
+                partPlace.postalCodes = subset(place.postalCodes);
+                parts.add(partPlace);
+            }
+            boolean partsFirst = random.nextInt(3) == 0;
+            if (!partsFirst) {
+                writePlace(place);
+            }
+            for (Place part : parts) {
+                writePlace(part);
+            }
+            if (partsFirst) {
+                writePlace(place);
+            }
+        }
+    }
+
+    private void generateCity(Place state, Area area, String ags) throws IOException {
+        Place city = near(state, 0.5, area, 6);
+        city.ags = ags;
+        city.kz = licencePlate();
+        city.typ = "Kreisfreie Stadt";
+        city.vorwahl = "0" + (30 + random.nextInt(970));
+        city.einwohner = 200000 + random.nextInt(1800000);
+        city.flaeche = 100 + random.nextDouble() * 800;
+        city.postalCodes = newPostalCodes(city, 30 + random.nextInt(71));
+        writePlace(city);
+
+        int boroughs = 5 + random.nextInt(3);
+        for (int borough = 0; borough < boroughs; borough++) {
+            Place boroughPlace = near(city, 0.05, area, 7);
+            boroughPlace.ags = ags;
+            boroughPlace.name = city.name + QUARTER_SUFFIXES[borough % QUARTER_SUFFIXES.length]
+                    + (borough < QUARTER_SUFFIXES.length ? "" : " " + borough);
+            boroughPlace.kz = city.kz;
+            boroughPlace.typ = "Bezirk";
+            boroughPlace.postalCodes = subset(city.postalCodes);
+            writePlace(boroughPlace);
+
+            int quarters = 5 + random.nextInt(11);
+            for (int quarter = 0; quarter < quarters; quarter++) {
+                Place quarterPlace = near(boroughPlace, 0.01, area, 8);
+                quarterPlace.ags = ags;
+                quarterPlace.kz = city.kz;
+                quarterPlace.typ = "Stadtteil";
+                quarterPlace.postalCodes = subset(boroughPlace.postalCodes);
+                writePlace(quarterPlace);
+            }
+        }
+    }
+
+    /**
+     * Creates a place at a normally distributed offset from its parent, kept within the area of the country.
+     */
+    private Place near(Place parent, double spread, Area area, int level) {
+        double lat = area.clampLat(parent.lat + random.nextGaussian() * spread);
+        double lon = area.clampLon(parent.lon + random.nextGaussian() * spread * 1.5);
+        return new Place(nextId++, name(), lat, lon, parent.id, level);
+    }
+
+    private int[] newPostalCodes(Place place, int count) throws IOException {
+        int[] codes = new int[count];
+        for (int i = 0; i < count; i++) {
+            codes[i] = nextPostalCode;
+            if (usedPostalCodes.get(nextPostalCode)) {
+                duplicatedPostalCodes++;
+            } else {
+                usedPostalCodes.set(nextPostalCode);
+            }
+            writePostalCode(codes[i], place);
+            nextPostalCode += 1 + random.nextInt(3);
+            if (nextPostalCode > 99999) {
+                nextPostalCode = FIRST_POSTAL_CODE + nextPostalCode % 7;
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * Picks a random, non-empty, contiguous run of the codes of a parent.
+     */
+    private int[] subset(int[] codes) {
+        int length = 1 + random.nextInt(Math.min(codes.length, 4));
+        int start = random.nextInt(codes.length - length + 1);
+        int[] subset = new int[length];
+        System.arraycopy(codes, start, subset, 0, length);
+        return subset;
+    }
+
+    private String name() {
+        StringBuilder name = new StringBuilder();
+        if (random.nextInt(4) == 0) {
+            name.append(PREFIXES[random.nextInt(PREFIXES.length)]);
+        }
+        String stem = STEMS[random.nextInt(STEMS.length)];
+        if (name.length() == 0 || name.charAt(name.length() - 1) == ' ') {
+            stem = Character.toUpperCase(stem.charAt(0)) + stem.substring(1);
+        }
+        name.append(stem).append(SUFFIXES[random.nextInt(SUFFIXES.length)]);
+        return name.toString();
+    }
+
+    private String licencePlate() {
+        int length = 1 + random.nextInt(3);
+        StringBuilder kz = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            kz.append((char) ('A' + random.nextInt(26)));
+        }
+        return kz.toString();
+    }
+
+    private void writePlace(Place place) throws IOException {
+        maybeWriteMalformedPlace();
+        StringBuilder line = new StringBuilder(128);
+        line.append(place.id).append('\t').append(place.ags).append('\t').append(ascii(place.name)).append('\t')
+                .append(place.name).append('\t').append(coordinate(place.lat)).append('\t')
+                .append(coordinate(place.lon)).append("\t\t");
+        if (place.postalCodes != null) {
+            for (int i = 0; i < place.postalCodes.length; i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                line.append(String.format(Locale.ROOT, "%05d", place.postalCodes[i]));
+            }
+        }
+        line.append('\t').append(nullToEmpty(place.vorwahl)).append('\t');
+        if (place.einwohner > 0) {
+            line.append(place.einwohner);
+        }
+        line.append('\t');
+        if (place.flaeche > 0) {
+            line.append(String.format(Locale.ROOT, "%.2f", place.flaeche));
+        }
+        line.append('\t').append(nullToEmpty(place.kz)).append('\t').append(nullToEmpty(place.typ)).append('\t')
+                .append(place.level).append('\t').append(place.of).append("\t\n");
+        places.write(line.toString());
+        placeLines++;
+    }
+
+    private void writePostalCode(int code, Place place) throws IOException {
+        maybeWriteMalformedPostalCode();
+        double lat = place.lat + random.nextGaussian() * 0.01;
+        double lon = place.lon + random.nextGaussian() * 0.015;
+        postalCodes.write((5000 + postalCodeLines) + "\t" + String.format(Locale.ROOT, "%05d", code) + "\t" + lon
+                + "\t" + lat + "\t" + place.name + "\n");
+        postalCodeLines++;
+    }
+
+    private void maybeWriteMalformedPlace() throws IOException {
+        if (!nextLineMalformed()) {
+            return;
+        }
+        switch (random.nextInt(4)) {
+        case 0:
+            places.write("this line is broken\n");
+            break;
+        case 1:
+            places.write("x" + nextId + "\t\t\t\t\t\t\t\t\t\t\t\t\t\t\t\n");
+            break;
+        case 2:
+            places.write(nextId + "\t0\tX\tX\tnorth\teast\t\t\t\t\t\t\t\t6\t0\t\n");
+            break;
+        default:
+            places.write(nextId + "\t0\tX\tX\t50.0\t10.0\t\t\t\t\t\t\t\tsix\t0\t\n");
+            break;
+        }
+        malformedLines++;
+    }
+
+    private void maybeWriteMalformedPostalCode() throws IOException {
+        if (!nextLineMalformed()) {
+            return;
+        }
+        if (random.nextBoolean()) {
+            postalCodes.write("this line is broken\n");
+        } else {
+            postalCodes.write("x\t12345\t10.0\t50.0\tX\n");
+        }
+        malformedLines++;
+    }
+
+    /**
+     * Decides whether to write a malformed line before the next valid one, such that on average the requested share
+     * of all lines is malformed.
+     */
+    private boolean nextLineMalformed() {
+        return malformedShare > 0 && random.nextDouble() < malformedShare / (1 - malformedShare);
+    }
+
+    private static String coordinate(double degrees) {
+        return String.format(Locale.ROOT, "%.5f", degrees);
+    }
+
+    private static String ascii(String name) {
+        return name.toUpperCase(Locale.GERMAN).replace("Ä", "AE").replace("Ö", "OE").replace("Ü", "UE")
+                .replace("ß", "SS");
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * A place as it is being generated.
+     */
+    private static final class Place {
+
+        private final int id;
+        private String name;
+        private final double lat;
+        private final double lon;
+        private final int of;
+        private final int level;
+        private String ags;
+        private String kz;
+        private String typ;
+        private String vorwahl;
+        private int einwohner;
+        private double flaeche;
+        private int[] postalCodes;
+
+        Place(int id, String name, double lat, double lon, int of, int level) {
+            this.id = id;
+            this.name = name;
+            this.lat = lat;
+            this.lon = lon;
+            this.of = of;
+            this.level = level;
+        }
+    }
+
+    /**
+     * The bounding box of a country.
+     */
+    private static final class Area {
+
+        private final double south;
+        private final double west;
+        private final double height;
+        private final double width;
+
+        Area(double south, double west, double height, double width) {
+            this.south = south;
+            this.west = west;
+            this.height = height;
+            this.width = width;
+        }
+
+        double centreLat() {
+            return south + height / 2;
+        }
+
+        double centreLon() {
+            return normaliseLon(west + width / 2);
+        }
+
+        double randomLat(Random random) {
+            return south + random.nextDouble() * height;
+        }
+
+        double randomLon(Random random) {
+            return normaliseLon(west + random.nextDouble() * width);
+        }
+
+        double clampLat(double lat) {
+            return Math.max(south, Math.min(south + height, lat));
+        }
+
+        double clampLon(double lon) {
+            double min = normaliseLon(west);
+            double max = normaliseLon(west + width);
+            if (min > max) {
+                // the area spans the date line, leave the longitude as it is
+                return normaliseLon(lon);
+            }
+            return Math.max(min, Math.min(max, lon));
+        }
+
+        private static double normaliseLon(double lon) {
+            return lon >= 180 ? lon - 360 : lon;
+        }
+    }
+
+    /**
+     * Generates a pair of files.
+     * 
+     * @param args
+     *            see <code>-h</code>
+     * @throws IOException
+     *             on IO problems
+     * @throws ParseException
+     *             on invalid arguments
+     */
+    @SuppressWarnings("static-access")
+    public static void main(String[] args) throws IOException, ParseException {
+        Options options = new Options();
+        options.addOption(OptionBuilder.withLongOpt("placeFile").withArgName("placeFilePath").hasArg()
+                .withDescription("path of the place file to write").isRequired().create("p"));
+        options.addOption(OptionBuilder.withLongOpt("zipCodesFile").withArgName("zipCodesFilePath").hasArg()
+                .withDescription("path of the zip code (PLZ) file to write").isRequired().create("z"));
+        options.addOption(OptionBuilder.withLongOpt("countries").withArgName("count").hasArg()
+                .withDescription("number of Germany-sized countries, default 1").create("c"));
+        options.addOption(OptionBuilder.withLongOpt("seed").withArgName("seed").hasArg()
+                .withDescription("random seed, default " + DEFAULT_SEED).create("s"));
+        options.addOption(OptionBuilder.withLongOpt("malformed").withArgName("share").hasArg()
+                .withDescription("share of malformed lines, between 0 (default) and 1").create("m"));
+
+        CommandLine commandLine;
+        try {
+            commandLine = new GnuParser().parse(options, args);
+        } catch (ParseException e) {
+            new HelpFormatter().printHelp("SyntheticDataGenerator", options);
+            throw e;
+        }
+        SyntheticDataGenerator generator = new SyntheticDataGenerator();
+        generator.setCountries(Integer.parseInt(commandLine.getOptionValue("c", "1")));
+        generator.setSeed(Long.parseLong(commandLine.getOptionValue("s", Long.toString(DEFAULT_SEED))));
+        generator.setMalformedShare(Double.parseDouble(commandLine.getOptionValue("m", "0")));
+        generator.generate(Paths.get(commandLine.getOptionValue("p")), Paths.get(commandLine.getOptionValue("z")));
+    }
+
+}
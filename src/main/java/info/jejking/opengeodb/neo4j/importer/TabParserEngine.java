@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+/**
+ * The ways in which the parsers can turn lines of tab-separated data into beans.
+ * 
+ * @author jejking
+ */
+public enum TabParserEngine {
+
+    /**
+     * Byte-level tokenizing with beans filled directly by hand-written code. The default.
+     */
+    DIRECT,
+
+    /**
+     * <a href="http://supercsv.sourceforge.net/">SuperCSV</a> with cell processors and reflective bean population. Kept
+     * as a reference implementation.
+     */
+    SUPER_CSV;
+
+}
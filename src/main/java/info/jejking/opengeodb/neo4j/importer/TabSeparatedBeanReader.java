@@ -19,8 +19,10 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.LinkedList;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import org.supercsv.cellprocessor.ift.CellProcessor;
@@ -39,11 +41,30 @@ import org.supercsv.prefs.CsvPreference;
  */
 class TabSeparatedBeanReader<T> {
 
+    /**
+     * Decides which of the beans read are handed out.
+     * 
+     * @param <T>
+     *            the type of bean
+     */
+    interface BeanFilter<T> {
+
+        /**
+         * @param bean
+         *            a bean read from a line
+         * @return whether to hand it out
+         */
+        boolean accept(T bean);
+    }
+
     private static final Logger LOGGER = Logger.getLogger(TabSeparatedBeanReader.class.getName());
     
     private final Class<T> clazz;
     private final CellProcessor[] cellProcessors;
     private final String[] headers;
+    private AtomicLong skippedLines = new AtomicLong();
+    private boolean quiet;
+    private BeanFilter<T> filter;
 
     /**
      * Constructs reader with details of class to process, the necessary {@link CellProcessor} instances and the
@@ -54,7 +75,8 @@ class TabSeparatedBeanReader<T> {
      * @param cellProcessors
      *            the cell processors
      * @param headers
-     *            the headers
+     *            the headers, naming the bean property per column; a <code>null</code> header leaves its column out of
+     *            the bean, and should go with a <code>null</code> cell processor
      */
     public TabSeparatedBeanReader(Class<T> clazz, CellProcessor[] cellProcessors, String[] headers) {
         super();
@@ -63,6 +85,30 @@ class TabSeparatedBeanReader<T> {
         this.headers = headers;
     }
 
+    /**
+     * @param skippedLines
+     *            counter to add the number of lines skipped because of data errors to
+     */
+    public void setSkippedLineCounter(AtomicLong skippedLines) {
+        this.skippedLines = skippedLines;
+    }
+
+    /**
+     * @param quiet
+     *            whether to skip lines with data errors without logging a warning for each
+     */
+    public void setQuiet(boolean quiet) {
+        this.quiet = quiet;
+    }
+
+    /**
+     * @param filter
+     *            filter which beans must pass to be handed out, or <code>null</code> to hand out all
+     */
+    public void setFilter(BeanFilter<T> filter) {
+        this.filter = filter;
+    }
+
     /**
      * Reads in a list of T from a tab separated stream.
      * 
@@ -76,30 +122,78 @@ class TabSeparatedBeanReader<T> {
      */
     public List<T> readDataFromStream(InputStream stream, boolean readFirstLine) throws IOException {
 
-        List<T> typeBeans = new LinkedList<>();
-        try (ICsvBeanReader beanReader = new CsvBeanReader(new BufferedReader(new InputStreamReader(stream)),
-                CsvPreference.TAB_PREFERENCE)) {
+        List<T> typeBeans = new ArrayList<>();
+        try (CloseableIterator<T> iterator = iterateDataFromStream(stream, readFirstLine)) {
+            while (iterator.hasNext()) {
+                typeBeans.add(iterator.next());
+            }
+        } catch (DataReadException e) {
+            throw e.getCause();
+        }
+        return typeBeans;
+    }
+
+    /**
+     * Reads T from a tab separated stream one line at a time, as the caller pulls them from the returned iterator.
+     * Only the current line is held in memory, so the cost of consuming a stream does not depend on its length. IO
+     * problems while iterating are raised as {@link DataReadException}.
+     * 
+     * @param stream
+     *            the stream, will be closed when the iterator is exhausted or closed
+     * @param readFirstLine
+     *            whether the first line of the file should be considered part of the data to process or not
+     * @return iterator over T
+     * @throws IOException
+     *             on IO problems
+     */
+    public CloseableIterator<T> iterateDataFromStream(InputStream stream, boolean readFirstLine) throws IOException {
+        ICsvBeanReader beanReader = new CsvBeanReader(new BufferedReader(new InputStreamReader(stream,
+                StandardCharsets.UTF_8)), CsvPreference.TAB_PREFERENCE);
+        try {
             if (readFirstLine) {
                 beanReader.getHeader(true);
             }
-            T typeBean;
-            boolean carryOn = true;
-            while (carryOn) {
+        } catch (IOException | RuntimeException e) {
+            beanReader.close();
+            throw e;
+        }
+        return new BeanIterator(beanReader);
+    }
+
+    /**
+     * Iterator which hands out beans from the SuperCSV reader, skipping lines with data errors and beans the filter
+     * rejects.
+     */
+    private final class BeanIterator extends ReadAheadIterator<T> {
+
+        private final ICsvBeanReader beanReader;
+
+        BeanIterator(ICsvBeanReader beanReader) {
+            this.beanReader = beanReader;
+        }
+
+        @Override
+        protected T readNext() throws IOException {
+            while (true) {
                 try {
-                    typeBean = beanReader.read(clazz, headers, cellProcessors);
-                    if (typeBean != null) {
-                        typeBeans.add(typeBean);
-                    } else {
-                        carryOn = false;
+                    T bean = beanReader.read(clazz, headers, cellProcessors);
+                    if (bean == null || filter == null || filter.accept(bean)) {
+                        return bean;
                     }
                 } catch (SuperCsvException e) {
                     // we need this as the data file MAY contain rubbish
-                    LOGGER.warning("Ignoring data error in line: " + beanReader.getLineNumber());
+                    skippedLines.incrementAndGet();
+                    if (!quiet) {
+                        LOGGER.warning("Ignoring data error in line: " + beanReader.getLineNumber());
+                    }
                 }
-
             }
         }
-        return typeBeans;
+
+        @Override
+        protected void closeSource() throws IOException {
+            beanReader.close();
+        }
     }
 
 }
@@ -0,0 +1,449 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte-level tokenizer for UTF-8 encoded, tab-separated data. The tokenizer works directly on its read buffer: a call
+ * to {@link #nextLine()} only records where the fields of the next line start and end, and the accessors decode a
+ * field on demand. Numbers are parsed straight from the bytes, so only string fields allocate.
+ *
+ * <p>
+ * Empty lines are skipped and a trailing carriage return is ignored. Quoting is not supported, as the OpenGeoDB
+ * exports do not use it.
+ * </p>
+ *
+ * @author jejking
+ */
+class TabSeparatedLineTokenizer implements Closeable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int INITIAL_FIELD_CAPACITY = 32;
+
+    // powers of ten which are exactly representable as doubles
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final InputStream stream;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean endOfStream;
+
+    private int lineNumber;
+    private int[] fieldStarts = new int[INITIAL_FIELD_CAPACITY];
+    private int[] fieldEnds = new int[INITIAL_FIELD_CAPACITY];
+    private int fieldCount;
+
+    /**
+     * Constructor.
+     *
+     * @param stream
+     *            the stream to tokenize, closed by {@link #close()}
+     */
+    public TabSeparatedLineTokenizer(InputStream stream) {
+        this(stream, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param stream
+     *            the stream to tokenize, closed by {@link #close()}
+     * @param bufferSize
+     *            initial size of the read buffer, which grows if a line does not fit
+     */
+    public TabSeparatedLineTokenizer(InputStream stream, int bufferSize) {
+        super();
+        this.stream = stream;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Advances to the next non-empty line.
+     *
+     * @return <code>false</code> if the end of the stream has been reached
+     * @throws IOException
+     *             on IO problems
+     */
+    public boolean nextLine() throws IOException {
+        while (true) {
+            int lineEnd = findLineEnd();
+            if (lineEnd < 0) {
+                return false;
+            }
+            lineNumber++;
+            int lineStart = position;
+            position = lineEnd < limit ? lineEnd + 1 : limit;
+            if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > lineStart) {
+                splitFields(lineStart, lineEnd);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the physical line number of the current line, counting from one and including skipped lines
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return the number of fields in the current line
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @param field
+     *            zero-based field index
+     * @return whether the field has no content at all
+     */
+    public boolean isEmpty(int field) {
+        return fieldStarts[field] == fieldEnds[field];
+    }
+
+    /**
+     * @param field
+     *            zero-based field index
+     * @return the field decoded as is, or <code>null</code> if it is empty
+     */
+    public String getString(int field) {
+        int start = fieldStarts[field];
+        int end = fieldEnds[field];
+        if (start == end) {
+            return null;
+        }
+        return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param field
+     *            zero-based field index
+     * @param interner
+     *            interner holding the values seen so far in the column
+     * @return the shared instance of the field as is, or <code>null</code> if it is empty
+     */
+    public String getString(int field, StringInterner interner) {
+        int start = fieldStarts[field];
+        int end = fieldEnds[field];
+        if (start == end) {
+            return null;
+        }
+        return interner.intern(buffer, start, end);
+    }
+
+    /**
+     * @param field
+     *            zero-based field index
+     * @param decoder
+     *            decoder of comma-separated postal codes
+     * @return the postal codes in the field, {@link PostalCodeDecoder#NONE} if it is empty
+     */
+    public int[] getPostalCodes(int field, PostalCodeDecoder decoder) {
+        int start = fieldStarts[field];
+        int end = fieldEnds[field];
+        if (start == end) {
+            return PostalCodeDecoder.NONE;
+        }
+        return decoder.decode(buffer, start, end);
+    }
+
+    /**
+     * @param field
+     *            zero-based field index
+     * @return the five digit postal code in the field, ignoring surrounding white space, or
+     *         {@link PostalCodeNodeIndex#NOT_A_POSTAL_CODE} if it does not hold one
+     */
+    public int getPostalCode(int field) {
+        return PostalCodeNodeIndex.parse(buffer, fieldStarts[field], fieldEnds[field]);
+    }
+
+    /**
+     * Parses a field, ignoring surrounding white space, as an int.
+     *
+     * @param field
+     *            zero-based field index
+     * @return the int value
+     * @throws NumberFormatException
+     *             if the field does not hold an int
+     */
+    public int getInt(int field) {
+        int start = trimStart(field);
+        int end = trimEnd(field, start);
+        if (start == end) {
+            throw new NumberFormatException("Empty field " + field);
+        }
+        boolean negative = false;
+        int i = start;
+        if (buffer[i] == '-' || buffer[i] == '+') {
+            negative = buffer[i] == '-';
+            i++;
+            if (i == end) {
+                throw numberFormatException(field);
+            }
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw numberFormatException(field);
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw numberFormatException(field);
+            }
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (value > Integer.MAX_VALUE) {
+            throw numberFormatException(field);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parses a field, ignoring surrounding white space, as a double. Plain decimals with up to fifteen significant
+     * digits are converted directly from the bytes with correct rounding. Anything else falls back to
+     * {@link Double#parseDouble(String)}.
+     *
+     * @param field
+     *            zero-based field index
+     * @return the double value
+     * @throws NumberFormatException
+     *             if the field does not hold a double
+     */
+    public double getDouble(int field) {
+        int start = trimStart(field);
+        int end = trimEnd(field, start);
+        if (start == end) {
+            throw new NumberFormatException("Empty field " + field);
+        }
+        boolean negative = false;
+        int i = start;
+        if (buffer[i] == '-' || buffer[i] == '+') {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int fractionDigits = 0;
+        int digits = 0;
+        boolean seenPoint = false;
+        for (; i < end; i++) {
+            byte b = buffer[i];
+            if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (seenPoint) {
+                    fractionDigits++;
+                }
+                if (mantissa >= MAX_EXACT_MANTISSA) {
+                    return parseDoubleSlowly(start, end);
+                }
+            } else {
+                return parseDoubleSlowly(start, end);
+            }
+        }
+        if (digits == 0 || fractionDigits >= POWERS_OF_TEN.length) {
+            return parseDoubleSlowly(start, end);
+        }
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a field holding a coordinate in degrees, ignoring surrounding white space, into fixed-point
+     * {@link Coordinates micro-degrees}. Plain decimals are converted exactly from the bytes, rounding half away from
+     * zero on the seventh decimal place. Anything else falls back to {@link Double#parseDouble(String)}.
+     *
+     * @param field
+     *            zero-based field index
+     * @return the coordinate in micro-degrees
+     * @throws NumberFormatException
+     *             if the field does not hold a number or is out of range
+     */
+    public int getMicroDegrees(int field) {
+        int start = trimStart(field);
+        int end = trimEnd(field, start);
+        if (start == end) {
+            throw new NumberFormatException("Empty field " + field);
+        }
+        boolean negative = false;
+        int i = start;
+        if (buffer[i] == '-' || buffer[i] == '+') {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        long value = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        boolean roundUp = false;
+        for (; i < end; i++) {
+            byte b = buffer[i];
+            if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (b >= '0' && b <= '9') {
+                digits++;
+                if (fractionDigits < Coordinates.DECIMAL_PLACES) {
+                    value = value * 10 + (b - '0');
+                    if (fractionDigits >= 0) {
+                        fractionDigits++;
+                    }
+                    if (value > Integer.MAX_VALUE) {
+                        throw numberFormatException(field);
+                    }
+                } else if (fractionDigits == Coordinates.DECIMAL_PLACES) {
+                    roundUp = b >= '5';
+                    fractionDigits++;
+                }
+            } else {
+                return toMicroDegrees(field, parseDoubleSlowly(start, end));
+            }
+        }
+        if (digits == 0) {
+            return toMicroDegrees(field, parseDoubleSlowly(start, end));
+        }
+        for (int place = Math.max(fractionDigits, 0); place < Coordinates.DECIMAL_PLACES; place++) {
+            value *= 10;
+        }
+        if (roundUp) {
+            value++;
+        }
+        if (value > Integer.MAX_VALUE) {
+            throw numberFormatException(field);
+        }
+        return negative ? (int) -value : (int) value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+
+    private double parseDoubleSlowly(int start, int end) {
+        return Double.parseDouble(new String(buffer, start, end - start, StandardCharsets.US_ASCII));
+    }
+
+    private int toMicroDegrees(int field, double degrees) {
+        try {
+            return Coordinates.toMicroDegrees(degrees);
+        } catch (IllegalArgumentException e) {
+            throw numberFormatException(field);
+        }
+    }
+
+    private NumberFormatException numberFormatException(int field) {
+        return new NumberFormatException("Not a number in field " + field + ": " + getString(field));
+    }
+
+    private int trimStart(int field) {
+        int start = fieldStarts[field];
+        int end = fieldEnds[field];
+        while (start < end && buffer[start] <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private int trimEnd(int field, int start) {
+        int end = fieldEnds[field];
+        while (end > start && buffer[end - 1] <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private void splitFields(int lineStart, int lineEnd) {
+        fieldCount = 0;
+        int fieldStart = lineStart;
+        for (int i = lineStart; i < lineEnd; i++) {
+            if (buffer[i] == '\t') {
+                addField(fieldStart, i);
+                fieldStart = i + 1;
+            }
+        }
+        addField(fieldStart, lineEnd);
+    }
+
+    private void addField(int start, int end) {
+        if (fieldCount == fieldStarts.length) {
+            int[] newStarts = new int[fieldCount * 2];
+            int[] newEnds = new int[fieldCount * 2];
+            System.arraycopy(fieldStarts, 0, newStarts, 0, fieldCount);
+            System.arraycopy(fieldEnds, 0, newEnds, 0, fieldCount);
+            fieldStarts = newStarts;
+            fieldEnds = newEnds;
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldCount++;
+    }
+
+    /**
+     * Finds the end of the line starting at {@link #position}, refilling the buffer as required.
+     *
+     * @return index of the terminating newline, <code>limit</code> for a final unterminated line or -1 if there is no
+     *         more data
+     */
+    private int findLineEnd() throws IOException {
+        int scanFrom = position;
+        while (true) {
+            for (int i = scanFrom; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    return i;
+                }
+            }
+            if (endOfStream) {
+                return position < limit ? limit : -1;
+            }
+            scanFrom = limit - position;
+            fill();
+        }
+    }
+
+    private void fill() throws IOException {
+        int remaining = limit - position;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        } else if (remaining == buffer.length) {
+            byte[] larger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, larger, 0, remaining);
+            buffer = larger;
+        }
+        position = 0;
+        limit = remaining;
+        int read = stream.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            endOfStream = true;
+        } else {
+            limit += read;
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+/**
+ * Fills a bean directly from the fields of a line held by a {@link TabSeparatedLineTokenizer}.
+ * 
+ * @author jejking
+ * @param <T>
+ *            the type of bean
+ */
+interface TabSeparatedRowMapper<T> {
+
+    /**
+     * @return the number of fields a well-formed line has
+     */
+    int getColumnCount();
+
+    /**
+     * Maps the current line of the tokenizer to a bean.
+     * 
+     * @param line
+     *            tokenizer positioned on a line with {@link #getColumnCount()} fields
+     * @return the bean, or <code>null</code> if the line is filtered out
+     * @throws IllegalArgumentException
+     *             if the line does not hold valid data
+     */
+    T mapRow(TabSeparatedLineTokenizer line);
+
+}
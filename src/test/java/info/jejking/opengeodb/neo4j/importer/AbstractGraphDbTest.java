@@ -57,4 +57,18 @@ public abstract class AbstractGraphDbTest {
         graphDb.shutdown();
     }
 
+    /**
+     * @param iterable
+     *            nodes, relationships or anything else to count
+     * @return number of elements
+     */
+    protected static int count(Iterable<?> iterable) {
+        int count = 0;
+        for (@SuppressWarnings("unused")
+        Object o : iterable) {
+            count++;
+        }
+        return count;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionFailureException;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+/**
+ * Basic test of {@link BatchCommitter}.
+ * 
+ * @author jejking
+ */
+public class BatchCommitterTest extends AbstractGraphDbTest {
+
+    @Test
+    public void shouldCommitEveryBatch() {
+        long[] latencies;
+        try (BatchCommitter committer = new BatchCommitter(graphDb, 10, "test")) {
+            createNodes(committer, 25);
+            committer.success();
+            // the final batch of five is only committed on close
+            latencies = committer.getCommitLatencies();
+            assertEquals(25, committer.getTotalOperations());
+        }
+
+        assertEquals(2, latencies.length);
+        assertEquals(25, countNodes());
+    }
+
+    @Test
+    public void shouldRollBackOnlyTheLastBatchOnFailure() {
+        try (BatchCommitter committer = new BatchCommitter(graphDb, 10, "test")) {
+            createNodes(committer, 25);
+        }
+
+        assertEquals(20, countNodes());
+    }
+
+    @Test
+    public void shouldNotReuseATransactionWhichFailedToCommit() {
+        try (BatchCommitter committer = new BatchCommitter(graphDb, 10, "test")) {
+            createNodes(committer, 5);
+            // marks the enclosing transaction of the batch for rollback only
+            try (Transaction nested = graphDb.beginTx()) {
+                nested.failure();
+            }
+            try {
+                createNodes(committer, 5);
+                fail("commit should have failed");
+            } catch (TransactionFailureException e) {
+                // expected
+            }
+            try {
+                committer.add(1);
+                fail("the failed transaction should not be used again");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+
+        assertEquals(0, countNodes());
+    }
+
+    private void createNodes(BatchCommitter committer, int count) {
+        for (int i = 0; i < count; i++) {
+            graphDb.createNode();
+            committer.add(1);
+        }
+    }
+
+    private int countNodes() {
+        try (Transaction tx = graphDb.beginTx()) {
+            int count = count(GlobalGraphOperations.at(graphDb).getAllNodes());
+            tx.success();
+            return count;
+        }
+    }
+
+}
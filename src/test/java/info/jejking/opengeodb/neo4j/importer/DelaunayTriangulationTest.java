@@ -0,0 +1,181 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link DelaunayTriangulation}, checking the empty circumcircle property and that the triangles tile the
+ * convex hull of the points.
+ * 
+ * @author jejking
+ */
+public class DelaunayTriangulationTest {
+
+    @Test
+    public void shouldTriangulateRandomPoints() {
+        Random random = new Random(25);
+        int[] x = new int[400];
+        int[] y = new int[400];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = random.nextInt(10000);
+            y[i] = random.nextInt(10000);
+        }
+
+        DelaunayTriangulation triangulation = new DelaunayTriangulation(x, y);
+
+        thenTheTrianglesAreDelaunay(x, y, triangulation.getTriangles());
+        thenTheTrianglesTileTheHull(x, y, triangulation.getTriangles());
+        // by Euler's formula, as every point but those on the hull is an inner vertex
+        assertEquals(3 * x.length - 3 - hull(x, y).length, triangulation.getEdges().length);
+    }
+
+    @Test
+    public void shouldTriangulateCocircularPointsAndSkipDuplicates() {
+        // a grid, each cell of which has four points on a circle, with the first row repeated
+        int[] x = new int[110];
+        int[] y = new int[110];
+        for (int i = 0; i < 100; i++) {
+            x[i] = i % 10;
+            y[i] = i / 10;
+        }
+        for (int i = 100; i < 110; i++) {
+            x[i] = i - 100;
+        }
+
+        DelaunayTriangulation triangulation = new DelaunayTriangulation(x, y);
+
+        int[] triangles = triangulation.getTriangles();
+        assertEquals(2 * 81, triangles.length / 3);
+        thenTheTrianglesAreDelaunay(x, y, triangles);
+        thenTheTrianglesTileTheHull(x, y, triangles);
+        int duplicates = 0;
+        for (int i = 0; i < x.length; i++) {
+            if (triangulation.isDuplicate(i)) {
+                int original = triangulation.getDuplicateOf(i);
+                assertEquals(x[i], x[original]);
+                assertEquals(y[i], y[original]);
+                assertFalse(triangulation.isDuplicate(original));
+                duplicates++;
+            }
+        }
+        assertEquals(10, duplicates);
+    }
+
+    @Test
+    public void shouldJoinCollinearPointsInOrder() {
+        int[] x = { 30, 0, 20, 10, 40 };
+        int[] y = { 3, 0, 2, 1, 4 };
+
+        DelaunayTriangulation triangulation = new DelaunayTriangulation(x, y);
+
+        assertEquals(0, triangulation.getTriangles().length);
+        long[] expected = { 0L << 32 | 2, 0L << 32 | 4, 1L << 32 | 3, 2L << 32 | 3 };
+        assertArrayEquals(expected, triangulation.getEdges());
+    }
+
+    @Test
+    public void shouldTriangulateNothing() {
+        DelaunayTriangulation triangulation = new DelaunayTriangulation(new int[0], new int[0]);
+
+        assertEquals(0, triangulation.getEdges().length);
+        assertFalse(triangulation.size() > 0);
+    }
+
+    private static void thenTheTrianglesAreDelaunay(int[] x, int[] y, int[] triangles) {
+        for (int t = 0; t < triangles.length; t += 3) {
+            int a = triangles[t];
+            int b = triangles[t + 1];
+            int c = triangles[t + 2];
+            assertTrue("not counter-clockwise", cross(x, y, a, b, c) > 0);
+            for (int p = 0; p < x.length; p++) {
+                assertFalse("point " + p + " in circumcircle of " + a + "," + b + "," + c,
+                        inCircle(x, y, a, b, c, p) > 0);
+            }
+        }
+    }
+
+    private static void thenTheTrianglesTileTheHull(int[] x, int[] y, int[] triangles) {
+        long area = 0;
+        for (int t = 0; t < triangles.length; t += 3) {
+            area += cross(x, y, triangles[t], triangles[t + 1], triangles[t + 2]);
+        }
+        int[] hull = hull(x, y);
+        long hullArea = 0;
+        for (int i = 1; i + 1 < hull.length; i++) {
+            hullArea += cross(x, y, hull[0], hull[i], hull[i + 1]);
+        }
+        assertEquals(hullArea, area);
+    }
+
+    /**
+     * @return the points on the convex hull, counter-clockwise, leaving out those in the middle of its edges
+     */
+    private static int[] hull(final int[] x, final int[] y) {
+        Integer[] points = new Integer[x.length];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = i;
+        }
+        Arrays.sort(points, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return x[a] != x[b] ? Integer.compare(x[a], x[b]) : Integer.compare(y[a], y[b]);
+            }
+        });
+        int[] hull = new int[2 * points.length];
+        int size = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            int start = size;
+            for (int j = 0; j < points.length; j++) {
+                int p = points[pass == 0 ? j : points.length - 1 - j];
+                while (size >= start + 2 && cross(x, y, hull[size - 2], hull[size - 1], p) <= 0) {
+                    size--;
+                }
+                hull[size++] = p;
+            }
+            size--;
+        }
+        return Arrays.copyOf(hull, size);
+    }
+
+    private static long cross(int[] x, int[] y, int a, int b, int c) {
+        return (long) (x[b] - x[a]) * (y[c] - y[a]) - (long) (y[b] - y[a]) * (x[c] - x[a]);
+    }
+
+    /**
+     * Exact for coordinates below 10000.
+     */
+    private static long inCircle(int[] x, int[] y, int a, int b, int c, int p) {
+        long adx = x[a] - x[p];
+        long ady = y[a] - y[p];
+        long bdx = x[b] - x[p];
+        long bdy = y[b] - y[p];
+        long cdx = x[c] - x[p];
+        long cdy = y[c] - y[p];
+        return (adx * adx + ady * ady) * (bdx * cdy - cdx * bdy) + (bdx * bdx + bdy * bdy) * (cdx * ady - adx * cdy)
+                + (cdx * cdx + cdy * cdy) * (adx * bdy - bdx * ady);
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Basic test of {@link GeoHash}.
+ * 
+ * @author jejking
+ */
+public class GeoHashTest {
+
+    @Test
+    public void shouldEncodePoints() {
+        assertEquals("u4pruydqqvj", GeoHash.encode(57.64911d, 10.40744d, 11));
+        assertEquals("u4pru", GeoHash.encode(57.64911d, 10.40744d, 5));
+        assertEquals("ezs42", GeoHash.encode(42.605d, -5.603d, 5));
+        assertEquals("s0000", GeoHash.encode(0d, 0d, 5));
+        assertEquals("zzzzz", GeoHash.encode(90d, 180d, 5));
+    }
+
+    @Test
+    public void shouldCoverPointsWithinRadius() {
+        double lat = 53.554423d;
+        double lon = 9.994583d;
+        Random random = new Random(42);
+        for (int precision : GeoHash.INDEXED_PRECISIONS) {
+            for (double radiusKm : new double[] { 0d, 1d, 20d, 150d }) {
+                List<String> cells = GeoHash.cover(lat, lon, radiusKm, precision, Integer.MAX_VALUE);
+                assertTrue(cells.contains(GeoHash.encode(lat, lon, precision)));
+                for (int i = 0; i < 1000; i++) {
+                    double pointLat = lat + (random.nextDouble() - 0.5d) * 4d * radiusKm / 111d;
+                    double pointLon = lon + (random.nextDouble() - 0.5d) * 8d * radiusKm / 111d;
+                    if (Coordinates.distanceKm(lat, lon, pointLat, pointLon) <= radiusKm) {
+                        assertTrue(precision + " " + radiusKm + " " + pointLat + " " + pointLon,
+                                cells.contains(GeoHash.encode(pointLat, pointLon, precision)));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldCoverSmallRadiusWithFewCells() {
+        assertEquals(1, GeoHash.cover(53.554423d, 9.994583d, 0d, 5, 16).size());
+        assertTrue(GeoHash.cover(53.554423d, 9.994583d, 5d, 5, 16).size() <= 16);
+        assertNull(GeoHash.cover(53.554423d, 9.994583d, 100d, 5, 16));
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.Relationships;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link ImportMetrics} and {@link PhaseMetrics}.
+ * 
+ * @author jejking
+ */
+public class ImportMetricsTest {
+
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+    @Test
+    public void shouldPublishRunningPhasesThroughJmx() throws JMException {
+        ObjectName objectName = new ObjectName(ImportMetrics.OBJECT_NAME_PREFIX + ObjectName.quote("placeNodes"));
+        try (ImportMetrics metrics = new ImportMetrics()) {
+            PhaseMetrics phase = metrics.startPhase("placeNodes");
+            phase.addItems(42);
+            phase.addRelationships(Relationships.NEAR, 5);
+            metrics.getSkippedLineCounter().addAndGet(3);
+
+            assertEquals(42L, mBeanServer.getAttribute(objectName, "Items"));
+            assertEquals(3L, mBeanServer.getAttribute(objectName, "SkippedLines"));
+            assertEquals("{PART_OF=0, POSTAL_CODE_FOR=0, NEAR=5, NEIGHBOUR_OF=0}",
+                    mBeanServer.getAttribute(objectName, "Relationships").toString());
+            assertEquals(true, mBeanServer.getAttribute(objectName, "Running"));
+
+            phase.finish();
+            metrics.getSkippedLineCounter().addAndGet(1);
+            assertEquals(3L, mBeanServer.getAttribute(objectName, "SkippedLines"));
+            assertEquals(false, mBeanServer.getAttribute(objectName, "Running"));
+        }
+        assertFalse(mBeanServer.isRegistered(objectName));
+    }
+
+    @Test
+    public void shouldSummariseAsJson() {
+        try (ImportMetrics metrics = new ImportMetrics()) {
+            metrics.putSetting("placeFile", "a \"quoted\" \\ path");
+            PhaseMetrics phase = metrics.startPhase("relationships");
+            phase.addItems(10);
+            phase.addRelationships(Relationships.PART_OF, 9);
+            phase.addRelationships(Relationships.POSTAL_CODE_FOR, 20);
+            phase.addRelationships(Relationships.NEAR, 4);
+            phase.addRelationships(Relationships.NEIGHBOUR_OF, 6);
+            phase.finish();
+
+            String json = metrics.toJson();
+
+            assertTrue(json, json.contains("\"placeFile\": \"a \\\"quoted\\\" \\\\ path\""));
+            assertTrue(json, json.contains("\"name\": \"relationships\", \"completed\": true"));
+            assertTrue(json, json.contains("\"items\": 10"));
+            assertTrue(json, json.contains("\"relationships\": {\"PART_OF\": 9, \"POSTAL_CODE_FOR\": 20, \"NEAR\": 4, "
+                    + "\"NEIGHBOUR_OF\": 6}"));
+        }
+    }
+
+}
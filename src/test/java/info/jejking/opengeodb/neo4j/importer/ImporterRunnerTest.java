@@ -0,0 +1,66 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.apache.commons.cli.ParseException;
+import org.junit.Test;
+
+/**
+ * Test of the option checks of {@link ImporterRunner}.
+ * 
+ * @author jejking
+ */
+public class ImporterRunnerTest {
+
+    @Test
+    public void shouldRejectASnapshotForThePipelinedImport() throws IOException {
+        thenTheOptionIsRejected("-s", "-l", "-s", "snapshot.bin");
+    }
+
+    @Test
+    public void shouldRejectRelationshipThreadsForThePipelinedImport() throws IOException {
+        thenTheOptionIsRejected("-r", "-l", "-r", "4");
+    }
+
+    @Test
+    public void shouldRejectTransactionalOptionsForTheBatchEngine() throws IOException {
+        thenTheOptionIsRejected("-b", "-e", "batch", "-b", "100");
+        thenTheOptionIsRejected("-r", "-e", "batch", "-r", "4");
+        thenTheOptionIsRejected("-l", "-e", "batch", "-l");
+        thenTheOptionIsRejected("-d", "-e", "batch", "-d");
+        thenTheOptionIsRejected("-w", "-e", "batch", "-w", "60");
+        thenTheOptionIsRejected("-m", "-e", "batch", "-m", "metrics.json");
+        thenTheOptionIsRejected("-i", "-e", "batch", "-i", "5");
+    }
+
+    private static void thenTheOptionIsRejected(String option, String... args) throws IOException {
+        String[] commandLine = new String[args.length + 6];
+        System.arraycopy(new String[] { "-p", "DE.tab", "-z", "PLZ.tab", "-n", "db" }, 0, commandLine, 0, 6);
+        System.arraycopy(args, 0, commandLine, 6, args.length);
+        try {
+            ImporterRunner.main(commandLine);
+            fail("accepted " + option);
+        } catch (ParseException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Option " + option + " "));
+        }
+    }
+
+}
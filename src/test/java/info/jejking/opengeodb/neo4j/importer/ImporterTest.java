@@ -0,0 +1,360 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static info.jejking.opengeodb.neo4j.importer.AbstractGraphDbTest.count;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.Relationships;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+/**
+ * End to end test of {@link Importer} and {@link BatchImporter} against an on-disk store.
+ * 
+ * @author jejking
+ */
+public class ImporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String placeFile;
+    private String plzFile;
+    private String dbDir;
+    private GraphDatabaseService graphDb;
+
+    @Before
+    public void givenLinkedData() throws IOException {
+        File places = folder.newFile("DE.tab");
+        Files.write(places.toPath(), (
+                "#loc_id\tags\tascii\tname\tlat\tlon\tamt\tplz\tvorwahl\teinwohner\tflaeche\tkz\ttyp\tlevel\tof\tinvalid\n"
+                // the child comes before its parent
+                + "26808\t02000000\tUHLENHORST\tUhlenhorst\t53.5714\t10.0189\t\t22081, 22085,22087\t\t\t\tHH"
+                + "\tStadtteil\t8\t152980\t\n"
+                + "17838\t02000000\tHAMBURG\tHamburg\t53.554423\t9.994583\t\t22081,22085,22087\t040\t1734830\t755\tHH"
+                + "\tFreie und Hansestadt\t6\t526\t\n"
+                + "152980\t02000000\tHAMBURG-NORD\tHamburg-Nord\t53.6153\t9.99269\t\t22081,22085\t040\t280229\t57.8"
+                + "\tHH\tBezirk\t7\t17838\t0\n"
+                + "this line is broken\n").getBytes(StandardCharsets.UTF_8));
+        File plz = folder.newFile("PLZ.tab");
+        Files.write(plz.toPath(), ("6144\t22081\t10.0432270264886\t53.5786038795972\tHamburg\n"
+                + "6146\t22085\t10.0151758890645\t53.5746546949603\tHamburg\n"
+                + "6147\t22087\t10.0247288490807\t53.5651225938106\tHamburg\n").getBytes(StandardCharsets.UTF_8));
+        placeFile = places.getPath();
+        plzFile = plz.getPath();
+        dbDir = new File(folder.getRoot(), "db").getPath();
+    }
+
+    @After
+    public void shutDown() {
+        if (graphDb != null) {
+            graphDb.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldImportThroughTransactions() throws IOException {
+        new Importer().doImport(placeFile, plzFile, dbDir);
+
+        thenTheGraphIsComplete();
+    }
+
+    @Test
+    public void shouldShutDownTheDatabaseWhenAFileCannotBeRead() throws IOException {
+        try {
+            new Importer().doImport(new File(folder.getRoot(), "missing.tab").getPath(), plzFile, dbDir);
+            fail("expected the missing file to be reported");
+        } catch (IOException e) {
+            // expected
+        }
+
+        graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(dbDir);
+        try (Transaction tx = graphDb.beginTx()) {
+            assertEquals(0, count(GlobalGraphOperations.at(graphDb).getAllNodes()));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void shouldImportWithParallelParsing() throws IOException {
+        Importer importer = new Importer();
+        importer.setParseThreads(2);
+        importer.doImport(placeFile, plzFile, dbDir);
+
+        thenTheGraphIsComplete();
+    }
+
+    @Test
+    public void shouldImportInSmallBatches() throws IOException {
+        Importer importer = new Importer();
+        importer.setBatchSize(2);
+        importer.doImport(placeFile, plzFile, dbDir);
+
+        thenTheGraphIsComplete();
+    }
+
+    @Test
+    public void shouldImportPipelined() throws IOException {
+        Importer importer = new Importer();
+        importer.setPipelined(true);
+        importer.setBatchSize(3);
+        importer.doImport(placeFile, plzFile, dbDir);
+
+        thenTheGraphIsComplete();
+    }
+
+    @Test
+    public void shouldImportWithParallelRelationships() throws IOException {
+        Importer importer = new Importer();
+        importer.setRelationshipThreads(2);
+        importer.setBatchSize(1);
+        importer.doImport(placeFile, plzFile, dbDir);
+
+        thenTheGraphIsComplete();
+    }
+
+    @Test
+    public void shouldImportWithDeferredIndexes() throws IOException {
+        Importer importer = new Importer();
+        importer.setDeferIndexes(true);
+        importer.setIndexTimeoutSeconds(30);
+        importer.doImport(placeFile, plzFile, dbDir);
+
+        thenTheGraphIsComplete();
+    }
+
+    @Test
+    public void shouldReportMetricsOfEachPhase() throws IOException {
+        Importer importer = new Importer();
+        File metricsFile = new File(folder.getRoot(), "metrics.json");
+        importer.setMetricsFile(metricsFile.getPath());
+        importer.doImport(placeFile, plzFile, dbDir);
+
+        Map<String, PhaseMetrics> phases = new HashMap<>();
+        for (PhaseMetrics phase : importer.getMetrics().getPhases()) {
+            assertFalse(phase.isRunning());
+            phases.put(phase.getName(), phase);
+        }
+        assertEquals(3, phases.get("placeNodes").getItems());
+        assertEquals(1, phases.get("placeNodes").getSkippedLines());
+        assertEquals(3, phases.get("plzNodes").getItems());
+        assertEquals(2, phases.get("relationships").getRelationships(Relationships.PART_OF));
+        assertEquals(8, phases.get("relationships").getRelationships(Relationships.POSTAL_CODE_FOR));
+        assertTrue(phases.containsKey("indexes"));
+        assertTrue(phases.containsKey("import"));
+
+        String json = new String(Files.readAllBytes(metricsFile.toPath()), StandardCharsets.UTF_8);
+        assertTrue(json, json.contains("\"name\": \"relationships\""));
+        assertTrue(json, json.contains("\"relationships\": {\"PART_OF\": 2, \"POSTAL_CODE_FOR\": 8, \"NEAR\": 0, "
+                + "\"NEIGHBOUR_OF\": 0}"));
+    }
+
+    @Test
+    public void shouldCountEachBadLineOnceAlthoughThePlaceFileIsReadAgain() throws IOException {
+        Importer importer = new Importer();
+        importer.setNearRadiusKm(1.5);
+        importer.setNeighbourDistanceKm(10);
+        importer.setGeocoderFile(new File(folder.getRoot(), "geocoder.bin").getPath());
+        importer.doImport(placeFile, plzFile, dbDir);
+
+        long skippedLines = 0;
+        for (PhaseMetrics phase : importer.getMetrics().getPhases()) {
+            if (phase.getName().equals("import")) {
+                assertEquals(1, phase.getSkippedLines());
+            } else {
+                skippedLines += phase.getSkippedLines();
+            }
+        }
+        assertEquals(1, skippedLines);
+    }
+
+    @Test
+    public void shouldImportFromSnapshot() throws IOException {
+        String snapshotFile = new File(folder.getRoot(), "snapshot.bin").getPath();
+        Importer importer = new Importer();
+        importer.setSnapshotFile(snapshotFile);
+        importer.doImport(placeFile, plzFile, new File(folder.getRoot(), "first").getPath());
+        assertTrue(new File(snapshotFile).isFile());
+
+        importer.doImport(placeFile, plzFile, dbDir);
+
+        thenTheGraphIsComplete();
+        for (PhaseMetrics phase : importer.getMetrics().getPhases()) {
+            if (phase.getName().equals("parse")) {
+                assertEquals(1, phase.getSkippedLines());
+            }
+        }
+    }
+
+    @Test
+    public void shouldWriteReverseGeocoder() throws IOException {
+        String geocoderFile = new File(folder.getRoot(), "geocoder.bin").getPath();
+        Importer importer = new Importer();
+        importer.setGeocoderFile(geocoderFile);
+        importer.doImport(placeFile, plzFile, dbDir);
+
+        ReverseGeocoder geocoder = ReverseGeocoder.read(Paths.get(geocoderFile));
+        assertEquals(6, geocoder.size());
+        int nearest = geocoder.nearest(53.5786d, 10.0432d, ReverseGeocoder.Kind.POSTAL_CODE);
+        assertEquals("22081", geocoder.getPostalCode(nearest));
+        assertEquals("Hamburg", geocoder.getName(nearest));
+    }
+
+    @Test
+    public void shouldLinkNearPostalCodes() throws IOException {
+        Importer importer = new Importer();
+        importer.setNearRadiusKm(1.5);
+        importer.doImport(placeFile, plzFile, dbDir);
+
+        thenTheGraphIsComplete();
+        thenNearPostalCodesAreLinked();
+        for (PhaseMetrics phase : importer.getMetrics().getPhases()) {
+            if (phase.getName().equals("nearRelationships")) {
+                assertEquals(3, phase.getItems());
+                assertEquals(1, phase.getRelationships(Relationships.NEAR));
+            }
+        }
+    }
+
+    @Test
+    public void shouldLinkNearPostalCodesAndNeighboursAfterThePipeline() throws IOException {
+        Importer importer = new Importer();
+        importer.setPipelined(true);
+        importer.setNearRadiusKm(1.5);
+        importer.setNeighbourDistanceKm(10);
+        importer.doImport(placeFile, plzFile, dbDir);
+
+        thenTheGraphIsComplete();
+        thenNearPostalCodesAreLinked();
+        Map<String, PhaseMetrics> phases = new HashMap<>();
+        for (PhaseMetrics phase : importer.getMetrics().getPhases()) {
+            phases.put(phase.getName(), phase);
+        }
+        assertEquals(1, phases.get("nearRelationships").getRelationships(Relationships.NEAR));
+        assertEquals(3, phases.get("neighbourRelationships").getItems());
+    }
+
+    @Test
+    public void shouldLinkNearPostalCodesWithBatchInserter() throws IOException {
+        BatchImporter importer = new BatchImporter();
+        importer.setNearRadiusKm(1.5);
+        importer.doImport(placeFile, plzFile, dbDir);
+
+        thenTheGraphIsComplete();
+        thenNearPostalCodesAreLinked();
+    }
+
+    @Test
+    public void shouldLookForNeighboursOnEachLevel() throws IOException {
+        Importer importer = new Importer();
+        importer.setNeighbourDistanceKm(10);
+        importer.doImport(placeFile, plzFile, dbDir);
+
+        thenTheGraphIsComplete();
+        boolean found = false;
+        for (PhaseMetrics phase : importer.getMetrics().getPhases()) {
+            if (phase.getName().equals("neighbourRelationships")) {
+                found = true;
+                // each place is alone on its level
+                assertEquals(3, phase.getItems());
+                assertEquals(0, phase.getRelationships(Relationships.NEIGHBOUR_OF));
+            }
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void shouldImportWithBatchInserter() throws IOException {
+        new BatchImporter().doImport(placeFile, plzFile, dbDir);
+
+        thenTheGraphIsComplete();
+    }
+
+    private void thenTheGraphIsComplete() {
+        graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(dbDir);
+        try (Transaction tx = graphDb.beginTx()) {
+            assertEquals(6, count(GlobalGraphOperations.at(graphDb).getAllNodes()));
+            assertEquals(2, countRelationships(Relationships.PART_OF));
+            assertEquals(8, countRelationships(Relationships.POSTAL_CODE_FOR));
+
+            Node uhlenhorst = findPlace(26808);
+            Node hamburgNord = uhlenhorst.getSingleRelationship(Relationships.PART_OF, Direction.OUTGOING)
+                    .getEndNode();
+            assertEquals("Hamburg-Nord", hamburgNord.getProperty(OpenGeoDbProperties.PlaceNodeProperties.NAME.name()));
+            assertEquals(3, count(uhlenhorst.getRelationships(Relationships.POSTAL_CODE_FOR, Direction.INCOMING)));
+            assertTrue(uhlenhorst.hasLabel(DynamicLabel.label("Stadtteil")));
+
+            assertEquals(3 + GeoHash.INDEXED_PRECISIONS.length, count(graphDb.schema().getIndexes()));
+            tx.success();
+        }
+    }
+
+    private void thenNearPostalCodesAreLinked() {
+        try (Transaction tx = graphDb.beginTx()) {
+            // 22085 and 22087 are 1.2 km apart, 22081 more than 1.9 km from both
+            assertEquals(1, countRelationships(Relationships.NEAR));
+            Node plz22085 = graphDb.findNodesByLabelAndProperty(
+                    DynamicLabel.label(OpenGeoDbProperties.POSTAL_CODE_LABEL),
+                    OpenGeoDbProperties.PlzProperties.POSTAL_CODE.name(), "22085").iterator().next();
+            Relationship near = plz22085.getSingleRelationship(Relationships.NEAR, Direction.OUTGOING);
+            assertEquals("22087", near.getEndNode().getProperty(OpenGeoDbProperties.PlzProperties.POSTAL_CODE.name()));
+            assertEquals(1.233d, (Double) near.getProperty(OpenGeoDbProperties.DISTANCE_KM), 0.001d);
+            tx.success();
+        }
+    }
+
+    private int countRelationships(Relationships type) {
+        int count = 0;
+        for (Relationship relationship : GlobalGraphOperations.at(graphDb).getAllRelationships()) {
+            if (relationship.isType(type)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Node findPlace(int locId) {
+        try (ResourceIterator<Node> nodes = graphDb.findNodesByLabelAndProperty(
+                DynamicLabel.label(OpenGeoDbProperties.PLACE_LABEL), OpenGeoDbProperties.LOC_ID, locId).iterator()) {
+            return nodes.next();
+        }
+    }
+
+}
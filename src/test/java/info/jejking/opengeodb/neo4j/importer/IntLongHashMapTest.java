@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Basic test of {@link IntLongHashMap}.
+ * 
+ * @author jejking
+ */
+public class IntLongHashMapTest {
+
+    @Test
+    public void shouldBehaveLikeAHashMap() {
+        IntLongHashMap map = new IntLongHashMap(4);
+        Map<Integer, Long> reference = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100000; i++) {
+            int key = random.nextInt(50000) - 1000;
+            long value = random.nextInt(Integer.MAX_VALUE);
+            map.put(key, value);
+            reference.put(key, value);
+        }
+
+        assertEquals(reference.size(), map.size());
+        for (Map.Entry<Integer, Long> entry : reference.entrySet()) {
+            assertEquals(entry.getValue().longValue(), map.get(entry.getKey()));
+        }
+        assertEquals(IntLongHashMap.NOT_FOUND, map.get(60000));
+    }
+
+    @Test
+    public void shouldHandleZeroKey() {
+        IntLongHashMap map = new IntLongHashMap();
+        assertFalse(map.containsKey(0));
+        map.put(0, 0L);
+        assertTrue(map.containsKey(0));
+        assertEquals(0L, map.get(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNegativeValues() {
+        new IntLongHashMap().put(1, -5L);
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import info.jejking.opengeodb.neo4j.importer.NearRelationshipBuilder.Pairs;
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.Relationships;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Test of {@link NearRelationshipBuilder}, checking the pairs found through the grid against comparing all pairs.
+ * 
+ * @author jejking
+ */
+public class NearRelationshipBuilderTest extends AbstractGraphDbTest {
+
+    private final Random random = new Random(24);
+    private final int[] lats = new int[2000];
+    private final int[] lons = new int[2000];
+
+    @Test
+    public void shouldFindTheSamePairsAsComparingAll() throws InterruptedException {
+        // most in Germany, some far to the north where the cells are widest in longitude
+        for (int i = 0; i < lats.length; i++) {
+            boolean north = i % 10 == 0;
+            lats[i] = randomMicroDegrees(north ? 69 : 47, north ? 71 : 55);
+            lons[i] = randomMicroDegrees(north ? 15 : 6, north ? 25 : 15);
+        }
+
+        for (double radiusKm : new double[] { 0.5, 7, 40, 3000 }) {
+            NearRelationshipBuilder builder = new NearRelationshipBuilder(radiusKm, 3);
+            for (int i = 0; i < lats.length; i++) {
+                builder.add(i, lats[i], lons[i], i);
+            }
+
+            Pairs pairs = builder.findPairs();
+
+            thenThePairsAreThoseWithin(radiusKm, pairs);
+        }
+    }
+
+    @Test
+    public void shouldLinkNearPostalCodesWithTheirDistance() throws InterruptedException {
+        long[] nodeIds = new long[4];
+        try (Transaction tx = graphDb.beginTx()) {
+            for (int i = 0; i < nodeIds.length; i++) {
+                nodeIds[i] = graphDb.createNode().getId();
+            }
+            tx.success();
+        }
+        NearRelationshipBuilder builder = new NearRelationshipBuilder(5, 2);
+        builder.add(22087, 53565123, 10024729, nodeIds[0]);
+        builder.add(22081, 53578604, 10043227, nodeIds[1]);
+        builder.add(22085, 53574655, 10015176, nodeIds[2]);
+        // Munich, far from the others
+        builder.add(80331, 48137108, 11575382, nodeIds[3]);
+
+        long created = builder.build(graphDb, 2);
+
+        assertEquals(3, created);
+        try (Transaction tx = graphDb.beginTx()) {
+            Node plz22081 = graphDb.getNodeById(nodeIds[1]);
+            assertEquals(2, count(plz22081.getRelationships(Relationships.NEAR, Direction.OUTGOING)));
+            Node plz22087 = graphDb.getNodeById(nodeIds[0]);
+            assertEquals(0, count(plz22087.getRelationships(Relationships.NEAR, Direction.OUTGOING)));
+            assertEquals(2, count(plz22087.getRelationships(Relationships.NEAR)));
+            for (Relationship relationship : plz22087.getRelationships(Relationships.NEAR)) {
+                double distance = (Double) relationship.getProperty(OpenGeoDbProperties.DISTANCE_KM);
+                assertTrue(distance > 0 && distance <= 5);
+            }
+            assertEquals(0, count(graphDb.getNodeById(nodeIds[3]).getRelationships()));
+            tx.success();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectARadiusOfZero() {
+        new NearRelationshipBuilder(0, 1);
+    }
+
+    private void thenThePairsAreThoseWithin(double radiusKm, Pairs pairs) {
+        Set<Long> found = new HashSet<>();
+        for (int pair = 0; pair < pairs.size(); pair++) {
+            int a = Math.min(pairs.getFrom(pair), pairs.getTo(pair));
+            int b = Math.max(pairs.getFrom(pair), pairs.getTo(pair));
+            assertTrue("pair found twice", found.add((long) a << 32 | b));
+            assertTrue(pairs.getDistanceKm(pair) <= radiusKm);
+        }
+        int expected = 0;
+        for (int a = 0; a < lats.length; a++) {
+            for (int b = a + 1; b < lats.length; b++) {
+                if (distanceKm(a, b) <= radiusKm) {
+                    expected++;
+                    assertTrue("missing pair at " + distanceKm(a, b) + " km", found.contains((long) a << 32 | b));
+                }
+            }
+        }
+        assertEquals(expected, found.size());
+    }
+
+    private double distanceKm(int a, int b) {
+        return Coordinates.distanceKm(Coordinates.toDegrees(lats[a]), Coordinates.toDegrees(lons[a]),
+                Coordinates.toDegrees(lats[b]), Coordinates.toDegrees(lons[b]));
+    }
+
+    private int randomMicroDegrees(int from, int to) {
+        return from * Coordinates.MICRO_DEGREES_PER_DEGREE
+                + random.nextInt((to - from) * Coordinates.MICRO_DEGREES_PER_DEGREE);
+    }
+
+}
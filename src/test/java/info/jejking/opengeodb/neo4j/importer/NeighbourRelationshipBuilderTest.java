@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.Relationships;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Test of {@link NeighbourRelationshipBuilder} on a grid of places about 5.5 km apart.
+ * 
+ * @author jejking
+ */
+public class NeighbourRelationshipBuilderTest extends AbstractGraphDbTest {
+
+    private static final int SIDE = 5;
+    private static final int GEMEINDE = 6;
+
+    private final long[] nodeIds = new long[SIDE * SIDE + 2];
+
+    @Test
+    public void shouldLinkNeighboursOfTheSameLevelWithinTheDistance() {
+        NeighbourRelationshipBuilder builder = givenAGridOfGemeindenAnIslandAndADistrict();
+
+        long created = builder.build(graphDb, 7);
+
+        // the diagonals of the cells and the edges to the island are longer than 6 km
+        int gridEdges = 2 * SIDE * (SIDE - 1);
+        assertEquals(gridEdges, created);
+        try (Transaction tx = graphDb.beginTx()) {
+            Node corner = graphDb.getNodeById(nodeIds[0]);
+            assertEquals(2, count(corner.getRelationships(Relationships.NEIGHBOUR_OF, Direction.OUTGOING)));
+            Node centre = graphDb.getNodeById(nodeIds[SIDE * SIDE / 2]);
+            assertEquals(4, count(centre.getRelationships(Relationships.NEIGHBOUR_OF)));
+            for (Relationship relationship : centre.getRelationships(Relationships.NEIGHBOUR_OF)) {
+                double distance = (Double) relationship.getProperty(OpenGeoDbProperties.DISTANCE_KM);
+                assertTrue(distance > 5 && distance < 6);
+            }
+            assertEquals(0, count(graphDb.getNodeById(nodeIds[SIDE * SIDE]).getRelationships()));
+            assertEquals(0, count(graphDb.getNodeById(nodeIds[SIDE * SIDE + 1]).getRelationships()));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void shouldKeepTheLongerEdgesUpToALargerDistance() {
+        NeighbourRelationshipBuilder builder = new NeighbourRelationshipBuilder(100);
+        for (int row = 0; row < SIDE; row++) {
+            for (int column = 0; column < SIDE; column++) {
+                builder.add(row * SIDE + column, GEMEINDE, 53500000 + row * 50000, 10000000 + column * 83000,
+                        row * SIDE + column);
+            }
+        }
+
+        // a grid of n points has 3n - 3 - h edges, h being the points on its hull
+        assertEquals(3 * SIDE * SIDE - 3 - 4 * (SIDE - 1), builder.findNeighbours().length);
+    }
+
+    @Test
+    public void shouldLinkPlacesAtTheSameCoordinatesToEachOtherAndTheirNeighbours() {
+        NeighbourRelationshipBuilder builder = new NeighbourRelationshipBuilder(6);
+        for (int row = 0; row < 3; row++) {
+            for (int column = 0; column < 3; column++) {
+                builder.add(row * 3 + column, GEMEINDE, 53500000 + row * 50000, 10000000 + column * 83000, 0);
+            }
+        }
+        // two more places in the centre of the grid
+        builder.add(9, GEMEINDE, 53550000, 10083000, 0);
+        builder.add(10, GEMEINDE, 53550000, 10083000, 0);
+
+        long[] neighbours = builder.findNeighbours();
+
+        // the 12 sides of the cells, each of the two repeating the 4 edges of the centre, and the three in the centre
+        assertEquals(12 + 2 * 4 + 3, neighbours.length);
+        for (int place : new int[] { 4, 9, 10 }) {
+            int links = 0;
+            for (long pair : neighbours) {
+                if ((int) (pair >>> 32) == place || (int) pair == place) {
+                    links++;
+                }
+            }
+            assertEquals("place " + place, 4 + 2, links);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectADistanceOfZero() {
+        new NeighbourRelationshipBuilder(0);
+    }
+
+    private NeighbourRelationshipBuilder givenAGridOfGemeindenAnIslandAndADistrict() {
+        try (Transaction tx = graphDb.beginTx()) {
+            for (int i = 0; i < nodeIds.length; i++) {
+                nodeIds[i] = graphDb.createNode().getId();
+            }
+            tx.success();
+        }
+        NeighbourRelationshipBuilder builder = new NeighbourRelationshipBuilder(6);
+        // 0.05 degrees of latitude are 5.6 km, 0.083 degrees of longitude 5.5 km at 53.6 degrees north
+        for (int row = 0; row < SIDE; row++) {
+            for (int column = 0; column < SIDE; column++) {
+                int i = row * SIDE + column;
+                builder.add(1000 + i, GEMEINDE, 53500000 + row * 50000, 10000000 + column * 83000, nodeIds[i]);
+            }
+        }
+        builder.add(2000, GEMEINDE, 54200000, 10100000, nodeIds[SIDE * SIDE]);
+        // a place of another level in the middle of the grid
+        builder.add(3000, GEMEINDE + 1, 53600000, 10166000, nodeIds[SIDE * SIDE + 1]);
+        return builder;
+    }
+
+}
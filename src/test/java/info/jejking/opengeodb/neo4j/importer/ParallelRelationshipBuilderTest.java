@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertEquals;
+import info.jejking.opengeodb.neo4j.importer.PlaceParser.PlaceBean;
+import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.Relationships;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+/**
+ * Test of {@link ParallelRelationshipBuilder} on a small hierarchy whose towns share postal codes across districts.
+ * 
+ * @author jejking
+ */
+public class ParallelRelationshipBuilderTest extends AbstractGraphDbTest {
+
+    private static final int DISTRICTS = 4;
+    private static final int TOWNS_PER_DISTRICT = 25;
+    private static final int POSTAL_CODES = 30;
+    private static final int COUNTRY_ID = 1;
+
+    private final PlaceLinks links = new PlaceLinks();
+    private final IntLongHashMap placeNodeIds = new IntLongHashMap();
+    private final PostalCodeNodeIndex plzNodeIds = new PostalCodeNodeIndex();
+
+    @Test
+    public void shouldLinkAllPlacesAcrossPartitions() throws InterruptedException {
+        givenAHierarchyWithSharedPostalCodes();
+
+        long created = whenTheRelationshipsAreBuilt(4, 7);
+
+        int places = 1 + DISTRICTS + DISTRICTS * TOWNS_PER_DISTRICT;
+        int postalCodeLinks = DISTRICTS * TOWNS_PER_DISTRICT * 2 + POSTAL_CODES;
+        assertEquals(places - 1 + postalCodeLinks, created);
+        thenTheGraphHas(places - 1, Relationships.PART_OF);
+        thenTheGraphHas(postalCodeLinks, Relationships.POSTAL_CODE_FOR);
+        thenEveryTownIsPartOfItsDistrict();
+    }
+
+    @Test
+    public void shouldLinkAllPlacesOnASingleThread() throws InterruptedException {
+        givenAHierarchyWithSharedPostalCodes();
+
+        long created = whenTheRelationshipsAreBuilt(1, 1000);
+
+        assertEquals(DISTRICTS * TOWNS_PER_DISTRICT + DISTRICTS + DISTRICTS * TOWNS_PER_DISTRICT * 2 + POSTAL_CODES,
+                created);
+    }
+
+    @Test
+    public void shouldLinkPostalCodesOfOneDistrictAndSharedOnesWithoutDeadlocks() throws InterruptedException {
+        try (Transaction tx = graphDb.beginTx()) {
+            for (int code = 1; code <= DISTRICTS + 1; code++) {
+                plzNodeIds.put(code, graphDb.createNode().getId());
+            }
+            givenPlace(COUNTRY_ID, 0, 2, null);
+            for (int district = 0; district < DISTRICTS; district++) {
+                int districtId = 100 + district;
+                givenPlace(districtId, COUNTRY_ID, 5, null);
+                for (int town = 0; town < TOWNS_PER_DISTRICT; town++) {
+                    // each district has a code of its own, and all share the last one
+                    givenPlace(1000 * (district + 1) + town, districtId, 6,
+                            String.format("%05d,%05d", district + 1, DISTRICTS + 1));
+                }
+            }
+            tx.success();
+        }
+        ParallelRelationshipBuilder builder = new ParallelRelationshipBuilder(graphDb, 4, 7);
+
+        long created = builder.build(links, placeNodeIds, plzNodeIds);
+
+        int towns = DISTRICTS * TOWNS_PER_DISTRICT;
+        assertEquals(DISTRICTS + towns + 2 * towns, created);
+        thenTheGraphHas(2 * towns, Relationships.POSTAL_CODE_FOR);
+        assertEquals(0, builder.getDeadlockRetries());
+    }
+
+    private void givenAHierarchyWithSharedPostalCodes() {
+        try (Transaction tx = graphDb.beginTx()) {
+            for (int code = 1; code <= POSTAL_CODES; code++) {
+                plzNodeIds.put(code, graphDb.createNode().getId());
+            }
+
+            // the country holds every postal code, so it is dense
+            StringBuilder allCodes = new StringBuilder();
+            for (int code = 1; code <= POSTAL_CODES; code++) {
+                allCodes.append(allCodes.length() == 0 ? "" : ",").append(String.format("%05d", code));
+            }
+            givenPlace(COUNTRY_ID, 0, 2, allCodes.toString());
+
+            for (int district = 0; district < DISTRICTS; district++) {
+                int districtId = 100 + district;
+                for (int town = 0; town < TOWNS_PER_DISTRICT; town++) {
+                    // neighbouring towns in different districts share postal codes
+                    int first = 1 + town % POSTAL_CODES;
+                    int second = 1 + (town + district + 1) % POSTAL_CODES;
+                    givenPlace(1000 * (district + 1) + town, districtId, 6, String.format("%05d,%05d", first, second));
+                }
+                givenPlace(districtId, COUNTRY_ID, 5, null);
+            }
+            tx.success();
+        }
+    }
+
+    private void givenPlace(int id, int of, int level, String plzs) {
+        PlaceBean place = new PlaceBean();
+        place.setId(id);
+        place.setOf(of);
+        place.setLevel(level);
+        place.setPlzs(plzs);
+        links.add(place);
+        placeNodeIds.put(id, graphDb.createNode().getId());
+    }
+
+    private long whenTheRelationshipsAreBuilt(int threads, int batchSize) throws InterruptedException {
+        ParallelRelationshipBuilder builder = new ParallelRelationshipBuilder(graphDb, threads, batchSize);
+        builder.setDenseThreshold(10);
+        return builder.build(links, placeNodeIds, plzNodeIds);
+    }
+
+    private void thenTheGraphHas(int expected, RelationshipType type) {
+        try (Transaction tx = graphDb.beginTx()) {
+            int count = 0;
+            for (Relationship relationship : GlobalGraphOperations.at(graphDb).getAllRelationships()) {
+                if (relationship.isType(type)) {
+                    count++;
+                }
+            }
+            assertEquals(expected, count);
+            tx.success();
+        }
+    }
+
+    private void thenEveryTownIsPartOfItsDistrict() {
+        try (Transaction tx = graphDb.beginTx()) {
+            for (int district = 0; district < DISTRICTS; district++) {
+                long districtNodeId = placeNodeIds.get(100 + district);
+                for (int town = 0; town < TOWNS_PER_DISTRICT; town++) {
+                    Node townNode = graphDb.getNodeById(placeNodeIds.get(1000 * (district + 1) + town));
+                    assertEquals(districtNodeId,
+                            townNode.getSingleRelationship(Relationships.PART_OF, Direction.OUTGOING).getEndNode()
+                                    .getId());
+                }
+            }
+            tx.success();
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertEquals;
+import info.jejking.opengeodb.neo4j.importer.PlaceParser.PlaceBean;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Basic test of {@link ParallelTabFileReader}.
+ * 
+ * @author jejking
+ */
+public class ParallelTabFileReaderTest {
+
+    private static final int LINES = 1000;
+
+    private final Logger readerLogger = Logger.getLogger(ParallelTabFileReader.class.getName());
+    private final List<String> warnings = new ArrayList<>();
+    private final Handler warningCollector = new Handler() {
+
+        @Override
+        public void publish(LogRecord record) {
+            warnings.add(record.getMessage());
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private ForkJoinPool pool;
+    private Path file;
+    private String data;
+
+    @Before
+    public void setUp() throws IOException {
+        pool = new ForkJoinPool(4);
+        readerLogger.addHandler(warningCollector);
+        file = Files.createTempFile("places", ".tab");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        readerLogger.removeHandler(warningCollector);
+        Files.delete(file);
+    }
+
+    @Test
+    public void shouldParseChunksInFileOrder() throws IOException {
+        givenAPlaceFileWithBadLines();
+
+        List<PlaceBean> places = new ParallelTabFileReader<>(new PlaceParser.PlaceRowMapper(), 512)
+                .readDataFromFile(file, true, pool);
+
+        List<PlaceBean> expected = new PlaceParser().readDataFromStream(new ByteArrayInputStream(data
+                .getBytes(StandardCharsets.UTF_8)));
+        assertEquals(LINES - LINES / 100, places.size());
+        assertEquals(expected, places);
+    }
+
+    @Test
+    public void shouldReportLineNumbersInWholeFile() throws IOException {
+        givenAPlaceFileWithBadLines();
+
+        new ParallelTabFileReader<>(new PlaceParser.PlaceRowMapper(), 512).readDataFromFile(file, true, pool);
+
+        assertEquals(LINES / 100, warnings.size());
+        for (int i = 0; i < warnings.size(); i++) {
+            // header is line 1, data line n is line n + 1
+            assertEquals("Ignoring data error in line: " + (i * 100 + 2), warnings.get(i));
+        }
+    }
+
+    @Test
+    public void shouldReadTheTestData() throws IOException {
+        Files.copy(ParallelTabFileReaderTest.class.getResourceAsStream("/DE.tab.txt"), file,
+                StandardCopyOption.REPLACE_EXISTING);
+
+        List<PlaceBean> places = new PlaceParser().readDataFromFile(file, pool);
+
+        assertEquals(new PlaceParser().readDataFromStream(Files.newInputStream(file)), places);
+    }
+
+    private void givenAPlaceFileWithBadLines() throws IOException {
+        StringBuilder builder = new StringBuilder("# header\n");
+        for (int i = 0; i < LINES; i++) {
+            if (i % 100 == 0) {
+                builder.append("broken line ").append(i).append('\n');
+            } else {
+                builder.append(i).append("\t02000000\tORT\tOrt ").append(i)
+                        .append("\t53.5\t10.0\t\t22081,22083\t040\t100\t1.5\tHH\tStadtteil\t8\t152980\t\n");
+            }
+        }
+        data = builder.toString();
+        Files.write(file, data.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import info.jejking.opengeodb.neo4j.importer.PlaceParser.PlaceBean;
+import info.jejking.opengeodb.neo4j.importer.PlzParser.PlzTabBean;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test of {@link ParsedDataSnapshot}.
+ * 
+ * @author jejking
+ */
+public class ParsedDataSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<PlaceBean> places = Arrays.asList(
+            new PlaceBean(17838, "02000000", "HAMBURG", "Hamburg", 53.554423, 9.994583, null, "22081,22085", "040",
+                    1734830, 755, "HH", "Freie und Hansestadt", 6, 526, null),
+            new PlaceBean(26808, "02000000", "UHLENHORST", "Uhlenhorst", 53.5714, 10.0189, null, "22081", null, 0,
+                    0, "HH", "Stadtteil", 8, 17838, null),
+            new PlaceBean(1, null, "MUENCHEN", "München", 48.1372, 11.5756, null, null, null, 0, 0, null, null, 0, 0,
+                    null));
+    private final List<PlzTabBean> postalCodes = Arrays.asList(
+            new PlzTabBean(6144, "22081", 10.0432270264886, 53.5786038795972, "Hamburg"),
+            new PlzTabBean(6146, "22085", 10.0151758890645, 53.5746546949603, null));
+
+    @Test
+    public void shouldRoundTripParsedData() throws IOException {
+        // given
+        Path file = folder.getRoot().toPath().resolve("snapshot.bin");
+        new ParsedDataSnapshot(store(places), postalCodes, 7).write(file, 42);
+
+        // when
+        ParsedDataSnapshot snapshot = ParsedDataSnapshot.read(file, 42);
+
+        // then
+        assertEquals(7, snapshot.getSkippedLines());
+        assertEquals(places.size(), snapshot.getPlaces().size());
+        for (int row = 0; row < places.size(); row++) {
+            assertEquals(places.get(row), snapshot.getPlaces().toBean(row));
+        }
+        assertEquals(postalCodes, snapshot.getPostalCodes());
+    }
+
+    @Test
+    public void shouldIgnoreSnapshotOfOtherFilesOrDamaged() throws IOException {
+        // given
+        Path file = folder.getRoot().toPath().resolve("snapshot.bin");
+        new ParsedDataSnapshot(store(places), postalCodes, 0).write(file, 42);
+
+        // then
+        assertNull(ParsedDataSnapshot.read(file, 43));
+        assertNull(ParsedDataSnapshot.read(folder.getRoot().toPath().resolve("missing.bin"), 42));
+
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file, bytes);
+        assertNull(ParsedDataSnapshot.read(file, 42));
+    }
+
+    @Test
+    public void shouldChecksumContentsOfSourceFiles() throws IOException {
+        // given
+        File places = folder.newFile("DE.tab");
+        File plz = folder.newFile("PLZ.tab");
+        Files.write(places.toPath(), "1\tA\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(plz.toPath(), "2\tB\n".getBytes(StandardCharsets.UTF_8));
+        long checksum = ParsedDataSnapshot.checksum(places.toPath(), plz.toPath());
+
+        // when
+        Files.write(plz.toPath(), "2\tC\n".getBytes(StandardCharsets.UTF_8));
+
+        // then
+        assertNotEquals(checksum, ParsedDataSnapshot.checksum(places.toPath(), plz.toPath()));
+        assertNotEquals(ParsedDataSnapshot.checksum(places.toPath(), plz.toPath()),
+                ParsedDataSnapshot.checksum(plz.toPath(), places.toPath()));
+    }
+
+    private static PlaceStore store(List<PlaceBean> places) {
+        PlaceStore store = new PlaceStore();
+        for (PlaceBean place : places) {
+            store.add(place);
+        }
+        return store;
+    }
+
+}
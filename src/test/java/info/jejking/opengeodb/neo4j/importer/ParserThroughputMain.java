@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * Driver class comparing the throughput of the {@link TabParserEngine} implementations for {@link PlaceParser} and
+ * {@link PlzParser}.
+ * 
+ * @author jejking
+ */
+public class ParserThroughputMain {
+
+    private static final Logger LOGGER = Logger.getLogger(ParserThroughputMain.class.getName());
+
+    private static final int WARM_UP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    /**
+     * Parses the tab-delimited place file given by the first argument and the postal code file given by the second
+     * argument repeatedly with each engine, logging rows per second.
+     * 
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        for (TabParserEngine engine : TabParserEngine.values()) {
+            measure(engine, args[0], true);
+            measure(engine, args[1], false);
+        }
+    }
+
+    private static void measure(TabParserEngine engine, String path, boolean places) throws IOException {
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            parse(engine, path, places);
+        }
+        long rows = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            rows += parse(engine, path, places);
+        }
+        long elapsed = System.nanoTime() - start;
+        LOGGER.info(String.format("%s %s: %d rows in %d ms, %.0f rows/s", engine, path, rows / MEASURED_ROUNDS,
+                elapsed / MEASURED_ROUNDS / 1000000, rows * 1e9d / elapsed));
+    }
+
+    private static int parse(TabParserEngine engine, String path, boolean places) throws IOException {
+        BufferedInputStream stream = new BufferedInputStream(new FileInputStream(path));
+        if (places) {
+            return new PlaceParser(engine).readDataFromStream(stream).size();
+        }
+        return new PlzParser(engine).readDataFromStream(stream).size();
+    }
+
+}
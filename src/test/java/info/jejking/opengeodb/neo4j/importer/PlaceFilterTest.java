@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import info.jejking.opengeodb.neo4j.importer.PlaceParser.PlaceBean;
+import info.jejking.opengeodb.neo4j.importer.PlzParser.PlzTabBean;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Basic test of {@link PlaceFilter}.
+ * 
+ * @author jejking
+ */
+public class PlaceFilterTest {
+
+    private static final String PLACES = "header\n"
+            + "1\tD\t\tDeutschland\t\t\t\t\t\t\t\tD\t\t2\t0\t\n"
+            + "2\t02000000\t\tHamburg\t\t\t\t\t040\t\t\tHH\tBundesland\t3\t1\t\n"
+            + "3\t04011000\t\tBremen\t\t\t\t28195\t0421\t\t\tHB\tBundesland\t3\t1\t\n"
+            + "4\t02000000\t\tBarmbek-Süd\t\t\t\t22081,22083\t040\t\t\tHH\tStadtteil\t8\t2\t\n"
+            + "5\t02000000\t\tAltona\t\t\t\t22765\t040\t\t\tHH\tStadtteil\t8\t2\t\n"
+            + "7\t\t\tOhne Ebene\t\t\t\t\t\t\t\t\t\t\t1\t\n"
+            + "6\tnot-a-number\n";
+
+    private static final String POSTAL_CODES = "1\t22081\t10.03\t53.57\tHamburg\n"
+            + "2\t22765\t9.93\t53.55\tHamburg\n"
+            + "3\t28195\t8.80\t53.07\tBremen\n";
+
+    private PlaceSelection selection;
+
+    @Test
+    public void shouldSelectMatchesWithTheirAncestorsAndPostalCodes() throws IOException {
+        whenSelecting("ags=02; typ=Stadtteil");
+
+        thenThePlacesAreSelected(1, 2, 4, 5);
+        assertTrue(selection.containsPostalCode(22081));
+        assertTrue(selection.containsPostalCode(22083));
+        assertTrue(selection.containsPostalCode(22765));
+        assertFalse(selection.containsPostalCode(28195));
+        assertFalse(selection.containsPostalCode(PostalCodeNodeIndex.NOT_A_POSTAL_CODE));
+        assertEquals(3, selection.getPostalCodeCount());
+    }
+
+    @Test
+    public void shouldSelectLevelRange() throws IOException {
+        whenSelecting("level=..3");
+
+        thenThePlacesAreSelected(1, 2, 3);
+    }
+
+    @Test
+    public void shouldSelectListOfLevelsAndRanges() throws IOException {
+        whenSelecting("level=2, 8..");
+
+        thenThePlacesAreSelected(1, 2, 4, 5);
+    }
+
+    @Test
+    public void shouldSelectSubtree() throws IOException {
+        whenSelecting("subtree=2;level=8..8");
+
+        thenThePlacesAreSelected(1, 2, 4, 5);
+
+        whenSelecting("subtree=3");
+
+        thenThePlacesAreSelected(1, 3);
+    }
+
+    @Test
+    public void shouldRejectMalformedExpressions() {
+        for (String expression : new String[] { "", " ; ", "ags", "level=a", "level=..", "level=3,..", "typ=", "name=Altona",
+                "unknown=1", "subtree=x" }) {
+            try {
+                PlaceFilter.parse(expression);
+                fail("Accepted: " + expression);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void shouldOnlyParseSelectedLines() throws IOException {
+        whenSelecting("subtree=3");
+
+        for (TabParserEngine engine : TabParserEngine.values()) {
+            PlaceParser placeParser = new PlaceParser(engine);
+            placeParser.setSelection(selection);
+            List<PlaceBean> places = placeParser.readDataFromStream(stream(PLACES));
+            assertEquals(engine.name(), 2, places.size());
+            assertEquals(engine.name(), "Deutschland", places.get(0).getName());
+            assertEquals(engine.name(), "Bremen", places.get(1).getName());
+
+            PlzParser plzParser = new PlzParser(engine);
+            plzParser.setSelection(selection);
+            List<PlzTabBean> postalCodes = plzParser.readDataFromStream(stream(POSTAL_CODES));
+            assertEquals(engine.name(), 1, postalCodes.size());
+            assertEquals(engine.name(), "28195", postalCodes.get(0).getPlz());
+        }
+    }
+
+    private void whenSelecting(String expression) throws IOException {
+        this.selection = PlaceFilter.parse(expression).select(stream(PLACES));
+    }
+
+    private void thenThePlacesAreSelected(int... ids) {
+        assertEquals(ids.length, selection.getPlaceCount());
+        for (int id : ids) {
+            assertTrue("Not selected: " + id, selection.containsPlace(id));
+        }
+    }
+
+    private static InputStream stream(String data) {
+        return new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
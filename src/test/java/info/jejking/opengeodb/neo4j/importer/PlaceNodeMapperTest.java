@@ -16,6 +16,7 @@
 package info.jejking.opengeodb.neo4j.importer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import info.jejking.opengeodb.neo4j.importer.OpenGeoDbProperties.PlaceNodeProperties;
@@ -55,6 +56,26 @@ public class PlaceNodeMapperTest extends AbstractGraphDbTest {
         }
     }
 
+    @Test
+    public void shouldOnlyWriteProjectedColumns() {
+
+        try (Transaction tx = graphDb.beginTx()) {
+            givenAPlaceBean();
+
+            this.placeNodeMapper = new PlaceNodeMapper(PlaceColumn.parse("name,level"));
+            whenTheNodeIsCreated();
+
+            assertEquals(17838, this.placeNode.getProperty(PlaceNodeProperties.LOC_ID.name()));
+            assertEquals("Hamburg", this.placeNode.getProperty(PlaceNodeProperties.NAME.name()));
+            assertEquals(6, this.placeNode.getProperty(PlaceNodeProperties.LEVEL.name()));
+            assertFalse(this.placeNode.hasProperty(PlaceNodeProperties.AGS.name()));
+            assertFalse(this.placeNode.hasProperty(PlaceNodeProperties.LATITUDE.name()));
+            assertFalse(this.placeNode.hasProperty(PlaceNodeProperties.TYPE.name()));
+            assertFalse(this.placeNode.hasLabel(DynamicLabel.label("Freie und Hansestadt")));
+            tx.success();
+        }
+    }
+
     private void thenTheDataMatches() {
         assertEquals(this.placeNode.getProperty(PlaceNodeProperties.LOC_ID.name()), 17838);
         assertEquals(this.placeNode.getProperty(PlaceNodeProperties.AGS.name()), "02000000");
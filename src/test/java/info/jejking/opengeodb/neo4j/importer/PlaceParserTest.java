@@ -19,8 +19,10 @@ import static org.junit.Assert.*;
 
 import info.jejking.opengeodb.neo4j.importer.PlaceParser.PlaceBean;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -47,6 +49,97 @@ public class PlaceParserTest {
         thenTheDataIsAsExpected();
     }
 
+    @Test
+    public void shouldStreamPlaceData() throws IOException {
+        givenExpectedData();
+
+        whenTheStreamIsIterated();
+
+        thenTheDataIsAsExpected();
+    }
+
+    @Test
+    public void shouldParsePlaceDataWithSuperCsv() throws IOException {
+        givenExpectedData();
+
+        this.placeParser = new PlaceParser(TabParserEngine.SUPER_CSV);
+        whenTheStreamIsParsed();
+
+        thenTheDataIsAsExpected();
+    }
+
+    @Test
+    public void shouldSkipBadLines() throws IOException {
+        String data = "header\n"
+                + "1\t\t\tA\t\t\t\t\t\t\t\t\t\t\t\t\n"
+                + "not-a-number\t\t\tB\t\t\t\t\t\t\t\t\t\t\t\t\n"
+                + "3\ttoo\tfew\n"
+                + "4\t\t\tD\tx\t\t\t\t\t\t\t\t\t\t\t\n"
+                + "5\t\t\tE\t\t\t\t\t\t\t\t\t\t\t\t\n";
+
+        for (TabParserEngine engine : TabParserEngine.values()) {
+            List<PlaceBean> places = new PlaceParser(engine).readDataFromStream(new ByteArrayInputStream(data
+                    .getBytes(StandardCharsets.UTF_8)));
+            assertEquals(engine.name(), 2, places.size());
+            assertEquals(engine.name(), "A", places.get(0).getName());
+            assertEquals(engine.name(), "E", places.get(1).getName());
+        }
+    }
+
+    @Test
+    public void shouldShareValuesOfRepetitiveColumns() throws IOException {
+        String data = "header\n"
+                + "1\t02000000\t\tA\t\t\t\t\t040\t\t\tHH\tStadtteil\t8\t\t\n"
+                + "2\t02000000\t\tB\t\t\t\t\t040\t\t\tHH\tStadtteil\t8\t\t\n";
+
+        for (TabParserEngine engine : TabParserEngine.values()) {
+            List<PlaceBean> places = new PlaceParser(engine).readDataFromStream(new ByteArrayInputStream(data
+                    .getBytes(StandardCharsets.UTF_8)));
+            assertEquals(engine.name(), "Stadtteil", places.get(1).getTyp());
+            assertSame(engine.name(), places.get(0).getTyp(), places.get(1).getTyp());
+            assertSame(engine.name(), places.get(0).getKz(), places.get(1).getKz());
+            assertSame(engine.name(), places.get(0).getAgs(), places.get(1).getAgs());
+            assertSame(engine.name(), places.get(0).getVorwahl(), places.get(1).getVorwahl());
+        }
+    }
+
+    @Test
+    public void shouldOnlyDecodeProjectedColumns() throws IOException {
+        String data = "header\n"
+                + "1\t02000000\tA\tA\t53.5\tx\t\t22081,22083\t040\t\t\tHH\tStadtteil\t8\t7\t\n";
+
+        for (TabParserEngine engine : TabParserEngine.values()) {
+            PlaceParser parser = new PlaceParser(engine);
+            parser.setColumns(PlaceColumn.parse("name,lat,plzs,typ,level,of"));
+            List<PlaceBean> places = parser.readDataFromStream(new ByteArrayInputStream(data
+                    .getBytes(StandardCharsets.UTF_8)));
+            assertEquals(engine.name(), 1, places.size());
+            PlaceBean place = places.get(0);
+            assertEquals(engine.name(), 1, place.getId());
+            assertEquals(engine.name(), "A", place.getName());
+            assertEquals(engine.name(), 53.5d, place.getLat(), 0d);
+            assertEquals(engine.name(), "22081,22083", place.getPlzs());
+            assertEquals(engine.name(), "Stadtteil", place.getTyp());
+            assertEquals(engine.name(), 8, place.getLevel());
+            assertEquals(engine.name(), 7, place.getOf());
+            assertNull(engine.name(), place.getAgs());
+            assertNull(engine.name(), place.getAscii());
+            assertNull(engine.name(), place.getVorwahl());
+            assertNull(engine.name(), place.getKz());
+        }
+    }
+
+    private void whenTheStreamIsIterated() throws IOException {
+        InputStream stream = PlaceParserTest.class.getResourceAsStream("/DE.tab.txt");
+        this.actualPlaces = new ArrayList<>();
+        try (CloseableIterator<PlaceBean> iterator = this.placeParser.iterateDataFromStream(stream)) {
+            while (iterator.hasNext()) {
+                this.actualPlaces.add(iterator.next());
+            }
+            assertFalse(iterator.hasNext());
+        }
+    }
+
     private void thenTheDataIsAsExpected() {
         assertNotNull(this.actualPlaces);
         assertEquals(this.expectedPlaces.size(), this.actualPlaces.size());
@@ -21,9 +21,6 @@ import info.jejking.opengeodb.neo4j.importer.PlaceParser.PlaceBean;
 import info.jejking.opengeodb.neo4j.importer.PlaceRelationshipBuilder.Relationships;
 import info.jejking.opengeodb.neo4j.importer.PlzParser.PlzTabBean;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import org.junit.Test;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.DynamicLabel;
@@ -48,8 +45,8 @@ public class PlaceRelationshipBuilderTest extends AbstractGraphDbTest {
     private PlzTabBean plz22085 = plz22085();
     private PlzTabBean plz22081 = plz22081();
 
-    private Map<Integer, Node> placeNodeMap;
-    private Map<String, Node> plzNodeMap;
+    private IntLongHashMap placeNodeIds;
+    private PostalCodeNodeIndex plzNodeIds;
 
     @Test
     public void shouldBuildPlaceRelationships() {
@@ -119,32 +116,33 @@ public class PlaceRelationshipBuilderTest extends AbstractGraphDbTest {
     private void whenThePostalCodeRelationshipsAreBuilt(PlaceBean placeBean) {
         
         PlaceRelationshipBuilder prb = new PlaceRelationshipBuilder();
-        prb.buildPostalCodeRelationships(graphDb, placeNodeMap, plzNodeMap, placeBean);
+        prb.buildPostalCodeRelationships(new PlaceRelationshipBuilder.GraphDbRelationshipWriter(graphDb),
+                placeNodeIds, plzNodeIds, placeBean);
         
     }
 
     private void givenPostalCodes(PlzTabBean... plzBeans) {
-        this.plzNodeMap = new HashMap<>();
+        this.plzNodeIds = new PostalCodeNodeIndex();
 
         PlzNodeMapper plzNodeMapper = new PlzNodeMapper();
  
         for (PlzTabBean plzBean : plzBeans) {
             Node plzNode = plzNodeMapper.createPlzNode(graphDb, plzBean);
-            this.plzNodeMap.put(plzBean.getPlz(), plzNode);
+            this.plzNodeIds.put(plzBean.getPlz(), plzNode.getId());
         }
            
     }
 
     private void givenPlaceNodes(PlaceBean... beans) {
 
-        this.placeNodeMap = new HashMap<>();
+        this.placeNodeIds = new IntLongHashMap();
 
   
         PlaceNodeMapper placeNodeMapper = new PlaceNodeMapper();
    
         for (PlaceBean bean : beans) {
             Node placeNode = placeNodeMapper.createPlaceNode(graphDb, bean);
-            this.placeNodeMap.put(bean.getId(), placeNode);
+            this.placeNodeIds.put(bean.getId(), placeNode.getId());
         }
    
     }
@@ -218,7 +216,8 @@ public class PlaceRelationshipBuilderTest extends AbstractGraphDbTest {
    
         PlaceRelationshipBuilder prb = new PlaceRelationshipBuilder();
  
-        prb.buildPartOfRelationshipForPlace(graphDb, placeNodeMap, place);
+        prb.buildPartOfRelationshipForPlace(new PlaceRelationshipBuilder.GraphDbRelationshipWriter(graphDb),
+                placeNodeIds, place);
         
  
 
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import info.jejking.opengeodb.neo4j.importer.PlaceParser.PlaceBean;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link PlaceStore} and {@link StringDictionary}.
+ * 
+ * @author jejking
+ */
+public class PlaceStoreTest {
+
+    private final PlaceBean hamburg = new PlaceBean(17838, "02000000", "HAMBURG", "Hamburg", 53.554423, 9.994583,
+            null, "22081,22085", "040", 1734830, 755, "HH", "Freie und Hansestadt", 6, 526, null);
+    private final PlaceBean uhlenhorst = new PlaceBean(26808, "02000000", "UHLENHORST", "Uhlenhorst", 53.5714,
+            10.0189, null, "22081", null, 0, 0, "HH", "Stadtteil", 8, 17838, null);
+
+    @Test
+    public void shouldHoldEveryFieldOfEachRow() {
+        // given
+        PlaceStore store = new PlaceStore();
+
+        // when
+        for (int i = 0; i < 2000; i++) {
+            store.add(i % 2 == 0 ? hamburg : uhlenhorst);
+        }
+        store.compact();
+
+        // then
+        assertEquals(2000, store.size());
+        assertEquals(hamburg, store.toBean(0));
+        assertEquals(uhlenhorst, store.toBean(1999));
+        assertEquals(17838, store.getOf(1999));
+        assertNull(store.getVorwahl(1));
+        assertSame(store.getTyp(1), store.getTyp(3));
+    }
+
+    @Test
+    public void shouldMoveCursorFromRowToRow() {
+        // given
+        PlaceStore store = new PlaceStore();
+        store.add(hamburg);
+        store.add(uhlenhorst);
+        PlaceStore.Cursor cursor = store.cursor();
+
+        // then
+        assertTrue(cursor.next());
+        assertEquals("Hamburg", cursor.getName());
+        assertTrue(cursor.next());
+        assertEquals("Uhlenhorst", cursor.getName());
+        assertEquals(8, cursor.getLevel());
+        assertFalse(cursor.next());
+        assertEquals(26808, cursor.moveTo(1).getId());
+    }
+
+    @Test
+    public void shouldDecodeEveryDistinctString() {
+        // given
+        StringDictionary dictionary = new StringDictionary();
+        int[] codes = new int[StringDictionary.DECODED_ENTRIES * 2];
+
+        // when
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = dictionary.encode("Ort " + i + " äöü");
+        }
+        dictionary.encode("Ort 0 äöü");
+        dictionary.compact();
+
+        // then
+        assertEquals(codes.length, dictionary.size());
+        for (int i = 0; i < codes.length; i++) {
+            assertEquals("Ort " + i + " äöü", dictionary.decode(codes[i]));
+        }
+        assertEquals(StringDictionary.NULL, new StringDictionary().encode(null));
+        assertNull(dictionary.decode(StringDictionary.NULL));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotAddToCompactedStore() {
+        PlaceStore store = new PlaceStore();
+        store.add(hamburg);
+        store.compact();
+
+        store.add(uhlenhorst);
+    }
+
+}
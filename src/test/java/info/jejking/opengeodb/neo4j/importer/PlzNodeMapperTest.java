@@ -18,6 +18,10 @@ package info.jejking.opengeodb.neo4j.importer;
 import info.jejking.opengeodb.neo4j.importer.OpenGeoDbProperties.PlzProperties;
 import info.jejking.opengeodb.neo4j.importer.PlzParser.PlzTabBean;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
 import org.junit.Test;
 import org.neo4j.graphdb.DynamicLabel;
 import org.neo4j.graphdb.Label;
@@ -60,6 +64,26 @@ public class PlzNodeMapperTest extends AbstractGraphDbTest {
         
     }
 
+    @Test
+    public void shouldStoreTheCoordinatesOfTheFileUnrounded() throws IOException {
+        for (TabParserEngine engine : TabParserEngine.values()) {
+            // given the first line of the fixture, 5078 01067 13.7210676148814 51.0600336463379 Dresden
+            PlzTabBean dresden;
+            try (InputStream stream = PlzNodeMapperTest.class.getResourceAsStream("/PLZ.tab.txt")) {
+                dresden = new PlzParser(engine).readDataFromStream(stream).get(0);
+            }
+
+            // when
+            Map<String, Object> properties = this.plzMapper.getProperties(dresden);
+
+            // then
+            assertEquals(engine.name(), 13.7210676148814d, properties.get(PlzProperties.LONGITUDE.name()));
+            assertEquals(engine.name(), 51.0600336463379d, properties.get(PlzProperties.LATITUDE.name()));
+            assertEquals(13721068, dresden.getLonMicroDegrees());
+            assertEquals(51060034, dresden.getLatMicroDegrees());
+        }
+    }
+
     private void givenAPlzBean() {
         this.plzBean = new PlzTabBean(5078, "01067", 13.7210676148814d, 51.0600336463379d, "Dresden");
 
@@ -113,8 +137,8 @@ public class PlzNodeMapperTest extends AbstractGraphDbTest {
     private void thenTheDataMatches() {
         assertEquals(this.plzBean.getId(), this.plzNode.getProperty(PlzProperties.LOC_ID.name()));
         assertEquals(this.plzBean.getPlz(), this.plzNode.getProperty(PlzProperties.POSTAL_CODE.name()));
-        assertEquals(this.plzBean.getLat(), this.plzNode.getProperty(PlzProperties.LATITUDE.name()));
-        assertEquals(this.plzBean.getLon(), this.plzNode.getProperty(PlzProperties.LONGITUDE.name()));
+        assertEquals(51.0600336463379d, this.plzNode.getProperty(PlzProperties.LATITUDE.name()));
+        assertEquals(13.7210676148814d, this.plzNode.getProperty(PlzProperties.LONGITUDE.name()));
         assertEquals(this.plzBean.getPlaceName(),
                 this.plzNode.getProperty(PlzProperties.PLACE_NAME.name()));
     }
@@ -48,6 +48,26 @@ public class PlzParserTest {
         thenTheDataIsAsExpected();
     }
 
+    @Test
+    public void shouldStreamPlzData() throws IOException {
+
+        givenExpectedData();
+
+        whenTheStreamIsIterated();
+
+        thenTheDataIsAsExpected();
+    }
+
+    private void whenTheStreamIsIterated() throws IOException {
+        InputStream testDataStream = PlzParserTest.class.getResourceAsStream("/PLZ.tab.txt");
+        this.actualData = new ArrayList<>();
+        try (CloseableIterator<PlzTabBean> iterator = this.parser.iterateDataFromStream(testDataStream)) {
+            while (iterator.hasNext()) {
+                this.actualData.add(iterator.next());
+            }
+        }
+    }
+
     private void thenTheDataIsAsExpected() {
         assertNotNull(this.actualData);
         assertEquals(this.expectedData.size(), this.actualData.size());
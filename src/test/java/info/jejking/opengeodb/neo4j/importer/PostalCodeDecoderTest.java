@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link PostalCodeDecoder}.
+ * 
+ * @author jejking
+ */
+public class PostalCodeDecoderTest {
+
+    @Test
+    public void shouldDecodeCodesOnceEachInFileOrder() {
+        // given
+        PostalCodeDecoder decoder = new PostalCodeDecoder();
+        byte[] line = "4711\t22081,01067, 22083,22081,2208x,01067\tHamburg".getBytes(StandardCharsets.UTF_8);
+
+        // when
+        int[] codes = decoder.decode(line, 5, 41);
+
+        // then
+        assertArrayEquals(new int[] { 22081, 1067, 22083 }, codes);
+        assertEquals("22081,01067,22083", PostalCodeDecoder.format(codes));
+    }
+
+    @Test
+    public void shouldForgetCodesOfPreviousList() {
+        // given
+        PostalCodeDecoder decoder = new PostalCodeDecoder();
+        decoder.decode("22081,22083");
+
+        // when
+        int[] codes = decoder.decode("22083,22085,22081");
+
+        // then
+        assertArrayEquals(new int[] { 22083, 22085, 22081 }, codes);
+    }
+
+    @Test
+    public void shouldShareEmptyList() {
+        // given
+        PostalCodeDecoder decoder = new PostalCodeDecoder();
+
+        // when
+        int[] none = decoder.decode("x,,123456");
+
+        // then
+        assertSame(PostalCodeDecoder.NONE, none);
+        assertSame(PostalCodeDecoder.NONE, decoder.decode((String) null));
+        assertNull(PostalCodeDecoder.format(none));
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Basic test of {@link PostalCodeNodeIndex}.
+ * 
+ * @author jejking
+ */
+public class PostalCodeNodeIndexTest {
+
+    private PostalCodeNodeIndex index = new PostalCodeNodeIndex();
+
+    @Test
+    public void shouldLookUpByTextAndNumber() {
+        assertTrue(index.put("01067", 7L));
+        assertTrue(index.put(99998, 8L));
+
+        assertEquals(7L, index.get("01067"));
+        assertEquals(7L, index.get(" 01067 "));
+        assertEquals(7L, index.get(1067));
+        assertEquals(8L, index.get("99998"));
+        assertEquals(2, index.size());
+        assertEquals(PostalCodeNodeIndex.NOT_FOUND, index.get("22081"));
+    }
+
+    @Test
+    public void shouldIgnoreMalformedCodes() {
+        assertFalse(index.put("1067", 1L));
+        assertFalse(index.put("A1067", 1L));
+        assertEquals(PostalCodeNodeIndex.NOT_FOUND, index.get("123456"));
+        assertEquals(PostalCodeNodeIndex.NOT_FOUND, index.get(-3));
+        assertEquals(0, index.size());
+        assertEquals(2, index.getRejectedCount());
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import info.jejking.opengeodb.neo4j.importer.ProgressReporter.Progress;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link ProgressReporter}.
+ * 
+ * @author jejking
+ */
+public class ProgressReporterTest {
+
+    @Test
+    public void shouldReportShareDoneAndEstimate() throws InterruptedException {
+        final AtomicLong done = new AtomicLong();
+        try (ProgressReporter reporter = new ProgressReporter(0, TimeUnit.SECONDS)) {
+            // given
+            reporter.track("placeNodes", ProgressReporter.BYTES, new Progress() {
+                @Override
+                public long getDone() {
+                    return done.get();
+                }
+
+                @Override
+                public long getTotal() {
+                    return 4000000;
+                }
+            });
+
+            // when
+            Thread.sleep(10);
+            done.set(1000000);
+            String report = reporter.report();
+
+            // then
+            assertTrue(report, report.startsWith("placeNodes: 1.0 of 4.0 MB (25.0%), "));
+            assertTrue(report, report.contains(" MB/s, ETA "));
+            assertFalse(report, report.contains("unknown"));
+        }
+    }
+
+    @Test
+    public void shouldReportThroughputOnlyIfTotalUnknown() {
+        try (ImportMetrics metrics = new ImportMetrics();
+                ProgressReporter reporter = new ProgressReporter(0, TimeUnit.SECONDS)) {
+            // given
+            PhaseMetrics phase = metrics.startPhase("parse");
+            reporter.track(phase, "places", 0);
+
+            // when
+            phase.addItems(12345);
+            String report = reporter.report();
+
+            // then
+            assertTrue(report, report.startsWith("parse: 12,345 places, "));
+            assertTrue(report, report.endsWith(" places/s"));
+
+            reporter.untrack();
+            assertNull(reporter.report());
+        }
+    }
+
+    @Test
+    public void shouldFormatDurations() {
+        assertEquals("0:00:00", ProgressReporter.formatDuration(0));
+        assertEquals("0:01:05", ProgressReporter.formatDuration(65));
+        assertEquals("27:46:40", ProgressReporter.formatDuration(100000));
+    }
+
+}
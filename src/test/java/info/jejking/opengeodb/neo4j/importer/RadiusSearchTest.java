@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertEquals;
+
+import info.jejking.opengeodb.neo4j.importer.OpenGeoDbProperties.PlzProperties;
+import info.jejking.opengeodb.neo4j.importer.PlzParser.PlzTabBean;
+import info.jejking.opengeodb.neo4j.importer.RadiusSearch.Hit;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Basic test of {@link RadiusSearch}.
+ * 
+ * @author jejking
+ */
+public class RadiusSearchTest extends AbstractGraphDbTest {
+
+    private static final Label POSTAL_CODE = DynamicLabel.label(OpenGeoDbProperties.POSTAL_CODE_LABEL);
+    private static final Label PLACE = DynamicLabel.label(OpenGeoDbProperties.PLACE_LABEL);
+
+    private Node dresden;
+
+    @Test
+    public void shouldFindNodesWithinRadiusNearestFirst() {
+        givenPostalCodes();
+
+        try (Transaction tx = graphDb.beginTx()) {
+            RadiusSearch search = new RadiusSearch(graphDb);
+
+            thenTheCodesAreFound(search.findWithin(POSTAL_CODE, dresden, 0d), "01067");
+            thenTheCodesAreFound(search.findWithin(POSTAL_CODE, dresden, 5d), "01067", "01069");
+            thenTheCodesAreFound(search.findWithin(POSTAL_CODE, 51.06d, 13.72d, 400d), "01067", "01069", "20095");
+            thenTheCodesAreFound(search.findWithin(PLACE, dresden, 400d));
+            tx.success();
+        }
+    }
+
+    private void givenPostalCodes() {
+        PlzNodeMapper mapper = new PlzNodeMapper();
+        try (Transaction tx = graphDb.beginTx()) {
+            dresden = mapper.createPlzNode(graphDb, new PlzTabBean(5078, "01067", 13.7210676148814d,
+                    51.0600336463379d, "Dresden"));
+            mapper.createPlzNode(graphDb, new PlzTabBean(5079, "01069", 13.7389066401609d, 51.039558876083d,
+                    "Dresden"));
+            mapper.createPlzNode(graphDb, new PlzTabBean(8001, "20095", 10.0008d, 53.5511d, "Hamburg"));
+            tx.success();
+        }
+    }
+
+    private void thenTheCodesAreFound(List<Hit> hits, String... codes) {
+        assertEquals(codes.length, hits.size());
+        for (int i = 0; i < codes.length; i++) {
+            assertEquals(codes[i], hits.get(i).getNode().getProperty(PlzProperties.POSTAL_CODE.name()));
+        }
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import info.jejking.opengeodb.neo4j.importer.PlaceParser.PlaceBean;
+import info.jejking.opengeodb.neo4j.importer.PlzParser.PlzTabBean;
+import info.jejking.opengeodb.neo4j.importer.ReverseGeocoder.Kind;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Basic test of {@link ReverseGeocoder}, checking its answers against those of a scan over all entries.
+ * 
+ * @author jejking
+ */
+public class ReverseGeocoderTest {
+
+    private ReverseGeocoder geocoder;
+
+    @Test
+    public void shouldFindNearestEntries() {
+        givenRandomEntries();
+
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            double lat = 47d + random.nextDouble() * 8d;
+            double lon = 6d + random.nextDouble() * 9d;
+            assertArrayEquals(scan(lat, lon, 5, Double.MAX_VALUE, null), geocoder.nearest(lat, lon, 5, null));
+            assertArrayEquals(scan(lat, lon, 3, Double.MAX_VALUE, Kind.POSTAL_CODE), geocoder.nearest(lat, lon, 3,
+                    Kind.POSTAL_CODE));
+            assertEquals(scan(lat, lon, 1, Double.MAX_VALUE, Kind.PLACE)[0], geocoder.nearest(lat, lon, Kind.PLACE));
+        }
+    }
+
+    @Test
+    public void shouldFindEntriesWithinRadius() {
+        givenRandomEntries();
+
+        Random random = new Random(11);
+        for (int i = 0; i < 200; i++) {
+            double lat = 47d + random.nextDouble() * 8d;
+            double lon = 6d + random.nextDouble() * 9d;
+            assertArrayEquals(scan(lat, lon, Integer.MAX_VALUE, 15d, null), geocoder.within(lat, lon, 15d, null));
+            assertArrayEquals(scan(lat, lon, Integer.MAX_VALUE, 30d, Kind.PLACE), geocoder.within(lat, lon, 30d,
+                    Kind.PLACE));
+        }
+    }
+
+    @Test
+    public void shouldDescribeEntries() {
+        ReverseGeocoder.Builder builder = new ReverseGeocoder.Builder();
+        builder.addPostalCode(new PlzTabBean(5078, "01067", 13.7210676148814d, 51.0600336463379d, "Dresden"));
+        builder.addPostalCode(new PlzTabBean(5079, "0106x", 13.7389066401609d, 51.039558876083d, "Dresden"));
+        PlaceBean hamburg = new PlaceBean();
+        hamburg.setId(17838);
+        hamburg.setName("Hamburg");
+        hamburg.setLat(53.554423d);
+        hamburg.setLon(9.994583d);
+        builder.addPlace(hamburg);
+        builder.addPlace(new PlaceBean());
+        geocoder = builder.build();
+
+        assertEquals(2, geocoder.size());
+        int dresden = geocoder.nearest(51d, 13.7d, null);
+        assertEquals(Kind.POSTAL_CODE, geocoder.getKind(dresden));
+        assertEquals(5078, geocoder.getLocId(dresden));
+        assertEquals("01067", geocoder.getPostalCode(dresden));
+        assertEquals("Dresden", geocoder.getName(dresden));
+        assertEquals(51.060034d, geocoder.getLat(dresden), 0d);
+        int found = geocoder.nearest(51d, 13.7d, Kind.PLACE);
+        assertEquals(17838, geocoder.getLocId(found));
+        assertNull(geocoder.getPostalCode(found));
+        assertEquals(0d, geocoder.getDistanceKm(found, 53.554423d, 9.994583d), 0d);
+        assertEquals(-1, new ReverseGeocoder.Builder().build().nearest(51d, 13.7d, null));
+    }
+
+    @Test
+    public void shouldReadWhatWasWritten() throws IOException {
+        givenRandomEntries();
+        Path file = Files.createTempFile("geocoder", ".bin");
+        try {
+            geocoder.write(file);
+            ReverseGeocoder read = ReverseGeocoder.read(file);
+
+            assertEquals(geocoder.size(), read.size());
+            for (int entry = 0; entry < geocoder.size(); entry++) {
+                assertEquals(geocoder.getLocId(entry), read.getLocId(entry));
+                assertEquals(geocoder.getPostalCode(entry), read.getPostalCode(entry));
+                assertEquals(geocoder.getName(entry), read.getName(entry));
+                assertEquals(geocoder.getLat(entry), read.getLat(entry), 0d);
+                assertEquals(geocoder.getLon(entry), read.getLon(entry), 0d);
+            }
+            assertArrayEquals(geocoder.nearest(53.5d, 10d, 10, null), read.nearest(53.5d, 10d, 10, null));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectOtherFiles() throws IOException {
+        Path file = Files.createTempFile("geocoder", ".bin");
+        try {
+            Files.write(file, new byte[64]);
+            ReverseGeocoder.read(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private void givenRandomEntries() {
+        Random random = new Random(3);
+        ReverseGeocoder.Builder builder = new ReverseGeocoder.Builder();
+        for (int i = 0; i < 3000; i++) {
+            double lat = 47d + random.nextDouble() * 8d;
+            double lon = 6d + random.nextDouble() * 9d;
+            if (i % 2 == 0) {
+                builder.addPostalCode(new PlzTabBean(i, String.format("%05d", i), lon, lat, "Ort " + i % 100));
+            } else {
+                PlaceBean place = new PlaceBean();
+                place.setId(i);
+                place.setName("Place " + i);
+                place.setLat(lat);
+                place.setLon(lon);
+                builder.addPlace(place);
+            }
+        }
+        geocoder = builder.build();
+    }
+
+    private int[] scan(final double lat, final double lon, int k, double radiusKm, Kind kind) {
+        List<Integer> entries = new ArrayList<>();
+        for (int entry = 0; entry < geocoder.size(); entry++) {
+            if ((kind == null || geocoder.getKind(entry) == kind)
+                    && geocoder.getDistanceKm(entry, lat, lon) <= radiusKm) {
+                entries.add(entry);
+            }
+        }
+        Collections.sort(entries, new Comparator<Integer>() {
+
+            @Override
+            public int compare(Integer first, Integer second) {
+                return Double.compare(geocoder.getDistanceKm(first, lat, lon), geocoder.getDistanceKm(second, lat,
+                        lon));
+            }
+        });
+        int[] nearest = new int[Math.min(k, entries.size())];
+        for (int i = 0; i < nearest.length; i++) {
+            nearest[i] = entries.get(i);
+        }
+        return nearest;
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link StringInterner}.
+ * 
+ * @author jejking
+ */
+public class StringInternerTest {
+
+    @Test
+    public void shouldHandOutOneInstancePerValue() {
+        // given
+        StringInterner interner = new StringInterner();
+        byte[] line = "Landkreis\tStadtteil\tLandkreis\tKreisfreie Stadt\tMünchen".getBytes(StandardCharsets.UTF_8);
+
+        // when
+        String first = interner.intern(line, 0, 9);
+        String second = interner.intern(line, 20, 29);
+        String fromString = interner.intern(new String("Landkreis"));
+
+        // then
+        assertEquals("Landkreis", first);
+        assertSame(first, second);
+        assertSame(first, fromString);
+        assertEquals("Stadtteil", interner.intern(line, 10, 19));
+        assertEquals("München", interner.intern(line, 47, line.length));
+        assertSame(interner.intern("München"), interner.intern(line, 47, line.length));
+        assertEquals(3, interner.size());
+    }
+
+    @Test
+    public void shouldStopAddingWhenFull() {
+        // given
+        StringInterner interner = new StringInterner(2);
+
+        // when
+        interner.intern("a");
+        interner.intern("b");
+        String c = interner.intern(new String("c"));
+
+        // then
+        assertEquals(2, interner.size());
+        assertNotSame(c, interner.intern(new String("c")));
+        assertEquals("c", interner.intern("c"));
+    }
+
+}
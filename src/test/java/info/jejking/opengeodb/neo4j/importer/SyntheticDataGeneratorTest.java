@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import info.jejking.opengeodb.neo4j.importer.PlaceParser.PlaceBean;
+import info.jejking.opengeodb.neo4j.importer.PlzParser.PlzTabBean;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test of {@link SyntheticDataGenerator}.
+ * 
+ * @author jejking
+ */
+public class SyntheticDataGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final SyntheticDataGenerator generator = new SyntheticDataGenerator();
+
+    @Test
+    public void shouldWriteTheSameFilesForTheSameSeed() throws IOException {
+        Path[] first = whenGenerated("first");
+        Path[] second = whenGenerated("second");
+        generator.setSeed(SyntheticDataGenerator.DEFAULT_SEED + 1);
+        Path[] third = whenGenerated("third");
+
+        assertArrayEquals(Files.readAllBytes(first[0]), Files.readAllBytes(second[0]));
+        assertArrayEquals(Files.readAllBytes(first[1]), Files.readAllBytes(second[1]));
+        assertFalse(Arrays.equals(Files.readAllBytes(first[0]), Files.readAllBytes(third[0])));
+    }
+
+    @Test
+    public void shouldWriteAParseableHierarchyWithMalformedLines() throws IOException {
+        generator.setMalformedShare(0.02);
+
+        Path[] files = whenGenerated("data");
+
+        List<PlaceBean> places = new PlaceParser().readDataFromStream(Files.newInputStream(files[0]));
+        List<PlzTabBean> postalCodes = new PlzParser().readDataFromStream(Files.newInputStream(files[1]));
+        assertEquals(generator.getPlaceLines(), places.size());
+        assertEquals(generator.getPostalCodeLines(), postalCodes.size());
+        long lines = Files.readAllLines(files[0], StandardCharsets.UTF_8).size() - 1
+                + Files.readAllLines(files[1], StandardCharsets.UTF_8).size();
+        double share = generator.getMalformedLines() / (double) lines;
+        assertTrue("share of malformed lines was " + share, share > 0.015 && share < 0.025);
+
+        thenEveryParentIsHigherUpAndEveryPostalCodeExists(places, postalCodes);
+    }
+
+    @Test
+    public void shouldCountThePostalCodesHandedOutAgain() throws IOException {
+        generator.setCountries(7);
+
+        Path[] files = whenGenerated("data");
+
+        List<PlzTabBean> postalCodes = new PlzParser().readDataFromStream(Files.newInputStream(files[1]));
+        Set<String> codes = new HashSet<>();
+        for (PlzTabBean postalCode : postalCodes) {
+            codes.add(postalCode.getPlz());
+        }
+        assertTrue(generator.getDuplicatedPostalCodes() > 0);
+        assertEquals(postalCodes.size() - codes.size(), generator.getDuplicatedPostalCodes());
+    }
+
+    private void thenEveryParentIsHigherUpAndEveryPostalCodeExists(List<PlaceBean> places,
+            List<PlzTabBean> postalCodes) {
+        Map<Integer, Integer> rowsById = new HashMap<>();
+        for (int i = 0; i < places.size(); i++) {
+            rowsById.put(places.get(i).getId(), i);
+        }
+        Set<String> codes = new HashSet<>();
+        for (PlzTabBean postalCode : postalCodes) {
+            codes.add(postalCode.getPlz());
+        }
+        int forwardReferences = 0;
+        for (int i = 0; i < places.size(); i++) {
+            PlaceBean place = places.get(i);
+            Integer parentRow = rowsById.get(place.getOf());
+            if (place.getLevel() == 2) {
+                assertEquals(null, parentRow);
+            } else {
+                assertTrue(places.get(parentRow).getLevel() < place.getLevel());
+                if (parentRow > i) {
+                    forwardReferences++;
+                }
+            }
+            if (place.getPlzs() != null) {
+                for (String code : place.getPlzs().split(",")) {
+                    assertTrue(code, codes.contains(code));
+                }
+            }
+        }
+        assertTrue(forwardReferences > 0);
+        assertEquals(0, generator.getDuplicatedPostalCodes());
+    }
+
+    private Path[] whenGenerated(String name) throws IOException {
+        Path placeFile = folder.newFile(name + ".tab").toPath();
+        Path plzFile = folder.newFile(name + "-plz.tab").toPath();
+        generator.generate(placeFile, plzFile);
+        return new Path[] { placeFile, plzFile };
+    }
+
+}
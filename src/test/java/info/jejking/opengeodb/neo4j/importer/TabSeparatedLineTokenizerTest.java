@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 by John E. J. King.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jejking.opengeodb.neo4j.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Basic test of {@link TabSeparatedLineTokenizer}.
+ * 
+ * @author jejking
+ */
+public class TabSeparatedLineTokenizerTest {
+
+    private TabSeparatedLineTokenizer tokenizer;
+
+    @Test
+    public void shouldSplitLinesIntoFields() throws IOException {
+        givenData("1\tBarmbek-Süd\t\t53.5796\r\n\n2\t x \t-7\t 10.03838 ");
+
+        assertTrue(tokenizer.nextLine());
+        assertEquals(1, tokenizer.getLineNumber());
+        assertEquals(4, tokenizer.getFieldCount());
+        assertEquals(1, tokenizer.getInt(0));
+        assertEquals("Barmbek-Süd", tokenizer.getString(1));
+        assertTrue(tokenizer.isEmpty(2));
+        assertNull(tokenizer.getString(2));
+        assertEquals(53.5796d, tokenizer.getDouble(3), 0d);
+
+        assertTrue(tokenizer.nextLine());
+        assertEquals(3, tokenizer.getLineNumber());
+        assertEquals(" x ", tokenizer.getString(1));
+        assertEquals(-7, tokenizer.getInt(2));
+        assertEquals(10.03838d, tokenizer.getDouble(3), 0d);
+
+        assertFalse(tokenizer.nextLine());
+    }
+
+    @Test
+    public void shouldParseDoublesExactly() throws IOException {
+        givenData("13.7210676148814\t51.039558876083\t755\t1.5e3\t12345678901234567890.5");
+        tokenizer.nextLine();
+
+        assertEquals(13.7210676148814d, tokenizer.getDouble(0), 0d);
+        assertEquals(51.039558876083d, tokenizer.getDouble(1), 0d);
+        assertEquals(755d, tokenizer.getDouble(2), 0d);
+        assertEquals(1500d, tokenizer.getDouble(3), 0d);
+        assertEquals(12345678901234567890.5d, tokenizer.getDouble(4), 0d);
+    }
+
+    @Test
+    public void shouldParseCoordinatesToMicroDegrees() throws IOException {
+        givenData("13.7210676148814\t-51.0395585\t 53.5796 \t9\t1.5e-3\t.25");
+        tokenizer.nextLine();
+
+        assertEquals(13721068, tokenizer.getMicroDegrees(0));
+        assertEquals(-51039559, tokenizer.getMicroDegrees(1));
+        assertEquals(53579600, tokenizer.getMicroDegrees(2));
+        assertEquals(53.5796d, Coordinates.toDegrees(tokenizer.getMicroDegrees(2)), 0d);
+        assertEquals(9000000, tokenizer.getMicroDegrees(3));
+        assertEquals(1500, tokenizer.getMicroDegrees(4));
+        assertEquals(250000, tokenizer.getMicroDegrees(5));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void shouldRejectCoordinateOutOfRange() throws IOException {
+        givenData("2147.483648");
+        tokenizer.nextLine();
+        tokenizer.getMicroDegrees(0);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void shouldRejectMalformedInt() throws IOException {
+        givenData("12a");
+        tokenizer.nextLine();
+        tokenizer.getInt(0);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void shouldRejectIntOverflow() throws IOException {
+        givenData("2147483648");
+        tokenizer.nextLine();
+        tokenizer.getInt(0);
+    }
+
+    @Test
+    public void shouldGrowBufferForLongLines() throws IOException {
+        StringBuilder longField = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longField.append("22081,");
+        }
+        tokenizer = new TabSeparatedLineTokenizer(new ByteArrayInputStream((longField + "\tend\nnext")
+                .getBytes(StandardCharsets.UTF_8)), 16);
+
+        assertTrue(tokenizer.nextLine());
+        assertEquals(longField.toString(), tokenizer.getString(0));
+        assertEquals("end", tokenizer.getString(1));
+        assertTrue(tokenizer.nextLine());
+        assertEquals("next", tokenizer.getString(0));
+        assertFalse(tokenizer.nextLine());
+    }
+
+    private void givenData(String data) {
+        tokenizer = new TabSeparatedLineTokenizer(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)));
+    }
+
+}